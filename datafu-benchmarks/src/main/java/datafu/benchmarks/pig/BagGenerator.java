@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.joda.time.DateTime;
+
+/**
+ * Generates synthetic bags for the benchmarks.
+ *
+ * <p>
+ * Keys are drawn from a Zipf distribution over <i>cardinality</i> distinct values.  A skew of 0.0
+ * gives uniformly distributed keys, while larger values concentrate more of the rows on the most
+ * frequent keys (a skew around 1.0 is typical of page views per URL or events per user).
+ * All generators are seeded so that repeated runs see the same data.
+ * </p>
+ */
+public class BagGenerator
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  private static final BagFactory bagFactory = BagFactory.getInstance();
+
+  private final Random random;
+
+  public BagGenerator()
+  {
+    this(42L);
+  }
+
+  public BagGenerator(long seed)
+  {
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Creates a sampler of keys in the range [0,cardinality) following a Zipf distribution.
+   *
+   * @param cardinality number of distinct keys
+   * @param skew Zipf exponent, where 0.0 is uniform
+   * @return key sampler
+   */
+  public KeySampler keySampler(int cardinality, double skew)
+  {
+    return new KeySampler(cardinality, skew, random);
+  }
+
+  /**
+   * Generates a bag of single field tuples holding uniformly distributed doubles in [0,1).
+   *
+   * @param size number of tuples
+   * @return bag
+   */
+  public DataBag doubles(int size) throws ExecException
+  {
+    DataBag bag = bagFactory.newDefaultBag();
+    for (int i=0; i<size; i++)
+    {
+      bag.add(tupleFactory.newTuple(random.nextDouble()));
+    }
+    return bag;
+  }
+
+  /**
+   * Generates a bag of (key:int, value:double) tuples where keys follow a Zipf distribution.
+   *
+   * @param size number of tuples
+   * @param cardinality number of distinct keys
+   * @param skew Zipf exponent, where 0.0 is uniform
+   * @return bag
+   */
+  public DataBag keyed(int size, int cardinality, double skew) throws ExecException
+  {
+    KeySampler sampler = keySampler(cardinality, skew);
+    DataBag bag = bagFactory.newDefaultBag();
+    for (int i=0; i<size; i++)
+    {
+      Tuple t = tupleFactory.newTuple(2);
+      t.set(0, sampler.next());
+      t.set(1, random.nextDouble());
+      bag.add(t);
+    }
+    return bag;
+  }
+
+  /**
+   * Generates a bag of (key:chararray) tuples where keys follow a Zipf distribution.
+   *
+   * @param size number of tuples
+   * @param cardinality number of distinct keys
+   * @param skew Zipf exponent, where 0.0 is uniform
+   * @return bag
+   */
+  public DataBag keyedStrings(int size, int cardinality, double skew) throws ExecException
+  {
+    KeySampler sampler = keySampler(cardinality, skew);
+    DataBag bag = bagFactory.newDefaultBag();
+    for (int i=0; i<size; i++)
+    {
+      bag.add(tupleFactory.newTuple("key" + sampler.next()));
+    }
+    return bag;
+  }
+
+  /**
+   * Generates a bag of distinct (key:int) tuples sorted in ascending order, as required by the set operations.
+   * The keys are drawn without replacement from [0,range).
+   *
+   * @param size number of tuples
+   * @param range size of the key space, which must be at least the bag size
+   * @return bag
+   */
+  public DataBag sortedDistinctInts(int size, int range) throws ExecException
+  {
+    if (range < size)
+    {
+      throw new IllegalArgumentException("Range must be at least the size");
+    }
+
+    int[] keys = new int[size];
+    // Floyd's algorithm to draw distinct keys without materializing the whole range
+    HashSet<Integer> chosen = new HashSet<Integer>(size*2);
+    int k = 0;
+    for (int j=range-size; j<range; j++)
+    {
+      int candidate = random.nextInt(j+1);
+      if (!chosen.add(candidate))
+      {
+        chosen.add(j);
+        candidate = j;
+      }
+      keys[k++] = candidate;
+    }
+    Arrays.sort(keys);
+
+    DataBag bag = bagFactory.newDefaultBag();
+    for (int key : keys)
+    {
+      // cast so the key is not taken as the tuple size
+      bag.add(tupleFactory.newTuple((Object)key));
+    }
+    return bag;
+  }
+
+  /**
+   * Generates a bag of (time, user:int) tuples in ascending time order, as required by the session UDFs.
+   * The gaps between consecutive events are exponentially distributed with the given mean, so sessions
+   * form naturally when the session window is a small multiple of the mean gap.
+   *
+   * @param size number of tuples
+   * @param meanGapMillis mean gap in milliseconds between consecutive events
+   * @param isoStrings if true the time is an ISO-8601 chararray, otherwise epoch millis as a long
+   * @return bag
+   */
+  public DataBag timeSeries(int size, long meanGapMillis, boolean isoStrings) throws ExecException
+  {
+    DataBag bag = bagFactory.newDefaultBag();
+    long time = 1388534400000L; // 2014-01-01T00:00:00Z
+    for (int i=0; i<size; i++)
+    {
+      time += (long)(-Math.log(1.0 - random.nextDouble()) * meanGapMillis);
+      Tuple t = tupleFactory.newTuple(2);
+      if (isoStrings)
+      {
+        t.set(0, new DateTime(time).toString());
+      }
+      else
+      {
+        t.set(0, time);
+      }
+      t.set(1, random.nextInt(1000));
+      bag.add(t);
+    }
+    return bag;
+  }
+
+  /**
+   * Generates a random directed graph as a list of edge lists, one per source node.  The out-degree
+   * of each node is uniform around the mean, while destinations follow a Zipf distribution,
+   * giving the heavy in-degree tail typical of link graphs.
+   *
+   * @param nodeCount number of nodes
+   * @param meanOutDegree mean number of edges per node
+   * @param skew Zipf exponent for the destinations, where 0.0 is uniform
+   * @return for each source node i, the list of its destination node ids
+   */
+  public List<int[]> graph(int nodeCount, int meanOutDegree, double skew)
+  {
+    KeySampler sampler = keySampler(nodeCount, skew);
+
+    // shuffle the ids so that popular destinations are not clustered at the low node ids
+    List<Integer> permutation = new ArrayList<Integer>(nodeCount);
+    for (int i=0; i<nodeCount; i++)
+    {
+      permutation.add(i);
+    }
+    Collections.shuffle(permutation, random);
+
+    List<int[]> graph = new ArrayList<int[]>(nodeCount);
+    for (int i=0; i<nodeCount; i++)
+    {
+      int degree = random.nextInt(2*meanOutDegree+1);
+      int[] dests = new int[degree];
+      for (int j=0; j<degree; j++)
+      {
+        dests[j] = permutation.get(sampler.next());
+      }
+      graph.add(dests);
+    }
+    return graph;
+  }
+
+  /**
+   * Wraps a bag in a tuple, as it would be passed to a UDF.
+   *
+   * @param fields input fields, such as bags
+   * @return input tuple
+   */
+  public static Tuple input(Object... fields) throws ExecException
+  {
+    Tuple t = tupleFactory.newTuple(fields.length);
+    for (int i=0; i<fields.length; i++)
+    {
+      t.set(i, fields[i]);
+    }
+    return t;
+  }
+
+  /**
+   * Samples keys following a Zipf distribution, using a binary search over the precomputed CDF.
+   */
+  public static class KeySampler
+  {
+    private final double[] cdf;
+    private final Random random;
+
+    private KeySampler(int cardinality, double skew, Random random)
+    {
+      if (cardinality <= 0)
+      {
+        throw new IllegalArgumentException("Cardinality must be positive");
+      }
+
+      this.random = random;
+      this.cdf = new double[cardinality];
+      double total = 0.0;
+      for (int i=0; i<cardinality; i++)
+      {
+        total += 1.0 / Math.pow(i+1, skew);
+        cdf[i] = total;
+      }
+      for (int i=0; i<cardinality; i++)
+      {
+        cdf[i] /= total;
+      }
+    }
+
+    public int next()
+    {
+      int index = Arrays.binarySearch(cdf, random.nextDouble());
+      if (index < 0)
+      {
+        index = -index - 1;
+      }
+      return Math.min(index, cdf.length-1);
+    }
+  }
+}
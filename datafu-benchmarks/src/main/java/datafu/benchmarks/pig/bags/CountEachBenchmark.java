@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.bags;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.bags.CountEach;
+
+/**
+ * Measures {@link CountEach} counting the occurrences of skewed keys in a bag.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CountEachBenchmark
+{
+  @Param({"100000"})
+  public int bagSize;
+
+  @Param({"100", "100000"})
+  public int cardinality;
+
+  @Param({"0.0", "1.0"})
+  public double skew;
+
+  private CountEach udf;
+  private Tuple input;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    udf = new CountEach("flatten");
+    input = BagGenerator.input(new BagGenerator().keyedStrings(bagSize, cardinality, skew));
+  }
+
+  @Benchmark
+  public DataBag accumulate() throws Exception
+  {
+    udf.accumulate(input);
+    DataBag result = udf.getValue();
+    udf.cleanup();
+    return result;
+  }
+}
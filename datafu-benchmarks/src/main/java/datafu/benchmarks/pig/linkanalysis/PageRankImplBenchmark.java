@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.linkanalysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.linkanalysis.PageRankImpl;
+
+/**
+ * Measures {@link PageRankImpl} loading a synthetic link graph and running PageRank iterations
+ * over it, with the edges held either in memory, compressed in memory or in the disk cache, on one or more threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PageRankImplBenchmark
+{
+  @Param({"100000"})
+  public int nodeCount;
+
+  @Param({"10"})
+  public int meanOutDegree;
+
+  @Param({"1.0"})
+  public double skew;
+
+  @Param({"false", "true"})
+  public boolean diskCache;
+
+  @Param({"false", "true"})
+  public boolean compressEdges;
+
+  @Param({"1", "4"})
+  public int parallelism;
+
+  private List<ArrayList<Map<String,Object>>> edges;
+  private PageRankImpl graph;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    List<int[]> adjacency = new BagGenerator().graph(nodeCount, meanOutDegree, skew);
+    edges = new ArrayList<ArrayList<Map<String,Object>>>(nodeCount);
+    for (int[] dests : adjacency)
+    {
+      ArrayList<Map<String,Object>> sourceEdges = new ArrayList<Map<String,Object>>(dests.length);
+      for (int dest : dests)
+      {
+        Map<String,Object> edge = new HashMap<String,Object>();
+        edge.put("dest", dest);
+        edge.put("weight", 1.0);
+        sourceEdges.add(edge);
+      }
+      edges.add(sourceEdges);
+    }
+
+    graph = load();
+  }
+
+  private PageRankImpl load() throws Exception
+  {
+    PageRankImpl graph = new PageRankImpl();
+    graph.enableDanglingNodeHandling();
+    graph.setParallelism(parallelism);
+    if (compressEdges)
+    {
+      graph.enableEdgeCompression();
+    }
+    if (diskCache)
+    {
+      graph.enableEdgeDiskCaching();
+      graph.setEdgeCachingThreshold(0);
+    }
+    for (int i=0; i<edges.size(); i++)
+    {
+      graph.addNode(i, edges.get(i));
+    }
+    graph.init();
+    return graph;
+  }
+
+  @Benchmark
+  public PageRankImpl loadGraph() throws Exception
+  {
+    PageRankImpl graph = load();
+    graph.clear();
+    return graph;
+  }
+
+  @Benchmark
+  public float iteration() throws Exception
+  {
+    return graph.nextIteration();
+  }
+}
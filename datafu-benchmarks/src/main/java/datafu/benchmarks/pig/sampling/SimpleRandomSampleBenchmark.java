@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.sampling;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.sampling.SimpleRandomSample;
+
+/**
+ * Measures the algebraic path of {@link SimpleRandomSample}, where each mapper selects and waitlists
+ * items from its partition and the reducer resolves the waitlist.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimpleRandomSampleBenchmark
+{
+  @Param({"100000", "1000000"})
+  public int bagSize;
+
+  @Param({"0.001", "0.1"})
+  public double p;
+
+  @Param({"10"})
+  public int numPartitions;
+
+  private SimpleRandomSample.Intermediate intermediate;
+  private SimpleRandomSample.Final fin;
+  private Tuple[] partitions;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    intermediate = new SimpleRandomSample.Intermediate();
+    fin = new SimpleRandomSample.Final();
+
+    BagGenerator generator = new BagGenerator();
+    partitions = new Tuple[numPartitions];
+    for (int i=0; i<numPartitions; i++)
+    {
+      partitions[i] = BagGenerator.input(generator.keyed(bagSize/numPartitions, bagSize, 0.0), p);
+    }
+  }
+
+  @Benchmark
+  public DataBag algebraic() throws Exception
+  {
+    DataBag partials = BagFactory.getInstance().newDefaultBag();
+    for (Tuple partition : partitions)
+    {
+      // the Initial function keeps a running count of the items it has seen, so each mapper gets its own
+      partials.add(new SimpleRandomSample.Initial().exec(partition));
+    }
+    DataBag combined = BagFactory.getInstance().newDefaultBag();
+    combined.add(intermediate.exec(BagGenerator.input(partials)));
+    return fin.exec(BagGenerator.input(combined));
+  }
+}
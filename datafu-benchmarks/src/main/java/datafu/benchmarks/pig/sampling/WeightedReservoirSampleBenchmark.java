@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.sampling;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.sampling.WeightedReservoirSample;
+
+/**
+ * Measures {@link WeightedReservoirSample} drawing a fixed size sample from a large bag weighted by
+ * its double field, with a score drawn for each tuple (A-Res) or with exponential jumps over the
+ * weight of the tuples skipped (A-ExpJ).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WeightedReservoirSampleBenchmark
+{
+  @Param({"100000", "1000000"})
+  public int bagSize;
+
+  @Param({"100", "1000"})
+  public int numSamples;
+
+  @Param({"10"})
+  public int numPartitions;
+
+  @Param({"false", "true"})
+  public boolean skip;
+
+  private WeightedReservoirSample udf;
+  private WeightedReservoirSample.Initial initial;
+  private WeightedReservoirSample.Intermediate intermediate;
+  private WeightedReservoirSample.Final fin;
+  private Tuple input;
+  private Tuple[] partitions;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    String n = Integer.toString(numSamples);
+    String s = Boolean.toString(skip);
+    udf = new WeightedReservoirSample(n, "1", "skip", s);
+    initial = new WeightedReservoirSample.Initial(n, "1", "skip", s);
+    intermediate = new WeightedReservoirSample.Intermediate(n, "1", "skip", s);
+    fin = new WeightedReservoirSample.Final(n, "1", "skip", s);
+
+    BagGenerator generator = new BagGenerator();
+    input = BagGenerator.input(generator.keyed(bagSize, bagSize, 0.0));
+    partitions = new Tuple[numPartitions];
+    for (int i=0; i<numPartitions; i++)
+    {
+      partitions[i] = BagGenerator.input(generator.keyed(bagSize/numPartitions, bagSize, 0.0));
+    }
+  }
+
+  @Benchmark
+  public DataBag accumulate() throws Exception
+  {
+    udf.accumulate(input);
+    DataBag result = udf.getValue();
+    udf.cleanup();
+    return result;
+  }
+
+  @Benchmark
+  public DataBag algebraic() throws Exception
+  {
+    DataBag partials = BagFactory.getInstance().newDefaultBag();
+    for (Tuple partition : partitions)
+    {
+      partials.add(initial.exec(partition));
+    }
+    DataBag combined = BagFactory.getInstance().newDefaultBag();
+    combined.add(intermediate.exec(BagGenerator.input(partials)));
+    return fin.exec(BagGenerator.input(combined));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.sessions;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.sessions.SessionSummary;
+import datafu.pig.sessions.Sessionize;
+
+/**
+ * Measures {@link Sessionize} over a sorted time series, with the time given either as epoch
+ * millis or as an ISO-8601 string, and with each kind of session ID.  {@link SessionSummary}
+ * is measured over the same input, producing one tuple per session instead of one per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SessionizeBenchmark
+{
+  @Param({"100000"})
+  public int bagSize;
+
+  @Param({"false", "true"})
+  public boolean isoStrings;
+
+  @Param({"60000"})
+  public long meanGapMillis;
+
+  @Param({"30m"})
+  public String sessionWindow;
+
+  @Param({"uuid", "hash", "counter"})
+  public String sessionId;
+
+  private Sessionize udf;
+  private SessionSummary summary;
+  private Tuple input;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    udf = new Sessionize(sessionWindow, "session_id", sessionId);
+    summary = new SessionSummary(sessionWindow, "session_id", sessionId);
+    input = BagGenerator.input(new BagGenerator().timeSeries(bagSize, meanGapMillis, isoStrings));
+  }
+
+  @Benchmark
+  public DataBag accumulate() throws Exception
+  {
+    udf.accumulate(input);
+    DataBag result = udf.getValue();
+    udf.cleanup();
+    return result;
+  }
+
+  @Benchmark
+  public DataBag summarize() throws Exception
+  {
+    summary.accumulate(input);
+    DataBag result = summary.getValue();
+    summary.cleanup();
+    return result;
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.sets;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.sets.SetDifference;
+import datafu.pig.sets.SetIntersect;
+import datafu.pig.sets.UnsortedSetDifference;
+import datafu.pig.sets.UnsortedSetIntersect;
+
+/**
+ * Measures {@link SetIntersect} and {@link SetDifference} over two sorted bags.  The overlap between
+ * the bags is controlled through the size of the key space they are drawn from.  The hash based
+ * {@link UnsortedSetIntersect} and {@link UnsortedSetDifference} are measured over the same bags, although
+ * they would not need them sorted.  The sorted operations are also measured with a Bloom filter pre-filtering
+ * the tuples, which pays off as the overlap shrinks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SetOperationsBenchmark
+{
+  @Param({"10000", "1000000"})
+  public int bagSize;
+
+  /**
+   * Size of the key space relative to the bag size.  At 1 the bags are identical, and the
+   * expected overlap shrinks as the ratio grows.
+   */
+  @Param({"2", "10"})
+  public int keySpaceRatio;
+
+  private SetIntersect intersect;
+  private SetDifference difference;
+  private SetIntersect bloomIntersect;
+  private SetDifference bloomDifference;
+  private UnsortedSetIntersect unsortedIntersect;
+  private UnsortedSetDifference unsortedDifference;
+  private Tuple input;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    intersect = new SetIntersect();
+    difference = new SetDifference();
+    bloomIntersect = new SetIntersect("bloom_filter_fpp", "0.01");
+    bloomDifference = new SetDifference("bloom_filter_fpp", "0.01");
+    unsortedIntersect = new UnsortedSetIntersect();
+    unsortedDifference = new UnsortedSetDifference();
+
+    BagGenerator generator = new BagGenerator();
+    input = BagGenerator.input(generator.sortedDistinctInts(bagSize, bagSize*keySpaceRatio),
+                               generator.sortedDistinctInts(bagSize, bagSize*keySpaceRatio));
+  }
+
+  @Benchmark
+  public DataBag intersect() throws Exception
+  {
+    return intersect.exec(input);
+  }
+
+  @Benchmark
+  public DataBag difference() throws Exception
+  {
+    return difference.exec(input);
+  }
+
+  @Benchmark
+  public DataBag bloomIntersect() throws Exception
+  {
+    return bloomIntersect.exec(input);
+  }
+
+  @Benchmark
+  public DataBag bloomDifference() throws Exception
+  {
+    return bloomDifference.exec(input);
+  }
+
+  @Benchmark
+  public DataBag unsortedIntersect() throws Exception
+  {
+    return unsortedIntersect.exec(input);
+  }
+
+  @Benchmark
+  public DataBag unsortedDifference() throws Exception
+  {
+    return unsortedDifference.exec(input);
+  }
+}
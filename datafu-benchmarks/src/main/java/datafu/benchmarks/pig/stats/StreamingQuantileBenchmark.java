@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.stats;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.stats.StreamingQuantile;
+
+/**
+ * Measures {@link StreamingQuantile} accumulating a bag of doubles and producing the quantiles.  The same
+ * bag is also fed to {@link BoxedQuantileEstimator}, the earlier estimator built on boxed lists, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StreamingQuantileBenchmark
+{
+  @Param({"10000", "1000000"})
+  public int bagSize;
+
+  @Param({"5", "101"})
+  public String numQuantiles;
+
+  private StreamingQuantile udf;
+  private BoxedQuantileEstimator boxedEstimator;
+  private Tuple input;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    udf = new StreamingQuantile(numQuantiles);
+    boxedEstimator = new BoxedQuantileEstimator(Integer.parseInt(numQuantiles));
+    input = BagGenerator.input(new BagGenerator().doubles(bagSize));
+  }
+
+  @Benchmark
+  public Tuple accumulate() throws Exception
+  {
+    udf.accumulate(input);
+    Tuple result = udf.getValue();
+    udf.cleanup();
+    return result;
+  }
+
+  @Benchmark
+  public List<Double> boxedAccumulate() throws Exception
+  {
+    for (Tuple t : (DataBag)input.get(0))
+    {
+      boxedEstimator.add(((Number)t.get(0)).doubleValue());
+    }
+    List<Double> result = boxedEstimator.getQuantiles();
+    boxedEstimator.clear();
+    return result;
+  }
+}
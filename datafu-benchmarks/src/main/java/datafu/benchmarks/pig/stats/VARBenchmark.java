@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.stats;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.stats.DoubleVAR;
+
+/**
+ * Measures the variance UDF on doubles, both through the accumulator and through the
+ * algebraic Initial/Intermediate/Final path used when the combiner is active.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VARBenchmark
+{
+  @Param({"10000", "1000000"})
+  public int bagSize;
+
+  private DoubleVAR udf;
+  private DoubleVAR.Initial initial;
+  private DoubleVAR.Intermediate intermediate;
+  private DoubleVAR.Final fin;
+  private Tuple input;
+  private Tuple[] singletons;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    udf = new DoubleVAR();
+    initial = new DoubleVAR.Initial();
+    intermediate = new DoubleVAR.Intermediate();
+    fin = new DoubleVAR.Final();
+
+    DataBag bag = new BagGenerator().doubles(bagSize);
+    input = BagGenerator.input(bag);
+
+    // the Initial function is called once per input tuple with a single element bag
+    singletons = new Tuple[bagSize];
+    int i = 0;
+    for (Tuple t : bag)
+    {
+      DataBag singleton = BagFactory.getInstance().newDefaultBag();
+      singleton.add(t);
+      singletons[i++] = BagGenerator.input(singleton);
+    }
+  }
+
+  @Benchmark
+  public Double accumulate() throws Exception
+  {
+    udf.accumulate(input);
+    Double result = udf.getValue();
+    udf.cleanup();
+    return result;
+  }
+
+  @Benchmark
+  public Double algebraic() throws Exception
+  {
+    DataBag partials = BagFactory.getInstance().newDefaultBag();
+    for (Tuple singleton : singletons)
+    {
+      partials.add(initial.exec(singleton));
+    }
+    DataBag combined = BagFactory.getInstance().newDefaultBag();
+    combined.add(intermediate.exec(BagGenerator.input(partials)));
+    return fin.exec(BagGenerator.input(combined));
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.bags.BagGroup;
+import datafu.pig.util.AliasableEvalFunc;
+import datafu.pig.util.FieldAccessor;
+
+/**
+ * Measures the per tuple cost of reading fields of an {@link AliasableEvalFunc} by alias, compared with
+ * resolving the aliases once to a {@link FieldAccessor}, along with {@link BagGroup} which uses the accessors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AliasableEvalFuncBenchmark
+{
+  private static final String BAG = "data";
+
+  @Param({"100000"})
+  public int bagSize;
+
+  @Param({"1000"})
+  public int cardinality;
+
+  private SumByAlias sumByAlias;
+  private SumByAccessor sumByAccessor;
+  private BagGroup bagGroup;
+  private Tuple input;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    Schema tupleSchema = new Schema();
+    tupleSchema.add(new Schema.FieldSchema("key", DataType.INTEGER));
+    tupleSchema.add(new Schema.FieldSchema("value", DataType.DOUBLE));
+    Schema inputSchema = new Schema(new Schema.FieldSchema(BAG, tupleSchema, DataType.BAG));
+
+    sumByAlias = new SumByAlias();
+    sumByAlias.setUDFContextSignature("sumByAlias");
+    sumByAlias.outputSchema(inputSchema);
+
+    sumByAccessor = new SumByAccessor();
+    sumByAccessor.setUDFContextSignature("sumByAccessor");
+    sumByAccessor.outputSchema(inputSchema);
+
+    Schema groupInputSchema = new Schema(inputSchema);
+    groupInputSchema.add(new Schema.FieldSchema("keys",
+                                                new Schema(new Schema.FieldSchema("key", DataType.INTEGER)),
+                                                DataType.BAG));
+    bagGroup = new BagGroup();
+    bagGroup.setUDFContextSignature("bagGroup");
+    bagGroup.outputSchema(groupInputSchema);
+
+    input = BagGenerator.input(new BagGenerator().keyed(bagSize, cardinality, 1.0));
+  }
+
+  @Benchmark
+  public Double alias() throws Exception
+  {
+    return sumByAlias.exec(input);
+  }
+
+  @Benchmark
+  public Double accessor() throws Exception
+  {
+    return sumByAccessor.exec(input);
+  }
+
+  @Benchmark
+  public DataBag bagGroup() throws Exception
+  {
+    return bagGroup.exec(input);
+  }
+
+  /**
+   * Sums the values of the tuples whose key is even, looking up each field by alias for every tuple.
+   */
+  public static class SumByAlias extends AliasableEvalFunc<Double>
+  {
+    @Override
+    public Double exec(Tuple input) throws IOException
+    {
+      String keyAlias = getPrefixedAliasName(BAG, "key");
+      String valueAlias = getPrefixedAliasName(BAG, "value");
+      double sum = 0.0;
+      for (Tuple t : getBag(input, BAG))
+      {
+        if (getInteger(t, keyAlias) % 2 == 0)
+        {
+          sum += getDouble(t, valueAlias);
+        }
+      }
+      return sum;
+    }
+
+    @Override
+    public Schema getOutputSchema(Schema input)
+    {
+      return new Schema(new Schema.FieldSchema("sum", DataType.DOUBLE));
+    }
+  }
+
+  /**
+   * Computes the same sum as {@link SumByAlias}, resolving the aliases once per call.
+   */
+  public static class SumByAccessor extends AliasableEvalFunc<Double>
+  {
+    @Override
+    public Double exec(Tuple input) throws IOException
+    {
+      FieldAccessor key = getFieldAccessor(BAG, "key");
+      FieldAccessor value = getFieldAccessor(BAG, "value");
+      double sum = 0.0;
+      for (Tuple t : getFieldAccessor(BAG).getBag(input))
+      {
+        if (key.getInteger(t) % 2 == 0)
+        {
+          sum += value.getDouble(t);
+        }
+      }
+      return sum;
+    }
+
+    @Override
+    public Schema getOutputSchema(Schema input)
+    {
+      return new Schema(new Schema.FieldSchema("sum", DataType.DOUBLE));
+    }
+  }
+}
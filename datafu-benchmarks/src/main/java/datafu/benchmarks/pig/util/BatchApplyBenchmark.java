@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.geo.HaversineDistInMiles;
+import datafu.pig.util.BatchApply;
+
+/**
+ * Measures {@link BatchApply} applying {@link HaversineDistInMiles} to a bag of coordinates, compared with
+ * calling exec for each tuple of the bag as a nested FOREACH does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchApplyBenchmark
+{
+  @Param({"100000"})
+  public int bagSize;
+
+  private HaversineDistInMiles udf;
+  private BatchApply batchApply;
+  private DataBag coordinates;
+  private Tuple input;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    udf = new HaversineDistInMiles();
+    batchApply = new BatchApply(HaversineDistInMiles.class.getName());
+
+    Random random = new Random(42L);
+    coordinates = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<bagSize; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(4);
+      t.set(0, random.nextDouble()*180.0 - 90.0);
+      t.set(1, random.nextDouble()*360.0 - 180.0);
+      t.set(2, random.nextDouble()*180.0 - 90.0);
+      t.set(3, random.nextDouble()*360.0 - 180.0);
+      coordinates.add(t);
+    }
+    input = BagGenerator.input(coordinates);
+  }
+
+  @Benchmark
+  public DataBag perTuple() throws Exception
+  {
+    DataBag output = BagFactory.getInstance().newDefaultBag();
+    for (Tuple t : coordinates)
+    {
+      output.add(TupleFactory.getInstance().newTuple(udf.exec(t)));
+    }
+    return output;
+  }
+
+  @Benchmark
+  public DataBag batched() throws Exception
+  {
+    return batchApply.exec(input);
+  }
+}
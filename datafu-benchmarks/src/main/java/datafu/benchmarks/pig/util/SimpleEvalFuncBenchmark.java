@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.benchmarks.pig.util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import datafu.benchmarks.pig.BagGenerator;
+import datafu.pig.util.SimpleEvalFunc;
+
+/**
+ * Measures the per row overhead of {@link SimpleEvalFunc} dispatching to <code>call()</code>.
+ *
+ * <p>
+ * The UDF does very little work, so the cost is mostly the dispatch.  It is compared with calling
+ * <code>call()</code> directly, and with the dispatch as it was before the parameter types were cached,
+ * which looked them up and allocated the array of arguments for every row.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimpleEvalFuncBenchmark
+{
+  private Repeat udf;
+  private Method call;
+  private Tuple input;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    udf = new Repeat();
+    for (Method method : Repeat.class.getMethods())
+    {
+      if (method.getName().equals("call"))
+      {
+        call = method;
+      }
+    }
+    input = BagGenerator.input("abc", 3);
+  }
+
+  @Benchmark
+  public String direct() throws Exception
+  {
+    return udf.call((String)input.get(0), (Integer)input.get(1));
+  }
+
+  @Benchmark
+  public String exec() throws Exception
+  {
+    return udf.exec(input);
+  }
+
+  @Benchmark
+  public String uncached() throws Exception
+  {
+    return (String)uncachedExec(udf, call, input);
+  }
+
+  /**
+   * The dispatch of {@link SimpleEvalFunc#exec(Tuple)} before the parameter types were cached.
+   */
+  private static Object uncachedExec(Object udf, Method m, Tuple input) throws IOException
+  {
+    Class<?>[] pvec = m.getParameterTypes();
+
+    if (input == null || input.size() == 0)
+      return null;
+
+    if (input.size() != pvec.length)
+      throw new IOException("wrong number of arguments");
+
+    Object[] args = new Object[input.size()];
+    for (int i=0; i < pvec.length; i++) {
+      Object o = input.get(i);
+      try {
+        o = pvec[i].cast(o);
+      }
+      catch (ClassCastException e) {
+        throw new IOException("argument type mismatch");
+      }
+      args[i] = o;
+    }
+
+    try {
+      return m.invoke(udf, args);
+    }
+    catch (Exception e) {
+      throw new IOException("caught exception processing input.", e);
+    }
+  }
+
+  /**
+   * Returns the first character of a string repeated a number of times.
+   */
+  public static class Repeat extends SimpleEvalFunc<String>
+  {
+    public String call(String s, Integer times)
+    {
+      if (s == null || s.isEmpty() || times == null) return null;
+      char[] chars = new char[times];
+      Arrays.fill(chars, s.charAt(0));
+      return new String(chars);
+    }
+  }
+}
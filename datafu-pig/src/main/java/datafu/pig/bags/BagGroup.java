@@ -37,6 +37,7 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
 
 import datafu.pig.util.AliasableEvalFunc;
+import datafu.pig.util.FieldAccessor;
 
 /**
  * Performs an in-memory group operation on a bag.  The first argument is the bag.
@@ -63,6 +64,7 @@ public class BagGroup extends AliasableEvalFunc<DataBag>
 {
   private final String FIELD_NAMES_PROPERTY = "FIELD_NAMES";
   private List<String> fieldNames;
+  private FieldAccessor[] keyFields;
   
   @Override
   public Schema getOutputSchema(Schema input)
@@ -128,7 +130,6 @@ public class BagGroup extends AliasableEvalFunc<DataBag>
     }
   }
   
-  Map<Tuple, List<Tuple>> groups = new HashMap<Tuple, List<Tuple>>();
   TupleFactory tupleFactory = TupleFactory.getInstance();
   BagFactory bagFactory = BagFactory.getInstance();
 
@@ -136,13 +137,21 @@ public class BagGroup extends AliasableEvalFunc<DataBag>
   @Override
   public DataBag exec(Tuple input) throws IOException
   {
-    fieldNames = (List<String>)getInstanceProperties().get(FIELD_NAMES_PROPERTY);
+    if (keyFields == null) {
+      // resolve the aliases of the group keys once, rather than for every tuple
+      fieldNames = (List<String>)getInstanceProperties().get(FIELD_NAMES_PROPERTY);
+      keyFields = new FieldAccessor[fieldNames.size()];
+      for (int i=0; i<keyFields.length; i++) {
+        keyFields[i] = getFieldAccessor(fieldNames.get(i));
+      }
+    }
     
     DataBag inputBag = (DataBag)input.get(0);    
     
+    Map<Tuple, List<Tuple>> groups = new HashMap<Tuple, List<Tuple>>();
     for (Tuple tuple : inputBag) {
       Tuple key = extractKey(tuple);
-      addGroup(key, tuple);
+      addGroup(groups, key, tuple);
     }
     
     DataBag outputBag = bagFactory.newDefaultBag();
@@ -165,14 +174,14 @@ public class BagGroup extends AliasableEvalFunc<DataBag>
   }
   
   private Tuple extractKey(Tuple tuple) throws ExecException {
-    Tuple key = tupleFactory.newTuple();
-    for (String field : fieldNames) {
-      key.append(getObject(tuple, field));
+    Tuple key = tupleFactory.newTuple(keyFields.length);
+    for (int i=0; i<keyFields.length; i++) {
+      key.set(i, keyFields[i].getObject(tuple));
     }
     return key;
   }
   
-  private void addGroup(Tuple key, Tuple value) {
+  private void addGroup(Map<Tuple, List<Tuple>> groups, Tuple key, Tuple value) {
     if (!groups.containsKey(key)) {
       groups.put(key, new LinkedList<Tuple>());
     }
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+/**
+ * Performs an in-memory inner join across multiple bags.  Only keys found in every bag are output.
+ * 
+ * <p>
+ * The format for invocation is BagInnerJoin(bag, 'key',....), as for {@link BagLeftOuterJoin}.  
+ * The <em>key</em> that is expected is the alias of the key inside of the preceding bag.
+ * </p> 
+ * 
+ * <p>
+ * Example:
+ * <code>
+ * define BagInnerJoin datafu.pig.bags.BagInnerJoin();
+ * 
+ * -- describe data: 
+ * -- data: {bag1: {(key1: chararray,value1: chararray)},bag2: {(key2: chararray,value2: int)}} 
+ * 
+ * bag_joined = FOREACH data GENERATE BagInnerJoin(bag1, 'key1', bag2, 'key2') as joined;
+ * 
+ * -- describe bag_joined:
+ * -- bag_joined: {joined: {(bag1::key1: chararray, bag1::value1: chararray, bag2::key2: chararray, bag2::value2: int)}} 
+ * </code>
+ * </p>
+ * 
+ * <p>
+ * When the bags are sorted by their keys, BagInnerJoin('join_strategy','merge') merges them instead of building hash tables.
+ * See {@link BagJoinBase} for details.
+ * </p>
+ */
+public class BagInnerJoin extends BagJoinBase
+{
+  public BagInnerJoin() {
+    super(JoinType.INNER);
+  }
+  
+  public BagInnerJoin(String... parameters) {
+    super(JoinType.INNER, parameters);
+  }
+}
@@ -0,0 +1,491 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
+
+import datafu.pig.util.AliasableEvalFunc;
+import datafu.pig.util.FieldAccessor;
+
+/**
+ * Base class for in-memory joins across multiple bags, such as {@link BagLeftOuterJoin}.
+ *
+ * <p>
+ * The format for invocation is Join(bag, 'key',....), where each <em>key</em> is the alias of the key inside of
+ * the preceding bag.  All the bags are joined on the same key.  The output tuples hold the fields of each bag in turn,
+ * with nulls in place of a bag which has no tuple for the key.
+ * </p>
+ *
+ * <p>
+ * Two join strategies are available, chosen by passing 'join_strategy' and its value to the constructor:
+ * </p>
+ *
+ * <ul>
+ *   <li>'hash' (the default) builds a hash table of each bag but the first, then probes them with the tuples of the
+ *   first bag in turn.  The output follows the order of the first bag.</li>
+ *   <li>'merge' requires each bag to be sorted by its key, for example with a nested ORDER BY.  The bags are read
+ *   together in key order, and only the tuples for the current key are held in memory.  The output is in key
+ *   order.</li>
+ * </ul>
+ *
+ * <p>
+ * Both strategies treat null keys as equal to each other.
+ * </p>
+ *
+ * @see BagLeftOuterJoin
+ * @see BagInnerJoin
+ * @see BagFullOuterJoin
+ */
+public abstract class BagJoinBase extends AliasableEvalFunc<DataBag>
+{
+  private static final String BAG_NAMES_PROPERTY = "BagLeftOuterJoin_BAG_NAMES";
+  private static final String BAG_NAME_TO_JOIN_PREFIX_PROPERTY = "BagLeftOuterJoin_BAG_NAME_TO_JOIN_PREFIX";
+  private static final String BAG_NAME_TO_SIZE_PROPERTY = "BagLeftOuterJoin_BAG_NAME_TO_SIZE_PROPERTY";
+
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  /**
+   * Which tuples a join outputs for a key which is missing from some of the bags.
+   */
+  protected enum JoinType
+  {
+    /**
+     * Output the tuples of the first bag, with nulls for the bags missing the key.
+     */
+    LEFT,
+    /**
+     * Only output keys found in every bag.
+     */
+    INNER,
+    /**
+     * Output every key, with nulls for the bags missing it.
+     */
+    FULL
+  }
+
+  private final JoinType joinType;
+  private final boolean merge;
+
+  ArrayList<String> bagNames;
+  Map<String, String> bagNameToJoinKeyPrefix;
+  Map<String, Integer> bagNameToSize;
+
+  protected BagJoinBase(JoinType joinType, String... parameters)
+  {
+    if (parameters.length % 2 != 0)
+    {
+      throw new IllegalArgumentException("Invalid parameters list");
+    }
+
+    boolean merge = false;
+    for (int i=0; i<parameters.length; i+=2)
+    {
+      String parameterName = parameters[i];
+      String value = parameters[i+1];
+      if (parameterName.equals("join_strategy"))
+      {
+        if (value.equals("merge"))
+        {
+          merge = true;
+        }
+        else if (!value.equals("hash"))
+        {
+          throw new IllegalArgumentException("join_strategy must be 'hash' or 'merge'");
+        }
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + parameterName);
+      }
+    }
+
+    this.joinType = joinType;
+    this.merge = merge;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void retrieveContextValues()
+  {
+    Properties properties = getInstanceProperties();
+    bagNames = (ArrayList<String>) properties.get(BAG_NAMES_PROPERTY);
+    bagNameToJoinKeyPrefix = (Map<String, String>) properties.get(BAG_NAME_TO_JOIN_PREFIX_PROPERTY);
+    bagNameToSize = (Map<String, Integer>) properties.get(BAG_NAME_TO_SIZE_PROPERTY);
+  }
+
+  /**
+   * Assembles the output tuples from a group of tuples of each bag.  An empty group stands for a single tuple of
+   * nulls.  The groups are reused by the caller, so the output tuples are created straight away.
+   */
+  class JoinCollector
+  {
+    final DataBag outputBag = BagFactory.getInstance().newDefaultBag();
+    final int[] nullSizes;
+    final List<List<Tuple>> groups;
+    final Tuple[] current;
+
+    JoinCollector(int[] nullSizes)
+    {
+      this.nullSizes = nullSizes;
+      this.groups = new ArrayList<List<Tuple>>(nullSizes.length);
+      for (int i=0; i<nullSizes.length; i++)
+      {
+        groups.add(null);
+      }
+      this.current = new Tuple[nullSizes.length];
+    }
+
+    /**
+     * Outputs the cross product of the groups, one group per bag.
+     */
+    void join(List<List<Tuple>> groups) throws ExecException
+    {
+      join(groups, 0);
+    }
+
+    private void join(List<List<Tuple>> groups, int bag) throws ExecException
+    {
+      if (bag == groups.size())
+      {
+        outputBag.add(joinedTuple());
+        return;
+      }
+      List<Tuple> group = groups.get(bag);
+      if (group == null || group.isEmpty())
+      {
+        current[bag] = null;
+        join(groups, bag + 1);
+      }
+      else
+      {
+        for (Tuple t : group)
+        {
+          current[bag] = t;
+          join(groups, bag + 1);
+        }
+      }
+    }
+
+    private Tuple joinedTuple() throws ExecException
+    {
+      int size = 0;
+      for (int i=0; i<current.length; i++)
+      {
+        size += current[i] == null ? nullSizes[i] : current[i].size();
+      }
+
+      Tuple joined = tupleFactory.newTuple(size);
+      int position = 0;
+      for (int i=0; i<current.length; i++)
+      {
+        if (current[i] == null)
+        {
+          position += nullSizes[i];
+        }
+        else
+        {
+          for (int j=0; j<current[i].size(); j++)
+          {
+            joined.set(position++, current[i].get(j));
+          }
+        }
+      }
+      return joined;
+    }
+  }
+
+  @Override
+  public DataBag exec(Tuple input) throws IOException
+  {
+    retrieveContextValues();
+
+    int bagCount = bagNames.size();
+    DataBag[] bags = new DataBag[bagCount];
+    FieldAccessor[] keys = new FieldAccessor[bagCount];
+    int[] nullSizes = new int[bagCount];
+    for (int i = 0; i < bagCount; i++) {
+      String bagName = bagNames.get(i);
+      bags[i] = getFieldAccessor(bagName).getBag(input);
+      if (bags[i] == null) throw new IOException("Error in instance: "+getInstanceName()
+              + " with properties: " + getInstanceProperties()
+              + " and tuple: " + input.toDelimitedString(", ")
+              + " -- Expected bag, got null");
+
+      // resolve the key alias once, rather than for every tuple
+      keys[i] = getFieldAccessor(bagNameToJoinKeyPrefix.get(bagName), (String)input.get(2*i + 1));
+
+      Integer size = bagNameToSize.get(bagName);
+      nullSizes[i] = size == null ? 0 : size;
+    }
+
+    JoinCollector collector = new JoinCollector(nullSizes);
+    if (merge) {
+      mergeJoin(bags, keys, collector);
+    }
+    else {
+      hashJoin(bags, keys, collector);
+    }
+    return collector.outputBag;
+  }
+
+  /**
+   * Builds a hash table of each bag but the first, then probes them with each tuple of the first bag.  For a full
+   * outer join, the keys which were not probed are output afterward in the order they were first found.
+   */
+  private void hashJoin(DataBag[] bags, FieldAccessor[] keys, JoinCollector collector) throws IOException
+  {
+    int bagCount = bags.length;
+    List<Map<Object, List<Tuple>>> tables = new ArrayList<Map<Object, List<Tuple>>>(bagCount);
+    tables.add(null);
+    for (int i = 1; i < bagCount; i++) {
+      tables.add(buildTable(bags[i], keys[i]));
+    }
+
+    List<List<Tuple>> groups = collector.groups;
+    List<Tuple> leftGroup = new ArrayList<Tuple>(1);
+    leftGroup.add(null);
+    groups.set(0, leftGroup);
+
+    Set<Object> probed = joinType == JoinType.FULL ? new HashSet<Object>() : null;
+
+    for (Tuple left : bags[0]) {
+      Object key = keys[0].getObject(left);
+      if (probed != null) {
+        probed.add(key);
+      }
+      leftGroup.set(0, left);
+
+      boolean matched = true;
+      for (int i = 1; i < bagCount; i++) {
+        List<Tuple> group = tables.get(i).get(key);
+        groups.set(i, group);
+        matched &= group != null;
+      }
+      if (matched || joinType != JoinType.INNER) {
+        collector.join(groups);
+      }
+    }
+
+    if (probed != null) {
+      groups.set(0, null);
+      for (int i = 1; i < bagCount; i++) {
+        for (Object key : tables.get(i).keySet()) {
+          if (probed.add(key)) {
+            for (int j = 1; j < bagCount; j++) {
+              groups.set(j, tables.get(j).get(key));
+            }
+            collector.join(groups);
+          }
+        }
+      }
+    }
+  }
+
+  private Map<Object, List<Tuple>> buildTable(DataBag bag, FieldAccessor key) throws ExecException
+  {
+    Map<Object, List<Tuple>> table = new LinkedHashMap<Object, List<Tuple>>();
+    for (Tuple tuple : bag) {
+      Object keyValue = key.getObject(tuple);
+      List<Tuple> group = table.get(keyValue);
+      if (group == null) {
+        group = new ArrayList<Tuple>(2);
+        table.put(keyValue, group);
+      }
+      group.add(tuple);
+    }
+    return table;
+  }
+
+  /**
+   * Reads the bags together in key order, collecting the tuples of each bag for one key at a time.
+   */
+  private void mergeJoin(DataBag[] bags, FieldAccessor[] keys, JoinCollector collector) throws IOException
+  {
+    int bagCount = bags.length;
+    List<SortedBagReader> readers = new ArrayList<SortedBagReader>(bagCount);
+    for (int i = 0; i < bagCount; i++) {
+      readers.add(new SortedBagReader(bags[i].iterator(), keys[i]));
+      collector.groups.set(i, new ArrayList<Tuple>());
+    }
+
+    while (true) {
+      Object key = null;
+      if (joinType == JoinType.FULL) {
+        // the lowest key of any bag
+        boolean found = false;
+        for (SortedBagReader reader : readers) {
+          if (reader.hasNext() && (!found || DataType.compare(reader.key, key) < 0)) {
+            key = reader.key;
+            found = true;
+          }
+        }
+        if (!found) {
+          break;
+        }
+      }
+      else {
+        // only the keys of the first bag can be output
+        if (!readers.get(0).hasNext()) {
+          break;
+        }
+        key = readers.get(0).key;
+      }
+
+      boolean matched = true;
+      for (int i = 0; i < bagCount; i++) {
+        List<Tuple> group = collector.groups.get(i);
+        readers.get(i).readGroup(key, group);
+        matched &= !group.isEmpty();
+      }
+      if (matched || joinType != JoinType.INNER) {
+        collector.join(collector.groups);
+      }
+    }
+  }
+
+  /**
+   * Reads a bag which is sorted by its key, one group of tuples with the same key at a time.
+   */
+  private static class SortedBagReader
+  {
+    private final Iterator<Tuple> it;
+    private final FieldAccessor keyField;
+    private Tuple next;
+    private Object key;
+
+    SortedBagReader(Iterator<Tuple> it, FieldAccessor keyField) throws ExecException
+    {
+      this.it = it;
+      this.keyField = keyField;
+      advance();
+    }
+
+    boolean hasNext()
+    {
+      return next != null;
+    }
+
+    /**
+     * Skips the tuples with a lower key, then collects the tuples with the given key.
+     */
+    void readGroup(Object groupKey, List<Tuple> group) throws IOException
+    {
+      group.clear();
+      while (next != null) {
+        int cmp = DataType.compare(key, groupKey);
+        if (cmp > 0) {
+          break;
+        }
+        if (cmp == 0) {
+          group.add(next);
+        }
+        advance();
+      }
+    }
+
+    private void advance() throws ExecException
+    {
+      Object lastKey = key;
+      boolean started = next != null;
+      if (it.hasNext()) {
+        next = it.next();
+        key = keyField.getObject(next);
+        // the algorithm assumes the bag is sorted by the key
+        if (started && DataType.compare(lastKey, key) > 0) {
+          throw new RuntimeException("Out of order! Expected bag to be sorted by key, but found " + key + " after " + lastKey);
+        }
+      }
+      else {
+        next = null;
+      }
+    }
+  }
+
+  @Override
+  public Schema getOutputSchema(Schema input)
+  {
+    ArrayList<String> bagNames = new ArrayList<String>(input.size() / 2);
+    Map<String, String> bagNameToJoinPrefix = new HashMap<String, String>(input.size() / 2);
+    Map<String, Integer> bagNameToSize = new HashMap<String, Integer>(input.size() / 2);
+    Schema outputSchema = null;
+    Schema bagSchema = new Schema();
+    try {
+      int i = 0;
+      // all even fields should be bags, odd fields are key names
+      String bagName = null;
+      String tupleName = null;
+      for (FieldSchema outerField : input.getFields()) {
+        if (i++ % 2 == 1)
+          continue;
+        bagName = outerField.alias;
+        bagNames.add(bagName);
+        if (bagName == null)
+          bagName = "null";
+        if (outerField.schema == null)
+          throw new RuntimeException("Expected input format of (bag, 'field') pairs. "
+              +"Did not receive a bag at index: "+i+", alias: "+bagName+". "
+              +"Instead received type: "+DataType.findTypeName(outerField.type)+" in schema:"+input.toString());
+        FieldSchema tupleField = outerField.schema.getField(0);
+        tupleName = tupleField.alias;
+        bagNameToJoinPrefix.put(bagName, getPrefixedAliasName(outerField.alias, tupleName));
+        if (tupleField.schema == null) {
+          log.error(String.format("could not get schema for inner tuple %s in bag %s", tupleName, bagName));
+        } else {
+          bagNameToSize.put(bagName, tupleField.schema.size());
+          for (FieldSchema innerField : tupleField.schema.getFields()) {
+            String innerFieldName = innerField.alias;
+            if (innerFieldName == null)
+              innerFieldName = "null";
+            String outputFieldName = bagName + "::" + innerFieldName;
+            bagSchema.add(new FieldSchema(outputFieldName, innerField.type));
+          }
+        }
+      }
+      outputSchema = new Schema(new Schema.FieldSchema("joined", bagSchema, DataType.BAG));
+      log.debug("output schema: "+outputSchema.toString());
+    } catch (FrontendException e) {
+      e.printStackTrace();
+      throw new RuntimeException(e);
+    }
+    Properties properties = getInstanceProperties();
+    properties.put(BAG_NAMES_PROPERTY, bagNames);
+    properties.put(BAG_NAME_TO_JOIN_PREFIX_PROPERTY, bagNameToJoinPrefix);
+    properties.put(BAG_NAME_TO_SIZE_PROPERTY, bagNameToSize);
+    return outputSchema;
+  }
+}
@@ -19,9 +19,15 @@
 
 package datafu.pig.bags;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
 
 import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.data.BagFactory;
@@ -56,11 +62,34 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * } 
  * </pre>
  * </p>
+ * 
+ * <p>
+ * The counts are kept in a hash table of at most 'max_tuples_in_memory' distinct tuples, which defaults to 1M.  
+ * When the table is full its counts are sorted by tuple and spilled to disk, and the table starts over.  The spilled 
+ * counts are merged when the output is generated, which is then sorted by tuple.  The budget can be set along 
+ * with 'flatten' or on its own:
+ * </p>
+ * 
+ * <pre>
+ * {@code
+ * DEFINE CountEach datafu.pig.bags.CountEach('max_tuples_in_memory','100000');
+ * DEFINE CountEachFlatten datafu.pig.bags.CountEach('flatten','max_tuples_in_memory','100000');
+ * }
+ * </pre>
  */
 public class CountEach extends AccumulatorEvalFunc<DataBag>
 {
+  private static final BagFactory bagFactory = BagFactory.getInstance();
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  
+  private static final int DEFAULT_MAX_TUPLES_IN_MEMORY = 1000000;
+  private static final int PROGRESS_INTERVAL = 1024;
+  
   private boolean flatten = false;
-  private Map<Tuple, Integer> counts = new HashMap<Tuple, Integer>();
+  private int maxTuplesInMemory = DEFAULT_MAX_TUPLES_IN_MEMORY;
+  private final Object2IntOpenHashMap<Tuple> counts = new Object2IntOpenHashMap<Tuple>();
+  private final List<DataBag> spilledCounts = new ArrayList<DataBag>();
+  private int tuplesSinceProgress;
   
   public CountEach() {
     
@@ -71,6 +100,24 @@ public class CountEach extends AccumulatorEvalFunc<DataBag>
       flatten = true;
     }
   }
+  
+  public CountEach(String... args) {
+    for (int i=0; i<args.length; i++) {
+      if (args[i].toLowerCase().equals("flatten")) {
+        flatten = true;
+      }
+      else if (args[i].equals("max_tuples_in_memory") && i+1 < args.length) {
+        maxTuplesInMemory = Integer.parseInt(args[++i]);
+      }
+      else {
+        throw new IllegalArgumentException("Unknown parameter: " + args[i]);
+      }
+    }
+    
+    if (maxTuplesInMemory < 1) {
+      throw new IllegalArgumentException("max_tuples_in_memory must be positive");
+    }
+  }
 
   @Override
   public void accumulate(Tuple input) throws IOException
@@ -79,29 +126,54 @@ public class CountEach extends AccumulatorEvalFunc<DataBag>
     if (inputBag == null) throw new IllegalArgumentException("Expected a bag, got null");
     
     for (Tuple tuple : inputBag) {
-      if (!counts.containsKey(tuple)) {
-        counts.put(tuple, 0);
+      counts.addTo(tuple, 1);
+      if (counts.size() >= maxTuplesInMemory) {
+        spill();
       }
-      counts.put(tuple, counts.get(tuple)+1);
+      reportProgress();
     }
   }
 
   @Override
   public DataBag getValue()
   {
-    DataBag output = BagFactory.getInstance().newDefaultBag();
-    for (Tuple tuple : counts.keySet()) {
-      Tuple outputTuple = null;
-      Tuple innerTuple = TupleFactory.getInstance().newTuple(tuple.getAll());
-      if (flatten) {        
-        innerTuple.append(counts.get(tuple));
-        outputTuple = innerTuple;
-      } else {
-        outputTuple = TupleFactory.getInstance().newTuple();
-        outputTuple.append(innerTuple);
-        outputTuple.append(counts.get(tuple));
+    DataBag output = bagFactory.newDefaultBag();
+    
+    if (spilledCounts.isEmpty()) {
+      for (Object2IntMap.Entry<Tuple> e : counts.object2IntEntrySet()) {
+        output.add(outputTuple(e.getKey(), e.getIntValue()));
+      }
+      return output;
+    }
+    
+    // merge the sorted runs of counts, adding up the counts of equal tuples
+    try {
+      PriorityQueue<Run> runs = new PriorityQueue<Run>(spilledCounts.size() + 1);
+      for (DataBag spilled : spilledCounts) {
+        Iterator<Tuple> it = spilled.iterator();
+        if (it.hasNext()) runs.add(new Run(it));
+      }
+      Iterator<Tuple> inMemory = sortedCounts().iterator();
+      if (inMemory.hasNext()) runs.add(new Run(inMemory));
+      
+      while (!runs.isEmpty()) {
+        Run run = runs.poll();
+        Tuple tuple = run.tuple;
+        int count = run.count;
+        if (run.next()) runs.add(run);
+        
+        while (!runs.isEmpty() && runs.peek().tuple.compareTo(tuple) == 0) {
+          run = runs.poll();
+          count += run.count;
+          if (run.next()) runs.add(run);
+        }
+        
+        output.add(outputTuple(tuple, count));
+        reportProgress();
       }
-      output.add(outputTuple);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
     }
 
     return output;
@@ -111,6 +183,99 @@ public class CountEach extends AccumulatorEvalFunc<DataBag>
   public void cleanup()
   {
     counts.clear();
+    for (DataBag spilled : spilledCounts) {
+      spilled.clear();
+    }
+    spilledCounts.clear();
+  }
+  
+  private Tuple outputTuple(Tuple tuple, int count)
+  {
+    Tuple innerTuple = tupleFactory.newTuple(tuple.getAll());
+    if (flatten) {
+      innerTuple.append(count);
+      return innerTuple;
+    } else {
+      Tuple outputTuple = tupleFactory.newTuple();
+      outputTuple.append(innerTuple);
+      outputTuple.append(count);
+      return outputTuple;
+    }
+  }
+  
+  /**
+   * Gets the counts held in memory as (tuple, count) pairs sorted by tuple.
+   */
+  private List<Tuple> sortedCounts()
+  {
+    Tuple[] tuples = counts.keySet().toArray(new Tuple[counts.size()]);
+    Arrays.sort(tuples);
+    
+    List<Tuple> sorted = new ArrayList<Tuple>(tuples.length);
+    for (Tuple tuple : tuples) {
+      sorted.add(tupleFactory.newTuple(Arrays.asList(tuple, counts.getInt(tuple))));
+    }
+    return sorted;
+  }
+  
+  /**
+   * Writes the counts held in memory to disk, sorted by tuple, and empties the table.
+   */
+  private void spill()
+  {
+    DataBag spilled = bagFactory.newDefaultBag(sortedCounts());
+    spilled.spill();
+    spilledCounts.add(spilled);
+    counts.clear();
+  }
+  
+  /**
+   * Reports progress every so many tuples.
+   */
+  private void reportProgress()
+  {
+    if (++tuplesSinceProgress >= PROGRESS_INTERVAL) {
+      tuplesSinceProgress = 0;
+      if (reporter != null) {
+        reporter.progress();
+      }
+    }
+  }
+  
+  /**
+   * A sorted run of (tuple, count) pairs, ordered by its current tuple.
+   */
+  private static class Run implements Comparable<Run>
+  {
+    private final Iterator<Tuple> it;
+    private Tuple tuple;
+    private int count;
+    
+    public Run(Iterator<Tuple> it) throws IOException
+    {
+      this.it = it;
+      next();
+    }
+    
+    /**
+     * Advances to the next pair.
+     * 
+     * @return false if the run is exhausted
+     */
+    public boolean next() throws IOException
+    {
+      if (!it.hasNext()) return false;
+      Tuple pair = it.next();
+      tuple = (Tuple)pair.get(0);
+      count = (Integer)pair.get(1);
+      return true;
+    }
+
+    @Override
+    public int compareTo(Run o)
+    {
+      return tuple.compareTo(o.tuple);
+    }
   }
   
   @Override
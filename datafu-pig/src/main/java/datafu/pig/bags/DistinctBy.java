@@ -20,7 +20,10 @@
 package datafu.pig.bags;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
 
 import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.backend.executionengine.ExecException;
@@ -32,6 +35,8 @@ import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import datafu.pig.util.TupleFingerprint;
+
 /**
  * Get distinct elements in a bag by a given set of field positions.
  * The input and output schemas will be identical.  
@@ -57,18 +62,83 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * } 
  * </pre>
  * 
- * @param map Any number of strings specifying field positions
+ * <p>
+ * By default the distinct fields of each tuple are copied into a new tuple which is kept in a hash set.  Passing 
+ * 'fingerprint_bits' with the value '64' or '128' instead keeps a fingerprint of the fields in a primitive hash set, 
+ * computed directly from the input tuple.  This avoids allocating anything per tuple and takes 8 or 16 bytes per 
+ * distinct key, but two keys with the same fingerprint are treated as equal.  With 64 bits a collision is 
+ * likely to occur somewhere once there are billions of keys.  With 128 bits it is negligible.  Passing '0' keeps 
+ * the exact keys, which never collide.
+ * </p>
+ * 
+ * <p>
+ * At most 'max_keys_in_memory' keys, 1M by default, are held in memory.  Once that many have been seen, tuples 
+ * whose key is not among them are written to a sorted bag, which Pig spills to disk as needed.  The first tuple 
+ * for each key is picked out of this bag when the output is generated, and these follow the tuples already output, 
+ * so the order is still preserved.
+ * </p>
+ * 
+ * <pre>
+ * {@code
+ * define DistinctBy datafu.pig.bags.DistinctBy('0','fingerprint_bits','64','max_keys_in_memory','100000');
+ * }
+ * </pre>
+ * 
+ * @param map Any number of strings specifying field positions, followed by name/value pairs of parameters
  */
 public class DistinctBy extends AccumulatorEvalFunc<DataBag>
 {
-  private HashSet<Integer> fields = new HashSet<Integer>();
+  private static final int DEFAULT_MAX_KEYS_IN_MEMORY = 1000000;
+  
+  private final int[] positions;
+  private final int fingerprintBits;
+  private final int maxKeysInMemory;
+  
   private HashSet<Tuple> seen = new HashSet<Tuple>();
+  private FingerprintSet seenFingerprints;
   private DataBag outputBag;
   
+  // tuples whose key was not seen while the keys fit in memory, each as (key..., index, tuple)
+  private DataBag overflowBag;
+  private long index;
+  
   public DistinctBy(String... fields)
   {
-    for(String field : fields) {
-      this.fields.add(Integer.parseInt(field));
+    TreeSet<Integer> positions = new TreeSet<Integer>();
+    int fingerprintBits = 0;
+    int maxKeysInMemory = DEFAULT_MAX_KEYS_IN_MEMORY;
+    for (int i=0; i<fields.length; i++) {
+      String field = fields[i];
+      if (field.matches("\\d+")) {
+        positions.add(Integer.parseInt(field));
+      }
+      else if (i+1 < fields.length && field.equals("fingerprint_bits")) {
+        fingerprintBits = Integer.parseInt(fields[++i]);
+      }
+      else if (i+1 < fields.length && field.equals("max_keys_in_memory")) {
+        maxKeysInMemory = Integer.parseInt(fields[++i]);
+      }
+      else {
+        throw new IllegalArgumentException("Unknown parameter: " + field);
+      }
+    }
+    
+    if (fingerprintBits != 0 && fingerprintBits != 64 && fingerprintBits != 128) {
+      throw new IllegalArgumentException("fingerprint_bits must be 0, 64 or 128");
+    }
+    if (maxKeysInMemory < 1) {
+      throw new IllegalArgumentException("max_keys_in_memory must be positive");
+    }
+    
+    this.positions = new int[positions.size()];
+    int i = 0;
+    for (int position : positions) {
+      this.positions[i++] = position;
+    }
+    this.fingerprintBits = fingerprintBits;
+    this.maxKeysInMemory = maxKeysInMemory;
+    if (fingerprintBits > 0) {
+      this.seenFingerprints = new FingerprintSet(fingerprintBits);
     }
     cleanup();
   }
@@ -85,11 +155,31 @@ public class DistinctBy extends AccumulatorEvalFunc<DataBag>
     
     DataBag inputBag = (DataBag)input.get(0);
     for (Tuple t : inputBag) {
-      Tuple distinctFieldTuple = getDistinctFieldTuple(t, this.fields);
-      if (!seen.contains(distinctFieldTuple)) {
-        outputBag.add(t);
-        seen.add(distinctFieldTuple);
+      if (seenFingerprints != null) {
+        long fp1 = TupleFingerprint.fingerprint1(t, positions);
+        long fp2 = fingerprintBits == 128 ? TupleFingerprint.fingerprint2(t, positions) : 0;
+        if (seenFingerprints.size() < maxKeysInMemory) {
+          if (seenFingerprints.add(fp1, fp2)) {
+            outputBag.add(t);
+          }
+        }
+        else if (!seenFingerprints.contains(fp1, fp2)) {
+          overflow(fingerprintBits == 128 ? Arrays.asList((Object)fp1, fp2, index, t) 
+                                          : Arrays.asList((Object)fp1, index, t));
+        }
       }
+      else {
+        Tuple distinctFieldTuple = getDistinctFieldTuple(t, positions);
+        if (seen.size() < maxKeysInMemory) {
+          if (seen.add(distinctFieldTuple)) {
+            outputBag.add(t);
+          }
+        }
+        else if (!seen.contains(distinctFieldTuple)) {
+          overflow(Arrays.asList((Object)distinctFieldTuple, index, t));
+        }
+      }
+      index++;
     }
   }
 
@@ -97,15 +187,75 @@ public class DistinctBy extends AccumulatorEvalFunc<DataBag>
   public void cleanup()
   {
     seen.clear();
+    if (seenFingerprints != null) {
+      seenFingerprints.clear();
+    }
+    if (overflowBag != null) {
+      overflowBag.clear();
+      overflowBag = null;
+    }
+    index = 0;
     outputBag = BagFactory.getInstance().newDefaultBag();
   }
 
   @Override
   public DataBag getValue()
   {
+    if (overflowBag != null) {
+      try {
+        addFirstOverflowTuples();
+      }
+      catch (ExecException e) {
+        throw new RuntimeException(e);
+      }
+    }
     return outputBag;
   }
   
+  private void overflow(List<Object> record)
+  {
+    if (overflowBag == null) {
+      overflowBag = BagFactory.getInstance().newSortedBag(null);
+    }
+    overflowBag.add(TupleFactory.getInstance().newTuple(record));
+  }
+  
+  /**
+   * Adds the first tuple for each key in the overflow bag to the output.  The overflow bag is sorted by key and then 
+   * by index, so the first tuple for each key is the first of each run of equal keys.  These are then sorted by 
+   * index to restore the input order.
+   */
+  private void addFirstOverflowTuples() throws ExecException
+  {
+    int keyWidth = fingerprintBits == 128 ? 2 : 1;
+    
+    DataBag firstTuples = BagFactory.getInstance().newSortedBag(null);
+    Tuple lastRecord = null;
+    for (Tuple record : overflowBag) {
+      if (lastRecord == null || !sameKey(record, lastRecord, keyWidth)) {
+        firstTuples.add(TupleFactory.getInstance().newTuple(Arrays.asList(record.get(keyWidth), record.get(keyWidth+1))));
+      }
+      lastRecord = record;
+    }
+    overflowBag.clear();
+    overflowBag = null;
+    
+    for (Tuple first : firstTuples) {
+      outputBag.add((Tuple)first.get(1));
+    }
+    firstTuples.clear();
+  }
+  
+  private static boolean sameKey(Tuple a, Tuple b, int keyWidth) throws ExecException
+  {
+    for (int i=0; i<keyWidth; i++) {
+      if (!a.get(i).equals(b.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
   @Override
   public Schema outputSchema(Schema input)
   {
@@ -147,14 +297,15 @@ public class DistinctBy extends AccumulatorEvalFunc<DataBag>
     }
   }
   
-  private Tuple getDistinctFieldTuple(Tuple t, HashSet<Integer> distinctFieldPositions) throws ExecException {
-    Tuple fieldTuple = TupleFactory.getInstance().newTuple(distinctFieldPositions.size());
+  private Tuple getDistinctFieldTuple(Tuple t, int[] distinctFieldPositions) throws ExecException {
+    Tuple fieldTuple = TupleFactory.getInstance().newTuple(distinctFieldPositions.length);
     int idx = 0;
-    for(int i=0; i<t.size(); i++) {
-      if (distinctFieldPositions.contains(i)) {
-        fieldTuple.set(idx, t.get(i));
-        idx++;
+    for (int position : distinctFieldPositions) {
+      if (position >= t.size()) {
+        break;
       }
+      fieldTuple.set(idx, t.get(position));
+      idx++;
     }
     return fieldTuple;
   }
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import java.util.Arrays;
+
+/**
+ * A set of 64 or 128 bit fingerprints of tuple fields, as computed by 
+ * {@link datafu.pig.util.TupleFingerprint}, used by {@link DistinctBy}.
+ *
+ * <p>
+ * The fingerprints are kept in a primitive open addressing table with linear probing, one or two longs per slot, so
+ * adding a fingerprint does not allocate.  A slot of all zero words is empty, so a fingerprint of all zeros is stored
+ * as 1 instead.
+ * </p>
+ */
+class FingerprintSet
+{
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final int width;
+  private long[] table;
+  private int mask;
+  private int size;
+  private int maxSize;
+
+  /**
+   * @param bits size of the fingerprints, 64 or 128
+   */
+  public FingerprintSet(int bits)
+  {
+    if (bits != 64 && bits != 128)
+    {
+      throw new IllegalArgumentException("Fingerprints must be 64 or 128 bits");
+    }
+    this.width = bits / 64;
+    allocate(INITIAL_CAPACITY);
+  }
+
+  public int getBits()
+  {
+    return width * 64;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Adds a fingerprint.  The second word is ignored for 64 bit fingerprints.
+   *
+   * @return true if the fingerprint was not already in the set
+   */
+  public boolean add(long fp1, long fp2)
+  {
+    if (width == 1)
+    {
+      fp2 = 0;
+    }
+    if (fp1 == 0 && fp2 == 0)
+    {
+      fp1 = 1;
+    }
+
+    int slot = (int)(fp1 ^ (fp1 >>> 32)) & mask;
+    while (true)
+    {
+      int i = slot * width;
+      long w1 = table[i];
+      long w2 = width == 1 ? 0 : table[i+1];
+      if (w1 == 0 && w2 == 0)
+      {
+        table[i] = fp1;
+        if (width == 2)
+        {
+          table[i+1] = fp2;
+        }
+        if (++size > maxSize)
+        {
+          rehash();
+        }
+        return true;
+      }
+      if (w1 == fp1 && w2 == fp2)
+      {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Tests whether a fingerprint is in the set.  The second word is ignored for 64 bit fingerprints.
+   */
+  public boolean contains(long fp1, long fp2)
+  {
+    if (width == 1)
+    {
+      fp2 = 0;
+    }
+    if (fp1 == 0 && fp2 == 0)
+    {
+      fp1 = 1;
+    }
+
+    int slot = (int)(fp1 ^ (fp1 >>> 32)) & mask;
+    while (true)
+    {
+      int i = slot * width;
+      long w1 = table[i];
+      long w2 = width == 1 ? 0 : table[i+1];
+      if (w1 == fp1 && w2 == fp2)
+      {
+        return true;
+      }
+      if (w1 == 0 && w2 == 0)
+      {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  public void clear()
+  {
+    if (table.length > INITIAL_CAPACITY * width)
+    {
+      allocate(INITIAL_CAPACITY);
+    }
+    else
+    {
+      Arrays.fill(table, 0L);
+    }
+    size = 0;
+  }
+
+  private void allocate(int capacity)
+  {
+    table = new long[capacity * width];
+    mask = capacity - 1;
+    maxSize = (int)(capacity * LOAD_FACTOR);
+  }
+
+  private void rehash()
+  {
+    long[] old = table;
+    allocate(2 * (mask + 1));
+    size = 0;
+    for (int i=0; i<old.length; i+=width)
+    {
+      if (old[i] != 0 || (width == 2 && old[i+1] != 0))
+      {
+        add(old[i], width == 1 ? 0 : old[i+1]);
+      }
+    }
+  }
+}
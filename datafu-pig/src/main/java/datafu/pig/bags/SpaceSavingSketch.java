@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A mergeable heavy hitters sketch based on the Space-Saving algorithm, used by {@link TopKFrequent}.
+ *
+ * <p>
+ * The algorithm is described in: A. Metwally, D. Agrawal, A. El Abbadi, Efficient Computation of Frequent and
+ * Top-k Elements in Data Streams, ICDT 2005.  Merging follows: M. Cafaro, M. Pulimeno, P. Tempesta, A parallel
+ * space saving algorithm for frequent items and the Hurwitz zeta distribution, Information Sciences 2016.
+ * </p>
+ *
+ * <p>
+ * The sketch monitors at most a fixed number of tuples, each with a count and an error.  A monitored tuple has its
+ * count incremented.  Otherwise, if the sketch is full, the tuple with the lowest count is replaced, and the new tuple
+ * takes over its count plus one, with the old count as its error.  The count of a tuple therefore overestimates its
+ * true frequency by at most its error, and the error is at most n/capacity for n tuples added.  Any tuple with a
+ * true frequency above n/capacity is guaranteed to be monitored.
+ * </p>
+ *
+ * <p>
+ * Two sketches are merged by adding up the counts of each tuple.  A tuple missing from a full sketch is given that
+ * sketch's lowest count, both as count and as error, since that bounds how often it could have been seen there.
+ * The tuples with the highest counts are then kept.  The bounds above still hold for the merged sketch.
+ * </p>
+ *
+ * <p>
+ * The lowest count is found with a binary min-heap of the slots, so adding a tuple takes O(log capacity) time.
+ * </p>
+ */
+class SpaceSavingSketch
+{
+  public static final int DEFAULT_CAPACITY = 1000;
+
+  private static final byte SERIAL_VERSION = 1;
+  private static final InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+  private final int capacity;
+  private final Tuple[] items;
+  private final long[] counts;
+  private final long[] errors;
+  private final Object2IntOpenHashMap<Tuple> slots;
+
+  // min-heap of slots ordered by count, and the position of each slot within it
+  private final int[] heap;
+  private final int[] heapPositions;
+
+  private int size;
+  private long total;
+
+  public SpaceSavingSketch()
+  {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public SpaceSavingSketch(int capacity)
+  {
+    if (capacity < 1)
+    {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.items = new Tuple[capacity];
+    this.counts = new long[capacity];
+    this.errors = new long[capacity];
+    this.heap = new int[capacity];
+    this.heapPositions = new int[capacity];
+    this.slots = new Object2IntOpenHashMap<Tuple>();
+    this.slots.defaultReturnValue(-1);
+  }
+
+  public int getCapacity()
+  {
+    return capacity;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /**
+   * @return number of tuples added, including those merged in from other sketches
+   */
+  public long getTotal()
+  {
+    return total;
+  }
+
+  /**
+   * Adds one occurrence of a tuple.
+   *
+   * @param item tuple
+   */
+  public void add(Tuple item)
+  {
+    total++;
+
+    int slot = slots.getInt(item);
+    if (slot >= 0)
+    {
+      counts[slot]++;
+      siftDown(heapPositions[slot]);
+    }
+    else if (size < capacity)
+    {
+      set(size, item, 1, 0);
+      heap[size] = size;
+      heapPositions[size] = size;
+      size++;
+      siftUp(size - 1);
+    }
+    else
+    {
+      // replace the tuple with the lowest count, which is at the top of the heap
+      slot = heap[0];
+      long min = counts[slot];
+      slots.remove(items[slot]);
+      set(slot, item, min + 1, min);
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Merges another sketch into this one.
+   *
+   * @param other sketch to merge
+   */
+  public void merge(SpaceSavingSketch other)
+  {
+    if (other.isEmpty())
+    {
+      total += other.total;
+      return;
+    }
+
+    long thisMin = getMinCount();
+    long otherMin = other.getMinCount();
+
+    int mergedSize = size + other.size;
+    Tuple[] mergedItems = new Tuple[mergedSize];
+    long[] mergedCounts = new long[mergedSize];
+    long[] mergedErrors = new long[mergedSize];
+
+    int n = 0;
+    for (int slot=0; slot<size; slot++)
+    {
+      int otherSlot = other.slots.getInt(items[slot]);
+      mergedItems[n] = items[slot];
+      if (otherSlot >= 0)
+      {
+        mergedCounts[n] = counts[slot] + other.counts[otherSlot];
+        mergedErrors[n] = errors[slot] + other.errors[otherSlot];
+      }
+      else
+      {
+        mergedCounts[n] = counts[slot] + otherMin;
+        mergedErrors[n] = errors[slot] + otherMin;
+      }
+      n++;
+    }
+    for (int otherSlot=0; otherSlot<other.size; otherSlot++)
+    {
+      if (!slots.containsKey(other.items[otherSlot]))
+      {
+        mergedItems[n] = other.items[otherSlot];
+        mergedCounts[n] = other.counts[otherSlot] + thisMin;
+        mergedErrors[n] = other.errors[otherSlot] + thisMin;
+        n++;
+      }
+    }
+
+    // keep the tuples with the highest counts
+    Integer[] order = sortByCountDescending(mergedCounts, n);
+
+    slots.clear();
+    size = 0;
+    for (int i=0; i<Math.min(n, capacity); i++)
+    {
+      int j = order[i];
+      set(size, mergedItems[j], mergedCounts[j], mergedErrors[j]);
+      heap[size] = size;
+      heapPositions[size] = size;
+      size++;
+    }
+    for (int i=size/2 - 1; i>=0; i--)
+    {
+      siftDown(i);
+    }
+    Arrays.fill(items, size, capacity, null);
+
+    total += other.total;
+  }
+
+  /**
+   * Gets the slots of the tuples with the highest counts.
+   *
+   * @param k maximum number of slots to return
+   * @return slots ordered by count, highest first
+   */
+  public int[] getTop(int k)
+  {
+    Integer[] order = sortByCountDescending(counts, size);
+    int[] top = new int[Math.min(k, size)];
+    for (int i=0; i<top.length; i++)
+    {
+      top[i] = order[i];
+    }
+    return top;
+  }
+
+  public Tuple getItem(int slot)
+  {
+    return items[slot];
+  }
+
+  /**
+   * @return upper bound on the frequency of the tuple in the slot
+   */
+  public long getCount(int slot)
+  {
+    return counts[slot];
+  }
+
+  /**
+   * @return maximum amount by which the count of the tuple in the slot overestimates its frequency
+   */
+  public long getError(int slot)
+  {
+    return errors[slot];
+  }
+
+  public void clear()
+  {
+    slots.clear();
+    Arrays.fill(items, null);
+    size = 0;
+    total = 0;
+  }
+
+  public byte[] toBytes() throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 32*size);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(SERIAL_VERSION);
+    out.writeInt(capacity);
+    out.writeLong(total);
+    out.writeInt(size);
+    for (int slot=0; slot<size; slot++)
+    {
+      out.writeLong(counts[slot]);
+      out.writeLong(errors[slot]);
+      sedes.writeDatum(out, items[slot]);
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  public static SpaceSavingSketch fromBytes(byte[] bytes) throws IOException
+  {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    byte version = in.readByte();
+    if (version != SERIAL_VERSION)
+    {
+      throw new IOException("Unsupported sketch version: " + version);
+    }
+
+    SpaceSavingSketch sketch = new SpaceSavingSketch(in.readInt());
+    sketch.total = in.readLong();
+    int size = in.readInt();
+    for (int slot=0; slot<size; slot++)
+    {
+      long count = in.readLong();
+      long error = in.readLong();
+      sketch.set(slot, (Tuple)sedes.readDatum(in), count, error);
+      sketch.heap[slot] = slot;
+      sketch.heapPositions[slot] = slot;
+    }
+    sketch.size = size;
+    for (int i=size/2 - 1; i>=0; i--)
+    {
+      sketch.siftDown(i);
+    }
+    return sketch;
+  }
+
+  /**
+   * Gets the lowest count if the sketch is full, which bounds the frequency of any tuple which is not monitored.
+   */
+  private long getMinCount()
+  {
+    return size < capacity ? 0 : counts[heap[0]];
+  }
+
+  private void set(int slot, Tuple item, long count, long error)
+  {
+    items[slot] = item;
+    counts[slot] = count;
+    errors[slot] = error;
+    slots.put(item, slot);
+  }
+
+  private static Integer[] sortByCountDescending(final long[] counts, int n)
+  {
+    Integer[] order = new Integer[n];
+    for (int i=0; i<n; i++)
+    {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b)
+      {
+        long ca = counts[a];
+        long cb = counts[b];
+        return ca < cb ? 1 : (ca > cb ? -1 : 0);
+      }
+    });
+    return order;
+  }
+
+  private void siftUp(int pos)
+  {
+    int slot = heap[pos];
+    while (pos > 0)
+    {
+      int parent = (pos - 1) >>> 1;
+      if (counts[heap[parent]] <= counts[slot])
+      {
+        break;
+      }
+      move(heap[parent], pos);
+      pos = parent;
+    }
+    move(slot, pos);
+  }
+
+  private void siftDown(int pos)
+  {
+    int slot = heap[pos];
+    while (true)
+    {
+      int child = 2*pos + 1;
+      if (child >= size)
+      {
+        break;
+      }
+      if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]])
+      {
+        child++;
+      }
+      if (counts[heap[child]] >= counts[slot])
+      {
+        break;
+      }
+      move(heap[child], pos);
+      pos = child;
+    }
+    move(slot, pos);
+  }
+
+  private void move(int slot, int pos)
+  {
+    heap[pos] = slot;
+    heapPositions[slot] = pos;
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.bags;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import datafu.pig.util.PassThroughInitial;
+
+/**
+ * Finds the most frequent tuples in a bag, approximately, using a fixed amount of memory.
+ *
+ * <p>
+ * Unlike {@link CountEach}, which holds a count for every distinct tuple, this UDF keeps a
+ * {@link <a href="http://en.wikipedia.org/wiki/Streaming_algorithm#Frequent_elements" target="_blank">Space-Saving</a>}
+ * sketch which monitors at most 'capacity' tuples.  It is algebraic, so the combiner builds a sketch on the map side
+ * for each group and only the serialized sketches are sent to the reducer.  It also implements accumulate.
+ * </p>
+ *
+ * <p>
+ * Each output tuple holds the input tuple, its count, and the error of the count.  The count is an upper bound on
+ * how many times the tuple occurs, and count - error is a lower bound.  The error is at most n/capacity for a bag of
+ * n tuples, so any tuple occurring more often than that is guaranteed to be found.  When the bag has no more distinct
+ * tuples than the capacity the counts are exact.  The output is ordered by count, highest first.
+ * </p>
+ *
+ * <p>
+ * The constructor takes the number of tuples to output, and optionally the capacity of the sketch, which defaults
+ * to 1000 or 10 times the number of tuples to output, whichever is larger.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * DEFINE TopKFrequent datafu.pig.bags.TopKFrequent('3');
+ *
+ * -- input:
+ * -- ({(A),(A),(C),(B),(A),(B)})
+ * input = LOAD 'input' AS (B: bag {T: tuple(alpha:CHARARRAY)});
+ *
+ * -- output:
+ * -- ({((A),3,0),((B),2,0),((C),1,0)})
+ * output = FOREACH input GENERATE TopKFrequent(B);
+ * }
+ * </pre>
+ * </p>
+ *
+ * @see CountEach
+ */
+public class TopKFrequent extends AccumulatorEvalFunc<DataBag> implements Algebraic
+{
+  private static final BagFactory bagFactory = BagFactory.getInstance();
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  private final String[] params;
+  private final int k;
+  private final SpaceSavingSketch sketch;
+
+  public TopKFrequent(String... params)
+  {
+    this.params = params;
+    this.k = getK(params);
+    this.sketch = new SpaceSavingSketch(getCapacity(params));
+  }
+
+  @Override
+  public void accumulate(Tuple b) throws IOException
+  {
+    addTuples(sketch, (DataBag)b.get(0));
+  }
+
+  @Override
+  public void cleanup()
+  {
+    sketch.clear();
+  }
+
+  @Override
+  public DataBag getValue()
+  {
+    return getTop(sketch, k);
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have one field");
+      }
+
+      Schema.FieldSchema bagFieldSchema = input.getField(0);
+
+      if (bagFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+
+      Schema inputBagSchema = bagFieldSchema.schema;
+
+      if (inputBagSchema.getField(0).type != DataType.TUPLE)
+      {
+        throw new RuntimeException(String.format("Expected input bag to contain a TUPLE, but instead found %s",
+                                                 DataType.findTypeName(inputBagSchema.getField(0).type)));
+      }
+
+      Schema inputTupleSchema = inputBagSchema.getField(0).schema;
+      if (inputTupleSchema == null) inputTupleSchema = new Schema();
+
+      Schema outputTupleSchema = new Schema();
+      outputTupleSchema.add(new Schema.FieldSchema("tuple_schema", inputTupleSchema.clone(), DataType.TUPLE));
+      outputTupleSchema.add(new Schema.FieldSchema("count", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("error", DataType.LONG));
+
+      return new Schema(new Schema.FieldSchema(
+            getSchemaName(this.getClass().getName().toLowerCase(), input),
+            outputTupleSchema,
+            DataType.BAG));
+    }
+    catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String getInitial()
+  {
+    return PassThroughInitial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + getParamsString();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + getParamsString();
+  }
+
+  private String getParamsString()
+  {
+    if (params == null)
+    {
+      // called from the EvalFunc constructor to check the return type, before the params are set
+      return "";
+    }
+    StringBuilder sb = new StringBuilder("(");
+    for (int i=0; i<params.length; i++)
+    {
+      if (i > 0)
+      {
+        sb.append(",");
+      }
+      sb.append("'").append(params[i]).append("'");
+    }
+    sb.append(")");
+    return sb.toString();
+  }
+
+  static int getK(String[] params)
+  {
+    if (params.length < 1 || params.length > 2)
+    {
+      throw new IllegalArgumentException("Expected the number of tuples to output and optionally the capacity");
+    }
+    int k = Integer.parseInt(params[0]);
+    if (k < 1)
+    {
+      throw new IllegalArgumentException("Number of tuples to output must be positive");
+    }
+    return k;
+  }
+
+  static int getCapacity(String[] params)
+  {
+    int k = getK(params);
+    int capacity = params.length > 1 ? Integer.parseInt(params[1]) : Math.max(SpaceSavingSketch.DEFAULT_CAPACITY, 10*k);
+    if (capacity < k)
+    {
+      throw new IllegalArgumentException("Capacity must be at least the number of tuples to output");
+    }
+    return capacity;
+  }
+
+  static DataBag getTop(SpaceSavingSketch sketch, int k)
+  {
+    DataBag output = bagFactory.newDefaultBag();
+    for (int slot : sketch.getTop(k))
+    {
+      Tuple outputTuple = tupleFactory.newTuple(3);
+      try
+      {
+        outputTuple.set(0, sketch.getItem(slot));
+        outputTuple.set(1, sketch.getCount(slot));
+        outputTuple.set(2, sketch.getError(slot));
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+      output.add(outputTuple);
+    }
+    return output;
+  }
+
+  static void addTuples(SpaceSavingSketch sketch, DataBag bag)
+  {
+    if (bag == null)
+    {
+      return;
+    }
+
+    for (Tuple t : bag)
+    {
+      sketch.add(t);
+    }
+  }
+
+  /**
+   * Merges the intermediate tuples into a sketch.  Each intermediate tuple holds either a bag of
+   * input tuples, as produced by {@link PassThroughInitial}, or a serialized sketch.
+   */
+  static SpaceSavingSketch merge(SpaceSavingSketch sketch, DataBag intermediates) throws IOException
+  {
+    for (Tuple t : intermediates)
+    {
+      Object o = t.get(0);
+      if (o instanceof DataByteArray)
+      {
+        sketch.merge(SpaceSavingSketch.fromBytes(((DataByteArray)o).get()));
+      }
+      else if (o instanceof DataBag)
+      {
+        addTuples(sketch, (DataBag)o);
+      }
+    }
+    return sketch;
+  }
+
+  /**
+   * Merges the tuples and sketches into a sketch.
+   */
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int capacity;
+
+    public Intermediate()
+    {
+      this.capacity = SpaceSavingSketch.DEFAULT_CAPACITY;
+    }
+
+    public Intermediate(String... params)
+    {
+      this.capacity = getCapacity(params);
+    }
+
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      SpaceSavingSketch sketch = merge(new SpaceSavingSketch(capacity), (DataBag)input.get(0));
+      return tupleFactory.newTuple(new DataByteArray(sketch.toBytes()));
+    }
+  }
+
+  static public class Final extends EvalFunc<DataBag>
+  {
+    private final int k;
+    private final int capacity;
+
+    public Final()
+    {
+      this.k = 1;
+      this.capacity = SpaceSavingSketch.DEFAULT_CAPACITY;
+    }
+
+    public Final(String... params)
+    {
+      this.k = getK(params);
+      this.capacity = getCapacity(params);
+    }
+
+    @Override
+    public DataBag exec(Tuple input) throws IOException
+    {
+      return getTop(merge(new SpaceSavingSketch(capacity), (DataBag)input.get(0)), k);
+    }
+  }
+}
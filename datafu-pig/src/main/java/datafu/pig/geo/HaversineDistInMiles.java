@@ -22,6 +22,7 @@ package datafu.pig.geo;
 import org.apache.pig.data.DataType;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import datafu.pig.util.ColumnBatch;
 import datafu.pig.util.SimpleEvalFunc;
 
 /**
@@ -41,11 +42,46 @@ public class HaversineDistInMiles extends SimpleEvalFunc<Double>
 {
   public static final double EARTH_RADIUS = 3958.75;
 
+  private double[] distances;
+
   public Double call(Double lat1, Double lng1, Double lat2, Double lng2)
   {
     if (lat1 == null || lng1 == null || lat2 == null || lng2 == null)
       return null;
 
+    return distance(lat1, lng1, lat2, lng2);
+  }
+
+  /**
+   * Computes the distances for a batch of rows in one loop over the columns, without boxing the coordinates.
+   */
+  @Override
+  public void callBatch(ColumnBatch batch, Object[] results)
+  {
+    int size = batch.size();
+    double[] lat1 = batch.getDoubles(0);
+    double[] lng1 = batch.getDoubles(1);
+    double[] lat2 = batch.getDoubles(2);
+    double[] lng2 = batch.getDoubles(3);
+
+    if (distances == null || distances.length < size)
+      distances = new double[batch.capacity()];
+
+    for (int i=0; i<size; i++)
+      distances[i] = distance(lat1[i], lng1[i], lat2[i], lng2[i]);
+
+    boolean hasNulls = batch.hasNulls(0) || batch.hasNulls(1) || batch.hasNulls(2) || batch.hasNulls(3);
+    for (int i=0; i<size; i++)
+    {
+      if (hasNulls && (batch.isNull(0, i) || batch.isNull(1, i) || batch.isNull(2, i) || batch.isNull(3, i)))
+        results[i] = null;
+      else
+        results[i] = distances[i];
+    }
+  }
+
+  private static double distance(double lat1, double lng1, double lat2, double lng2)
+  {
     double d_lat = Math.toRadians(lat2-lat1);
     double d_long = Math.toRadians(lng2-lng1);
     double a = Math.sin(d_lat/2) * Math.sin(d_lat/2) +
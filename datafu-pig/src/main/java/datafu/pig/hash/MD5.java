@@ -25,6 +25,7 @@ import java.security.NoSuchAlgorithmException;
 
 import org.apache.commons.codec.binary.Base64;
 
+import datafu.pig.util.ColumnBatch;
 import datafu.pig.util.SimpleEvalFunc;
 
 /**
@@ -66,6 +67,10 @@ public class MD5 extends SimpleEvalFunc<String>
   
   public String call(String val)
   {
+    if (val == null)
+    {
+      return null;
+    }
     if (isBase64)
     {
       return new String(Base64.encodeBase64(md5er.digest(val.getBytes())));
@@ -75,4 +80,14 @@ public class MD5 extends SimpleEvalFunc<String>
       return new BigInteger(1, md5er.digest(val.getBytes())).toString(16);
     }
   }
+  
+  @Override
+  public void callBatch(ColumnBatch batch, Object[] results)
+  {
+    String[] vals = batch.getStrings(0);
+    for (int i=0; i<batch.size(); i++)
+    {
+      results[i] = call(vals[i]);
+    }
+  }
 }
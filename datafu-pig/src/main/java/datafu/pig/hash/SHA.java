@@ -23,6 +23,7 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import datafu.pig.util.ColumnBatch;
 import datafu.pig.util.SimpleEvalFunc;
 
 public class SHA extends SimpleEvalFunc<String> {
@@ -41,6 +42,17 @@ public class SHA extends SimpleEvalFunc<String> {
 	}
 	
 	public String call(String value){
+		if (value == null){
+			return null;
+		}
 		return new BigInteger(1, sha.digest(value.getBytes())).toString(16);
 	}
+	
+	@Override
+	public void callBatch(ColumnBatch batch, Object[] results){
+		String[] values = batch.getStrings(0);
+		for (int i=0; i<batch.size(); i++){
+			results[i] = call(values[i]);
+		}
+	}
 }
@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.linkanalysis;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.AbstractIntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Compactly stores the outgoing edges of each node in memory.  
+ * 
+ * <p>
+ * Each node is written as a record holding the source index, the number of edges, then the edges sorted by
+ * destination index.  The source index, the edge count and the gap between consecutive destination indices are each 
+ * written as a variable length integer, taking a single byte for gaps under 128.  Weights are either written as 
+ * variable length integers, which is lossless, or quantized to 16 bits, keeping 11 significant bits.
+ * </p>
+ * 
+ * <p>
+ * The records are read back through an iterator which produces the same sequence of ints as the uncompressed
+ * edge data: source index, edge count, then destination index and weight for each edge.  The iterations decode
+ * the records directly through {@link #distribute}, which avoids the per-value overhead of the iterator.
+ * </p>
+ */
+class CompressedEdgeList
+{
+  private static final int MANTISSA_BITS = 11;
+  private static final int PROGRESS_INTERVAL = 4096;
+  private static final int MANTISSA_MASK = (1 << MANTISSA_BITS) - 1;
+  
+  private final ByteArrayList bytes = new ByteArrayList();
+  private final boolean quantizeWeights;
+  private long[] sortKeys = new long[16];
+  
+  public CompressedEdgeList(boolean quantizeWeights)
+  {
+    this.quantizeWeights = quantizeWeights;
+  }
+  
+  /**
+   * @return size of the encoded edges in bytes
+   */
+  public long sizeInBytes()
+  {
+    return bytes.size();
+  }
+  
+  /**
+   * Appends the edges of a node.
+   * 
+   * @param sourceIndex index of the source node
+   * @param edges destination index and weight of each edge, in pairs
+   * @param count number of edges
+   */
+  public void add(int sourceIndex, int[] edges, int count)
+  {
+    writeVarint(sourceIndex);
+    writeVarint(count);
+    
+    if (this.sortKeys.length < count)
+    {
+      this.sortKeys = new long[Math.max(count, this.sortKeys.length * 2)];
+    }
+    
+    // sort by destination, breaking ties by position so that parallel edges keep their order
+    for (int i=0; i<count; i++)
+    {
+      this.sortKeys[i] = ((long)edges[2*i] << 32) | i;
+    }
+    Arrays.sort(this.sortKeys, 0, count);
+    
+    int previousDest = 0;
+    for (int i=0; i<count; i++)
+    {
+      int position = (int)this.sortKeys[i];
+      int dest = edges[2*position];
+      writeVarint(dest - previousDest);
+      previousDest = dest;
+      
+      int weight = edges[2*position+1];
+      if (this.quantizeWeights)
+      {
+        int quantized = quantizeWeight(weight);
+        this.bytes.add((byte)(quantized >>> 8));
+        this.bytes.add((byte)quantized);
+      }
+      else
+      {
+        writeVarint(weight);
+      }
+    }
+  }
+  
+  public void clear()
+  {
+    this.bytes.clear();
+    this.bytes.trim();
+  }
+  
+  /**
+   * Iterates over the edge data from the first record.
+   */
+  public IntIterator iterator()
+  {
+    return new AbstractIntIterator() {
+      private final byte[] data = bytes.elements();
+      private final int size = bytes.size();
+      private int position = 0;
+      
+      // 0 before a source index, 1 before an edge count, 2 before a destination index and 3 before a weight
+      private int field = 0;
+      private int remainingEdges;
+      private int previousDest;
+      
+      @Override
+      public boolean hasNext()
+      {
+        return position < size;
+      }
+      
+      @Override
+      public int nextInt()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        
+        switch (field)
+        {
+          case 0:
+            field = 1;
+            return readVarint();
+          case 1:
+            remainingEdges = readVarint();
+            previousDest = 0;
+            field = remainingEdges > 0 ? 2 : 0;
+            return remainingEdges;
+          case 2:
+            previousDest += readVarint();
+            field = 3;
+            return previousDest;
+          default:
+            field = --remainingEdges > 0 ? 2 : 0;
+            if (quantizeWeights)
+            {
+              int quantized = ((data[position] & 0xFF) << 8) | (data[position+1] & 0xFF);
+              position += 2;
+              return dequantizeWeight(quantized);
+            }
+            return readVarint();
+        }
+      }
+      
+      private int readVarint()
+      {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+          b = data[position++];
+          value |= (b & 0x7F) << shift;
+          shift += 7;
+        } while (b < 0);
+        return value;
+      }
+    };
+  }
+  
+  /**
+   * Adds the contribution of each edge to its destination node, which is the edge weight times the share of the source node.
+   * 
+   * @param shares share of each source node per unit of edge weight
+   * @param contributions contribution of each destination node, which is added to
+   * @param progressIndicator reports progress every few thousand edges
+   */
+  public void distribute(float[] shares, float[] contributions, ProgressIndicator progressIndicator)
+  {
+    final byte[] data = this.bytes.elements();
+    final int size = this.bytes.size();
+    final boolean quantizeWeights = this.quantizeWeights;
+    
+    int position = 0;
+    int edgesSinceProgress = 0;
+    while (position < size)
+    {
+      // the varints are decoded inline, each loop reading one of them
+      int sourceIndex = 0;
+      byte b;
+      int shift = 0;
+      do
+      {
+        b = data[position++];
+        sourceIndex |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      
+      int count = 0;
+      shift = 0;
+      do
+      {
+        b = data[position++];
+        count |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      
+      float share = shares[sourceIndex];
+      int dest = 0;
+      for (int i=0; i<count; i++)
+      {
+        shift = 0;
+        do
+        {
+          b = data[position++];
+          dest += (b & 0x7F) << shift;
+          shift += 7;
+        } while (b < 0);
+        
+        int weight;
+        if (quantizeWeights)
+        {
+          weight = dequantizeWeight(((data[position] & 0xFF) << 8) | (data[position+1] & 0xFF));
+          position += 2;
+        }
+        else
+        {
+          weight = 0;
+          shift = 0;
+          do
+          {
+            b = data[position++];
+            weight |= (b & 0x7F) << shift;
+            shift += 7;
+          } while (b < 0);
+        }
+        
+        contributions[dest] += (float)weight * share;
+      }
+      
+      edgesSinceProgress += count;
+      if (edgesSinceProgress >= PROGRESS_INTERVAL)
+      {
+        progressIndicator.progress();
+        edgesSinceProgress = 0;
+      }
+    }
+  }
+  
+  private void writeVarint(int value)
+  {
+    while ((value & ~0x7F) != 0)
+    {
+      this.bytes.add((byte)((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    this.bytes.add((byte)value);
+  }
+  
+  /**
+   * Quantizes a positive weight to 16 bits: an 11 bit mantissa and the shift to apply to it.
+   */
+  static int quantizeWeight(int weight)
+  {
+    int shift = Math.max(0, 32 - Integer.numberOfLeadingZeros(weight) - MANTISSA_BITS);
+    long mantissa = ((long)weight + ((1L << shift) >> 1)) >> shift;
+    // rounding up must not take the weight past the largest int
+    mantissa = Math.min(mantissa, Integer.MAX_VALUE >>> shift);
+    if (mantissa > MANTISSA_MASK)
+    {
+      mantissa >>= 1;
+      shift++;
+    }
+    return (shift << MANTISSA_BITS) | (int)mantissa;
+  }
+  
+  static int dequantizeWeight(int quantized)
+  {
+    return (quantized & MANTISSA_MASK) << (quantized >>> MANTISSA_BITS);
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.linkanalysis;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of ints which is appended to and then memory mapped to be read back sequentially any number of times.
+ * Java can only map up to 2GB in one buffer, so larger files are mapped in several segments.
+ */
+class MappedIntFile
+{
+  /**
+   * The largest segment which can be mapped, rounded down to a whole number of ints.
+   */
+  public static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE & ~3;
+  
+  private static final int BUFFER_SIZE = 64 * 1024;
+  
+  private final File file;
+  private DataOutputStream output;
+  private long count;
+  private IntBuffer[] segments;
+  
+  public MappedIntFile() throws IOException
+  {
+    this.file = File.createTempFile("fastgraph", null);
+    this.file.deleteOnExit();
+    this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file), BUFFER_SIZE));
+  }
+  
+  /**
+   * @return number of values written
+   */
+  public long size()
+  {
+    return count;
+  }
+  
+  /**
+   * Appends a value to the end of the file.  Values can only be appended before the file is mapped.
+   * 
+   * @param value value to write
+   */
+  public void append(int value) throws IOException
+  {
+    if (this.output == null)
+    {
+      throw new IllegalStateException("File has already been mapped");
+    }
+    this.output.writeInt(value);
+    this.count++;
+  }
+  
+  /**
+   * Closes the file for writing and maps it into memory.
+   * 
+   * @param segmentSize maximum size in bytes of each mapped segment, which is rounded down to a whole number of ints
+   */
+  public void map(int segmentSize) throws IOException
+  {
+    if (this.output != null)
+    {
+      this.output.close();
+      this.output = null;
+    }
+    
+    long segmentInts = Math.max(1, Math.min(segmentSize, MAX_SEGMENT_SIZE) / 4);
+    long totalInts = this.count;
+    int segmentCount = (int)((totalInts + segmentInts - 1) / segmentInts);
+    
+    this.segments = new IntBuffer[segmentCount];
+    
+    RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+    try
+    {
+      FileChannel channel = raf.getChannel();
+      for (int i=0; i<segmentCount; i++)
+      {
+        long start = i * segmentInts;
+        long length = Math.min(segmentInts, totalInts - start);
+        this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start * 4, length * 4).asIntBuffer();
+      }
+    }
+    finally
+    {
+      // the mappings stay valid after the channel is closed
+      raf.close();
+    }
+  }
+  
+  /**
+   * @return number of segments the file is mapped in
+   */
+  public int getSegmentCount()
+  {
+    return this.segments == null ? 0 : this.segments.length;
+  }
+  
+  /**
+   * Iterates over the values from the beginning of the mapped file.
+   */
+  public IntIterator iterator()
+  {
+    if (this.segments == null)
+    {
+      throw new IllegalStateException("File has not been mapped");
+    }
+    
+    return new AbstractIntIterator() {
+      private int segment = 0;
+      private IntBuffer current = segments.length > 0 ? segments[0].duplicate() : IntBuffer.allocate(0);
+      
+      @Override
+      public boolean hasNext()
+      {
+        while (!current.hasRemaining())
+        {
+          if (segment + 1 >= segments.length)
+          {
+            return false;
+          }
+          current = segments[++segment].duplicate();
+        }
+        return true;
+      }
+      
+      @Override
+      public int nextInt()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        return current.get();
+      }
+    };
+  }
+  
+  /**
+   * Closes and deletes the file.  The mapped memory is released once the segments are garbage collected.
+   */
+  public void delete()
+  {
+    if (this.output != null)
+    {
+      try
+      {
+        this.output.close();
+      }
+      catch (IOException e)
+      {
+        // the file is deleted regardless
+      }
+      this.output = null;
+    }
+    this.segments = null;
+    this.file.delete();
+  }
+}
@@ -98,6 +98,31 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * <li>
  * <b>max_edges_in_memory</b>: When spilling edges to disk is enabled, this is the threshold which triggers that behavior.  The default is 30M.
  * </li>
+ * <li>
+ * <b>compress_edges</b>: Used to conserve memory.  When "true" the edges held in memory are compressed, taking around 5 bytes per edge 
+ * instead of 16, so a larger max_edges_in_memory can be used.  The edges are decoded as they are streamed in each iteration, which
+ * runs on a single thread.  The default is "false".
+ * </li>
+ * <li>
+ * <b>quantize_edge_weights</b>: When "true" and the edges are compressed, each edge weight is stored in 2 bytes with a relative 
+ * error under 0.05%.  The default is "false".
+ * </li>
+ * <li>
+ * <b>parallelism</b>: The number of threads used to run the iterations on each graph.  With more than one thread the edges are
+ * split by destination node into partitions which are processed in parallel.  The ranks are the same as with a single thread.
+ * A value of 0 uses one thread per available processor.  This does not apply when the edges are spilled to disk.  The default is 1.
+ * </li>
+ * <li>
+ * <b>node_tolerance</b>: A threshold below which a node is considered converged.  Once the change in a node's rank in an iteration
+ * is below this value the node is no longer updated, which saves work in the later iterations when most nodes have settled.
+ * Iterations stop when all nodes have converged.  This does not apply when the edges are spilled to disk.  The default is 0, 
+ * which updates every node on every iteration.
+ * </li>
+ * <li>
+ * <b>gauss_seidel</b>: When "true" the ranks are updated in place, so each iteration uses the ranks already computed in that 
+ * iteration.  This usually converges in fewer iterations, but always runs on a single thread.  The ranks are within the tolerance 
+ * of those computed without it, but not identical.  This does not apply when the edges are spilled to disk.  The default is "false".
+ * </li>
  * </ul>
  * 
  * <p>
@@ -152,6 +177,11 @@ public class PageRank extends AccumulatorEvalFunc<DataBag>
   private boolean enableNodeBiasing = false;
   private boolean aborted = false;
   private float alpha = 0.85f;
+  private int parallelism = 1;
+  private float nodeTolerance = 0.0f;
+  private boolean useGaussSeidel = false;
+  private boolean compressEdges = false;
+  private boolean quantizeEdgeWeights = false;
 
   TupleFactory tupleFactory = TupleFactory.getInstance();
   BagFactory bagFactory = BagFactory.getInstance();
@@ -204,6 +234,30 @@ public class PageRank extends AccumulatorEvalFunc<DataBag>
       {
         alpha = Float.parseFloat(value);
       }
+      else if (parameterName.equals("parallelism"))
+      {
+        parallelism = Integer.parseInt(value);
+        if (parallelism == 0)
+        {
+          parallelism = Runtime.getRuntime().availableProcessors();
+        }
+      }
+      else if (parameterName.equals("node_tolerance"))
+      {
+        nodeTolerance = Float.parseFloat(value);
+      }
+      else if (parameterName.equals("gauss_seidel"))
+      {
+        useGaussSeidel = Boolean.parseBoolean(value);
+      }
+      else if (parameterName.equals("compress_edges"))
+      {
+        compressEdges = Boolean.parseBoolean(value);
+      }
+      else if (parameterName.equals("quantize_edge_weights"))
+      {
+        quantizeEdgeWeights = Boolean.parseBoolean(value);
+      }
     }
 
     initialize();
@@ -240,6 +294,35 @@ public class PageRank extends AccumulatorEvalFunc<DataBag>
 
     this.graph.setEdgeCachingThreshold(maxEdgesInMemory);
     this.graph.setAlpha(alpha);
+    this.graph.setParallelism(parallelism);
+    this.graph.setNodeTolerance(nodeTolerance);
+    
+    if (useGaussSeidel)
+    {
+      this.graph.enableGaussSeidel();
+    }
+    else
+    {
+      this.graph.disableGaussSeidel();
+    }
+    
+    if (compressEdges)
+    {
+      this.graph.enableEdgeCompression();
+    }
+    else
+    {
+      this.graph.disableEdgeCompression();
+    }
+    
+    if (quantizeEdgeWeights)
+    {
+      this.graph.enableEdgeWeightQuantization();
+    }
+    else
+    {
+      this.graph.disableEdgeWeightQuantization();
+    }
   }
 
   @Override
@@ -339,6 +422,10 @@ public class PageRank extends AccumulatorEvalFunc<DataBag>
         return null;
       }
       iter++;
+      if (log.isDebugEnabled())
+      {
+        log.debug(String.format("Iteration %d: total rank change %e, %d active nodes", iter, totalDiff, graph.getActiveNodeCount()));
+      }
     } while(iter < maxIters && totalDiff > tolerance);
     System.out.println(String.format("Done, %d iterations took %f ms", iter, (System.nanoTime() - startTime)/10.0e6));
 
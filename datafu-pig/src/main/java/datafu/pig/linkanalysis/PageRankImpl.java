@@ -23,24 +23,46 @@ import it.unimi.dsi.fastutil.floats.FloatArrayList;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-
-import com.google.common.collect.AbstractIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * An implementation of {@link <a href="http://en.wikipedia.org/wiki/PageRank" target="_blank">PageRank</a>}, used by the {@link PageRank} UDF.
  * It is not intended to be used directly.   
+ * 
+ * <p>
+ * Each node id is mapped to a dense index as the graph is loaded, and the node data is kept in primitive arrays 
+ * indexed by it.  When the edges are held in memory, {@link #init()} arranges them in compressed sparse row form, 
+ * grouped by destination node: the incoming edges of node i are at positions inEdgeOffsets[i] to inEdgeOffsets[i+1]
+ * of the inEdgeSources and inEdgeWeights arrays.  Each iteration then sums the contributions of each node in turn,
+ * with no hash lookups.  Edges cached on disk are instead memory mapped and streamed in the order they were added.  In both cases
+ * each node's contributions are summed in the order its edges were added, so the results are the same.
+ * </p>
+ * 
+ * <p>
+ * To fit larger graphs in memory, the edges can instead be kept compressed, using a few bytes per edge rather than the 
+ * 8 bytes of the edge list and 8 more of the rows.  The compressed edges are decoded as they are streamed in each 
+ * iteration.  Unless the weights are quantized the ranks match those of the other layouts, apart from rounding in 
+ * the total outgoing weight of nodes with many edges, since each node's edges are stored sorted by destination.
+ * </p>
+ * 
+ * <p>
+ * By default every node is updated on every iteration from the ranks of the previous iteration.  Two options reduce the
+ * work when the edges are in memory.  With a node tolerance set, a node whose rank changes by less than the tolerance
+ * in an iteration is considered converged and is no longer updated, although its rank still contributes to the other
+ * nodes.  With Gauss-Seidel updates enabled, each node's new rank is used by the nodes updated after it in the same
+ * iteration, which usually needs fewer iterations to converge.  Gauss-Seidel updates run on a single thread.
  * </p>
  */
 public class PageRankImpl
@@ -55,42 +77,114 @@ public class PageRankImpl
   // edge weights (which are doubles) are multiplied by this value so they can be stored as integers internally
   private static float EDGE_WEIGHT_MULTIPLIER = 100000;
     
+  // maps node ids to their dense index, which is the order the nodes were first seen
   private final Int2IntOpenHashMap nodeIndices = new Int2IntOpenHashMap();
-  private final FloatArrayList nodeData = new FloatArrayList(); // rank, total weight, contribution, bias(optional), (repeat)
-  private int nodeFieldCount = 3; // unless biasing is enabled
+  private final IntArrayList nodeIds = new IntArrayList();
+  private final FloatArrayList nodeBiases = new FloatArrayList();
+  
+  // node data by dense index, allocated in init
+  private float[] ranks;
+  private float[] totalWeights;
+  private float[] contributions;
+  private float[] shares; // rank over total weight, which each outgoing edge contributes in proportion to its weight
   
-  private final IntArrayList danglingNodes = new IntArrayList();
+  private final IntArrayList danglingNodes = new IntArrayList(); // dense indices
+  private float danglingContribution; // rank of the dangling nodes distributed to each node in the current iteration
   
-  private final IntArrayList edges = new IntArrayList(); // source, dest node count... dest id, weight pos, (repeat)
+  // edges as they are loaded: source index, dest node count... dest index, weight, (repeat)
+  private final SegmentedIntList edges = new SegmentedIntList();
+  
+  // edges held in memory after init, grouped by destination
+  private int[] inEdgeOffsets;
+  private int[] inEdgeSources;
+  private float[] inEdgeWeights;
   
   private boolean shouldHandleDanglingNodes = false;
   private boolean shouldCacheEdgesOnDisk = false;
   private long edgeCachingThreshold;
   private boolean nodeBiasingEnabled = false;
   
-  private File edgesFile;
-  private DataOutputStream edgeDataOutputStream;
+  private MappedIntFile edgesFile;
+  private int edgeCacheSegmentSize = MappedIntFile.MAX_SEGMENT_SIZE;
   private boolean usingEdgeDiskCache;
   
+  private boolean edgeCompressionEnabled = false;
+  private boolean edgeWeightQuantizationEnabled = false;
+  private CompressedEdgeList compressedEdges;
+  private int[] edgeScratch = new int[32]; // dest index and weight of each edge of the node being added
+  
+  // number of threads running the iterations, where 1 runs them on the calling thread
+  private int parallelism = 1;
+  private ExecutorService pool;
+  
+  // when running in parallel, each partition sums the contributions of a range of destination nodes
+  private int[] partitionNodeStarts;
+  
+  // how many edges are processed between progress updates from a partition
+  private static final int PARTITION_PROGRESS_INTERVAL = 4096;
+  
+  // nodes whose rank changes by less than this in an iteration stop being updated, where 0 updates all nodes
+  private float nodeTolerance = 0.0f;
+  private boolean gaussSeidelEnabled = false;
+  
+  // when using a node tolerance, the nodes still being updated in ascending order, of which the first activeNodeCount are valid
+  private int[] activeNodes;
+  private int activeNodeCount;
+  private boolean[] convergedNodes;
+  
+  private int iterationCount;
+  private int lastActiveNodeCount;
+  
+  public PageRankImpl()
+  {
+    this.nodeIndices.defaultReturnValue(-1);
+  }
+  
   public void clear() throws IOException
   {
     this.edgeCount = 0;
     this.nodeCount = 0;
     this.totalRankChange = 0.0f;
+    this.danglingContribution = 0.0f;
+    this.iterationCount = 0;
+    this.lastActiveNodeCount = 0;
     
     this.nodeIndices.clear();
-    this.nodeData.clear();
+    this.nodeIds.clear();
+    this.nodeBiases.clear();
     this.edges.clear();
     this.danglingNodes.clear();
     
-    if (edgeDataOutputStream != null)
+    this.ranks = null;
+    this.totalWeights = null;
+    this.contributions = null;
+    this.shares = null;
+    
+    this.inEdgeOffsets = null;
+    this.inEdgeSources = null;
+    this.inEdgeWeights = null;
+    
+    if (this.edgesFile != null)
     {
-      this.edgeDataOutputStream.close();
-      this.edgeDataOutputStream = null;
+      this.edgesFile.delete();
+      this.edgesFile = null;
     }
     
     this.usingEdgeDiskCache = false;
-    this.edgesFile = null;
+    this.compressedEdges = null;
+    
+    this.partitionNodeStarts = null;
+    
+    this.activeNodes = null;
+    this.activeNodeCount = 0;
+    this.convergedNodes = null;
+    
+    // the worker threads would otherwise outlive the UDF
+    if (this.pool != null)
+    {
+      this.pool.shutdown();
+      this.pool = null;
+    }
   }
   
   /**
@@ -119,13 +213,11 @@ public class PageRankImpl
    public void enableNodeBiasing()
    {
      this.nodeBiasingEnabled = true;
-     this.nodeFieldCount = 4;
    }
    
    public void disableNodeBiasing()
    {
      this.nodeBiasingEnabled = false;
-     this.nodeFieldCount = 3;
    }
    
   
@@ -183,6 +275,193 @@ public class PageRankImpl
     edgeCachingThreshold = count;
   }
   
+  /**
+   * Enables compression of the edges held in memory (disabled by default).  This must be set before any nodes are added.
+   * The compressed edges are streamed in each iteration rather than arranged by destination, so the iterations run 
+   * on a single thread without the node tolerance or Gauss-Seidel options.
+   */
+  public void enableEdgeCompression()
+  {
+    edgeCompressionEnabled = true;
+  }
+  
+  /**
+   * Disables compression of the edges held in memory (disabled by default).
+   */
+  public void disableEdgeCompression()
+  {
+    edgeCompressionEnabled = false;
+  }
+  
+  /**
+   * Gets whether compression of the edges held in memory is enabled.
+   * @return True if edge compression is enabled.
+   */
+  public boolean isEdgeCompressionEnabled()
+  {
+    return edgeCompressionEnabled;
+  }
+  
+  /**
+   * Enables quantizing the edge weights to 16 bits when the edges are compressed (disabled by default).  This keeps 
+   * 11 significant bits of each weight, for a relative error under 0.05%.  Without it the weights take 3 bytes 
+   * for the typical weight of 1.0.
+   */
+  public void enableEdgeWeightQuantization()
+  {
+    edgeWeightQuantizationEnabled = true;
+  }
+  
+  /**
+   * Disables quantizing the edge weights when the edges are compressed (disabled by default).
+   */
+  public void disableEdgeWeightQuantization()
+  {
+    edgeWeightQuantizationEnabled = false;
+  }
+  
+  /**
+   * Gets whether edge weights are quantized when the edges are compressed.
+   * @return True if edge weight quantization is enabled.
+   */
+  public boolean isEdgeWeightQuantizationEnabled()
+  {
+    return edgeWeightQuantizationEnabled;
+  }
+  
+  /**
+   * Gets the maximum size in bytes of each memory mapped segment of the edge disk cache.
+   * @return segment size in bytes
+   */
+  public int getEdgeCacheSegmentSize()
+  {
+    return edgeCacheSegmentSize;
+  }
+  
+  /**
+   * Sets the maximum size in bytes of each memory mapped segment of the edge disk cache.  A cache larger than this
+   * is mapped in several segments.  The default is the largest size Java can map, just under 2GB.
+   * @param bytes segment size in bytes
+   */
+  public void setEdgeCacheSegmentSize(int bytes)
+  {
+    if (bytes < 4)
+    {
+      throw new IllegalArgumentException("Segment size must be at least 4 bytes");
+    }
+    edgeCacheSegmentSize = Math.min(bytes, MappedIntFile.MAX_SEGMENT_SIZE);
+  }
+  
+  /**
+   * Gets the number of threads used to run the iterations.
+   * @return number of threads
+   */
+  public int getParallelism()
+  {
+    return parallelism;
+  }
+  
+  /**
+   * Sets the number of threads used to run the iterations (default is 1).  With more than one thread
+   * the destination nodes are split into ranges with about the same number of incoming edges, and each 
+   * iteration processes the ranges in parallel on a pool of threads.  Each node's contributions are summed in the 
+   * same order as with a single thread, so the ranks do not depend on the number of threads or how they are 
+   * scheduled.  This has no effect when the edges are cached on disk or compressed.
+   * @param parallelism number of threads
+   */
+  public void setParallelism(int parallelism)
+  {
+    if (parallelism < 1)
+    {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    if (parallelism != this.parallelism && this.pool != null)
+    {
+      this.pool.shutdown();
+      this.pool = null;
+    }
+    this.parallelism = parallelism;
+  }
+  
+  /**
+   * Gets whether the iterations run in parallel, which is the case once the graph is initialized with
+   * a parallelism above 1 and the edges in memory.
+   * @return True if the iterations run in parallel.
+   */
+  public boolean isRunningInParallel()
+  {
+    return this.partitionNodeStarts != null;
+  }
+  
+  /**
+   * Gets the change in rank below which a node is considered converged.
+   * @return node tolerance
+   */
+  public float getNodeTolerance()
+  {
+    return nodeTolerance;
+  }
+  
+  /**
+   * Sets the change in rank below which a node is considered converged (default is 0, which disables this).  
+   * Once a node's rank changes by less than this in an iteration its rank is fixed and it is skipped in the 
+   * following iterations.  This has no effect when the edges are cached on disk or compressed.
+   * @param tolerance node tolerance
+   */
+  public void setNodeTolerance(float tolerance)
+  {
+    if (tolerance < 0.0f)
+    {
+      throw new IllegalArgumentException("Node tolerance must not be negative");
+    }
+    this.nodeTolerance = tolerance;
+  }
+  
+  /**
+   * Enables Gauss-Seidel updates, where ranks are updated in place during each iteration (disabled by default).
+   * This has no effect when the edges are cached on disk or compressed.
+   */
+  public void enableGaussSeidel()
+  {
+    gaussSeidelEnabled = true;
+  }
+  
+  /**
+   * Disables Gauss-Seidel updates, where ranks are updated in place during each iteration (disabled by default).
+   */
+  public void disableGaussSeidel()
+  {
+    gaussSeidelEnabled = false;
+  }
+  
+  /**
+   * Gets whether Gauss-Seidel updates are enabled.
+   * @return True if Gauss-Seidel updates are enabled.
+   */
+  public boolean isGaussSeidelEnabled()
+  {
+    return gaussSeidelEnabled;
+  }
+  
+  /**
+   * Gets the number of iterations run since the graph was initialized.
+   * @return iteration count
+   */
+  public int getIterationCount()
+  {
+    return iterationCount;
+  }
+  
+  /**
+   * Gets the number of nodes updated in the last iteration.  This is less than the node count once nodes
+   * have converged under the node tolerance.
+   * @return active node count
+   */
+  public int getActiveNodeCount()
+  {
+    return lastActiveNodeCount;
+  }
+  
   /**
    * Enables dangling node handling (disabled by default).
    */
@@ -217,7 +496,7 @@ public class PageRankImpl
   public float getNodeRank(int nodeId)
   {
     int nodeIndex = this.nodeIndices.get(nodeId);
-    return nodeData.get(nodeIndex);
+    return ranks[nodeIndex];
   }
   
   public float getTotalRankChange()
@@ -225,26 +504,28 @@ public class PageRankImpl
     return this.totalRankChange;
   }
   
-  private void maybeCreateNode(int nodeId)
+  /**
+   * Gets the dense index of a node, creating the node if it doesn't already exist.
+   */
+  private int getOrCreateNode(int nodeId)
   {
-    // create from node if it doesn't already exist
-    if (!nodeIndices.containsKey(nodeId))
-    {      
-      int index = this.nodeData.size();
+    int index = nodeIndices.get(nodeId);
+    if (index < 0)
+    {
+      index = (int)this.nodeCount;
       
-      this.nodeData.add(0.0f); // rank
-      this.nodeData.add(0.0f); // total weight
-      this.nodeData.add(0.0f); // contribution
+      this.nodeIds.add(nodeId);
       
       if (this.nodeBiasingEnabled)
       {
-        this.nodeData.add(0.0f); // bias
-      }      
+        this.nodeBiases.add(0.0f);
+      }
       
       this.nodeIndices.put(nodeId, index);
       
       this.nodeCount++;
     }
+    return index;
   }
   
   public float getNodeBias(int nodeId)
@@ -254,7 +535,7 @@ public class PageRankImpl
       throw new IllegalArgumentException("Node biasing not enable");
     }
     int nodeIndex = this.nodeIndices.get(nodeId);
-    return this.nodeData.get(nodeIndex+3);
+    return this.nodeBiases.getFloat(nodeIndex);
   }
   
   public void setNodeBias(int nodeId, float bias)
@@ -265,7 +546,7 @@ public class PageRankImpl
     }
     
     int nodeIndex = this.nodeIndices.get(nodeId);
-    this.nodeData.set(nodeIndex+3, bias);
+    this.nodeBiases.set(nodeIndex, bias);
   }
   
   public void addNode(Integer sourceId, ArrayList<Map<String,Object>> sourceEdges) throws IOException
@@ -278,7 +559,7 @@ public class PageRankImpl
   {
     int source = sourceId.intValue();
    
-    maybeCreateNode(source);
+    int sourceIndex = getOrCreateNode(source);
     
     if (this.nodeBiasingEnabled)
     {
@@ -296,8 +577,14 @@ public class PageRankImpl
       writeEdgesToDisk();
     }
     
-    // store the source node id itself
-    appendEdgeData(source);
+    if (this.edgeCompressionEnabled && !usingEdgeDiskCache)
+    {
+      addCompressedEdges(sourceIndex, sourceEdges);
+      return;
+    }
+    
+    // store the source node index itself
+    appendEdgeData(sourceIndex);
     
     // store how many outgoing edges this node has
     appendEdgeData(sourceEdges.size());
@@ -308,9 +595,7 @@ public class PageRankImpl
       int dest = ((Integer)edge.get("dest")).intValue();
       float weight = ((Double)edge.get("weight")).floatValue();
             
-      maybeCreateNode(dest);
-      
-      appendEdgeData(dest);
+      appendEdgeData(getOrCreateNode(dest));
       
       // location of weight in weights array
       appendEdgeData(Math.max(1, (int)(weight * EDGE_WEIGHT_MULTIPLIER)));
@@ -319,11 +604,38 @@ public class PageRankImpl
     }
   }
   
+  private void addCompressedEdges(int sourceIndex, ArrayList<Map<String,Object>> sourceEdges)
+  {
+    if (this.compressedEdges == null)
+    {
+      this.compressedEdges = new CompressedEdgeList(this.edgeWeightQuantizationEnabled);
+    }
+    
+    int count = sourceEdges.size();
+    if (this.edgeScratch.length < 2*count)
+    {
+      this.edgeScratch = new int[Math.max(2*count, 2*this.edgeScratch.length)];
+    }
+    
+    int i = 0;
+    for (Map<String,Object> edge : sourceEdges)
+    {
+      int dest = ((Integer)edge.get("dest")).intValue();
+      float weight = ((Double)edge.get("weight")).floatValue();
+      
+      this.edgeScratch[i++] = getOrCreateNode(dest);
+      this.edgeScratch[i++] = Math.max(1, (int)(weight * EDGE_WEIGHT_MULTIPLIER));
+    }
+    
+    this.compressedEdges.add(sourceIndex, this.edgeScratch, count);
+    this.edgeCount += count;
+  }
+  
   private void appendEdgeData(int data) throws IOException
   {
-    if (this.edgeDataOutputStream != null)
+    if (this.usingEdgeDiskCache)
     {
-      this.edgeDataOutputStream.writeInt(data);
+      this.edgesFile.append(data);
     }
     else
     {
@@ -338,56 +650,60 @@ public class PageRankImpl
     
   public void init(ProgressIndicator progressIndicator) throws IOException
   {
-    if (this.edgeDataOutputStream != null)
+    if (this.usingEdgeDiskCache)
     {
-      this.edgeDataOutputStream.close();
-      this.edgeDataOutputStream = null;
+      this.edgesFile.map(this.edgeCacheSegmentSize);
     }
     
+    int nodeCount = (int)this.nodeCount;
+    this.ranks = new float[nodeCount];
+    this.totalWeights = new float[nodeCount];
+    this.contributions = new float[nodeCount];
+    this.shares = new float[nodeCount];
+    
     // initialize all nodes to an equal share of the total rank (1.0)
     float nodeRank = 1.0f / this.nodeCount;        
-    float totalBias = 0.0f;
-    for (int j=0; j<this.nodeData.size(); j+=this.nodeFieldCount)
-    {
-      nodeData.set(j, nodeRank);      
-      progressIndicator.progress();
-      if (this.nodeBiasingEnabled) 
-      {
-        totalBias += nodeData.getFloat(j+3);
-      }
-    }      
+    Arrays.fill(this.ranks, nodeRank);
     
     // if node biasing enabled, need to normalize the bias by the total bias across all nodes so it represents
     // the share of bias.
     if (this.nodeBiasingEnabled)
     {
-      for (int j=0; j<this.nodeData.size(); j+=this.nodeFieldCount)
+      float totalBias = 0.0f;
+      for (int i=0; i<nodeCount; i++)
       {
-        float bias = nodeData.getFloat(j+3);
+        totalBias += nodeBiases.getFloat(i);
+      }
+      for (int i=0; i<nodeCount; i++)
+      {
+        float bias = nodeBiases.getFloat(i);
         bias /= totalBias;
-        nodeData.set(j+3,bias);
+        nodeBiases.set(i,bias);
       }
     }
     
-    Iterator<Integer> edgeData = getEdgeData();
+    // count the incoming edges of each node, so they can be grouped by destination, and sum the outgoing weights
+    int[] inDegrees = (usingEdgeDiskCache || compressedEdges != null) ? null : new int[nodeCount];
+    
+    IntIterator edgeData = getEdgeData();
     
     while(edgeData.hasNext())
     {
-      int sourceId = edgeData.next();
-      int nodeEdgeCount = edgeData.next();
+      int sourceIndex = edgeData.nextInt();
+      int nodeEdgeCount = edgeData.nextInt();
       
       while (nodeEdgeCount-- > 0)
       {
-        // skip the destination node id
-        edgeData.next();
+        int destIndex = edgeData.nextInt();
         
-        float weight = edgeData.next();
+        float weight = edgeData.nextInt();
                 
-        int nodeIndex = this.nodeIndices.get(sourceId);
+        this.totalWeights[sourceIndex] += weight;
         
-        float totalWeight = this.nodeData.getFloat(nodeIndex+1); 
-        totalWeight += weight;
-        this.nodeData.set(nodeIndex+1, totalWeight);
+        if (inDegrees != null)
+        {
+          inDegrees[destIndex]++;
+        }
         
         progressIndicator.progress();
       }
@@ -397,34 +713,191 @@ public class PageRankImpl
     // edges (i.e. total outgoing edge weight is 0.0)
     if (shouldHandleDanglingNodes)
     {
-      for (Map.Entry<Integer,Integer> e : nodeIndices.entrySet())
+      for (int i=0; i<nodeCount; i++)
       {
-        int nodeId = e.getKey();
-        int nodeIndex = e.getValue();
-        float totalWeight = nodeData.getFloat(nodeIndex+1);
-        if (totalWeight == 0.0f)
+        if (totalWeights[i] == 0.0f)
         {
-          danglingNodes.add(nodeId);
+          danglingNodes.add(i);
         }
       }
     }
+    
+    if (inDegrees != null)
+    {
+      buildInEdges(inDegrees, progressIndicator);
+      
+      if (this.parallelism > 1)
+      {
+        partitionNodes();
+      }
+      
+      if (this.nodeTolerance > 0.0f)
+      {
+        this.activeNodes = new int[nodeCount];
+        for (int i=0; i<nodeCount; i++)
+        {
+          this.activeNodes[i] = i;
+        }
+        this.activeNodeCount = nodeCount;
+        this.convergedNodes = new boolean[nodeCount];
+      }
+    }
+    
+    this.iterationCount = 0;
+    this.lastActiveNodeCount = 0;
+  }
+  
+  /**
+   * Arranges the edges held in memory by destination node.  This is a counting sort, so the incoming edges of each 
+   * node stay in the order they were added.  The edge list is drained as the arrays are filled, so each of its 
+   * segments can be collected as soon as it has been read rather than the whole list being held until the end.
+   */
+  private void buildInEdges(int[] inDegrees, ProgressIndicator progressIndicator)
+  {
+    int nodeCount = inDegrees.length;
+    int edgeCount = (int)this.edgeCount;
+    
+    this.inEdgeOffsets = new int[nodeCount + 1];
+    for (int i=0; i<nodeCount; i++)
+    {
+      this.inEdgeOffsets[i+1] = this.inEdgeOffsets[i] + inDegrees[i];
+    }
+    
+    this.inEdgeSources = new int[edgeCount];
+    this.inEdgeWeights = new float[edgeCount];
+    
+    int[] positions = inDegrees; // reuse the array for the next free position of each node
+    System.arraycopy(this.inEdgeOffsets, 0, positions, 0, nodeCount);
+    
+    IntIterator edgeData = this.edges.drain();
+    while (edgeData.hasNext())
+    {
+      int sourceIndex = edgeData.nextInt();
+      int nodeEdgeCount = edgeData.nextInt();
+      while (nodeEdgeCount-- > 0)
+      {
+        int destIndex = edgeData.nextInt();
+        int position = positions[destIndex]++;
+        this.inEdgeSources[position] = sourceIndex;
+        this.inEdgeWeights[position] = edgeData.nextInt();
+      }
+      progressIndicator.progress();
+    }
+  }
+  
+  /**
+   * Splits the destination nodes into ranges with about the same number of incoming edges, one per thread.
+   */
+  private void partitionNodes()
+  {
+    int nodeCount = this.inEdgeOffsets.length - 1;
+    int partitionCount = Math.max(1, Math.min(this.parallelism, nodeCount));
+    this.partitionNodeStarts = new int[partitionCount + 1];
+    for (int p=1; p<partitionCount; p++)
+    {
+      int targetEdges = (int)((this.edgeCount * p) / partitionCount);
+      int node = Arrays.binarySearch(this.inEdgeOffsets, targetEdges);
+      if (node < 0)
+      {
+        node = -node - 1;
+      }
+      else
+      {
+        // skip past nodes with no incoming edges sharing the same offset
+        while (node > 0 && this.inEdgeOffsets[node-1] == targetEdges)
+        {
+          node--;
+        }
+      }
+      this.partitionNodeStarts[p] = Math.max(this.partitionNodeStarts[p-1], Math.min(node, nodeCount));
+    }
+    this.partitionNodeStarts[partitionCount] = nodeCount;
+  }
+  
+  private ExecutorService getPool()
+  {
+    if (this.pool == null)
+    {
+      this.pool = Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+        public Thread newThread(Runnable r)
+        {
+          // the threads must not keep the task JVM alive if the pool is never shut down
+          Thread thread = new Thread(r, "PageRankImpl");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return this.pool;
+  }
+  
+  /**
+   * Runs a task for each partition on the thread pool and waits for them all to complete.
+   */
+  private void runPartitions(int count, final PartitionTask task)
+  {
+    List<Callable<Void>> calls = new ArrayList<Callable<Void>>(count);
+    for (int i=0; i<count; i++)
+    {
+      final int partition = i;
+      calls.add(new Callable<Void>() {
+        public Void call()
+        {
+          task.run(partition);
+          return null;
+        }
+      });
+    }
+    
+    try
+    {
+      for (Future<Void> result : getPool().invokeAll(calls))
+      {
+        result.get();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the partitions", e);
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)e.getCause();
+      }
+      if (e.getCause() instanceof Error)
+      {
+        throw (Error)e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+  
+  private interface PartitionTask
+  {
+    void run(int partition);
   }
   
   public float nextIteration(ProgressIndicator progressIndicator) throws IOException
   {
-    distribute(progressIndicator);
-    commit(progressIndicator);
+    if (isUpdatingInPlace())
+    {
+      updateInPlace(progressIndicator);
+    }
+    else
+    {
+      distribute(progressIndicator);
+      commit(progressIndicator);
+    }
     
     return getTotalRankChange();
   }
   
   public float nextIteration() throws IOException
   {
-    ProgressIndicator dummyIndicator = getDummyIndicator();
-    distribute(dummyIndicator);
-    commit(dummyIndicator);
-    
-    return getTotalRankChange();
+    return nextIteration(getDummyIndicator());
   }
   
   private ProgressIndicator getDummyIndicator()
@@ -437,135 +910,363 @@ public class PageRankImpl
     };
   }
   
-  public void distribute(ProgressIndicator progressIndicator) throws IOException
-  {    
-    Iterator<Integer> edgeData = getEdgeData();
-    
-    while(edgeData.hasNext())
+  private boolean isUpdatingInPlace()
+  {
+    return this.gaussSeidelEnabled && this.inEdgeOffsets != null;
+  }
+  
+  /**
+   * Gets the number of nodes to update in the current iteration.
+   */
+  private int getUpdateCount()
+  {
+    return this.activeNodes != null ? this.activeNodeCount : this.ranks.length;
+  }
+  
+  /**
+   * Gets the position in the active nodes of the first active node at or after a node.
+   */
+  private int getActivePosition(int node)
+  {
+    int position = Arrays.binarySearch(this.activeNodes, 0, this.activeNodeCount, node);
+    return position < 0 ? -position - 1 : position;
+  }
+  
+  private void prepareIteration()
+  {
+    for (int i=0; i<this.shares.length; i++)
     {
-      int sourceId = edgeData.next();
-      int nodeEdgeCount = edgeData.next();
-      
-      while (nodeEdgeCount-- > 0)
-      {
-        int toId = edgeData.next();
-        float weight = edgeData.next();
-                
-        int fromNodeIndex = this.nodeIndices.get(sourceId);
-        int toNodeIndex = this.nodeIndices.get(toId);
-        
-        float contributionChange = weight * this.nodeData.getFloat(fromNodeIndex) / this.nodeData.getFloat(fromNodeIndex+1);
-        
-        float currentContribution = this.nodeData.getFloat(toNodeIndex+2);
-        this.nodeData.set(toNodeIndex+2, currentContribution + contributionChange);
-        
-        progressIndicator.progress();
-      }      
+      this.shares[i] = this.totalWeights[i] > 0.0f ? this.ranks[i] / this.totalWeights[i] : 0.0f;
     }
     
+    this.danglingContribution = 0.0f;
     if (shouldHandleDanglingNodes)
     {
       // get the rank from each of the dangling nodes
       float totalRank = 0.0f;
-      for (int nodeId : danglingNodes)
+      for (int i=0; i<danglingNodes.size(); i++)
       {
-        int nodeIndex = nodeIndices.get(nodeId);
-        float rank = nodeData.get(nodeIndex);
-        totalRank += rank;
+        totalRank += ranks[danglingNodes.getInt(i)];
       }
       
       // distribute the dangling node ranks to all the nodes in the graph
       // note: the alpha factor is applied in the commit stage
-      float contributionIncrease = totalRank / this.nodeCount;
-      for (int i=2; i<nodeData.size(); i += this.nodeFieldCount)
+      this.danglingContribution = totalRank / this.nodeCount;
+    }
+  }
+  
+  public void distribute(final ProgressIndicator progressIndicator) throws IOException
+  {
+    prepareIteration();
+    
+    if (this.compressedEdges != null)
+    {
+      this.compressedEdges.distribute(this.shares, this.contributions, progressIndicator);
+    }
+    else if (this.usingEdgeDiskCache)
+    {
+      distributeEdgesFromDisk(progressIndicator);
+    }
+    else if (isRunningInParallel())
+    {
+      runPartitions(this.partitionNodeStarts.length - 1, new PartitionTask() {
+        @Override
+        public void run(int partition)
+        {
+          int start = partitionNodeStarts[partition];
+          int end = partitionNodeStarts[partition+1];
+          if (activeNodes != null)
+          {
+            sumContributions(activeNodes, getActivePosition(start), getActivePosition(end), progressIndicator);
+          }
+          else
+          {
+            sumContributions(null, start, end, progressIndicator);
+          }
+        }
+      });
+    }
+    else
+    {
+      sumContributions(this.activeNodes, 0, getUpdateCount(), progressIndicator);
+    }
+  }
+  
+  /**
+   * Sums the contributions from the incoming edges of a range of nodes.
+   * @param nodes nodes to update, or null to update the nodes in the range itself
+   */
+  private void sumContributions(int[] nodes, int start, int end, ProgressIndicator progressIndicator)
+  {
+    int edgesSinceProgress = 0;
+    for (int k=start; k<end; k++)
+    {
+      int node = nodes != null ? nodes[k] : k;
+      
+      this.contributions[node] = sumIncomingEdges(node);
+      
+      edgesSinceProgress += this.inEdgeOffsets[node+1] - this.inEdgeOffsets[node];
+      if (edgesSinceProgress >= PARTITION_PROGRESS_INTERVAL)
       {
-        float contribution = nodeData.getFloat(i);
-        contribution += contributionIncrease;
-        nodeData.set(i, contribution);
+        progressIndicator.progress();
+        edgesSinceProgress = 0;
       }
     }
   }
   
-  public void commit(ProgressIndicator progressIndicator)
+  /**
+   * Sums the contributions from the incoming edges of a node.
+   */
+  private float sumIncomingEdges(int node)
   {
-    this.totalRankChange = 0.0f;
+    final int[] sources = this.inEdgeSources;
+    final float[] weights = this.inEdgeWeights;
+    final float[] shares = this.shares;
     
-    float oneMinusAlpha = (1.0f - this.alpha);
-    float oneMinusAlphaOverNodeCount = oneMinusAlpha / nodeCount;
+    float contribution = 0.0f;
+    int end = this.inEdgeOffsets[node+1];
+    for (int i=this.inEdgeOffsets[node]; i<end; i++)
+    {
+      contribution += weights[i] * shares[sources[i]];
+    }
+    return contribution;
+  }
+  
+  private void distributeEdgesFromDisk(ProgressIndicator progressIndicator) throws IOException
+  {
+    IntIterator edgeData = getEdgeData();
     
-    for (int nodeIndex=0; nodeIndex<this.nodeData.size(); nodeIndex += this.nodeFieldCount)
-    {      
-      float oldRank = this.nodeData.get(nodeIndex+2);
-      float newRank;
+    while(edgeData.hasNext())
+    {
+      int sourceIndex = edgeData.nextInt();
+      int nodeEdgeCount = edgeData.nextInt();
       
-      if (this.nodeBiasingEnabled)
+      float share = this.shares[sourceIndex];
+      
+      while (nodeEdgeCount-- > 0)
       {
-        float bias = this.nodeData.get(nodeIndex+3);
-        newRank = bias * oneMinusAlpha + alpha * oldRank;
-      }
-      else
+        int toIndex = edgeData.nextInt();
+        float weight = edgeData.nextInt();
+        
+        this.contributions[toIndex] += weight * share;
+        
+        progressIndicator.progress();
+      }      
+    }
+  }
+  
+  public void commit(final ProgressIndicator progressIndicator)
+  {
+    int updateCount = getUpdateCount();
+    
+    if (isRunningInParallel())
+    {
+      final float[] rankChanges = new float[this.partitionNodeStarts.length - 1];
+      runPartitions(rankChanges.length, new PartitionTask() {
+        @Override
+        public void run(int partition)
+        {
+          int start = partitionNodeStarts[partition];
+          int end = partitionNodeStarts[partition+1];
+          if (activeNodes != null)
+          {
+            rankChanges[partition] = commitNodes(activeNodes, getActivePosition(start), getActivePosition(end));
+          }
+          else
+          {
+            rankChanges[partition] = commitNodes(null, start, end);
+          }
+          progressIndicator.progress();
+        }
+      });
+      
+      // sum in partition order so the total does not depend on the thread scheduling
+      this.totalRankChange = 0.0f;
+      for (float rankChange : rankChanges)
       {
-        newRank = oneMinusAlphaOverNodeCount + alpha * oldRank;
+        this.totalRankChange += rankChange;
       }
+    }
+    else
+    {
+      this.totalRankChange = commitNodes(this.activeNodes, 0, updateCount);
+      progressIndicator.progress();
+    }
+    
+    finishIteration(updateCount);
+  }
+  
+  /**
+   * Updates the ranks of a range of nodes from their contributions and resets the contributions.
+   * @param nodes nodes to update, or null to update the nodes in the range itself
+   * @return total absolute change in rank over the range
+   */
+  private float commitNodes(int[] nodes, int start, int end)
+  {
+    float rankChange = 0.0f;
+    
+    for (int k=start; k<end; k++)
+    {
+      int node = nodes != null ? nodes[k] : k;
       
-      this.nodeData.set(nodeIndex+2, 0.0f);
+      float newRank = computeRank(node, this.contributions[node] + this.danglingContribution);
       
-      float lastRankDiff = newRank - this.nodeData.get(nodeIndex);
+      this.contributions[node] = 0.0f;
       
-      this.nodeData.set(nodeIndex, newRank);
+      rankChange += updateRank(node, newRank);
+    }
+    
+    return rankChange;
+  }
+  
+  /**
+   * Runs an iteration which updates each node's rank in place, so the nodes updated later in the iteration 
+   * see the new rank.
+   */
+  private void updateInPlace(ProgressIndicator progressIndicator)
+  {
+    prepareIteration();
+    
+    int updateCount = getUpdateCount();
+    int edgesSinceProgress = 0;
+    float rankChange = 0.0f;
+    
+    for (int k=0; k<updateCount; k++)
+    {
+      int node = this.activeNodes != null ? this.activeNodes[k] : k;
       
-      this.totalRankChange += Math.abs(lastRankDiff);
+      float oldRank = this.ranks[node];
+      float newRank = computeRank(node, sumIncomingEdges(node) + this.danglingContribution);
       
-      progressIndicator.progress();
+      rankChange += updateRank(node, newRank);
+      
+      if (this.totalWeights[node] > 0.0f)
+      {
+        this.shares[node] = newRank / this.totalWeights[node];
+      }
+      else if (shouldHandleDanglingNodes)
+      {
+        // the rank of a dangling node goes to all the nodes, including those already updated in this iteration
+        this.danglingContribution += (newRank - oldRank) / this.nodeCount;
+      }
+      
+      edgesSinceProgress += this.inEdgeOffsets[node+1] - this.inEdgeOffsets[node];
+      if (edgesSinceProgress >= PARTITION_PROGRESS_INTERVAL)
+      {
+        progressIndicator.progress();
+        edgesSinceProgress = 0;
+      }
+    }
+    
+    if (shouldHandleDanglingNodes)
+    {
+      // With dangling nodes handled the ranks sum to 1.0 when converged.  Unlike the standard iteration, updating in 
+      // place does not preserve the total rank, and the excess decays slowly unless it is removed.  The total 
+      // is summed as a double since the error of a float sum over many nodes is larger than the excess itself.
+      double totalRank = 0.0;
+      for (int i=0; i<this.ranks.length; i++)
+      {
+        totalRank += this.ranks[i];
+      }
+      for (int i=0; i<this.ranks.length; i++)
+      {
+        this.ranks[i] = (float)(this.ranks[i] / totalRank);
+      }
+      rankChange += (float)Math.abs(1.0 - totalRank);
+    }
+    
+    this.totalRankChange = rankChange;
+    progressIndicator.progress();
+    
+    finishIteration(updateCount);
+  }
+  
+  /**
+   * Computes the new rank of a node from the total contribution of its incoming edges.
+   */
+  private float computeRank(int node, float contribution)
+  {
+    float oneMinusAlpha = (1.0f - this.alpha);
+    
+    if (this.nodeBiasingEnabled)
+    {
+      float bias = this.nodeBiases.getFloat(node);
+      return bias * oneMinusAlpha + alpha * contribution;
+    }
+    else
+    {
+      return oneMinusAlpha / nodeCount + alpha * contribution;
+    }
+  }
+  
+  /**
+   * Sets the new rank of a node, marking it converged if the change is below the node tolerance.
+   * @return absolute change in rank
+   */
+  private float updateRank(int node, float newRank)
+  {
+    float rankDiff = Math.abs(newRank - this.ranks[node]);
+    
+    this.ranks[node] = newRank;
+    
+    if (this.convergedNodes != null && rankDiff < this.nodeTolerance)
+    {
+      this.convergedNodes[node] = true;
+    }
+    
+    return rankDiff;
+  }
+  
+  /**
+   * Records the iteration and removes the nodes which converged during it from the active nodes.
+   */
+  private void finishIteration(int updateCount)
+  {
+    this.iterationCount++;
+    this.lastActiveNodeCount = updateCount;
+    
+    if (this.activeNodes != null)
+    {
+      int remaining = 0;
+      for (int k=0; k<this.activeNodeCount; k++)
+      {
+        int node = this.activeNodes[k];
+        if (!this.convergedNodes[node])
+        {
+          this.activeNodes[remaining++] = node;
+        }
+      }
+      this.activeNodeCount = remaining;
     }
   }
   
   private void writeEdgesToDisk() throws IOException
   { 
-    this.edgesFile = File.createTempFile("fastgraph", null);
-    
-    FileOutputStream outStream = new FileOutputStream(this.edgesFile);
-    BufferedOutputStream bufferedStream = new BufferedOutputStream(outStream);
-    this.edgeDataOutputStream = new DataOutputStream(bufferedStream);
+    this.edgesFile = new MappedIntFile();
     
-    for (int edgeData : edges)
+    IntIterator edgeData = this.compressedEdges != null ? this.compressedEdges.iterator() : this.edges.drain();
+    while (edgeData.hasNext())
     {
-      this.edgeDataOutputStream.writeInt(edgeData);
+      this.edgesFile.append(edgeData.nextInt());
     }
     
-    this.edges.clear();
+    this.compressedEdges = null;
     usingEdgeDiskCache = true;
   }
   
-  private Iterator<Integer> getEdgeData() throws IOException
+  private IntIterator getEdgeData()
   {
-    if (!usingEdgeDiskCache)
+    if (usingEdgeDiskCache)
     {
-      return this.edges.iterator();
+      return this.edgesFile.iterator();
+    }
+    else if (this.compressedEdges != null)
+    {
+      return this.compressedEdges.iterator();
     }
     else
     {
-      FileInputStream fileInputStream = new FileInputStream(this.edgesFile);
-      BufferedInputStream inputStream = new BufferedInputStream(fileInputStream);
-      final DataInputStream dataInputStream = new DataInputStream(inputStream);
-      
-      return new AbstractIterator<Integer>() {
-        
-        @Override
-        protected Integer computeNext()
-        {
-          try
-          {
-            return dataInputStream.readInt();
-          }
-          catch (IOException e)
-          {
-            return endOfData();
-          }
-        }
-        
-      };
+      return this.edges.iterator();
     }
   }
 }
-
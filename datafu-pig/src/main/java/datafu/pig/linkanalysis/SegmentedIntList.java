@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.linkanalysis;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Stores a list of ints in memory in fixed size segments.
+ * 
+ * <p>
+ * Unlike an array list, growing the list never copies the values, so the old and new arrays are never held at the 
+ * same time and at most one segment is partly unused.  The values can also be drained, which empties the list 
+ * and releases each segment once the values in it have been read, so the memory is given back while the values are 
+ * moved elsewhere.
+ * </p>
+ */
+class SegmentedIntList
+{
+  private static final int SEGMENT_BITS = 16;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+  
+  private final List<int[]> segments = new ArrayList<int[]>();
+  private int[] current;
+  private long size;
+  
+  /**
+   * @return number of values in the list
+   */
+  public long size()
+  {
+    return size;
+  }
+  
+  public void add(int value)
+  {
+    int offset = (int)(size & SEGMENT_MASK);
+    if (offset == 0)
+    {
+      current = new int[SEGMENT_SIZE];
+      segments.add(current);
+    }
+    current[offset] = value;
+    size++;
+  }
+  
+  public void clear()
+  {
+    segments.clear();
+    current = null;
+    size = 0;
+  }
+  
+  /**
+   * Iterates over the values from the beginning of the list.
+   */
+  public IntIterator iterator()
+  {
+    return iterator(segments, size, false);
+  }
+  
+  /**
+   * Empties the list and iterates over the values it held, releasing each segment once it has been read.
+   */
+  public IntIterator drain()
+  {
+    IntIterator values = iterator(new ArrayList<int[]>(segments), size, true);
+    clear();
+    return values;
+  }
+  
+  private static IntIterator iterator(final List<int[]> segments, final long size, final boolean release)
+  {
+    return new AbstractIntIterator() {
+      private long position = 0;
+      private int[] segment;
+      
+      @Override
+      public boolean hasNext()
+      {
+        return position < size;
+      }
+      
+      @Override
+      public int nextInt()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        
+        int offset = (int)(position & SEGMENT_MASK);
+        if (offset == 0)
+        {
+          int index = (int)(position >>> SEGMENT_BITS);
+          segment = segments.get(index);
+          if (release)
+          {
+            segments.set(index, null);
+          }
+        }
+        position++;
+        return segment[offset];
+      }
+    };
+  }
+}
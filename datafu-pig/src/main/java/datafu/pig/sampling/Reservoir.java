@@ -19,30 +19,316 @@
 
 package datafu.pig.sampling;
 
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.Random;
 
-class Reservoir extends PriorityQueue<ScoredTuple>
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * Keeps the tuples with the highest scores seen so far, up to a fixed number.
+ *
+ * <p>
+ * The scores and tuples are held in parallel arrays forming a binary min-heap on the score, so the lowest score
+ * is always at the root.  Once the reservoir is full, a score no higher than the lowest is rejected by a single
+ * comparison, without allocating anything.
+ * </p>
+ *
+ * <p>
+ * For a uniform sample, {@link #considerSkipping(Tuple, Random)} avoids drawing a score for every tuple.  Once the
+ * reservoir is full, with lowest score t, each new tuple with a uniform random score is accepted with probability
+ * 1-t, so the number of tuples to skip before the next one accepted is drawn from a geometric distribution, as in
+ * Li's Algorithm L.  The tuple accepted is given a score uniform between t and 1.  The scores are then distributed
+ * exactly as if a score had been drawn for every tuple, so reservoirs built this way can still be merged by score.
+ * </p>
+ *
+ * <p>
+ * {@link #considerWeightedSkipping(Tuple, double, Random)} does the same for a weighted sample, where the score of
+ * a tuple of weight w is u^(1/w) for u uniform, using the exponential jumps of the A-ExpJ algorithm of Efraimidis
+ * and Spirakis.  Rather than a number of tuples, the total weight of the tuples to skip is drawn.
+ * </p>
+ */
+class Reservoir
 {
-  private static final long serialVersionUID = 1L;
-  private int numSamples;
-  
+  private final int numSamples;
+  private final double[] scores;
+  private final Tuple[] tuples;
+  private int size;
+
+  // tuples left to skip before the next one is accepted, or -1 if not drawn yet
+  private long skip = -1;
+  // weight left to skip before the next tuple is accepted, or NaN if not drawn yet
+  private double skipWeight = Double.NaN;
+
   public Reservoir(int numSamples)
   {
-    super(numSamples);
     this.numSamples = numSamples;
+    this.scores = new double[numSamples];
+    this.tuples = new Tuple[numSamples];
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public boolean isFull()
+  {
+    return size >= numSamples;
+  }
+
+  /**
+   * @return the lowest score in the reservoir
+   */
+  public double getMinScore()
+  {
+    if (size == 0)
+    {
+      throw new IllegalStateException("Reservoir is empty");
+    }
+    return scores[0];
   }
-  
+
+  public double getScore(int i)
+  {
+    return scores[i];
+  }
+
+  public Tuple getTuple(int i)
+  {
+    return tuples[i];
+  }
+
+  /**
+   * Adds a tuple if the reservoir is not full or its score is higher than the lowest score.
+   *
+   * @return true if the tuple was added
+   */
+  public boolean consider(double score, Tuple tuple)
+  {
+    if (size < numSamples)
+    {
+      scores[size] = score;
+      tuples[size] = tuple;
+      siftUp(size++);
+      return true;
+    }
+    if (numSamples == 0 || score <= scores[0])
+    {
+      return false;
+    }
+    scores[0] = score;
+    tuples[0] = tuple;
+    siftDown(0);
+    return true;
+  }
+
   public boolean consider(ScoredTuple scoredTuple)
   {
-    if (super.size() < numSamples) {
-      return super.add(scoredTuple);
-    } else {      
-      ScoredTuple head = super.peek();
-      if (scoredTuple.score > head.score) {
-        super.poll();
-        return super.add(scoredTuple);
-      }
+    return consider(scoredTuple.score, scoredTuple.getTuple());
+  }
+
+  /**
+   * Adds the tuple of an intermediate tuple of (score, tuple), using its score.
+   *
+   * @return true if the tuple was added
+   */
+  public boolean considerIntermediateTuple(Tuple intermediateTuple)
+  {
+    try
+    {
+      return consider((Double)intermediateTuple.get(0), (Tuple)intermediateTuple.get(1));
+    }
+    catch (Exception e)
+    {
+      throw new RuntimeException("Cannot deserialize intermediate tuple: "+intermediateTuple.toString(), e);
+    }
+  }
+
+  /**
+   * Considers the next tuple of a uniform sample, drawing a random number only when a tuple is accepted rather
+   * than a score for each tuple.
+   *
+   * @return true if the tuple was added
+   */
+  public boolean considerSkipping(Tuple tuple, Random random)
+  {
+    if (size < numSamples)
+    {
+      consider(random.nextDouble(), tuple);
+      return true;
+    }
+    if (numSamples == 0)
+    {
+      return false;
+    }
+    if (skip < 0)
+    {
+      skip = drawSkip(random);
+    }
+    if (skip > 0)
+    {
+      skip--;
       return false;
     }
+
+    double minScore = scores[0];
+    boolean added = consider(minScore + (1.0 - minScore) * random.nextDouble(), tuple);
+    skip = drawSkip(random);
+    return added;
+  }
+
+  /**
+   * Considers the next tuple of a weighted sample, drawing random numbers only when a tuple is accepted rather
+   * than a score for each tuple.
+   *
+   * @param weight positive weight of the tuple
+   * @return true if the tuple was added
+   */
+  public boolean considerWeightedSkipping(Tuple tuple, double weight, Random random)
+  {
+    if (size < numSamples)
+    {
+      consider(Math.pow(random.nextDouble(), 1.0/weight), tuple);
+      return true;
+    }
+    if (numSamples == 0)
+    {
+      return false;
+    }
+    if (Double.isNaN(skipWeight))
+    {
+      skipWeight = drawSkipWeight(random);
+    }
+    skipWeight -= weight;
+    if (skipWeight > 0.0)
+    {
+      return false;
+    }
+
+    // the score of the tuple accepted is conditioned on being higher than the lowest score
+    double minScore = Math.pow(scores[0], weight);
+    double u = minScore + (1.0 - minScore) * random.nextDouble();
+    boolean added = consider(Math.pow(u, 1.0/weight), tuple);
+    skipWeight = drawSkipWeight(random);
+    return added;
+  }
+
+  /**
+   * Draws the total weight of the tuples rejected before the next accepted.  A tuple of weight w is rejected with
+   * probability t^w, where t is the lowest score, so the weight skipped is log(u)/log(t) for u uniform.
+   */
+  private double drawSkipWeight(Random random)
+  {
+    double minScore = scores[0];
+    if (minScore <= 0.0)
+    {
+      return 0.0;
+    }
+    if (minScore >= 1.0)
+    {
+      return Double.POSITIVE_INFINITY;
+    }
+    double u = 1.0 - random.nextDouble();
+    return Math.log(u) / Math.log(minScore);
+  }
+
+  /**
+   * Draws the number of tuples rejected before the next accepted, where each is rejected with probability equal
+   * to the lowest score.
+   */
+  private long drawSkip(Random random)
+  {
+    double minScore = scores[0];
+    if (minScore <= 0.0)
+    {
+      return 0;
+    }
+    if (minScore >= 1.0)
+    {
+      return Long.MAX_VALUE;
+    }
+    // in (0,1], so the log is finite; a skip too large for a long saturates to Long.MAX_VALUE
+    double u = 1.0 - random.nextDouble();
+    return (long)Math.floor(Math.log(u) / Math.log(minScore));
+  }
+
+  /**
+   * Adds an intermediate tuple of (score, tuple) to the output for each tuple in the reservoir.
+   */
+  public void addIntermediateTuples(DataBag output, TupleFactory tupleFactory) throws ExecException
+  {
+    for (int i=0; i<size; i++)
+    {
+      Tuple intermediateTuple = tupleFactory.newTuple(2);
+      intermediateTuple.set(0, scores[i]);
+      intermediateTuple.set(1, tuples[i]);
+      output.add(intermediateTuple);
+    }
+  }
+
+  /**
+   * Adds each tuple in the reservoir to the output.
+   */
+  public void addTuples(DataBag output)
+  {
+    for (int i=0; i<size; i++)
+    {
+      output.add(tuples[i]);
+    }
+  }
+
+  public void clear()
+  {
+    Arrays.fill(tuples, 0, size, null);
+    size = 0;
+    skip = -1;
+    skipWeight = Double.NaN;
+  }
+
+  private void siftUp(int i)
+  {
+    double score = scores[i];
+    Tuple tuple = tuples[i];
+    while (i > 0)
+    {
+      int parent = (i - 1) >>> 1;
+      if (scores[parent] <= score)
+      {
+        break;
+      }
+      scores[i] = scores[parent];
+      tuples[i] = tuples[parent];
+      i = parent;
+    }
+    scores[i] = score;
+    tuples[i] = tuple;
+  }
+
+  private void siftDown(int i)
+  {
+    double score = scores[i];
+    Tuple tuple = tuples[i];
+    int half = size >>> 1;
+    while (i < half)
+    {
+      int child = 2*i + 1;
+      int right = child + 1;
+      if (right < size && scores[right] < scores[child])
+      {
+        child = right;
+      }
+      if (score <= scores[child])
+      {
+        break;
+      }
+      scores[i] = scores[child];
+      tuples[i] = tuples[child];
+      i = child;
+    }
+    scores[i] = score;
+    tuples[i] = tuple;
   }
 }
@@ -20,10 +20,12 @@
 package datafu.pig.sampling;
 
 import java.io.IOException;
+import java.util.Random;
 
 import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.Algebraic;
 import org.apache.pig.EvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.builtin.Nondeterministic;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -50,6 +52,28 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * to compensate for skew.
  * </p>
  * 
+ * <p>
+ * Passing 'skip', 'true' after the sample size draws the number of tuples to skip before the next
+ * one enters the reservoir, rather than a random score for each tuple, as in Li's Algorithm L.
+ * The sample has the same distribution, and its scores can still be merged by the algebraic
+ * implementation, but once the reservoir is full only a few random numbers are drawn for each
+ * tuple added to it.  When sampling a small number of tuples from a large bag, almost all the
+ * tuples are then passed over without drawing a random number or allocating anything.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * DEFINE Sample datafu.pig.sampling.ReservoirSample('1000', 'skip', 'true');
+ * 
+ * views = LOAD 'views' AS (member_id:int, url:chararray);
+ * views_grouped = GROUP views BY member_id;
+ * sampled = FOREACH views_grouped GENERATE group AS member_id, Sample(views) AS views;
+ * }
+ * </pre>
+ * </p>
+ * 
  * @author wvaughan
  *
  */
@@ -58,6 +82,10 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
 {
   protected Integer numSamples;
   
+  private String[] params;
+  private boolean skip;
+  private Random random;
+  
   private Reservoir reservoir;
   
   protected ScoredTuple.ScoreGenerator scoreGen;
@@ -72,7 +100,46 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
   
   public ReservoirSample(String numSamples)
   {
-    this.numSamples = Integer.parseInt(numSamples);    
+    this(new String[] {numSamples});
+  }
+  
+  public ReservoirSample(String... params)
+  {
+    if (params.length < 1)
+    {
+      throw new IllegalArgumentException("Expected the sample size, optionally followed by parameter name/value pairs");
+    }
+    this.numSamples = Integer.parseInt(params[0]);
+    this.params = params;
+    this.skip = parseSkip(params);
+  }
+  
+  /**
+   * Parses the parameter name/value pairs following the sample size.
+   * 
+   * @return true if tuples are to be skipped rather than scored
+   */
+  static boolean parseSkip(String[] params)
+  {
+    if (params.length % 2 != 1)
+    {
+      throw new IllegalArgumentException("Expected the sample size, optionally followed by parameter name/value pairs");
+    }
+    boolean skip = false;
+    for (int i=1; i<params.length; i+=2)
+    {
+      String parameterName = params[i];
+      String value = params[i+1];
+      if (parameterName.equals("skip"))
+      {
+        skip = Boolean.parseBoolean(value);
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + parameterName);
+      }
+    }
+    return skip;
   }
   
   protected ScoredTuple.ScoreGenerator getScoreGenerator()
@@ -87,26 +154,45 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
   @Override
   public void accumulate(Tuple input) throws IOException
   {
-    DataBag samples = (DataBag) input.get(0);
-    ScoredTuple.ScoreGenerator scoreGen = getScoreGenerator();
-    for (Tuple sample : samples) {
-      getReservoir().consider(new ScoredTuple(scoreGen.generateScore(sample), sample));
-    }  
+    sample(getReservoir(), (DataBag) input.get(0));
+  }
+  
+  /**
+   * Considers each tuple of a bag for the reservoir.
+   */
+  void sample(Reservoir reservoir, DataBag samples) throws ExecException
+  {
+    if (skip) {
+      for (Tuple sample : samples) {
+        reservoir.considerSkipping(sample, getRandom());
+      }
+    } else {
+      ScoredTuple.ScoreGenerator scoreGen = getScoreGenerator();
+      for (Tuple sample : samples) {
+        reservoir.consider(scoreGen.generateScore(sample), sample);
+      }
+    }
+  }
+  
+  Random getRandom()
+  {
+    if (random == null) {
+      random = new Random();
+    }
+    return random;
   }
 
   @Override
   public void cleanup()
   {
-    this.reservoir.clear();
+    getReservoir().clear();
   }
 
   @Override
   public DataBag getValue()
   {
     DataBag output = BagFactory.getInstance().newDefaultBag();  
-    for (ScoredTuple sample : getReservoir()) {
-      output.add(sample.getTuple());
-    }
+    getReservoir().addTuples(output);
     return output;
   }
 
@@ -144,8 +230,15 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
   private String getParam()
   {
     if (param == null) {
-      if (numSamples != null) {
-        param = String.format("('%d')", numSamples);
+      if (params != null) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i=0; i<params.length; i++) {
+          if (i > 0) {
+            sb.append(",");
+          }
+          sb.append("'").append(params[i]).append("'");
+        }
+        param = sb.append(")").toString();
       } else {
         param = "";
       }
@@ -171,6 +264,8 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
   static public class Initial extends EvalFunc<Tuple>
   {
     int numSamples;
+    private boolean skip;
+    private Random random;
     private Reservoir reservoir;
     protected ScoredTuple.ScoreGenerator scoreGen;
     TupleFactory tupleFactory = TupleFactory.getInstance();
@@ -182,6 +277,12 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
       this.numSamples = Integer.parseInt(numSamples);
     }
     
+    public Initial(String... params)
+    {
+      this(params[0]);
+      this.skip = parseSkip(params);
+    }
+    
     private Reservoir getReservoir()
     {
       if (reservoir == null) {
@@ -217,21 +318,42 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
           output.add(new ScoredTuple(scoreGen.generateScore(sample), sample).getIntermediateTuple(tupleFactory));
         }
       } else {     
-        getReservoir().clear();
+        Reservoir reservoir = getReservoir();
+        reservoir.clear();
         
-        for (Tuple sample : samples) {
-          getReservoir().consider(new ScoredTuple(scoreGen.generateScore(sample), sample));
-        }    
+        sample(reservoir, samples);
         
-        for (ScoredTuple scoredTuple : getReservoir()) {
-          // add the score on to the intermediate tuple
-          output.add(scoredTuple.getIntermediateTuple(tupleFactory));
-        }
+        // add the score on to the intermediate tuple
+        reservoir.addIntermediateTuples(output, tupleFactory);
       }
 
       return tupleFactory.newTuple(output);
     }
     
+    /**
+     * Considers each tuple of a bag for the reservoir.
+     */
+    void sample(Reservoir reservoir, DataBag samples) throws ExecException
+    {
+      if (skip) {
+        for (Tuple sample : samples) {
+          reservoir.considerSkipping(sample, getRandom());
+        }
+      } else {
+        ScoredTuple.ScoreGenerator scoreGen = getScoreGenerator();
+        for (Tuple sample : samples) {
+          reservoir.consider(scoreGen.generateScore(sample), sample);
+        }
+      }
+    }
+    
+    Random getRandom()
+    {
+      if (random == null) {
+        random = new Random();
+      }
+      return random;
+    }
   }
   
   static public class Intermediate extends EvalFunc<Tuple>
@@ -247,6 +369,12 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
       this.numSamples = Integer.parseInt(numSamples);
     }
     
+    public Intermediate(String... params)
+    {
+      this(params[0]);
+      parseSkip(params);
+    }
+    
     private Reservoir getReservoir()
     {
       if (reservoir == null) {
@@ -257,7 +385,8 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
 
     @Override
     public Tuple exec(Tuple input) throws IOException {
-      getReservoir().clear();
+      Reservoir reservoir = getReservoir();
+      reservoir.clear();
       
       DataBag bagOfSamples = (DataBag) input.get(0);
       for (Tuple innerTuple : bagOfSamples) {
@@ -265,15 +394,13 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
         
         for (Tuple sample : samples) {
           // use the same score as previously generated
-          getReservoir().consider(ScoredTuple.fromIntermediateTuple(sample));
+          reservoir.considerIntermediateTuple(sample);
         }
       }
       
       DataBag output = BagFactory.getInstance().newDefaultBag();
-      for (ScoredTuple scoredTuple : getReservoir()) {
-        // add the score on to the intermediate tuple
-        output.add(scoredTuple.getIntermediateTuple(tupleFactory));
-      }
+      // add the score on to the intermediate tuple
+      reservoir.addIntermediateTuples(output, tupleFactory);
 
       return tupleFactory.newTuple(output);
     }
@@ -293,6 +420,12 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
       this.numSamples = Integer.parseInt(numSamples);
     }
     
+    public Final(String... params)
+    {
+      this(params[0]);
+      parseSkip(params);
+    }
+    
     private Reservoir getReservoir()
     {
       if (reservoir == null) {
@@ -303,7 +436,8 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
     
     @Override
     public DataBag exec(Tuple input) throws IOException {
-      getReservoir().clear();
+      Reservoir reservoir = getReservoir();
+      reservoir.clear();
       
       DataBag bagOfSamples = (DataBag) input.get(0);
       for (Tuple innerTuple : bagOfSamples) {
@@ -311,15 +445,13 @@ public class ReservoirSample extends AccumulatorEvalFunc<DataBag> implements Alg
         
         for (Tuple sample : samples) {
           // use the same score as previously generated
-          getReservoir().consider(ScoredTuple.fromIntermediateTuple(sample));
+          reservoir.considerIntermediateTuple(sample);
         }
       }
       
       DataBag output = BagFactory.getInstance().newDefaultBag();  
-      for (ScoredTuple scoredTuple : getReservoir()) {
-        // output the original tuple
-        output.add(scoredTuple.getTuple());
-      }
+      // output the original tuple
+      reservoir.addTuples(output);
 
       return output;
     }    
@@ -19,6 +19,8 @@
 
 package datafu.pig.sampling;
 
+import java.util.Random;
+
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
@@ -95,13 +97,19 @@ class ScoredTuple implements Comparable<ScoredTuple>
       double generateScore(Tuple sample) throws ExecException;
   }
   
+  /**
+   * Generates uniform random scores, from a generator owned by this instance rather than the one shared by all
+   * threads behind Math.random().
+   */
   static class PureRandomScoreGenerator implements ScoreGenerator
   {
+      private final Random random = new Random();
+      
       public PureRandomScoreGenerator(){}
       
       public double generateScore(Tuple sample)
       {
-          return Math.random();
+          return random.nextDouble();
       }
   }
 }
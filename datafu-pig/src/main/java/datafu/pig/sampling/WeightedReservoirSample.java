@@ -19,8 +19,11 @@
 
 package datafu.pig.sampling;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
+import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.logicalLayer.FrontendException;
@@ -51,10 +54,19 @@ import org.apache.pig.backend.executionengine.ExecException;
  * </ul>
  * </p>
  * <p>
+ * Passing 'skip', 'true' after these uses the A-ExpJ algorithm, with exponential jumps, from the same paper.
+ * Once the reservoir is full, rather than drawing a score for each tuple, it draws the total weight of the tuples
+ * to pass over before the next one enters the reservoir, and only draws a score for that one.  The scores have
+ * the same distribution as for A-Res, so the algebraic implementation merges them as before.  When sampling a few
+ * tuples from a large bag, most tuples are passed over by subtracting their weight.
+ * </p>
+ * <p>
  * Example:
  * <pre>
  * {@code
  * define WeightedSample datafu.pig.sampling.WeightedReservoirSample('1','1');
+ * -- or, skipping over tuples:
+ * -- define WeightedSample datafu.pig.sampling.WeightedReservoirSample('1','1','skip','true');
  * input = LOAD 'input' AS (v1:chararray, v2:INT);
  * input_g = GROUP input ALL;
  * sampled = FOREACH input_g GENERATE WeightedSample(input);
@@ -69,14 +81,37 @@ public class WeightedReservoirSample extends ReservoirSample {
     
     private Integer weightIdx;
     
+    private String[] params;
+    private boolean skip;
+    
     public WeightedReservoirSample(String strNumSamples, String strWeightIdx)
     {
-        super(strNumSamples);
-        this.weightIdx = Integer.parseInt(strWeightIdx);
+        this(new String[] {strNumSamples, strWeightIdx});
+    }
+    
+    public WeightedReservoirSample(String... params)
+    {
+        super(checkParams(params)[0]);
+        this.weightIdx = Integer.parseInt(params[1]);
         if(this.weightIdx < 0) {
             throw new IllegalArgumentException("Invalid negative index of weight field argument for WeightedReserviorSample constructor: " 
-                                     + strWeightIdx);
+                                     + params[1]);
+        }
+        this.params = params;
+        this.skip = parseSkip(Arrays.copyOfRange(params, 1, params.length));
+    }
+    
+    /**
+     * Checks that the parameters hold the sample size and the index of the weight field, optionally followed by 
+     * parameter name/value pairs, before the sample size is passed to the superclass.
+     */
+    private static String[] checkParams(String[] params)
+    {
+        if(params.length < 2 || params.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected the sample size and the index of the weight field, " +
+                                               "optionally followed by parameter name/value pairs");
         }
+        return params;
     }
     
     @Override
@@ -89,6 +124,19 @@ public class WeightedReservoirSample extends ReservoirSample {
         return this.scoreGen;
     }
     
+    @Override
+    void sample(Reservoir reservoir, DataBag samples) throws ExecException
+    {
+        if(!this.skip) {
+            super.sample(reservoir, samples);
+            return;
+        }
+        InverseWeightScoreGenerator weights = (InverseWeightScoreGenerator)getScoreGenerator();
+        for(Tuple sample : samples) {
+            reservoir.considerWeightedSkipping(sample, weights.getWeight(sample), getRandom());
+        }
+    }
+    
     @Override
     public Schema outputSchema(Schema input) {
       try {
@@ -148,10 +196,15 @@ public class WeightedReservoirSample extends ReservoirSample {
     private String getParam()
     {
       if (this.param == null) {
-          if(super.numSamples != null && this.weightIdx != null) {
-              this.param = String.format("('%d','%d')", 
-                                       super.numSamples,
-                                       this.weightIdx);
+          if(this.params != null) {
+              StringBuilder sb = new StringBuilder("(");
+              for(int i = 0; i < this.params.length; i++) {
+                  if(i > 0) {
+                      sb.append(",");
+                  }
+                  sb.append("'").append(this.params[i]).append("'");
+              }
+              this.param = sb.append(")").toString();
           } else {
               this.param = "";
           }
@@ -182,6 +235,7 @@ public class WeightedReservoirSample extends ReservoirSample {
     static public class Initial extends ReservoirSample.Initial
     {
       private Integer weightIdx; 
+      private boolean skip;
         
       public Initial()
       {
@@ -199,6 +253,12 @@ public class WeightedReservoirSample extends ReservoirSample {
           }
       }
       
+      public Initial(String... params)
+      {
+          this(checkParams(params)[0], params[1]);
+          this.skip = parseSkip(Arrays.copyOfRange(params, 1, params.length));
+      }
+      
       @Override
       protected ScoredTuple.ScoreGenerator getScoreGenerator()
       {
@@ -208,6 +268,19 @@ public class WeightedReservoirSample extends ReservoirSample {
           }
           return super.scoreGen;
       }
+      
+      @Override
+      void sample(Reservoir reservoir, DataBag samples) throws ExecException
+      {
+          if(!this.skip) {
+              super.sample(reservoir, samples);
+              return;
+          }
+          InverseWeightScoreGenerator weights = (InverseWeightScoreGenerator)getScoreGenerator();
+          for(Tuple sample : samples) {
+              reservoir.considerWeightedSkipping(sample, weights.getWeight(sample), getRandom());
+          }
+      }
     }
     
     static public class Intermediate extends ReservoirSample.Intermediate 
@@ -221,6 +294,11 @@ public class WeightedReservoirSample extends ReservoirSample {
         {
             super(strNumSamples);
         }        
+        
+        public Intermediate(String... params)
+        {
+            super(checkParams(params)[0]);
+        }
     }
     
     static public class Final extends ReservoirSample.Final 
@@ -234,6 +312,11 @@ public class WeightedReservoirSample extends ReservoirSample {
         {
             super(strNumSamples);
         }        
+        
+        public Final(String... params)
+        {
+            super(checkParams(params)[0]);
+        }
     }
 
     static class InverseWeightScoreGenerator implements ScoredTuple.ScoreGenerator
@@ -241,6 +324,9 @@ public class WeightedReservoirSample extends ReservoirSample {
         //index of the weight field of the input tuple
         private int weightIdx;
         
+        // owned by this instance rather than shared by all threads as the generator behind Math.random() is
+        private final Random random = new Random();
+        
         InverseWeightScoreGenerator(Integer weightIdx) 
         {
             if(weightIdx == null || weightIdx < 0) {
@@ -251,6 +337,16 @@ public class WeightedReservoirSample extends ReservoirSample {
         
         @Override
         public double generateScore(Tuple sample) throws ExecException
+        {
+            double weight = getWeight(sample);
+            //a differnt approach to try: u^(1/w) could be exp(log(u)/w) ?
+            return Math.pow(random.nextDouble(), 1/weight);
+        }
+        
+        /**
+         * Gets the weight of a tuple, which must be a positive number.
+         */
+        double getWeight(Tuple sample) throws ExecException
         {
             if(this.weightIdx >= sample.size())
             {
@@ -266,8 +362,7 @@ public class WeightedReservoirSample extends ReservoirSample {
                 //non-positive weight should be avoided
                 throw new ExecException(String.format("Invalid sample weight [%f]. It should be a positive real number", weight));
             }
-            //a differnt approach to try: u^(1/w) could be exp(log(u)/w) ?
-            return Math.pow(Math.random(), 1/weight);
+            return weight;
         }
     }
 }
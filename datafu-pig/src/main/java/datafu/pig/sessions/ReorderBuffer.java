@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sessions;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * Puts tuples which arrive slightly out of order back into time order, for {@link Sessionize} and
+ * {@link SessionCount}.
+ *
+ * <p>
+ * Tuples are held in a min-heap by time until a tuple at least <code>maxLateness</code> millis later has been
+ * added, and are then released in time order.  Tuples with equal times are released in the order they were added.
+ * A tuple which is earlier than one already released can not be put in order this way.  The caller then calls
+ * {@link #sortAll()} and gives back the tuples it has already processed with {@link #addReleased(Tuple, long)},
+ * after which all the tuples are sorted in a sorted bag, which spills to disk, and are only released after
+ * {@link #finish()}.
+ * </p>
+ */
+class ReorderBuffer
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  private final long maxLateness;
+  private final PriorityQueue<Entry> heap = new PriorityQueue<Entry>();
+
+  private long sequence;
+  private long releasedSequence;
+  private long maxTime;
+  private long releasedTime;
+  private boolean finished;
+
+  // records of (time, sequence, tuple), once the disorder has exceeded the bound
+  private DataBag sortedBag;
+  private Iterator<Tuple> sortedIterator;
+
+  private long time;
+
+  /**
+   * @param maxLateness how far in millis a tuple may be behind the latest tuple added
+   */
+  public ReorderBuffer(long maxLateness)
+  {
+    if (maxLateness < 0)
+    {
+      throw new IllegalArgumentException("maxLateness must not be negative");
+    }
+    this.maxLateness = maxLateness;
+    clear();
+  }
+
+  /**
+   * Adds a tuple.
+   *
+   * @param t tuple
+   * @param time time of the tuple in epoch millis
+   * @return false if the tuple is earlier than a tuple already released, in which case it is not added
+   */
+  public boolean add(Tuple t, long time)
+  {
+    if (sortedBag != null)
+    {
+      sortedBag.add(tupleFactory.newTuple(Arrays.<Object>asList(time, sequence++, t)));
+      return true;
+    }
+    if (time < releasedTime)
+    {
+      return false;
+    }
+    heap.add(new Entry(time, sequence++, t));
+    if (time > maxTime)
+    {
+      maxTime = time;
+    }
+    return true;
+  }
+
+  /**
+   * Sorts all the tuples in a sorted bag, instead of the heap.  Tuples are no longer released until
+   * {@link #finish()}.
+   */
+  public void sortAll()
+  {
+    if (sortedBag != null)
+    {
+      return;
+    }
+    sortedBag = BagFactory.getInstance().newSortedBag(null);
+    for (Entry e : heap)
+    {
+      sortedBag.add(tupleFactory.newTuple(Arrays.<Object>asList(e.time, e.sequence, e.tuple)));
+    }
+    heap.clear();
+  }
+
+  /**
+   * Adds back a tuple which has already been released, after {@link #sortAll()}.  Tuples added back keep their
+   * order ahead of the other tuples with the same time.
+   *
+   * @param t tuple
+   * @param time time of the tuple in epoch millis
+   */
+  public void addReleased(Tuple t, long time)
+  {
+    if (sortedBag == null)
+    {
+      throw new IllegalStateException("Released tuples can only be added back after sortAll()");
+    }
+    sortedBag.add(tupleFactory.newTuple(Arrays.<Object>asList(time, releasedSequence++, t)));
+  }
+
+  /**
+   * @return true if {@link #sortAll()} has been called
+   */
+  public boolean isSortingAll()
+  {
+    return sortedBag != null;
+  }
+
+  /**
+   * Marks the end of the input, so all the remaining tuples can be released.
+   */
+  public void finish()
+  {
+    finished = true;
+  }
+
+  /**
+   * Releases the next tuple in time order, if it can not be preceded by any tuple added later.
+   *
+   * @return tuple, or null if none can be released yet
+   */
+  public Tuple next() throws ExecException
+  {
+    if (sortedBag != null)
+    {
+      if (!finished)
+      {
+        return null;
+      }
+      if (sortedIterator == null)
+      {
+        sortedIterator = sortedBag.iterator();
+      }
+      if (!sortedIterator.hasNext())
+      {
+        return null;
+      }
+      Tuple record = sortedIterator.next();
+      time = (Long)record.get(0);
+      return (Tuple)record.get(2);
+    }
+
+    Entry e = heap.peek();
+    if (e == null || (!finished && e.time > maxTime - maxLateness))
+    {
+      return null;
+    }
+    heap.poll();
+    time = e.time;
+    releasedTime = e.time;
+    return e.tuple;
+  }
+
+  /**
+   * @return time of the tuple last returned by {@link #next()}
+   */
+  public long time()
+  {
+    return time;
+  }
+
+  public void clear()
+  {
+    heap.clear();
+    sequence = 0;
+    // below the sequence of every tuple added
+    releasedSequence = Long.MIN_VALUE;
+    maxTime = Long.MIN_VALUE;
+    releasedTime = Long.MIN_VALUE;
+    finished = false;
+    if (sortedBag != null)
+    {
+      sortedBag.clear();
+      sortedBag = null;
+    }
+    sortedIterator = null;
+  }
+
+  private static class Entry implements Comparable<Entry>
+  {
+    final long time;
+    final long sequence;
+    final Tuple tuple;
+
+    Entry(long time, long sequence, Tuple tuple)
+    {
+      this.time = time;
+      this.sequence = sequence;
+      this.tuple = tuple;
+    }
+
+    @Override
+    public int compareTo(Entry o)
+    {
+      if (time != o.time)
+      {
+        return time < o.time ? -1 : 1;
+      }
+      return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+    }
+  }
+}
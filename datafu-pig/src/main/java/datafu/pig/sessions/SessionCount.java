@@ -20,12 +20,17 @@
 package datafu.pig.sessions;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 
 import org.apache.pig.Accumulator;
 import org.apache.pig.AccumulatorEvalFunc;
 import org.apache.pig.EvalFunc;
+import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 
@@ -40,6 +45,14 @@ import datafu.pig.util.SimpleEvalFunc;
  *  b) captures the notion that views across multiple sessions are more meaningful
  * <p>
  * Input <b>must</b> be sorted ascendingly by time for this UDF to work.
+ * The time may be an ISO8601 string or a long holding epoch millis.  As in {@link Sessionize}, these are
+ * compared as epoch millis without creating a Joda DateTime for each event.
+ * <p>
+ * Input which is not sorted is accepted when 'max_lateness' is passed after the time window, with a duration in
+ * the same form.  Events are held back until an event later by at least this duration arrives, and are then
+ * counted in time order.  If an event arrives later than this, all the events are sorted in a bag which spills to
+ * disk before being counted.  The times of the events already counted are kept for this, packed into blocks in a
+ * bag which also spills to disk, so only the latest block is held in memory.
  * <p>
  * Example:
  * <pre>
@@ -56,20 +69,67 @@ import datafu.pig.util.SimpleEvalFunc;
  *   generate group.user_id as user_id, 
  *            group.page_id as page_id, 
  *            SessionCount(views.(time)) as count; }
+ *
+ * -- or, for views which are at most 5 minutes out of order, without sorting them:
+ * define UnsortedSessionCount datafu.pig.sessions.SessionCount('$TIME_WINDOW', 'max_lateness', '5m');
+ * view_counts = FOREACH views_grouped GENERATE group.user_id as user_id,
+ *                                              group.page_id as page_id,
+ *                                              UnsortedSessionCount(views.(time)) as count;
  * }
  * </pre>
  * 
  */
 public class SessionCount extends AccumulatorEvalFunc<Long>
 {
+  private static final int COUNTED_BLOCK_SIZE = 4096;
+
   private final long millis;
-  private DateTime last_date;
+  private final TimestampParser parser = new TimestampParser();
+  private final ReorderBuffer reorderBuffer;
+  // times counted so far, when the input may not be sorted, as tuples holding a full block of packed times,
+  // followed by the block being filled
+  private final DataBag countedBlocks;
+  private final long[] counted;
+  private int countedSize;
+  // only the times are needed, so this is buffered in place of each tuple
+  private final Tuple placeholder = TupleFactory.getInstance().newTuple(0);
+  private long lastTime;
+  private boolean started;
   private long sum;
 
   public SessionCount(String timeSpec)
   {
-    Period p = new Period("PT" + timeSpec.toUpperCase());
-    this.millis = p.toStandardSeconds().getSeconds() * 1000;
+    this(new String[] {timeSpec});
+  }
+
+  public SessionCount(String... params)
+  {
+    if (params.length < 1 || params.length % 2 != 1)
+    {
+      throw new IllegalArgumentException("Expected the time window, optionally followed by parameter name/value pairs");
+    }
+
+    Period p = new Period("PT" + params[0].toUpperCase());
+    this.millis = p.toStandardSeconds().getSeconds() * 1000L;
+
+    ReorderBuffer reorderBuffer = null;
+    for (int i=1; i<params.length; i+=2)
+    {
+      String parameterName = params[i];
+      String value = params[i+1];
+      if (parameterName.equals("max_lateness"))
+      {
+        reorderBuffer = new ReorderBuffer(new Period("PT" + value.toUpperCase()).toStandardSeconds().getSeconds() * 1000L);
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + parameterName);
+      }
+    }
+    this.reorderBuffer = reorderBuffer;
+    this.countedBlocks = reorderBuffer != null ? BagFactory.getInstance().newDefaultBag() : null;
+    this.counted = reorderBuffer != null ? new long[COUNTED_BLOCK_SIZE] : null;
+
     cleanup();
   }
 
@@ -77,30 +137,106 @@ public class SessionCount extends AccumulatorEvalFunc<Long>
   public void accumulate(Tuple input) throws IOException
   {
     for (Tuple t : (DataBag) input.get(0)) {
-      DateTime date = new DateTime(t.get(0));
-
-      if (last_date == null) {
-        last_date = date;
-        sum = 1;
-      } else if (date.isAfter(last_date.plus(this.millis)))
-        sum += 1;
-      else if (date.isBefore(last_date))
-        throw new IOException("input time series is not sorted");
-
-      last_date = date;
-    }    
+      Object timeObj = t.get(0);
+      long time;
+      if (timeObj instanceof Long || timeObj instanceof String) {
+        time = parser.toMillis(timeObj);
+      } else {
+        time = new DateTime(timeObj).getMillis();
+      }
+
+      if (reorderBuffer == null) {
+        count(time);
+      } else {
+        if (!reorderBuffer.add(placeholder, time)) {
+          sortAll();
+          reorderBuffer.add(placeholder, time);
+        }
+        countReleased();
+      }
+    }
+  }
+
+  private void count(long time) throws IOException
+  {
+    if (!started) {
+      started = true;
+      sum = 1;
+    } else if (time > lastTime + this.millis)
+      sum += 1;
+    else if (time < lastTime)
+      throw new IOException("input time series is not sorted");
+
+    lastTime = time;
+  }
+
+  private void countReleased() throws IOException
+  {
+    while (reorderBuffer.next() != null) {
+      long time = reorderBuffer.time();
+      if (!reorderBuffer.isSortingAll()) {
+        addCounted(time);
+      }
+      count(time);
+    }
+  }
+
+  private void addCounted(long time)
+  {
+    counted[countedSize++] = time;
+    if (countedSize == counted.length) {
+      ByteBuffer block = ByteBuffer.allocate(countedSize * 8);
+      block.asLongBuffer().put(counted, 0, countedSize);
+      countedBlocks.add(TupleFactory.getInstance().newTuple(new DataByteArray(block.array())));
+      countedSize = 0;
+    }
+  }
+
+  /**
+   * Called when an event is later than max_lateness allows.  The events already counted are sorted with all the
+   * others, to be counted again at the end.
+   */
+  private void sortAll() throws IOException
+  {
+    reorderBuffer.sortAll();
+    for (Tuple t : countedBlocks) {
+      LongBuffer block = ByteBuffer.wrap(((DataByteArray)t.get(0)).get()).asLongBuffer();
+      while (block.hasRemaining()) {
+        reorderBuffer.addReleased(placeholder, block.get());
+      }
+    }
+    for (int i=0; i<countedSize; i++) {
+      reorderBuffer.addReleased(placeholder, counted[i]);
+    }
+    countedBlocks.clear();
+    countedSize = 0;
+    this.started = false;
+    this.sum = 0;
   }
 
   @Override
   public Long getValue()
   {
+    if (reorderBuffer != null) {
+      reorderBuffer.finish();
+      try {
+        countReleased();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
     return sum;
   }
 
   @Override
   public void cleanup()
   {
-    this.last_date = null;
+    this.started = false;
     this.sum = 0;
+    if (this.reorderBuffer != null) {
+      this.reorderBuffer.clear();
+      this.countedBlocks.clear();
+      this.countedSize = 0;
+    }
   }
 }
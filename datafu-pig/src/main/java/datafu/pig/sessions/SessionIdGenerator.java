@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sessions;
+
+import java.util.UUID;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.Tuple;
+
+import datafu.pig.util.TupleFingerprint;
+
+/**
+ * Generates the session IDs of {@link Sessionize} and {@link SessionSummary}, as chosen by their 'session_id'
+ * parameter.
+ */
+class SessionIdGenerator
+{
+  /**
+   * How session IDs are generated.
+   */
+  enum Mode
+  {
+    /**
+     * A random UUID for each session.
+     */
+    UUID,
+    /**
+     * The time and a 64 bit hash of the fields of the first tuple of the session.
+     */
+    HASH,
+    /**
+     * A random UUID for each instance of the UDF, followed by a count of the sessions.
+     */
+    COUNTER
+  }
+
+  private final Mode mode;
+
+  private String counterPrefix;
+  private long counter;
+
+  public SessionIdGenerator(Mode mode)
+  {
+    this.mode = mode;
+  }
+
+  /**
+   * @param value 'uuid', 'hash' or 'counter'
+   */
+  public static Mode parseMode(String value)
+  {
+    try
+    {
+      return Mode.valueOf(value.toUpperCase());
+    }
+    catch (IllegalArgumentException e)
+    {
+      throw new IllegalArgumentException("session_id must be 'uuid', 'hash' or 'counter'");
+    }
+  }
+
+  /**
+   * Generates the ID of a new session.
+   *
+   * @param first first tuple of the session
+   * @param time time of the first tuple in epoch millis
+   * @return session ID
+   */
+  public String next(Tuple first, long time) throws ExecException
+  {
+    switch (mode)
+    {
+      case HASH:
+        // the time is kept in full, so sessions can only collide when they start in the same millisecond
+        return Long.toHexString(time) + "-" + Long.toHexString(TupleFingerprint.fingerprint1(first));
+      case COUNTER:
+        if (counterPrefix == null)
+        {
+          counterPrefix = UUID.randomUUID().toString() + "-";
+        }
+        return counterPrefix + Long.toString(counter++);
+      default:
+        return UUID.randomUUID().toString();
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sessions;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.builtin.Nondeterministic;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+
+/**
+ * Sessionizes an input stream, producing one tuple summarizing each session.
+ *
+ * <p>
+ * The input is the same as for {@link Sessionize}: a bag sorted by its first field, which is an ISO8601 timestamp
+ * or a long holding epoch millis, and a constructor argument giving the session timeout.  The 'session_id' parameter
+ * of {@link Sessionize} is also accepted.
+ * </p>
+ *
+ * <p>
+ * Rather than returning each input tuple with a session ID, this returns a bag with one tuple for each session,
+ * holding:
+ * </p>
+ *
+ * <ul>
+ *   <li>session_id: the ID of the session</li>
+ *   <li>start: the time of the first tuple, in epoch millis</li>
+ *   <li>end: the time of the last tuple, in epoch millis</li>
+ *   <li>duration: end - start, in millis</li>
+ *   <li>events: the number of tuples in the session</li>
+ *   <li>first: the first tuple of the session</li>
+ *   <li>last: the last tuple of the session</li>
+ * </ul>
+ *
+ * <p>
+ * Only the aggregates of the open session are kept while accumulating, and each session is summarized as soon as
+ * the next one starts, so the input tuples are not copied into the output.  The memory used is proportional to
+ * the number of sessions rather than the number of tuples.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define SessionSummary datafu.pig.sessions.SessionSummary('30m');
+ *
+ * views = LOAD 'views.tsv' AS (visit_date:chararray, member_id:int, url:chararray);
+ *
+ * views = GROUP views BY member_id;
+ * sessions = FOREACH views {
+ *   visits = ORDER views BY visit_date;
+ *   GENERATE group AS member_id, FLATTEN(SessionSummary(visits));
+ * }
+ *
+ * -- landing and exit pages of each session
+ * pages = FOREACH sessions GENERATE member_id, session_id, duration, events, first.url AS landing, last.url AS exit;
+ * }
+ * </pre>
+ * </p>
+ */
+@Nondeterministic
+public class SessionSummary extends AccumulatorEvalFunc<DataBag>
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  private final long millis;
+  private final SessionIdGenerator sessionIds;
+  private final TimestampParser parser = new TimestampParser();
+
+  private DataBag outputBag;
+  private boolean started;
+  private boolean emitted;
+
+  // the open session
+  private String id;
+  private long startTime;
+  private long lastTime;
+  private long events;
+  private Tuple first;
+  private Tuple last;
+
+  public SessionSummary(String timeSpec)
+  {
+    this(new String[] {timeSpec});
+  }
+
+  public SessionSummary(String... params)
+  {
+    if (params.length < 1 || params.length % 2 != 1)
+    {
+      throw new IllegalArgumentException("Expected the session timeout, optionally followed by parameter name/value pairs");
+    }
+
+    Period p = new Period("PT" + params[0].toUpperCase());
+    this.millis = p.toStandardSeconds().getSeconds() * 1000L;
+
+    SessionIdGenerator.Mode sessionIdMode = SessionIdGenerator.Mode.UUID;
+    for (int i=1; i<params.length; i+=2)
+    {
+      String parameterName = params[i];
+      String value = params[i+1];
+      if (parameterName.equals("session_id"))
+      {
+        sessionIdMode = SessionIdGenerator.parseMode(value);
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + parameterName);
+      }
+    }
+    this.sessionIds = new SessionIdGenerator(sessionIdMode);
+
+    cleanup();
+  }
+
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    for (Tuple t : (DataBag) input.get(0)) {
+      long time;
+      try
+      {
+        time = parser.toMillis(t.get(0));
+      }
+      catch (IllegalArgumentException e)
+      {
+        throw new RuntimeException(e.getMessage(), e);
+      }
+
+      if (!this.started)
+      {
+        start(t, time);
+        this.started = true;
+      }
+      else if (time > this.lastTime + this.millis)
+      {
+        outputBag.add(summarize());
+        start(t, time);
+      }
+      else if (time < this.lastTime)
+      {
+        throw new IOException(String.format("input time series is not sorted (%s < %s)", new DateTime(time), new DateTime(this.lastTime)));
+      }
+
+      this.events++;
+      this.last = t;
+      this.lastTime = time;
+    }
+  }
+
+  private void start(Tuple t, long time) throws ExecException
+  {
+    this.id = sessionIds.next(t, time);
+    this.startTime = time;
+    this.events = 0;
+    this.first = t;
+  }
+
+  private Tuple summarize()
+  {
+    Tuple summary = tupleFactory.newTuple(7);
+    try
+    {
+      summary.set(0, this.id);
+      summary.set(1, this.startTime);
+      summary.set(2, this.lastTime);
+      summary.set(3, this.lastTime - this.startTime);
+      summary.set(4, this.events);
+      summary.set(5, this.first);
+      summary.set(6, this.last);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    return summary;
+  }
+
+  @Override
+  public DataBag getValue()
+  {
+    // the last session only ends with the input
+    if (this.started && !this.emitted)
+    {
+      outputBag.add(summarize());
+      this.emitted = true;
+    }
+    return outputBag;
+  }
+
+  @Override
+  public void cleanup()
+  {
+    this.started = false;
+    this.emitted = false;
+    this.outputBag = BagFactory.getInstance().newDefaultBag();
+    this.id = null;
+    this.first = null;
+    this.last = null;
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+
+      Schema inputBagSchema = inputFieldSchema.schema;
+
+      if (inputBagSchema.getField(0).type != DataType.TUPLE)
+      {
+        throw new RuntimeException(String.format("Expected input bag to contain a TUPLE, but instead found %s",
+                                                 DataType.findTypeName(inputBagSchema.getField(0).type)));
+      }
+
+      Schema inputTupleSchema = inputBagSchema.getField(0).schema;
+
+      if (inputTupleSchema.getField(0).type != DataType.CHARARRAY
+          && inputTupleSchema.getField(0).type != DataType.LONG)
+      {
+        throw new RuntimeException(String.format("Expected first element of tuple to be a CHARARRAY or LONG, but instead found %s",
+                                                 DataType.findTypeName(inputTupleSchema.getField(0).type)));
+      }
+
+      Schema outputTupleSchema = new Schema();
+      outputTupleSchema.add(new Schema.FieldSchema("session_id", DataType.CHARARRAY));
+      outputTupleSchema.add(new Schema.FieldSchema("start", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("end", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("duration", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("events", DataType.LONG));
+      outputTupleSchema.add(new Schema.FieldSchema("first", inputTupleSchema.clone(), DataType.TUPLE));
+      outputTupleSchema.add(new Schema.FieldSchema("last", inputTupleSchema.clone(), DataType.TUPLE));
+
+      return new Schema(new Schema.FieldSchema(getSchemaName(this.getClass()
+                                                             .getName()
+                                                             .toLowerCase(), input),
+                                           outputTupleSchema,
+                                           DataType.BAG));
+    }
+    catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -20,7 +20,6 @@
 package datafu.pig.sessions;
 
 import java.io.IOException;
-import java.util.UUID;
 
 import org.apache.pig.Accumulator;
 import org.apache.pig.AccumulatorEvalFunc;
@@ -48,6 +47,32 @@ import org.joda.time.Period;
  * </p>
  *
  * <p>
+ * The timestamp may also be given as a long holding epoch millis.  ISO8601 timestamps with a UTC offset, such as
+ * 2010-01-01T01:00:00Z, are parsed without creating any objects, so sessionizing with either form only allocates
+ * the output tuples.
+ * </p>
+ *
+ * <p>
+ * Generating a random UUID for each session is relatively slow.  Passing 'session_id' after the timeout selects
+ * another kind of session ID:
+ * </p>
+ *
+ * <ul>
+ *   <li>'uuid' (the default) is a random UUID.</li>
+ *   <li>'hash' is the start time of the session and a 64 bit hash of the fields of its first tuple.  It is the same
+ *   each time the same input is sessionized.</li>
+ *   <li>'counter' is a random UUID chosen once per task followed by a count of the sessions in the task.</li>
+ * </ul>
+ *
+ * <p>
+ * Passing 'max_lateness' with a duration in the same form as the timeout accepts input which is not sorted, so the
+ * nested ORDER BY can be left out when the input is already mostly in time order.  Tuples are held back until a
+ * tuple later by at least this duration arrives and are then sessionized in time order, so only the tuples within
+ * this duration of the latest are buffered.  If a tuple arrives later than this, all the tuples are sorted in a bag
+ * which spills to disk, as the ORDER BY would have done.  The output is in time order either way.
+ * </p>
+ *
+ * <p>
  * Example:
  * <pre>
  * {@code
@@ -55,6 +80,10 @@ import org.joda.time.Period;
  * %declare TIME_WINDOW  30m
  * 
  * define Sessionize datafu.pig.sessions.Sessionize('$TIME_WINDOW');
+ * -- or, for session IDs which are cheaper to generate:
+ * -- define Sessionize datafu.pig.sessions.Sessionize('$TIME_WINDOW', 'session_id', 'counter');
+ * -- or, for input which is at most 5 minutes out of order, without the ORDER BY below:
+ * -- define Sessionize datafu.pig.sessions.Sessionize('$TIME_WINDOW', 'max_lateness', '5m');
  *
  * views = LOAD 'views.tsv' AS (visit_date:chararray, member_id:int, url:chararray);
  *
@@ -75,16 +104,54 @@ import org.joda.time.Period;
 @Nondeterministic
 public class Sessionize extends AccumulatorEvalFunc<DataBag>
 {
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
   private final long millis;
+  private final SessionIdGenerator sessionIds;
+  private final TimestampParser parser = new TimestampParser();
+  private final ReorderBuffer reorderBuffer;
 
   private DataBag outputBag;
-  private DateTime last_date;
+  private long lastTime;
+  private boolean started;
   private String id;
 
   public Sessionize(String timeSpec)
   {
-    Period p = new Period("PT" + timeSpec.toUpperCase());
-    this.millis = p.toStandardSeconds().getSeconds() * 1000;
+    this(new String[] {timeSpec});
+  }
+
+  public Sessionize(String... params)
+  {
+    if (params.length < 1 || params.length % 2 != 1)
+    {
+      throw new IllegalArgumentException("Expected the session timeout, optionally followed by parameter name/value pairs");
+    }
+
+    Period p = new Period("PT" + params[0].toUpperCase());
+    this.millis = p.toStandardSeconds().getSeconds() * 1000L;
+
+    SessionIdGenerator.Mode sessionIdMode = SessionIdGenerator.Mode.UUID;
+    ReorderBuffer reorderBuffer = null;
+    for (int i=1; i<params.length; i+=2)
+    {
+      String parameterName = params[i];
+      String value = params[i+1];
+      if (parameterName.equals("session_id"))
+      {
+        sessionIdMode = SessionIdGenerator.parseMode(value);
+      }
+      else if (parameterName.equals("max_lateness"))
+      {
+        reorderBuffer = new ReorderBuffer(new Period("PT" + value.toUpperCase()).toStandardSeconds().getSeconds() * 1000L);
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + parameterName);
+      }
+    }
+    this.sessionIds = new SessionIdGenerator(sessionIdMode);
+    this.reorderBuffer = reorderBuffer;
 
     cleanup();
   }
@@ -93,49 +160,115 @@ public class Sessionize extends AccumulatorEvalFunc<DataBag>
   public void accumulate(Tuple input) throws IOException
   {
     for (Tuple t : (DataBag) input.get(0)) {
-      Object timeObj = t.get(0);
-      
-      DateTime date;
-      if (timeObj instanceof String)
+      long time;
+      try
+      {
+        time = parser.toMillis(t.get(0));
+      }
+      catch (IllegalArgumentException e)
       {
-        date = new DateTime((String)timeObj);
+        throw new RuntimeException(e.getMessage(), e);
       }
-      else if (timeObj instanceof Long)
+
+      if (reorderBuffer == null)
       {
-        date = new DateTime((Long)timeObj);
+        add(t, time);
       }
       else
       {
-        throw new RuntimeException("Time must either be a String or Long");
+        if (!reorderBuffer.add(t, time))
+        {
+          sortAll();
+          reorderBuffer.add(t, time);
+        }
+        addReleased();
       }
-      
-      if (this.last_date == null)
-        this.last_date = date;
-      else if (date.isAfter(this.last_date.plus(this.millis)))
-        this.id = UUID.randomUUID().toString();
-      else if (date.isBefore(last_date))
-        throw new IOException(String.format("input time series is not sorted (%s < %s)", date, last_date));
-
-      Tuple t_new = TupleFactory.getInstance().newTuple(t.getAll());
-      t_new.append(this.id);
-      outputBag.add(t_new);
-      
-      this.last_date = date;
     }
   }
 
+  private void add(Tuple t, long time) throws IOException
+  {
+    if (!this.started)
+    {
+      this.id = sessionIds.next(t, time);
+      this.started = true;
+    }
+    else if (time > this.lastTime + this.millis)
+      this.id = sessionIds.next(t, time);
+    else if (time < this.lastTime)
+      throw new IOException(String.format("input time series is not sorted (%s < %s)", new DateTime(time), new DateTime(this.lastTime)));
+
+    int size = t.size();
+    Tuple t_new = tupleFactory.newTuple(size + 1);
+    for (int i=0; i<size; i++)
+    {
+      t_new.set(i, t.get(i));
+    }
+    t_new.set(size, this.id);
+    outputBag.add(t_new);
+    
+    this.lastTime = time;
+  }
+
+  private void addReleased() throws IOException
+  {
+    Tuple t;
+    while ((t = reorderBuffer.next()) != null)
+    {
+      add(t, reorderBuffer.time());
+    }
+  }
+
+  /**
+   * Called when a tuple is later than max_lateness allows.  The tuples already sessionized are taken back from the
+   * output and sorted with all the others, to be sessionized again at the end.
+   */
+  private void sortAll() throws IOException
+  {
+    reorderBuffer.sortAll();
+    for (Tuple t_new : outputBag)
+    {
+      int size = t_new.size() - 1;
+      Tuple t = tupleFactory.newTuple(size);
+      for (int i=0; i<size; i++)
+      {
+        t.set(i, t_new.get(i));
+      }
+      reorderBuffer.addReleased(t, parser.toMillis(t.get(0)));
+    }
+    this.outputBag = BagFactory.getInstance().newDefaultBag();
+    this.started = false;
+    this.id = null;
+  }
+
   @Override
   public DataBag getValue()
   {
+    if (reorderBuffer != null)
+    {
+      reorderBuffer.finish();
+      try
+      {
+        addReleased();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
     return outputBag;
   }
 
   @Override
   public void cleanup()
   {
-    this.last_date = null;
+    this.started = false;
     this.outputBag = BagFactory.getInstance().newDefaultBag();
-    this.id = UUID.randomUUID().toString();
+    this.id = null;
+    if (this.reorderBuffer != null)
+    {
+      this.reorderBuffer.clear();
+    }
   }
 
   @Override
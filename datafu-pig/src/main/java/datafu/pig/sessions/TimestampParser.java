@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sessions;
+
+import org.joda.time.DateTime;
+
+/**
+ * Converts the times of {@link Sessionize} and {@link SessionCount} to epoch millis.
+ *
+ * <p>
+ * ISO-8601 strings of the form yyyy-MM-ddTHH:mm:ss[.SSS] followed by Z or a UTC offset, such as
+ * 2010-01-01T01:00:00Z or 2010-01-01T01:00:00.250-08:00, are parsed directly, without creating any objects.
+ * The start of the day of the last string is cached, as consecutive times usually fall on the same day.  Any other
+ * string, such as one without a UTC offset, which is in the default time zone, is parsed by Joda as before.
+ * </p>
+ */
+class TimestampParser
+{
+  private static final long MILLIS_PER_MINUTE = 60L * 1000L;
+  private static final long MILLIS_PER_DAY = 24L * 60L * MILLIS_PER_MINUTE;
+
+  // the date of the last string parsed, and the epoch millis at the start of that day in UTC
+  private String lastDate;
+  private long lastDayMillis;
+
+  /**
+   * Gets the epoch millis of a time given as a Long or an ISO-8601 String.
+   *
+   * @param time time
+   * @return epoch millis
+   * @throws IllegalArgumentException if the time is neither a Long nor a String
+   */
+  public long toMillis(Object time)
+  {
+    if (time instanceof Long)
+    {
+      return (Long)time;
+    }
+    else if (time instanceof String)
+    {
+      return parse((String)time);
+    }
+    else
+    {
+      throw new IllegalArgumentException("Time must either be a String or Long");
+    }
+  }
+
+  /**
+   * Parses an ISO-8601 time to epoch millis.
+   *
+   * @param s time
+   * @return epoch millis
+   */
+  public long parse(String s)
+  {
+    long millis = parseUtcOffsetTime(s);
+    if (millis == Long.MIN_VALUE)
+    {
+      return new DateTime(s).getMillis();
+    }
+    return millis;
+  }
+
+  /**
+   * Parses yyyy-MM-ddTHH:mm:ss[.S+](Z|+HH|+HH:mm|+HHmm).
+   *
+   * @return epoch millis, or Long.MIN_VALUE if the string has some other form
+   */
+  private long parseUtcOffsetTime(String s)
+  {
+    int length = s.length();
+    if (length < 20
+        || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+        || s.charAt(13) != ':' || s.charAt(16) != ':')
+    {
+      return Long.MIN_VALUE;
+    }
+
+    long dayMillis;
+    if (lastDate != null && s.regionMatches(0, lastDate, 0, 10))
+    {
+      dayMillis = lastDayMillis;
+    }
+    else
+    {
+      int year = digits(s, 0, 4);
+      int month = digits(s, 5, 2);
+      int day = digits(s, 8, 2);
+      if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month))
+      {
+        return Long.MIN_VALUE;
+      }
+      dayMillis = epochDay(year, month, day) * MILLIS_PER_DAY;
+      lastDate = s.substring(0, 10);
+      lastDayMillis = dayMillis;
+    }
+
+    int hour = digits(s, 11, 2);
+    int minute = digits(s, 14, 2);
+    int second = digits(s, 17, 2);
+    if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+    {
+      return Long.MIN_VALUE;
+    }
+
+    int i = 19;
+    int millis = 0;
+    if (s.charAt(i) == '.' || s.charAt(i) == ',')
+    {
+      i++;
+      int start = i;
+      for (; i < length && isDigit(s.charAt(i)); i++)
+      {
+        // only milliseconds are kept
+        if (i - start < 3)
+        {
+          millis = millis*10 + (s.charAt(i) - '0');
+        }
+      }
+      int fractionDigits = i - start;
+      if (fractionDigits == 0)
+      {
+        return Long.MIN_VALUE;
+      }
+      for (int d = fractionDigits; d < 3; d++)
+      {
+        millis *= 10;
+      }
+    }
+
+    if (i >= length)
+    {
+      // no UTC offset, so the time is in the default time zone
+      return Long.MIN_VALUE;
+    }
+
+    long offsetMillis;
+    char c = s.charAt(i);
+    if (c == 'Z' && i + 1 == length)
+    {
+      offsetMillis = 0;
+    }
+    else if (c == '+' || c == '-')
+    {
+      int offsetHours = digits(s, i+1, 2);
+      int offsetMinutes = 0;
+      int remaining = length - i - 3;
+      if (remaining == 3 && s.charAt(i+3) == ':')
+      {
+        offsetMinutes = digits(s, i+4, 2);
+      }
+      else if (remaining == 2)
+      {
+        offsetMinutes = digits(s, i+3, 2);
+      }
+      else if (remaining != 0)
+      {
+        return Long.MIN_VALUE;
+      }
+      if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59)
+      {
+        return Long.MIN_VALUE;
+      }
+      offsetMillis = (offsetHours*60L + offsetMinutes) * MILLIS_PER_MINUTE;
+      if (c == '-')
+      {
+        offsetMillis = -offsetMillis;
+      }
+    }
+    else
+    {
+      return Long.MIN_VALUE;
+    }
+
+    return dayMillis + ((hour*60L + minute)*60L + second)*1000L + millis - offsetMillis;
+  }
+
+  private static boolean isDigit(char c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * @return the value of the digits, or -1 if they are not all digits
+   */
+  private static int digits(String s, int start, int count)
+  {
+    if (start + count > s.length())
+    {
+      return -1;
+    }
+    int value = 0;
+    for (int i=start; i<start+count; i++)
+    {
+      char c = s.charAt(i);
+      if (!isDigit(c))
+      {
+        return -1;
+      }
+      value = value*10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static int daysInMonth(int year, int month)
+  {
+    switch (month)
+    {
+      case 2:
+        return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+
+  /**
+   * Counts the days from 1970-01-01 to a date of the proleptic Gregorian calendar.
+   */
+  private static long epochDay(int year, int month, int day)
+  {
+    // shift the year to start in March, so the leap day is the last day of the year
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra/4 - yearOfEra/100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+/**
+ * A blocked {@link <a href="http://en.wikipedia.org/wiki/Bloom_filter" target="_blank">Bloom filter</a>} of tuples, used 
+ * by the set operations to skip tuples which cannot match before comparing them.
+ * 
+ * <p>
+ * All the bits for a tuple are set within a single 512 bit block, so a lookup touches one cache line.  This gives a 
+ * slightly higher false positive rate than a standard Bloom filter of the same size.  Tuples are hashed with 
+ * {@link Tuple#hashCode()}, which is consistent with {@link Tuple#equals(Object)}.
+ * </p>
+ * 
+ * <p>
+ * The lookups are counted, and {@link #reportCounters()} adds the counts to the Pig counters in the 
+ * "DataFu Set Operations" group, which can be used to tune the false positive rate.
+ * </p>
+ */
+class BloomFilter
+{
+  private static final String COUNTER_GROUP = "DataFu Set Operations";
+  
+  private static final int BLOCK_LONGS = 8;
+  private static final int BLOCK_BITS = BLOCK_LONGS * 64;
+  private static final int MAX_HASHES = 16;
+  
+  private final long[] bits;
+  private final int blockCount;
+  private final int hashCount;
+  
+  private long tuplesChecked;
+  private long tuplesRejected;
+  
+  /**
+   * Creates a filter sized for a number of tuples.
+   * 
+   * @param expectedTuples number of tuples which will be added
+   * @param falsePositiveRate target probability that a tuple which was not added passes the filter
+   */
+  public BloomFilter(long expectedTuples, double falsePositiveRate)
+  {
+    if (falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0)
+    {
+      throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+    }
+    
+    long n = Math.max(1, expectedTuples);
+    double bitsPerTuple = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+    long blocks = Math.max(1, (long)Math.ceil(n * bitsPerTuple / BLOCK_BITS));
+    if (blocks * BLOCK_LONGS > Integer.MAX_VALUE)
+    {
+      throw new IllegalArgumentException("Bloom filter too large for " + expectedTuples + " tuples");
+    }
+    
+    this.blockCount = (int)blocks;
+    this.bits = new long[this.blockCount * BLOCK_LONGS];
+    this.hashCount = (int)Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerTuple * Math.log(2))));
+  }
+  
+  /**
+   * Creates a filter holding the tuples of a bag.
+   * 
+   * @param bag tuples to add
+   * @param falsePositiveRate target probability that a tuple not in the bag passes the filter
+   * @return filter
+   */
+  public static BloomFilter of(DataBag bag, double falsePositiveRate)
+  {
+    BloomFilter filter = new BloomFilter(bag.size(), falsePositiveRate);
+    for (Tuple t : bag)
+    {
+      filter.add(t);
+    }
+    return filter;
+  }
+  
+  /**
+   * Parses the Bloom filter parameters of a set operation, which are given as name/value pairs.  The only
+   * parameter is 'bloom_filter_fpp', the false positive rate of the filter.
+   * 
+   * @param parameters name/value pairs
+   * @return false positive rate, or zero if no filter should be used
+   */
+  public static double parseFalsePositiveRate(String... parameters)
+  {
+    if (parameters.length % 2 != 0)
+    {
+      throw new IllegalArgumentException("Invalid parameters list");
+    }
+    
+    double falsePositiveRate = 0.0;
+    for (int i=0; i<parameters.length; i+=2)
+    {
+      String parameterName = parameters[i];
+      String value = parameters[i+1];
+      if (parameterName.equals("bloom_filter_fpp"))
+      {
+        falsePositiveRate = Double.parseDouble(value);
+        if (falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0)
+        {
+          throw new IllegalArgumentException("bloom_filter_fpp must be between 0 and 1");
+        }
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + parameterName);
+      }
+    }
+    return falsePositiveRate;
+  }
+  
+  /**
+   * @return size of the filter in bits
+   */
+  public long bitSize()
+  {
+    return (long)bits.length * 64;
+  }
+  
+  public void add(Tuple t)
+  {
+    long hash = HashCommon.murmurHash3((long)t.hashCode());
+    int offset = getBlock(hash) * BLOCK_LONGS;
+    int h1 = (int)hash;
+    int h2 = (int)(hash >>> 32);
+    for (int i=0; i<hashCount; i++)
+    {
+      int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+      bits[offset + (bit >>> 6)] |= 1L << bit;
+    }
+  }
+  
+  /**
+   * Tests whether a tuple may have been added.  If not it definitely was not added.
+   * 
+   * @param t tuple
+   * @return true if the tuple may have been added
+   */
+  public boolean mightContain(Tuple t)
+  {
+    tuplesChecked++;
+    long hash = HashCommon.murmurHash3((long)t.hashCode());
+    int offset = getBlock(hash) * BLOCK_LONGS;
+    int h1 = (int)hash;
+    int h2 = (int)(hash >>> 32);
+    for (int i=0; i<hashCount; i++)
+    {
+      int bit = (h1 + i * h2) & (BLOCK_BITS - 1);
+      if ((bits[offset + (bit >>> 6)] & (1L << bit)) == 0)
+      {
+        tuplesRejected++;
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  private int getBlock(long hash)
+  {
+    // the block comes from different bits of the hash than the positions within it
+    return (int)((HashCommon.murmurHash3(hash) >>> 1) % blockCount);
+  }
+  
+  /**
+   * Wraps an iterator to skip the tuples which do not pass the filter.
+   * 
+   * @param it tuples to filter
+   * @return iterator over the tuples which may have been added
+   */
+  public Iterator<Tuple> filter(final Iterator<Tuple> it)
+  {
+    return new Iterator<Tuple>() {
+      private Tuple next;
+      
+      @Override
+      public boolean hasNext()
+      {
+        while (next == null && it.hasNext())
+        {
+          Tuple t = it.next();
+          if (mightContain(t))
+          {
+            next = t;
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public Tuple next()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        Tuple t = next;
+        next = null;
+        return t;
+      }
+
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+  
+  /**
+   * @return number of tuples checked against the filter
+   */
+  public long getTuplesChecked()
+  {
+    return tuplesChecked;
+  }
+  
+  /**
+   * @return number of tuples which did not pass the filter
+   */
+  public long getTuplesRejected()
+  {
+    return tuplesRejected;
+  }
+  
+  /**
+   * Adds the counts of this filter to the Pig counters, when running in a task.
+   */
+  public void reportCounters()
+  {
+    PigStatusReporter reporter = PigStatusReporter.getInstance();
+    if (reporter == null)
+    {
+      return;
+    }
+    increment(reporter, "Bloom filters built", 1);
+    increment(reporter, "Bloom filter bits", bitSize());
+    increment(reporter, "Bloom filter tuples checked", tuplesChecked);
+    increment(reporter, "Bloom filter tuples rejected", tuplesRejected);
+    increment(reporter, "Bloom filter tuples passed", tuplesChecked - tuplesRejected);
+  }
+  
+  private static void increment(PigStatusReporter reporter, String name, long amount)
+  {
+    Counter counter = reporter.getCounter(COUNTER_GROUP, name);
+    if (counter != null)
+    {
+      counter.increment(amount);
+    }
+  }
+}
@@ -20,9 +20,11 @@
 package datafu.pig.sets;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.PriorityQueue;
 
+import org.apache.pig.Accumulator;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
@@ -54,11 +56,49 @@ import org.apache.pig.data.Tuple;
  *   GENERATE SetDifference(B1,B2);
  * }
  * }</pre>
+ * </p>
+ *
+ * <p>
+ * When the other bags are large and share few elements with A, most of the time goes to comparing tuples which 
+ * cannot match anything in A.  Passing the 'bloom_filter_fpp' parameter builds a 
+ * {@link <a href="http://en.wikipedia.org/wiki/Bloom_filter" target="_blank">Bloom filter</a>} from A with the given 
+ * false positive rate, and tuples in the other bags which are not in the filter are skipped before being compared.
+ * The filter is always built from A, even when it is not the smallest bag, since only elements of A can affect the result.
+ * The filter activity is reported in the "DataFu Set Operations" counters.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * define SetDifference datafu.pig.sets.SetDifference('bloom_filter_fpp','0.01');
+ * }</pre>
+ *
+ * <p>
+ * This UDF implements {@link Accumulator}, so when Pig runs it in accumulative mode the bags are passed in batches 
+ * and merged as they arrive, rather than being materialized in full first.  An element of A can only be output once 
+ * each of the other bags has reached it, so the tuples of A are held in memory until then.  The Bloom filter is not 
+ * used in this mode, since it would need the whole of A up front.
+ * </p>
  */
-public class SetDifference extends SetOperationsBase
+public class SetDifference extends SetOperationsBase implements Accumulator<DataBag>
 {
   private static final BagFactory bagFactory = BagFactory.getInstance();
   
+  private final double bloomFilterFpp;
+  
+  private SortedBagBuffer buffer;
+  private DataBag accumulatedBag;
+  private Tuple lastAccumulated;
+  
+  public SetDifference()
+  {
+    this.bloomFilterFpp = 0.0;
+  }
+  
+  public SetDifference(String... parameters)
+  {
+    this.bloomFilterFpp = BloomFilter.parseFalsePositiveRate(parameters);
+  }
+  
   /**
    * Loads the data bags from the input tuple and puts them in a priority queue,
    * where ordering is determined by the data from the iterator for each bag.
@@ -70,11 +110,17 @@ public class SetDifference extends SetOperationsBase
    * the bag came from.
    * </p>
    *  
+   * <p>
+   * When a Bloom filter is given, the bags other than the first only produce the
+   * tuples which pass the filter.
+   * </p>
+   *  
    * @param input
+   * @param filter filter built from the first bag, or null
    * @return
    * @throws IOException
    */
-  private PriorityQueue<Pair> loadBags(Tuple input) throws IOException
+  private PriorityQueue<Pair> loadBags(Tuple input, BloomFilter filter) throws IOException
   {    
     PriorityQueue<Pair> pq = new PriorityQueue<Pair>(input.size());
 
@@ -83,6 +129,10 @@ public class SetDifference extends SetOperationsBase
       if (input.get(i) != null)
       {
         Iterator<Tuple> inputIterator = ((DataBag)input.get(i)).iterator();      
+        if (filter != null && i > 0)
+        {
+          inputIterator = filter.filter(inputIterator);
+        }
         if(inputIterator.hasNext())
         {
           pq.add(new Pair(inputIterator,i));
@@ -151,7 +201,13 @@ public class SetDifference extends SetOperationsBase
       return bag1;
     }
     
-    PriorityQueue<Pair> pq = loadBags(input);
+    BloomFilter filter = null;
+    if (bloomFilterFpp > 0.0)
+    {
+      filter = BloomFilter.of(bag1, bloomFilterFpp);
+    }
+    
+    PriorityQueue<Pair> pq = loadBags(input, filter);
     
     Tuple lastData = null;
 
@@ -185,9 +241,130 @@ public class SetDifference extends SetOperationsBase
         break;
       }
     }
+    
+    if (filter != null)
+    {
+      filter.reportCounters();
+    }
 
     return outputBag;
   }
+  
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    if (input.size() < 2)
+    {
+      throw new RuntimeException("Expected at least two inputs, but found " + input.size());
+    }
+    
+    for (Object o : input)
+    {
+      if (o != null && !(o instanceof DataBag))
+      {
+        throw new RuntimeException("Inputs must be bags");
+      }
+    }
+    
+    if (buffer == null)
+    {
+      buffer = new SortedBagBuffer(input.size());
+    }
+    if (accumulatedBag == null)
+    {
+      accumulatedBag = bagFactory.newDefaultBag();
+    }
+    
+    // algorithm assumes data is in order
+    if (!buffer.add(input))
+    {
+      throw new RuntimeException("Out of order!");
+    }
+    
+    merge(false);
+  }
+
+  @Override
+  public DataBag getValue()
+  {
+    if (accumulatedBag == null)
+    {
+      return bagFactory.newDefaultBag();
+    }
+    merge(true);
+    return accumulatedBag;
+  }
+
+  @Override
+  public void cleanup()
+  {
+    if (buffer != null)
+    {
+      buffer.clear();
+    }
+    accumulatedBag = null;
+    lastAccumulated = null;
+  }
+  
+  /**
+   * Merges the buffered tuples, outputting each tuple of the first bag once it is known whether
+   * the other bags contain it.
+   * 
+   * <p>
+   * Tuples of the other bags which are lower than the next tuple of the first bag can't affect the result, 
+   * so they are discarded.  Until all the batches have been received, a tuple of the first bag can only be decided 
+   * once it has been found in one of the other bags, or each of them has buffered a tuple at least as high.
+   * </p>
+   * 
+   * @param complete whether all the batches have been received
+   */
+  private void merge(boolean complete)
+  {
+    ArrayDeque<Tuple> first = buffer.get(0);
+    
+    while (!first.isEmpty())
+    {
+      Tuple data = first.peekFirst();
+      boolean found = false;
+      boolean waiting = false;
+      for (int i=1; i < buffer.getBagCount(); i++)
+      {
+        buffer.discardBefore(i, data, false);
+        ArrayDeque<Tuple> other = buffer.get(i);
+        if (other.isEmpty())
+        {
+          waiting |= !complete;
+        }
+        else if (other.peekFirst().compareTo(data) == 0)
+        {
+          found = true;
+        }
+      }
+      
+      if (!found)
+      {
+        if (waiting)
+        {
+          return;
+        }
+        if (lastAccumulated == null || data.compareTo(lastAccumulated) != 0)
+        {
+          accumulatedBag.add(data);
+          lastAccumulated = data;
+        }
+      }
+      first.pollFirst();
+    }
+    
+    // the first bag will not produce anything lower than the last tuple it sent
+    if (buffer.isStarted(0))
+    {
+      for (int i=1; i < buffer.getBagCount(); i++)
+      {
+        buffer.discardBefore(i, buffer.getLast(0), false);
+      }
+    }
+  }
 
   /**
    * A wrapper for the tuple iterator that implements comparable so it can be used in the priority queue.
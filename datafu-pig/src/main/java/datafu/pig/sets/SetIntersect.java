@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.PriorityQueue;
 
+import org.apache.pig.Accumulator;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
@@ -49,10 +50,46 @@ import org.apache.pig.data.TupleFactory;
  *   GENERATE SetIntersect(B1,B2);
  * }
  * }</pre>
+ *
+ * <p>
+ * When the bags are large and share few elements, most of the time goes to comparing tuples which cannot match.
+ * Passing the 'bloom_filter_fpp' parameter builds a {@link <a href="http://en.wikipedia.org/wiki/Bloom_filter" target="_blank">Bloom filter</a>}
+ * from the smallest bag with the given false positive rate.  Tuples in the other bags which are not in the filter are 
+ * skipped before being compared.  This costs an extra pass over the smallest bag and a hash of each tuple.
+ * The filter activity is reported in the "DataFu Set Operations" counters.
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * define SetIntersect datafu.pig.sets.SetIntersect('bloom_filter_fpp','0.01');
+ * }</pre>
+ *
+ * <p>
+ * This UDF implements {@link Accumulator}, so when Pig runs it in accumulative mode the bags are passed in batches 
+ * and merged as they arrive, rather than being materialized in full first.  Only the tuples which cannot be merged 
+ * yet because another bag has not caught up to them are held in memory.  The Bloom filter is not used in this mode, 
+ * since it would need the whole of the smallest bag up front.
+ * </p>
  */
-public class SetIntersect extends SetOperationsBase
+public class SetIntersect extends SetOperationsBase implements Accumulator<DataBag>
 {
   private static final BagFactory bagFactory = BagFactory.getInstance();
+  
+  private final double bloomFilterFpp;
+  
+  private SortedBagBuffer buffer;
+  private DataBag accumulatedBag;
+  private Tuple lastAccumulated;
+  
+  public SetIntersect()
+  {
+    this.bloomFilterFpp = 0.0;
+  }
+  
+  public SetIntersect(String... parameters)
+  {
+    this.bloomFilterFpp = BloomFilter.parseFalsePositiveRate(parameters);
+  }
 
   static class pair implements Comparable<pair>
   {
@@ -72,7 +109,7 @@ public class SetIntersect extends SetOperationsBase
     }
   }
 
-  private PriorityQueue<pair> load_bags(Tuple input) throws IOException
+  private PriorityQueue<pair> load_bags(Tuple input, BloomFilter filter, int filterIndex) throws IOException
   {
     PriorityQueue<pair> pq = new PriorityQueue<pair>(input.size());
 
@@ -81,12 +118,36 @@ public class SetIntersect extends SetOperationsBase
       if (!(o instanceof DataBag))
         throw new RuntimeException("parameters must be databags");
       Iterator<Tuple> inputIterator= ((DataBag) o).iterator();
+      if (filter != null && i != filterIndex)
+        inputIterator = filter.filter(inputIterator);
       if(inputIterator.hasNext())
         pq.add(new pair(inputIterator));
     }
     return pq;
   }
 
+  /**
+   * Finds the smallest bag, which the Bloom filter is built from.
+   * 
+   * @return index of the smallest bag, or -1 if one of the inputs is not a bag
+   */
+  private int smallestBag(Tuple input) throws IOException
+  {
+    int smallest = -1;
+    long smallestSize = Long.MAX_VALUE;
+    for (int i=0; i < input.size(); i++) {
+      Object o = input.get(i);
+      if (!(o instanceof DataBag))
+        return -1;
+      long size = ((DataBag) o).size();
+      if (size < smallestSize) {
+        smallest = i;
+        smallestSize = size;
+      }
+    }
+    return smallest;
+  }
+
   public boolean all_equal(PriorityQueue<pair> pq)
   {
     Object o = pq.peek().data;
@@ -101,9 +162,22 @@ public class SetIntersect extends SetOperationsBase
   public DataBag exec(Tuple input) throws IOException
   {
     DataBag outputBag = bagFactory.newDefaultBag();
-    PriorityQueue<pair> pq = load_bags(input);
-    if(pq.size() != input.size())
-      return outputBag; // one or more input bags were empty
+    
+    BloomFilter filter = null;
+    int filterIndex = -1;
+    if (bloomFilterFpp > 0.0 && input.size() > 1) {
+      filterIndex = smallestBag(input);
+      if (filterIndex >= 0 && ((DataBag)input.get(filterIndex)).size() > 0)
+        filter = BloomFilter.of((DataBag)input.get(filterIndex), bloomFilterFpp);
+    }
+    
+    PriorityQueue<pair> pq = load_bags(input, filter, filterIndex);
+    if(pq.size() != input.size()) {
+      // one or more input bags were empty, or had no tuples passing the filter
+      if (filter != null)
+        filter.reportCounters();
+      return outputBag;
+    }
     Tuple last_data = null;
 
     while (true) {
@@ -125,8 +199,115 @@ public class SetIntersect extends SetOperationsBase
       pq.offer(p);
     }
 
+    if (filter != null)
+      filter.reportCounters();
+
     return outputBag;
   }
-}
 
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    for (Object o : input)
+    {
+      if (o != null && !(o instanceof DataBag))
+        throw new RuntimeException("parameters must be databags");
+    }
+    
+    if (buffer == null)
+      buffer = new SortedBagBuffer(input.size());
+    if (accumulatedBag == null)
+      accumulatedBag = bagFactory.newDefaultBag();
+    
+    // algorithm assumes data is in order
+    if (!buffer.add(input))
+      throw new RuntimeException("Out of order!");
+    
+    merge(false);
+  }
 
+  @Override
+  public DataBag getValue()
+  {
+    if (accumulatedBag == null)
+      return bagFactory.newDefaultBag();
+    merge(true);
+    return accumulatedBag;
+  }
+
+  @Override
+  public void cleanup()
+  {
+    if (buffer != null)
+      buffer.clear();
+    accumulatedBag = null;
+    lastAccumulated = null;
+  }
+  
+  /**
+   * Merges the buffered tuples, consuming as many as can be decided on with the tuples received so far.
+   * 
+   * <p>
+   * A bag whose queue is empty may still receive more tuples, but none lower than the last one it received.  
+   * Any buffered tuple up to that last one has therefore either been output already or can't be in that bag, 
+   * so it is discarded.
+   * </p>
+   * 
+   * @param complete whether all the batches have been received
+   */
+  private void merge(boolean complete)
+  {
+    int bagCount = buffer.getBagCount();
+    while (true)
+    {
+      if (buffer.anyEmpty())
+      {
+        if (complete)
+          return;
+        
+        Tuple bound = null;
+        for (int i=0; i < bagCount; i++) {
+          if (buffer.get(i).isEmpty()) {
+            Tuple last = buffer.getLast(i);
+            if (last == null)
+              return;
+            if (bound == null || last.compareTo(bound) > 0)
+              bound = last;
+          }
+        }
+        for (int i=0; i < bagCount; i++)
+          buffer.discardBefore(i, bound, true);
+        return;
+      }
+      
+      Tuple max = null;
+      boolean allEqual = true;
+      for (int i=0; i < bagCount; i++) {
+        Tuple head = buffer.get(i).peekFirst();
+        if (max == null) {
+          max = head;
+        }
+        else {
+          int cmp = head.compareTo(max);
+          if (cmp != 0)
+            allEqual = false;
+          if (cmp > 0)
+            max = head;
+        }
+      }
+      
+      if (allEqual) {
+        if (lastAccumulated == null || max.compareTo(lastAccumulated) != 0) {
+          accumulatedBag.add(max);
+          lastAccumulated = max;
+        }
+        for (int i=0; i < bagCount; i++)
+          buffer.get(i).pollFirst();
+      }
+      else {
+        for (int i=0; i < bagCount; i++)
+          buffer.discardBefore(i, max, false);
+      }
+    }
+  }
+}
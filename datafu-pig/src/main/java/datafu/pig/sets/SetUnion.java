@@ -20,13 +20,13 @@
 package datafu.pig.sets;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Iterator;
+import java.util.PriorityQueue;
 
+import org.apache.pig.Accumulator;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
-import org.apache.pig.data.TupleFactory;
 
 /**
  * Computes the set union of two or more bags.  Duplicates are eliminated.
@@ -45,15 +45,72 @@ import org.apache.pig.data.TupleFactory;
  * output = FOREACH input GENERATE SetUnion(B1,B2);
  * }
  * </pre>
+ * 
+ * <p>
+ * By default the bags may be in any order, and duplicates are eliminated by collecting the tuples in a distinct bag, 
+ * which holds every distinct tuple seen until it spills.  When the bags are known to be sorted, passing 'sorted' 
+ * with the value 'true' merges the bags instead, so a duplicate is recognized by comparing it with the last tuple 
+ * output.  The output is then sorted too.
+ * </p>
+ * 
+ * <pre>
+ * {@code
+ * define SetUnion datafu.pig.sets.SetUnion('sorted','true');
+ * }</pre>
+ * 
+ * <p>
+ * This UDF implements {@link Accumulator}, so when Pig runs it in accumulative mode the bags are passed in batches 
+ * rather than being materialized in full first.  In sorted mode only the tuples which cannot be merged yet because 
+ * another bag has not caught up to them are held in memory.
+ * </p>
  */
-public class SetUnion extends SetOperationsBase
+public class SetUnion extends SetOperationsBase implements Accumulator<DataBag>
 {
   private static final BagFactory bagFactory = BagFactory.getInstance();
-  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  
+  private final boolean sorted;
+  
+  private SortedBagBuffer buffer;
+  private DataBag accumulatedBag;
+  private Tuple lastAccumulated;
+  
+  public SetUnion()
+  {
+    this.sorted = false;
+  }
+  
+  public SetUnion(String... parameters)
+  {
+    if (parameters.length % 2 != 0)
+    {
+      throw new IllegalArgumentException("Invalid parameters list");
+    }
+    
+    boolean sorted = false;
+    for (int i=0; i<parameters.length; i+=2)
+    {
+      String parameterName = parameters[i];
+      String value = parameters[i+1];
+      if (parameterName.equals("sorted"))
+      {
+        sorted = Boolean.parseBoolean(value);
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + parameterName);
+      }
+    }
+    this.sorted = sorted;
+  }
 
   @Override
   public DataBag exec(Tuple input) throws IOException
   {
+    if (sorted)
+    {
+      return mergeSorted(input);
+    }
+    
     DataBag outputBag = bagFactory.newDistinctBag();
 
     try {
@@ -74,6 +131,135 @@ public class SetUnion extends SetOperationsBase
       throw new IOException(e);
     }
   }
-}
+  
+  /**
+   * Merges sorted bags, outputting each tuple which differs from the one before it.
+   * 
+   * @param input tuple of bags
+   * @return sorted union
+   * @throws IOException
+   */
+  private DataBag mergeSorted(Tuple input) throws IOException
+  {
+    DataBag outputBag = bagFactory.newDefaultBag();
+    
+    PriorityQueue<SetIntersect.pair> pq = new PriorityQueue<SetIntersect.pair>(Math.max(1, input.size()));
+    for (int i=0; i < input.size(); i++) {
+      Object o = input.get(i);
+      if (!(o instanceof DataBag))
+        throw new RuntimeException("parameters must be databags");
+      Iterator<Tuple> it = ((DataBag) o).iterator();
+      if (it.hasNext())
+        pq.add(new SetIntersect.pair(it));
+    }
+    
+    Tuple lastData = null;
+    while (!pq.isEmpty()) {
+      SetIntersect.pair p = pq.poll();
+      if (lastData == null || p.data.compareTo(lastData) != 0) {
+        outputBag.add(p.data);
+        lastData = p.data;
+      }
+      if (p.it.hasNext()) {
+        Tuple nextData = p.it.next();
+        // algorithm assumes data is in order
+        if (p.data.compareTo(nextData) > 0)
+          throw new RuntimeException("Out of order!");
+        p.data = nextData;
+        pq.offer(p);
+      }
+    }
+    
+    return outputBag;
+  }
 
+  @Override
+  public void accumulate(Tuple input) throws IOException
+  {
+    for (Object o : input) {
+      if (o != null && !(o instanceof DataBag))
+        throw new RuntimeException("parameters must be databags");
+    }
+    
+    if (!sorted) {
+      if (accumulatedBag == null)
+        accumulatedBag = bagFactory.newDistinctBag();
+      for (Object o : input) {
+        if (o != null) {
+          for (Tuple elem : (DataBag) o)
+            accumulatedBag.add(elem);
+        }
+      }
+      return;
+    }
+    
+    if (buffer == null)
+      buffer = new SortedBagBuffer(input.size());
+    if (accumulatedBag == null)
+      accumulatedBag = bagFactory.newDefaultBag();
+    
+    // algorithm assumes data is in order
+    if (!buffer.add(input))
+      throw new RuntimeException("Out of order!");
+    
+    merge(false);
+  }
+
+  @Override
+  public DataBag getValue()
+  {
+    if (accumulatedBag == null)
+      return bagFactory.newDefaultBag();
+    if (sorted)
+      merge(true);
+    return accumulatedBag;
+  }
 
+  @Override
+  public void cleanup()
+  {
+    if (buffer != null)
+      buffer.clear();
+    accumulatedBag = null;
+    lastAccumulated = null;
+  }
+  
+  /**
+   * Merges the buffered tuples in order, outputting the lowest one as long as no bag could still send a lower one.
+   * A bag with an empty queue can't send anything lower than the last tuple it received, so it only holds up 
+   * the tuples above that.
+   * 
+   * @param complete whether all the batches have been received
+   */
+  private void merge(boolean complete)
+  {
+    int bagCount = buffer.getBagCount();
+    while (true)
+    {
+      int lowest = -1;
+      Tuple min = null;
+      for (int i=0; i < bagCount; i++) {
+        Tuple head = buffer.get(i).peekFirst();
+        if (head != null && (min == null || head.compareTo(min) < 0)) {
+          lowest = i;
+          min = head;
+        }
+      }
+      if (min == null)
+        return;
+      
+      if (!complete) {
+        for (int i=0; i < bagCount; i++) {
+          if (buffer.get(i).isEmpty() && (buffer.getLast(i) == null || buffer.getLast(i).compareTo(min) < 0))
+            return;
+        }
+      }
+      
+      if (lastAccumulated == null || min.compareTo(lastAccumulated) != 0) {
+        accumulatedBag.add(min);
+        lastAccumulated = min;
+      }
+      buffer.get(lowest).pollFirst();
+    }
+  }
+}
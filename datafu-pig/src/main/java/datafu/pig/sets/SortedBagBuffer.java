@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Buffers the batches of sorted bags passed to the accumulating set operations.
+ * 
+ * <p>
+ * Pig passes each bag in batches, and the batches of different bags are not aligned, so a merge over the bags 
+ * can only consume a tuple once the other bags have caught up to it.  The tuples which have been received but not 
+ * yet consumed are held here, one queue per bag.  The memory used therefore depends on how far apart the bags are 
+ * in the sort order, and not on their size.
+ * </p>
+ */
+class SortedBagBuffer
+{
+  private final ArrayDeque<Tuple>[] pending;
+  private final Tuple[] last;
+  
+  @SuppressWarnings("unchecked")
+  public SortedBagBuffer(int bagCount)
+  {
+    this.pending = new ArrayDeque[bagCount];
+    this.last = new Tuple[bagCount];
+    for (int i=0; i<bagCount; i++)
+    {
+      this.pending[i] = new ArrayDeque<Tuple>();
+    }
+  }
+  
+  public int getBagCount()
+  {
+    return pending.length;
+  }
+  
+  /**
+   * Adds the next batch of each bag.  A null bag is treated as an empty batch.
+   * 
+   * @param input tuple of bags
+   * @return false if any bag was found to be out of order
+   * @throws IOException
+   */
+  public boolean add(Tuple input) throws IOException
+  {
+    if (input.size() != pending.length)
+    {
+      throw new RuntimeException("Expected " + pending.length + " bags, but found " + input.size());
+    }
+    
+    boolean sorted = true;
+    for (int i=0; i<pending.length; i++)
+    {
+      DataBag bag = (DataBag)input.get(i);
+      if (bag == null)
+      {
+        continue;
+      }
+      for (Tuple t : bag)
+      {
+        if (last[i] != null && last[i].compareTo(t) > 0)
+        {
+          sorted = false;
+        }
+        last[i] = t;
+        pending[i].add(t);
+      }
+    }
+    return sorted;
+  }
+  
+  /**
+   * Gets the tuples of a bag which have been received but not consumed.
+   * 
+   * @param i index of the bag
+   * @return queue of tuples
+   */
+  public ArrayDeque<Tuple> get(int i)
+  {
+    return pending[i];
+  }
+  
+  /**
+   * Tests whether a tuple has been received from a bag.
+   * 
+   * @param i index of the bag
+   * @return true if any tuple has been received
+   */
+  public boolean isStarted(int i)
+  {
+    return last[i] != null;
+  }
+  
+  /**
+   * Gets the last tuple received from a bag.
+   * 
+   * @param i index of the bag
+   * @return last tuple, or null if none has been received
+   */
+  public Tuple getLast(int i)
+  {
+    return last[i];
+  }
+  
+  /**
+   * Tests whether any bag has no tuples waiting to be consumed.
+   * 
+   * @return true if a queue is empty
+   */
+  public boolean anyEmpty()
+  {
+    for (ArrayDeque<Tuple> queue : pending)
+    {
+      if (queue.isEmpty())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Discards the tuples at the head of a bag's queue which compare less than the given tuple,
+   * or also those equal to it when inclusive is set.
+   * 
+   * @param i index of the bag
+   * @param bound tuple to compare with
+   * @param inclusive whether tuples equal to the bound are also discarded
+   */
+  public void discardBefore(int i, Tuple bound, boolean inclusive)
+  {
+    ArrayDeque<Tuple> queue = pending[i];
+    while (!queue.isEmpty())
+    {
+      int cmp = queue.peekFirst().compareTo(bound);
+      if (cmp < 0 || (inclusive && cmp == 0))
+      {
+        queue.pollFirst();
+      }
+      else
+      {
+        break;
+      }
+    }
+  }
+  
+  /**
+   * Discards all buffered tuples and forgets the tuples received, so the buffer can be used for the next bags.
+   */
+  public void clear()
+  {
+    for (int i=0; i<pending.length; i++)
+    {
+      pending[i].clear();
+      last[i] = null;
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+
+import java.io.IOException;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Computes the set difference of two or more bags.  Duplicates are eliminated.  Unlike {@link SetDifference}
+ * the input bags do not need to be sorted.
+ * 
+ * <p>
+ * If bags A and B are provided, then this computes A-B, i.e. all elements in A that are not in B.
+ * If bags A, B and C are provided, then this computes A-B-C, i.e. all elements in A that are not in B or C.
+ * </p>
+ * 
+ * <p>
+ * The tuples of the first bag are loaded into a hash table, from which the tuples of each other bag are removed.  
+ * The output follows the order of the first bag.  See {@link UnsortedSetOperationsBase} for how bags too large 
+ * for memory are handled.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define UnsortedSetDifference datafu.pig.sets.UnsortedSetDifference();
+ *
+ * -- input:
+ * -- ({(6),(5),(1),(2),(3),(4)},{(4),(3)})
+ * input = LOAD 'input' AS (B1:bag{T:tuple(val:int)},B2:bag{T:tuple(val:int)});
+ *
+ * -- output:
+ * -- ({(6),(5),(1),(2)})
+ * output = FOREACH input GENERATE UnsortedSetDifference(B1,B2);
+ * }</pre>
+ */
+public class UnsortedSetDifference extends UnsortedSetOperationsBase
+{
+  public UnsortedSetDifference()
+  {
+    super();
+  }
+  
+  public UnsortedSetDifference(String... parameters)
+  {
+    super(parameters);
+  }
+  
+  @Override
+  protected DataBag[] getBags(Tuple input) throws IOException
+  {
+    if (input.size() < 2)
+    {
+      throw new RuntimeException("Expected at least two inputs, but found " + input.size());
+    }
+    
+    DataBag[] bags = new DataBag[input.size()];
+    for (int i=0; i < input.size(); i++)
+    {
+      Object o = input.get(i);
+      if (o != null && !(o instanceof DataBag))
+      {
+        throw new RuntimeException("Inputs must be bags");
+      }
+      // a null bag has no elements
+      bags[i] = o != null ? (DataBag)o : bagFactory.newDefaultBag();
+    }
+    
+    if (bags[0].size() == 0)
+    {
+      return null;
+    }
+    
+    return bags;
+  }
+  
+  @Override
+  protected int getBuildIndex(DataBag[] bags)
+  {
+    return 0;
+  }
+
+  @Override
+  protected SetOperationsBase newSortedOperation()
+  {
+    return new SetDifference();
+  }
+
+  @Override
+  protected void compute(DataBag[] bags, int buildIndex, DataBag output) throws IOException
+  {
+    ObjectLinkedOpenHashSet<Tuple> remaining = new ObjectLinkedOpenHashSet<Tuple>();
+    
+    for (Tuple t : bags[0])
+    {
+      remaining.add(t);
+      reportProgress();
+    }
+    
+    for (int i=1; i<bags.length && !remaining.isEmpty(); i++)
+    {
+      for (Tuple t : bags[i])
+      {
+        remaining.remove(t);
+        reportProgress();
+      }
+    }
+    
+    for (Tuple t : remaining)
+    {
+      output.add(t);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+
+import java.io.IOException;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Computes the set intersection of two or more bags.  Duplicates are eliminated.  Unlike {@link SetIntersect}
+ * the input bags do not need to be sorted.
+ * 
+ * <p>
+ * The tuples of the smallest bag are loaded into a hash table, which the tuples of each other bag are then looked up in.
+ * The output follows the order of the smallest bag.  See {@link UnsortedSetOperationsBase} for how bags too large 
+ * for memory are handled.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * define UnsortedSetIntersect datafu.pig.sets.UnsortedSetIntersect('max_tuples_in_memory','1000000');
+ *
+ * -- input:
+ * -- ({(4,40),(3,30),(1,10),(2,20)},{(8,80),(2,20),(4,40)})
+ * input = LOAD 'input' AS (B1:bag{T:tuple(val1:int,val2:int)},B2:bag{T:tuple(val1:int,val2:int)});
+ *
+ * -- output:
+ * -- ({(2,20),(4,40)})
+ * output = FOREACH input GENERATE UnsortedSetIntersect(B1,B2);
+ * }</pre>
+ */
+public class UnsortedSetIntersect extends UnsortedSetOperationsBase
+{
+  public UnsortedSetIntersect()
+  {
+    super();
+  }
+  
+  public UnsortedSetIntersect(String... parameters)
+  {
+    super(parameters);
+  }
+  
+  @Override
+  protected DataBag[] getBags(Tuple input) throws IOException
+  {
+    DataBag[] bags = new DataBag[input.size()];
+    for (int i=0; i < input.size(); i++) 
+    {
+      Object o = input.get(i);
+      if (!(o instanceof DataBag))
+      {
+        throw new RuntimeException("parameters must be databags");
+      }
+      bags[i] = (DataBag)o;
+      if (bags[i].size() == 0)
+      {
+        // one or more input bags were empty
+        return null;
+      }
+    }
+    return bags.length > 0 ? bags : null;
+  }
+  
+  @Override
+  protected int getBuildIndex(DataBag[] bags)
+  {
+    int smallest = 0;
+    for (int i=1; i<bags.length; i++)
+    {
+      if (bags[i].size() < bags[smallest].size())
+      {
+        smallest = i;
+      }
+    }
+    return smallest;
+  }
+
+  @Override
+  protected SetOperationsBase newSortedOperation()
+  {
+    return new SetIntersect();
+  }
+
+  @Override
+  protected void compute(DataBag[] bags, int buildIndex, DataBag output) throws IOException
+  {
+    // maps each tuple of the build side to the number of other bags it has been found in so far
+    Object2IntLinkedOpenHashMap<Tuple> matches = new Object2IntLinkedOpenHashMap<Tuple>();
+    matches.defaultReturnValue(-1);
+    
+    for (Tuple t : bags[buildIndex])
+    {
+      matches.put(t, 0);
+      reportProgress();
+    }
+    
+    int round = 0;
+    for (int i=0; i<bags.length; i++)
+    {
+      if (i == buildIndex)
+      {
+        continue;
+      }
+      
+      int found = 0;
+      for (Tuple t : bags[i])
+      {
+        // only count a tuple once per bag, and only if it was found in all the bags before
+        if (matches.getInt(t) == round)
+        {
+          matches.put(t, round+1);
+          found++;
+        }
+        reportProgress();
+      }
+      
+      if (found == 0)
+      {
+        return;
+      }
+      round++;
+    }
+    
+    for (Object2IntMap.Entry<Tuple> e : matches.object2IntEntrySet())
+    {
+      if (e.getIntValue() == round)
+      {
+        output.add(e.getKey());
+      }
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.sets;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * Base class for set operations on <b>unsorted</b> bags, which hash the tuples instead of merging sorted bags.
+ * 
+ * <p>
+ * One of the input bags is chosen as the build side and its tuples are loaded into an open addressing hash table, 
+ * which the tuples of the other bags are probed against.  When the build side has more tuples than the memory budget 
+ * allows, all the bags are first split into partitions by the hash of each tuple, so that equal tuples land in the 
+ * same partition.  There are enough partitions for each to fit the budget if the tuples hash evenly.  The partitions 
+ * are written to Pig bags, and whenever the budget's worth of tuples is buffered the largest of them are spilled to 
+ * disk.  Each partition is then processed in turn.  A partition which is still too large is split again with 
+ * another hash, and if splitting does not shrink it, as when it holds many copies of one tuple, its bags are sorted 
+ * and merged as by {@link SetIntersect} and {@link SetDifference}.
+ * </p>
+ * 
+ * <p>
+ * The memory budget, given as the maximum number of build side tuples to hold in memory, can be set by passing 
+ * 'max_tuples_in_memory' and its value to the constructor.  The default is 1M tuples.
+ * </p>
+ */
+public abstract class UnsortedSetOperationsBase extends SetOperationsBase
+{
+  protected static final BagFactory bagFactory = BagFactory.getInstance();
+  
+  private static final int DEFAULT_MAX_TUPLES_IN_MEMORY = 1000000;
+  private static final int PROGRESS_INTERVAL = 1024;
+  
+  private final int maxTuplesInMemory;
+  private int tuplesSinceProgress;
+  
+  public UnsortedSetOperationsBase(String... parameters)
+  {
+    if (parameters.length % 2 != 0)
+    {
+      throw new IllegalArgumentException("Invalid parameters list");
+    }
+    
+    int maxTuplesInMemory = DEFAULT_MAX_TUPLES_IN_MEMORY;
+    for (int i=0; i<parameters.length; i+=2)
+    {
+      String parameterName = parameters[i];
+      String value = parameters[i+1];
+      if (parameterName.equals("max_tuples_in_memory"))
+      {
+        maxTuplesInMemory = Integer.parseInt(value);
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + parameterName);
+      }
+    }
+    
+    if (maxTuplesInMemory < 1)
+    {
+      throw new IllegalArgumentException("max_tuples_in_memory must be positive");
+    }
+    this.maxTuplesInMemory = maxTuplesInMemory;
+  }
+  
+  /**
+   * Gets the input bags, validating the input.
+   * 
+   * @param input input tuple
+   * @return the bags, or null if the result is known to be empty
+   */
+  protected abstract DataBag[] getBags(Tuple input) throws IOException;
+  
+  /**
+   * Chooses the bag to load into memory.
+   * 
+   * @param bags input bags
+   * @return index of the build side bag
+   */
+  protected abstract int getBuildIndex(DataBag[] bags);
+  
+  /**
+   * Computes the set operation with the build side held in memory.
+   * 
+   * @param bags input bags
+   * @param buildIndex index of the build side bag
+   * @param output bag to add the result to
+   */
+  protected abstract void compute(DataBag[] bags, int buildIndex, DataBag output) throws IOException;
+  
+  /**
+   * Creates the UDF which computes the set operation by merging sorted bags.
+   */
+  protected abstract SetOperationsBase newSortedOperation();
+  
+  @Override
+  public DataBag exec(Tuple input) throws IOException
+  {
+    DataBag outputBag = bagFactory.newDefaultBag();
+    
+    DataBag[] bags = getBags(input);
+    if (bags == null)
+    {
+      return outputBag;
+    }
+    
+    int buildIndex = getBuildIndex(bags);
+    long buildSize = bags[buildIndex].size();
+    
+    if (buildSize <= maxTuplesInMemory)
+    {
+      compute(bags, buildIndex, outputBag);
+    }
+    else
+    {
+      computePartitioned(bags, buildIndex, buildSize, 0, outputBag);
+    }
+    
+    return outputBag;
+  }
+  
+  /**
+   * Splits the bags into partitions by hash which are each small enough to process in memory, assuming the tuples 
+   * hash evenly.
+   * 
+   * @param depth number of times the tuples have already been partitioned, which selects the hash
+   */
+  private void computePartitioned(DataBag[] bags, int buildIndex, long buildSize, int depth, DataBag outputBag) throws IOException
+  {
+    // allow for uneven partitions by using twice as many as strictly needed
+    long partitionCount = 2 * ((buildSize + maxTuplesInMemory - 1) / maxTuplesInMemory);
+    if (partitionCount > Integer.MAX_VALUE / bags.length)
+    {
+      throw new IOException("max_tuples_in_memory is too small for " + buildSize + " tuples");
+    }
+    
+    DataBag[][] partitions = new DataBag[(int)partitionCount][bags.length];
+    for (int p=0; p<partitionCount; p++)
+    {
+      for (int i=0; i<bags.length; i++)
+      {
+        partitions[p][i] = bagFactory.newDefaultBag();
+      }
+    }
+    
+    // tuples held in memory by each partition bag, indexed by partition * bags.length + bag
+    final int[] inMemory = new int[(int)partitionCount * bags.length];
+    long buffered = 0;
+    int seed = depth * 0x9E3779B9;
+    for (int i=0; i<bags.length; i++)
+    {
+      for (Tuple t : bags[i])
+      {
+        int p = (HashCommon.murmurHash3(t.hashCode() + seed) & Integer.MAX_VALUE) % (int)partitionCount;
+        partitions[p][i].add(t);
+        inMemory[p * bags.length + i]++;
+        
+        if (++buffered >= maxTuplesInMemory)
+        {
+          buffered = spillLargest(partitions, inMemory, buffered);
+        }
+        
+        reportProgress();
+      }
+    }
+    
+    for (int p=0; p<partitionCount; p++)
+    {
+      long partitionBuildSize = partitions[p][buildIndex].size();
+      if (partitionBuildSize <= maxTuplesInMemory)
+      {
+        compute(partitions[p], buildIndex, outputBag);
+      }
+      else if (partitionBuildSize <= buildSize / 2)
+      {
+        computePartitioned(partitions[p], buildIndex, partitionBuildSize, depth + 1, outputBag);
+      }
+      else
+      {
+        // most of the tuples hash alike, so partitioning further would not help
+        computeSorted(partitions[p], outputBag);
+      }
+      
+      for (DataBag bag : partitions[p])
+      {
+        bag.clear();
+      }
+    }
+  }
+  
+  /**
+   * Spills the partition bags holding the most tuples in memory, until at most half the budget is left in memory.  
+   * The bags holding only a few tuples stay in memory, rather than each being written to a tiny spill file.
+   * 
+   * @return number of tuples left in memory
+   */
+  private long spillLargest(DataBag[][] partitions, final int[] inMemory, long buffered)
+  {
+    Integer[] order = new Integer[inMemory.length];
+    for (int i=0; i<order.length; i++)
+    {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b)
+      {
+        return inMemory[b] < inMemory[a] ? -1 : (inMemory[b] == inMemory[a] ? 0 : 1);
+      }
+    });
+    
+    int bagCount = partitions[0].length;
+    for (int i=0; i<order.length && buffered > maxTuplesInMemory / 2; i++)
+    {
+      int index = order[i];
+      partitions[index / bagCount][index % bagCount].spill();
+      buffered -= inMemory[index];
+      inMemory[index] = 0;
+    }
+    return buffered;
+  }
+  
+  /**
+   * Computes the set operation by sorting the bags, which spill to disk, and merging them.
+   */
+  private void computeSorted(DataBag[] bags, DataBag outputBag) throws IOException
+  {
+    Tuple input = TupleFactory.getInstance().newTuple(bags.length);
+    for (int i=0; i<bags.length; i++)
+    {
+      // also removes the duplicates, which the merge expects from SetDifference's first bag 
+      DataBag sorted = bagFactory.newDistinctBag();
+      for (Tuple t : bags[i])
+      {
+        sorted.add(t);
+        reportProgress();
+      }
+      input.set(i, sorted);
+    }
+    
+    outputBag.addAll(newSortedOperation().exec(input));
+    
+    for (int i=0; i<bags.length; i++)
+    {
+      ((DataBag)input.get(i)).clear();
+    }
+  }
+  
+  /**
+   * Reports progress every so many tuples.
+   */
+  protected void reportProgress()
+  {
+    if (++tuplesSinceProgress >= PROGRESS_INTERVAL)
+    {
+      tuplesSinceProgress = 0;
+      if (reporter != null)
+      {
+        reporter.progress();
+      }
+    }
+  }
+}
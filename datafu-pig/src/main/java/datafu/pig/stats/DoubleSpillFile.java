@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A temporary file of doubles which is written in chunks and read back sequentially any number of times.
+ * The values are transferred in bulk through a single direct buffer rather than written and read one at a time.
+ * 
+ * <p>
+ * As with the spill files of Pig's bags, the file is created in the directory given by java.io.tmpdir, which
+ * within a task is the task's own temporary directory.  The file is not marked for deletion on exit, as that
+ * would keep its name in memory until the task ends, so it must be deleted by calling {@link #delete()}.
+ * </p>
+ */
+class DoubleSpillFile
+{
+  private static final int BUFFER_SIZE = 64 * 1024;
+  
+  private final File file;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private long count;
+  
+  public DoubleSpillFile() throws IOException
+  {
+    File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+    if (!tmpDir.exists() && !tmpDir.mkdirs())
+    {
+      throw new IOException("Unable to create temporary directory " + tmpDir.getAbsolutePath());
+    }
+    this.file = File.createTempFile("pigdoubles", null, tmpDir);
+    try
+    {
+      this.raf = new RandomAccessFile(file, "rw");
+    }
+    catch (IOException e)
+    {
+      file.delete();
+      throw e;
+    }
+    this.channel = raf.getChannel();
+  }
+  
+  /**
+   * @return number of values written
+   */
+  public long size()
+  {
+    return count;
+  }
+  
+  /**
+   * Appends values to the end of the file.
+   * 
+   * @param values array holding the values
+   * @param length number of values to write from the start of the array
+   */
+  public void write(double[] values, int length) throws IOException
+  {
+    channel.position(channel.size());
+    int offset = 0;
+    while (offset < length)
+    {
+      bytes.clear();
+      DoubleBuffer doubles = bytes.asDoubleBuffer();
+      int n = Math.min(doubles.remaining(), length - offset);
+      doubles.put(values, offset, n);
+      bytes.limit(n * 8);
+      while (bytes.hasRemaining())
+      {
+        channel.write(bytes);
+      }
+      offset += n;
+    }
+    count += length;
+  }
+  
+  /**
+   * Starts reading the values from the beginning of the file.
+   */
+  public Reader read() throws IOException
+  {
+    channel.position(0);
+    bytes.clear();
+    bytes.flip();
+    return new Reader();
+  }
+  
+  /**
+   * Closes and deletes the file.
+   */
+  public void delete()
+  {
+    try
+    {
+      raf.close();
+    }
+    catch (IOException e)
+    {
+      // the file is deleted regardless
+    }
+    file.delete();
+  }
+  
+  public class Reader
+  {
+    private long remaining = count;
+    
+    private Reader()
+    {
+    }
+    
+    /**
+     * Reads the next chunk of values.
+     * 
+     * @param values array to read the values into
+     * @return number of values read, which is 0 at the end of the file
+     */
+    public int next(double[] values) throws IOException
+    {
+      int n = (int)Math.min(values.length, remaining);
+      int offset = 0;
+      while (offset < n)
+      {
+        if (bytes.remaining() < 8)
+        {
+          bytes.compact();
+          if (channel.read(bytes) < 0)
+          {
+            throw new IOException("Unexpected end of file " + file);
+          }
+          bytes.flip();
+          continue;
+        }
+        DoubleBuffer doubles = bytes.asDoubleBuffer();
+        int chunk = Math.min(doubles.remaining(), n - offset);
+        doubles.get(values, offset, chunk);
+        bytes.position(bytes.position() + chunk * 8);
+        offset += chunk;
+      }
+      remaining -= n;
+      return n;
+    }
+  }
+}
@@ -22,12 +22,21 @@ package datafu.pig.stats;
 import java.io.IOException;
 
 import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 
+import com.clearspring.analytics.stream.cardinality.CardinalityMergeException;
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+import datafu.pig.util.PassThroughInitial;
+
 /**
  * A UDF that applies the HyperLogLog++ cardinality estimation algorithm.
  * 
@@ -39,14 +48,28 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * 
  * <p>
  * This is a streaming implementation, and therefore the input data does not need to be sorted.
+ * It is also algebraic, so the combiner builds a partial estimator on the map side for each group
+ * and only the serialized estimator registers are sent to the reducer, rather than the input tuples.
+ * </p>
+ * 
+ * <p>
+ * To store the estimator itself, for example to later combine daily estimates into weekly or monthly
+ * estimates without reading the raw data again, see {@link HyperLogLogPlusPlusSketch}, 
+ * {@link HyperLogLogPlusPlusMerge} and {@link HyperLogLogPlusPlusCardinality}.
  * </p>
  * 
  * @author mhayes
  *
  */
-public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long>
+public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long> implements Algebraic
 {
-  private com.clearspring.analytics.stream.cardinality.HyperLogLogPlus estimator;
+  // precision used by the sparse representation, which is used while the estimator has seen few values
+  // and keeps the serialized form of small estimators small
+  private static final int SPARSE_PRECISION = 25;
+  
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  
+  private HyperLogLogPlus estimator;
   
   private final int p;
   
@@ -82,7 +105,7 @@ public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long>
   @Override
   public void cleanup()
   {
-    this.estimator = new com.clearspring.analytics.stream.cardinality.HyperLogLogPlus(p);
+    this.estimator = newEstimator(p);
   }
 
   @Override
@@ -113,4 +136,129 @@ public class HyperLogLogPlusPlus extends AccumulatorEvalFunc<Long>
       throw new RuntimeException(e);
     }
   }
+  
+  @Override
+  public String getInitial()
+  {
+    return PassThroughInitial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + String.format("('%d')", p);
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + String.format("('%d')", p);
+  }
+  
+  static HyperLogLogPlus newEstimator(int p)
+  {
+    return new HyperLogLogPlus(p, Math.max(p, SPARSE_PRECISION));
+  }
+  
+  static DataByteArray toBytes(HyperLogLogPlus estimator) throws IOException
+  {
+    return new DataByteArray(estimator.getBytes());
+  }
+  
+  static HyperLogLogPlus fromBytes(DataByteArray bytes) throws IOException
+  {
+    return HyperLogLogPlus.Builder.build(bytes.get());
+  }
+  
+  /**
+   * Merges the intermediate tuples into an estimator.  Each intermediate tuple holds either a bag of 
+   * input tuples, as produced by {@link PassThroughInitial}, or a serialized estimator.
+   * 
+   * @param estimator estimator to merge into, or null to start from the first serialized estimator
+   * @param p precision for a new estimator, if one needs to be created for input tuples
+   * @param intermediates bag of intermediate tuples
+   * @return the merged estimator, which is null if there was nothing to merge and no estimator was provided
+   * @throws IOException
+   */
+  static HyperLogLogPlus merge(HyperLogLogPlus estimator, int p, DataBag intermediates) throws IOException
+  {
+    for (Tuple t : intermediates)
+    {
+      Object o = t.get(0);
+      if (o instanceof DataByteArray)
+      {
+        HyperLogLogPlus other = fromBytes((DataByteArray)o);
+        if (estimator == null)
+        {
+          estimator = other;
+        }
+        else
+        {
+          try
+          {
+            estimator.addAll(other);
+          }
+          catch (CardinalityMergeException e)
+          {
+            throw new IOException("Cannot merge estimators with different precision values", e);
+          }
+        }
+      }
+      else if (o instanceof DataBag)
+      {
+        if (estimator == null)
+        {
+          estimator = newEstimator(p);
+        }
+        for (Tuple value : (DataBag)o)
+        {
+          estimator.offer(value);
+        }
+      }
+    }
+    return estimator;
+  }
+  
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int p;
+    
+    public Intermediate()
+    {
+      this("20");
+    }
+    
+    public Intermediate(String p)
+    {
+      this.p = Integer.parseInt(p);
+    }
+    
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      HyperLogLogPlus estimator = merge(null, p, (DataBag)input.get(0));
+      return tupleFactory.newTuple(estimator != null ? toBytes(estimator) : null);
+    }
+  }
+  
+  static public class Final extends EvalFunc<Long>
+  {
+    private final int p;
+    
+    public Final()
+    {
+      this("20");
+    }
+    
+    public Final(String p)
+    {
+      this.p = Integer.parseInt(p);
+    }
+    
+    @Override
+    public Long exec(Tuple input) throws IOException
+    {
+      return merge(newEstimator(p), p, (DataBag)input.get(0)).cardinality();
+    }
+  }
 }
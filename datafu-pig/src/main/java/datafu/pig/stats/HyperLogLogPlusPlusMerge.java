@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+/**
+ * A UDF that merges a bag of serialized HyperLogLog++ estimators, as produced by {@link HyperLogLogPlusPlusSketch},
+ * into a single serialized estimator.
+ * 
+ * <p>
+ * The merged estimator is the same as the one which would have been built from the union of the input data of 
+ * each estimator, so daily estimators can be rolled up into weekly or monthly estimators.  The merged estimator 
+ * can itself be stored and merged again later.  All estimators must have been built with the same precision.
+ * Null estimators are ignored, and if there are no estimators to merge the output is null.
+ * </p>
+ * 
+ * <p>
+ * This UDF is algebraic, so estimators are merged in the combiner.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * 
+ * define HyperLogLogPlusPlusMerge datafu.pig.stats.HyperLogLogPlusPlusMerge();
+ * define HyperLogLogPlusPlusCardinality datafu.pig.stats.HyperLogLogPlusPlusCardinality();
+ * 
+ * daily_sketches = LOAD 'daily_sketches' AS (day:chararray, sketch:bytearray);
+ * 
+ * weekly_uniques = FOREACH (GROUP daily_sketches BY GetWeek(ToDate(day))) GENERATE 
+ *   group AS week, 
+ *   HyperLogLogPlusPlusCardinality(HyperLogLogPlusPlusMerge(daily_sketches.sketch)) AS uniques;
+ * }
+ * </pre>
+ * </p>
+ * 
+ * @see HyperLogLogPlusPlusSketch
+ * @see HyperLogLogPlusPlusCardinality
+ */
+public class HyperLogLogPlusPlusMerge extends AccumulatorEvalFunc<DataByteArray> implements Algebraic
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  
+  // the precision is taken from the estimators, so this is never used to create a new estimator
+  private static final int UNUSED_PRECISION = 20;
+  
+  private HyperLogLogPlus estimator;
+  
+  @Override
+  public void accumulate(Tuple arg0) throws IOException
+  {
+    estimator = HyperLogLogPlusPlus.merge(estimator, UNUSED_PRECISION, (DataBag)arg0.get(0));
+  }
+
+  @Override
+  public void cleanup()
+  {
+    this.estimator = null;
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    if (this.estimator == null)
+    {
+      return null;
+    }
+    
+    try
+    {
+      return HyperLogLogPlusPlus.toBytes(this.estimator);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have only a single field");
+      }
+      
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+      
+      Schema inputTupleSchema = inputFieldSchema.schema.getField(0).schema;
+      
+      if (inputTupleSchema.size() != 1 || inputTupleSchema.getField(0).type != DataType.BYTEARRAY)
+      {
+        throw new RuntimeException("Expected the input bag to contain tuples with a single BYTEARRAY field");
+      }
+      
+      return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return HyperLogLogPlusPlus.Intermediate.class.getName();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName();
+  }
+  
+  /**
+   * Passes the serialized estimators through without deserializing them, unless there are several to merge.
+   */
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      DataBag bag = (DataBag)input.get(0);
+      if (bag.size() == 1)
+      {
+        return tupleFactory.newTuple(bag.iterator().next().get(0));
+      }
+      
+      HyperLogLogPlus estimator = HyperLogLogPlusPlus.merge(null, UNUSED_PRECISION, bag);
+      return tupleFactory.newTuple(estimator != null ? HyperLogLogPlusPlus.toBytes(estimator) : null);
+    }
+  }
+  
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      HyperLogLogPlus estimator = HyperLogLogPlusPlus.merge(null, UNUSED_PRECISION, (DataBag)input.get(0));
+      return estimator != null ? HyperLogLogPlusPlus.toBytes(estimator) : null;
+    }
+  }
+}
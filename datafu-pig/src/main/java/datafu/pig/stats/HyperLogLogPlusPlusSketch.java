@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
+
+import datafu.pig.util.PassThroughInitial;
+
+/**
+ * A UDF that builds a HyperLogLog++ cardinality estimator from the input tuples and outputs it serialized
+ * as a bytearray.
+ * 
+ * <p>
+ * This is the same estimator used by {@link HyperLogLogPlusPlus}, but rather than producing the estimated
+ * cardinality the estimator itself is output so that it can be stored.  Stored estimators can later be 
+ * combined with {@link HyperLogLogPlusPlusMerge}, for example to compute weekly or monthly unique counts from
+ * daily estimators without reading the raw data again.  The estimated cardinality of an estimator is 
+ * obtained with {@link HyperLogLogPlusPlusCardinality}.  Only estimators built with the same precision can be merged.
+ * </p>
+ * 
+ * <p>
+ * Like {@link HyperLogLogPlusPlus}, this UDF is algebraic and does not require the input to be sorted.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * 
+ * define HyperLogLogPlusPlusSketch datafu.pig.stats.HyperLogLogPlusPlusSketch();
+ * 
+ * -- input: (day:chararray, member_id:long)
+ * views = LOAD 'views' AS (day:chararray, member_id:long);
+ * 
+ * daily_sketches = FOREACH (GROUP views BY day) GENERATE 
+ *   group AS day, 
+ *   HyperLogLogPlusPlusSketch(views.member_id) AS sketch;
+ * 
+ * STORE daily_sketches INTO 'daily_sketches';
+ * }
+ * </pre>
+ * </p>
+ * 
+ * @see HyperLogLogPlusPlusMerge
+ * @see HyperLogLogPlusPlusCardinality
+ */
+public class HyperLogLogPlusPlusSketch extends AccumulatorEvalFunc<DataByteArray> implements Algebraic
+{
+  private HyperLogLogPlus estimator;
+  
+  private final int p;
+  
+  /**
+   * Constructs a HyperLogLog++ estimator.
+   */
+  public HyperLogLogPlusPlusSketch()
+  {
+    this("20");
+  }
+  
+  /**
+   * Constructs a HyperLogLog++ estimator.
+   * 
+   * @param p precision value
+   */
+  public HyperLogLogPlusPlusSketch(String p)
+  {
+    this.p = Integer.parseInt(p);
+    cleanup();
+  }
+  
+  @Override
+  public void accumulate(Tuple arg0) throws IOException
+  {
+    DataBag inputBag = (DataBag)arg0.get(0);
+    for (Tuple t : inputBag) 
+    {
+      estimator.offer(t);
+    }
+  }
+
+  @Override
+  public void cleanup()
+  {
+    this.estimator = HyperLogLogPlusPlus.newEstimator(p);
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    try
+    {
+      return HyperLogLogPlusPlus.toBytes(this.estimator);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have only a single field");
+      }
+      
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+      
+      return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public String getInitial()
+  {
+    return PassThroughInitial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return HyperLogLogPlusPlus.Intermediate.class.getName() + String.format("('%d')", p);
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + String.format("('%d')", p);
+  }
+  
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    private final int p;
+    
+    public Final()
+    {
+      this("20");
+    }
+    
+    public Final(String p)
+    {
+      this.p = Integer.parseInt(p);
+    }
+    
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      HyperLogLogPlus estimator = HyperLogLogPlusPlus.merge(HyperLogLogPlusPlus.newEstimator(p), p, (DataBag)input.get(0));
+      return HyperLogLogPlusPlus.toBytes(estimator);
+    }
+  }
+}
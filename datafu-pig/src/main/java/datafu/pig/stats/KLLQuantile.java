@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import datafu.pig.util.PassThroughInitial;
+
+/**
+ * Computes approximate {@link <a href="http://en.wikipedia.org/wiki/Quantile" target="_blank">quantiles</a>} 
+ * for a (not necessarily sorted) input bag, using the mergeable KLL quantile sketch.
+ * 
+ * <p>
+ * The algorithm is described in: Z. Karnin, K. Lang, E. Liberty, 
+ * <a href="http://arxiv.org/abs/1603.05346" target="_blank">Optimal Quantile Approximation in Streams</a>, FOCS 2016.
+ * </p>
+ * 
+ * <p>
+ * Unlike {@link StreamingQuantile}, this UDF computes distributed quantiles.  It is algebraic, so the combiner 
+ * builds a partial sketch on the map side for each group and only the serialized sketches, which hold a few 
+ * hundred values each, are sent to the reducer.  It also implements accumulate.  The input does not need to 
+ * be sorted.  The error is expressed in terms of rank: with the sketch size used here the value returned for the 
+ * quantile q has a rank within about 1.5% of q in the input.  The quantiles 0.0 and 1.0 are always the exact 
+ * min and max.
+ * </p>
+ * 
+ * <p>The constructor takes the quantiles to compute in the same way as {@link StreamingQuantile}.  A single integer
+ * argument specifies the number of evenly-spaced quantiles to compute, e.g.,</p>
+ * 
+ * <ul>
+ *   <li>KLLQuantile('3') yields the min, the median, and the max
+ *   <li>KLLQuantile('5') yields the min, the 25th, 50th, 75th percentiles, and the max
+ * </ul>
+ * 
+ * <p>Alternatively the constructor can take the explicit list of quantiles to compute, e.g.</p>
+ *
+ * <ul>
+ *   <li>KLLQuantile('0.5','0.90','0.95','0.99') yields the median, the 90th, 95th, and the 99th percentiles
+ * </ul>
+ * 
+ * <p>
+ * To store the sketch itself so that it can later be rolled up, for example from daily to monthly percentiles, 
+ * see {@link KLLQuantileSketch}, {@link KLLQuantileMerge} and {@link KLLQuantileFromSketch}.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define Quantile datafu.pig.stats.KLLQuantile('0.5','0.99');
+ *
+ * latencies = LOAD 'latencies' AS (service:chararray, latency:double);
+ *
+ * quantiles = FOREACH (GROUP latencies BY service) GENERATE group, Quantile(latencies.latency);
+ * }
+ * </pre></p>
+ *
+ * @see StreamingQuantile
+ * @see KLLQuantileSketch
+ */
+public class KLLQuantile extends AccumulatorEvalFunc<Tuple> implements Algebraic
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  
+  private final String[] params;
+  private final double[] quantiles;
+  private final boolean ordinalOutputSchema;
+  private final KLLSketch sketch = new KLLSketch();
+  
+  public KLLQuantile(String... k)
+  {
+    this.params = k;
+    this.ordinalOutputSchema = k.length == 1 && Double.parseDouble(k[0]) > 1.0;
+    this.quantiles = QuantileUtil.toArray(QuantileUtil.getQuantilesFromParams(k));
+  }
+  
+  @Override
+  public void accumulate(Tuple b) throws IOException
+  {
+    addValues(sketch, (DataBag)b.get(0));
+  }
+
+  @Override
+  public void cleanup()
+  {
+    sketch.clear();
+  }
+
+  @Override
+  public Tuple getValue()
+  {
+    try
+    {
+      return getQuantiles(sketch, quantiles);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return QuantileUtil.getOutputSchema(quantiles, ordinalOutputSchema);
+  }
+  
+  @Override
+  public String getInitial()
+  {
+    return PassThroughInitial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    StringBuilder sb = new StringBuilder(Final.class.getName());
+    if (params == null)
+    {
+      // called from the EvalFunc constructor to check the return type, before the params are set
+      return sb.toString();
+    }
+    sb.append("(");
+    for (int i=0; i<params.length; i++)
+    {
+      if (i > 0)
+      {
+        sb.append(",");
+      }
+      sb.append("'").append(params[i]).append("'");
+    }
+    sb.append(")");
+    return sb.toString();
+  }
+  
+  static Tuple getQuantiles(KLLSketch sketch, double[] quantiles) throws IOException
+  {
+    if (sketch.isEmpty())
+    {
+      return null;
+    }
+    
+    double[] values = sketch.getQuantiles(quantiles);
+    Tuple t = tupleFactory.newTuple(values.length);
+    for (int i=0; i<values.length; i++)
+    {
+      t.set(i, values[i]);
+    }
+    return t;
+  }
+  
+  static void addValues(KLLSketch sketch, DataBag bag) throws IOException
+  {
+    if (bag == null)
+    {
+      return;
+    }
+    
+    for (Tuple t : bag) 
+    {
+      Object o = t.get(0);
+      if (!(o instanceof Number)) 
+      {
+        throw new IllegalStateException("bag must have numerical values (and be non-null)");
+      }
+      sketch.add(((Number) o).doubleValue());
+    }
+  }
+  
+  /**
+   * Merges the intermediate tuples into a sketch.  Each intermediate tuple holds either a bag of 
+   * input values, as produced by {@link PassThroughInitial}, or a serialized sketch.
+   */
+  static KLLSketch merge(KLLSketch sketch, DataBag intermediates) throws IOException
+  {
+    for (Tuple t : intermediates)
+    {
+      Object o = t.get(0);
+      if (o instanceof DataByteArray)
+      {
+        sketch.merge(KLLSketch.fromBytes(((DataByteArray)o).get()));
+      }
+      else if (o instanceof DataBag)
+      {
+        addValues(sketch, (DataBag)o);
+      }
+    }
+    return sketch;
+  }
+  
+  /**
+   * Merges the values and sketches into a sketch of the default size.
+   */
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    public Intermediate()
+    {
+    }
+    
+    /**
+     * Pig passes the quantiles to this function, but they are only needed by {@link Final}.
+     */
+    public Intermediate(String... quantiles)
+    {
+    }
+    
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return toIntermediate(merge(new KLLSketch(), (DataBag)input.get(0)));
+    }
+  }
+  
+  static Tuple toIntermediate(KLLSketch sketch) throws IOException
+  {
+    return tupleFactory.newTuple(new DataByteArray(sketch.toBytes()));
+  }
+  
+  static public class Final extends EvalFunc<Tuple>
+  {
+    private final double[] quantiles;
+    
+    public Final()
+    {
+      this(new String[0]);
+    }
+    
+    public Final(String... k)
+    {
+      this.quantiles = QuantileUtil.toArray(QuantileUtil.getQuantilesFromParams(k));
+    }
+    
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return getQuantiles(merge(new KLLSketch(), (DataBag)input.get(0)), quantiles);
+    }
+  }
+}
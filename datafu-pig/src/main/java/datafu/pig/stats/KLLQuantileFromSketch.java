@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import datafu.pig.util.SimpleEvalFunc;
+
+/**
+ * Computes approximate quantiles from a serialized KLL quantile sketch, as produced by {@link KLLQuantileSketch}
+ * or {@link KLLQuantileMerge}.  The quantiles are specified in the constructor in the same way as {@link KLLQuantile}.
+ * A null or empty sketch yields null.
+ * 
+ * @see KLLQuantileSketch
+ * @see KLLQuantileMerge
+ */
+public class KLLQuantileFromSketch extends SimpleEvalFunc<Tuple>
+{
+  private final double[] quantiles;
+  private final boolean ordinalOutputSchema;
+  
+  public KLLQuantileFromSketch(String... k)
+  {
+    this.ordinalOutputSchema = k.length == 1 && Double.parseDouble(k[0]) > 1.0;
+    this.quantiles = QuantileUtil.toArray(QuantileUtil.getQuantilesFromParams(k));
+  }
+  
+  public Tuple call(DataByteArray sketch) throws IOException
+  {
+    if (sketch == null)
+    {
+      return null;
+    }
+    return KLLQuantile.getQuantiles(KLLSketch.fromBytes(sketch.get()), quantiles);
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    super.outputSchema(input);
+    return QuantileUtil.getOutputSchema(quantiles, ordinalOutputSchema);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Merges a bag of serialized KLL quantile sketches, as produced by {@link KLLQuantileSketch}, into a single
+ * serialized sketch.
+ * 
+ * <p>
+ * The merged sketch has the same error guarantees as a sketch built from the input values of all the 
+ * sketches, so daily sketches can be rolled up into weekly or monthly sketches, which can themselves be 
+ * stored and merged again.  Null sketches are ignored.  This UDF is algebraic, so sketches are merged in the combiner.
+ * The merged sketch has the largest size k of the sketches merged.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * 
+ * define KLLQuantileMerge datafu.pig.stats.KLLQuantileMerge();
+ * define KLLQuantileFromSketch datafu.pig.stats.KLLQuantileFromSketch('0.5','0.99');
+ * 
+ * daily_sketches = LOAD 'daily_sketches' AS (day:chararray, sketch:bytearray);
+ * 
+ * monthly = FOREACH (GROUP daily_sketches BY SUBSTRING(day,0,7)) GENERATE 
+ *   group AS month, 
+ *   KLLQuantileFromSketch(KLLQuantileMerge(daily_sketches.sketch)) AS quantiles;
+ * }
+ * </pre>
+ * </p>
+ * 
+ * @see KLLQuantileSketch
+ * @see KLLQuantileFromSketch
+ */
+public class KLLQuantileMerge extends AccumulatorEvalFunc<DataByteArray> implements Algebraic
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+  
+  private KLLSketch sketch = new KLLSketch();
+  
+  @Override
+  public void accumulate(Tuple b) throws IOException
+  {
+    KLLQuantile.merge(sketch, (DataBag)b.get(0));
+  }
+
+  @Override
+  public void cleanup()
+  {
+    sketch = new KLLSketch();
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    try
+    {
+      return new DataByteArray(sketch.toBytes());
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have only a single field");
+      }
+      
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+      
+      Schema inputTupleSchema = inputFieldSchema.schema.getField(0).schema;
+      
+      if (inputTupleSchema.size() != 1 || inputTupleSchema.getField(0).type != DataType.BYTEARRAY)
+      {
+        throw new RuntimeException("Expected the input bag to contain tuples with a single BYTEARRAY field");
+      }
+      
+      return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public String getInitial()
+  {
+    return Initial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return KLLQuantile.Intermediate.class.getName();
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName();
+  }
+  
+  /**
+   * Passes the serialized sketches through without deserializing them, unless there are several to merge.
+   */
+  static public class Initial extends EvalFunc<Tuple>
+  {
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      DataBag bag = (DataBag)input.get(0);
+      if (bag.size() == 1)
+      {
+        return tupleFactory.newTuple(bag.iterator().next().get(0));
+      }
+      
+      return tupleFactory.newTuple(new DataByteArray(KLLQuantile.merge(new KLLSketch(), bag).toBytes()));
+    }
+  }
+  
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      return new DataByteArray(KLLQuantile.merge(new KLLSketch(), (DataBag)input.get(0)).toBytes());
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import java.io.IOException;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+import datafu.pig.util.PassThroughInitial;
+
+/**
+ * Builds a KLL quantile sketch from a (not necessarily sorted) bag of numbers and outputs it serialized as a bytearray.
+ * 
+ * <p>
+ * This is the sketch used by {@link KLLQuantile}, but rather than producing quantiles the sketch itself is output
+ * so that it can be stored.  Stored sketches can later be merged with {@link KLLQuantileMerge}, for example to compute
+ * monthly percentiles from daily sketches without reading the raw data again.  Quantiles are obtained from
+ * a sketch with {@link KLLQuantileFromSketch}.
+ * </p>
+ * 
+ * <p>
+ * The constructor optionally takes the sketch size k (default 200).  The rank error is roughly proportional to 1/k, 
+ * while the size of the sketch is around 3k values.  Like {@link KLLQuantile}, this UDF is algebraic.
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * 
+ * define KLLQuantileSketch datafu.pig.stats.KLLQuantileSketch();
+ * 
+ * latencies = LOAD 'latencies' AS (day:chararray, latency:double);
+ * 
+ * daily_sketches = FOREACH (GROUP latencies BY day) GENERATE 
+ *   group AS day, 
+ *   KLLQuantileSketch(latencies.latency) AS sketch;
+ * 
+ * STORE daily_sketches INTO 'daily_sketches';
+ * }
+ * </pre>
+ * </p>
+ * 
+ * @see KLLQuantileMerge
+ * @see KLLQuantileFromSketch
+ */
+public class KLLQuantileSketch extends AccumulatorEvalFunc<DataByteArray> implements Algebraic
+{
+  private final int k;
+  private KLLSketch sketch;
+  
+  public KLLQuantileSketch()
+  {
+    this(Integer.toString(KLLSketch.DEFAULT_K));
+  }
+  
+  /**
+   * Constructs the UDF with the given sketch size.
+   * 
+   * @param k sketch size
+   */
+  public KLLQuantileSketch(String k)
+  {
+    this.k = Integer.parseInt(k);
+    cleanup();
+  }
+  
+  @Override
+  public void accumulate(Tuple b) throws IOException
+  {
+    KLLQuantile.addValues(sketch, (DataBag)b.get(0));
+  }
+
+  @Override
+  public void cleanup()
+  {
+    sketch = new KLLSketch(k);
+  }
+
+  @Override
+  public DataByteArray getValue()
+  {
+    try
+    {
+      return new DataByteArray(sketch.toBytes());
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have only a single field");
+      }
+      
+      Schema.FieldSchema inputFieldSchema = input.getField(0);
+
+      if (inputFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+      
+      return new Schema(new Schema.FieldSchema(null, DataType.BYTEARRAY));
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public String getInitial()
+  {
+    return PassThroughInitial.class.getName();
+  }
+
+  @Override
+  public String getIntermed()
+  {
+    return Intermediate.class.getName() + String.format("('%d')", k);
+  }
+
+  @Override
+  public String getFinal()
+  {
+    return Final.class.getName() + String.format("('%d')", k);
+  }
+  
+  static public class Intermediate extends EvalFunc<Tuple>
+  {
+    private final int k;
+    
+    public Intermediate()
+    {
+      this(Integer.toString(KLLSketch.DEFAULT_K));
+    }
+    
+    public Intermediate(String k)
+    {
+      this.k = Integer.parseInt(k);
+    }
+    
+    @Override
+    public Tuple exec(Tuple input) throws IOException
+    {
+      return KLLQuantile.toIntermediate(KLLQuantile.merge(new KLLSketch(k), (DataBag)input.get(0)));
+    }
+  }
+  
+  static public class Final extends EvalFunc<DataByteArray>
+  {
+    private final int k;
+    
+    public Final()
+    {
+      this(Integer.toString(KLLSketch.DEFAULT_K));
+    }
+    
+    public Final(String k)
+    {
+      this.k = Integer.parseInt(k);
+    }
+    
+    @Override
+    public DataByteArray exec(Tuple input) throws IOException
+    {
+      return new DataByteArray(KLLQuantile.merge(new KLLSketch(k), (DataBag)input.get(0)).toBytes());
+    }
+  }
+}
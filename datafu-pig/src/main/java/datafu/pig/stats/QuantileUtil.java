@@ -20,6 +20,12 @@
 package datafu.pig.stats;
 
 import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
 
 /**
  * Methods used by {@link Quantile}.
@@ -72,4 +78,30 @@ public class QuantileUtil
     
     return quantiles;
   }
+  
+  static double[] toArray(List<Double> quantiles)
+  {
+    double[] result = new double[quantiles.size()];
+    for (int i=0; i<result.length; i++)
+    {
+      result[i] = quantiles.get(i);
+    }
+    return result;
+  }
+  
+  static Schema getOutputSchema(double[] quantiles, boolean ordinalOutputSchema)
+  {
+    Schema tupleSchema = new Schema();
+    for (int i = 0; i < quantiles.length; i++) 
+    {
+      String name = ordinalOutputSchema ? Integer.toString(i) : Double.toString(quantiles[i]).replace(".", "_");
+      tupleSchema.add(new Schema.FieldSchema("quantile_" + name, DataType.DOUBLE));
+    }
+
+    try {
+      return new Schema(new FieldSchema(null, tupleSchema, DataType.TUPLE));
+    } catch(FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -19,8 +19,11 @@
 
 package datafu.pig.stats;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -212,6 +215,11 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
   @Override
   public Tuple getValue()
   {
+    if (estimator.isEmpty())
+    {
+      return null;
+    }
+    
     Tuple t = TupleFactory.getInstance().newTuple(this.quantiles != null ? this.quantiles.size() : this.numQuantiles);
     try {
       if (this.quantiles == null)
@@ -269,13 +277,22 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     }
   }
 
+  /**
+   * Munro-Paterson estimator keeping each level of buffers in a primitive array.  The arrays, including 
+   * the two scratch arrays used to collapse full levels, are allocated once and reused, so adding a value
+   * does not allocate.
+   */
   static class QuantileEstimator
   {
     private static final long MAX_TOT_ELEMS = 1024L * 1024L * 1024L * 1024L;
 
-    private final List<List<Double>> buffer = new ArrayList<List<Double>>();
+    private final List<DoubleArrayList> buffer = new ArrayList<DoubleArrayList>();
     private final int numQuantiles;
     private final int maxElementsPerBuffer;
+    private final DoubleArrayList level0;
+    private final DoubleArrayList level1;
+    private DoubleArrayList scratch;
+    private DoubleArrayList spare;
     private int totalElements;
     private double min;
     private double max;
@@ -284,6 +301,10 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
     {
       this.numQuantiles = numQuantiles;
       this.maxElementsPerBuffer = computeMaxElementsPerBuffer();
+      this.level0 = ensureBuffer(0);
+      this.level1 = ensureBuffer(1);
+      this.scratch = new DoubleArrayList(maxElementsPerBuffer);
+      this.spare = new DoubleArrayList(maxElementsPerBuffer);
     }
     
     private int computeMaxElementsPerBuffer()
@@ -296,50 +317,63 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
       return (int) (MAX_TOT_ELEMS / (0x1L << (b - 1)));
     }
     
-    private void ensureBuffer(int level)
+    private DoubleArrayList ensureBuffer(int level)
     {
       while (buffer.size() < level + 1) {
-        buffer.add(null);
-      }
-      if (buffer.get(level) == null) {
-        buffer.set(level, new ArrayList<Double>());
+        buffer.add(new DoubleArrayList(maxElementsPerBuffer));
       }
+      return buffer.get(level);
     }
     
-    private void collapse(List<Double> a, List<Double> b, List<Double> out)
+    private static void sort(DoubleArrayList buf)
     {
+      Arrays.sort(buf.elements(), 0, buf.size());
+    }
+    
+    /**
+     * Merges two full sorted buffers, keeping every other element, and then empties them.
+     */
+    private void collapse(DoubleArrayList a, DoubleArrayList b, DoubleArrayList out)
+    {
+      final double[] elemsA = a.elements();
+      final double[] elemsB = b.elements();
+      out.size(maxElementsPerBuffer);
+      final double[] elemsOut = out.elements();
+      
       int indexA = 0, indexB = 0, count = 0;
-      Double smaller = null;
+      double smaller;
       while (indexA < maxElementsPerBuffer || indexB < maxElementsPerBuffer) {
         if (indexA >= maxElementsPerBuffer ||
-            (indexB < maxElementsPerBuffer && a.get(indexA) >= b.get(indexB))) {
-          smaller = b.get(indexB++);
+            (indexB < maxElementsPerBuffer && elemsA[indexA] >= elemsB[indexB])) {
+          smaller = elemsB[indexB++];
         } else {
-          smaller = a.get(indexA++);
+          smaller = elemsA[indexA++];
         }
         
-        if (count++ % 2 == 0) {
-          out.add(smaller);
+        if (count % 2 == 0) {
+          elemsOut[count >> 1] = smaller;
         }
+        count++;
       }
       a.clear();
       b.clear();
     }
     
-    private void recursiveCollapse(List<Double> buf, int level)
+    private void recursiveCollapse(DoubleArrayList buf, int level)
     {
-      ensureBuffer(level + 1);
-      
-      List<Double> merged;
-      if (buffer.get(level + 1).isEmpty()) {
-        merged = buffer.get(level + 1);
-      } else {
-        merged = new ArrayList<Double>(maxElementsPerBuffer);
-      }
-      
-      collapse(buffer.get(level), buf, merged);
-      if (buffer.get(level + 1) != merged) {
-        recursiveCollapse(merged, level + 1);
+      while (true) {
+        DoubleArrayList next = ensureBuffer(level + 1);
+        
+        if (next.isEmpty()) {
+          collapse(buffer.get(level), buf, next);
+          return;
+        }
+        
+        // the next level is occupied, so merge into a scratch buffer and carry it up a level
+        DoubleArrayList merged = (buf == scratch) ? spare : scratch;
+        collapse(buffer.get(level), buf, merged);
+        buf = merged;
+        level++;
       }
     }
     
@@ -353,35 +387,39 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
       }
       
       if (totalElements > 0 && totalElements % (2 * maxElementsPerBuffer) == 0) {
-        Collections.sort(buffer.get(0));
-        Collections.sort(buffer.get(1));
-        recursiveCollapse(buffer.get(0), 1);
+        sort(level0);
+        sort(level1);
+        recursiveCollapse(level0, 1);
       }
       
-      ensureBuffer(0);
-      ensureBuffer(1);
-      int index = buffer.get(0).size() < maxElementsPerBuffer ? 0 : 1;
-      buffer.get(index).add(elem);
+      if (level0.size() < maxElementsPerBuffer) {
+        level0.add(elem);
+      } else {
+        level1.add(elem);
+      }
       totalElements++;
     }
 
     public void clear()
     {
-      buffer.clear();
+      for (DoubleArrayList buf : buffer) {
+        buf.clear();
+      }
       totalElements = 0;
     }
 
+    public boolean isEmpty()
+    {
+      return totalElements == 0;
+    }
+
     public List<Double> getQuantiles()
     {
       List<Double> quantiles = new ArrayList<Double>();
       quantiles.add(min);
       
-      if (buffer.get(0) != null) {
-        Collections.sort(buffer.get(0));
-      }
-      if (buffer.get(1) != null) {
-        Collections.sort(buffer.get(1));
-      }
+      sort(level0);
+      sort(level1);
       
       int[] index = new int[buffer.size()];
       long S = 0;
@@ -392,9 +430,10 @@ public class StreamingQuantile extends AccumulatorEvalFunc<Tuple>
           double smallest = max;
           int minBufferId = -1;
           for (int j = 0; j < buffer.size(); j++) {
-            if (buffer.get(j) != null && index[j] < buffer.get(j).size()) {
-              if (!(smallest < buffer.get(j).get(index[j]))) {
-                smallest = buffer.get(j).get(index[j]);
+            DoubleArrayList buf = buffer.get(j);
+            if (index[j] < buf.size()) {
+              if (!(smallest < buf.getDouble(index[j]))) {
+                smallest = buf.getDouble(index[j]);
                 minBufferId = j;
               }
             }
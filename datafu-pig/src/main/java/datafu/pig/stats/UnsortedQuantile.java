@@ -0,0 +1,516 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.stats;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pig.AccumulatorEvalFunc;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Computes exact {@link <a href="http://en.wikipedia.org/wiki/Quantile" target="_blank">quantiles</a>} 
+ * for an <b>unsorted</b> input bag, using type R-2 estimation.
+ *
+ * <p>
+ * This gives the same results as {@link Quantile} but does not need a nested ORDER BY.  The values are buffered
+ * in a primitive array and the ranks needed for the quantiles are found by selection, which takes linear time
+ * rather than the n log n time of sorting.  Because it implements accumulate, the input bag does not need to fit 
+ * in memory.
+ * </p>
+ * 
+ * <p>
+ * When there are more values than the memory budget allows they are spilled to a temporary file.  The quantiles
+ * are then found by narrowing the range of values holding each rank.  Each pass over the file builds a histogram 
+ * over the next 12 bits of the values, in their sortable binary form, within the current range.  Once the values 
+ * in the remaining ranges fit in the budget they are read into memory and the ranks are selected.  Typically two 
+ * or three passes are needed, and at most six.
+ * </p>
+ * 
+ * <p>
+ * N.B., all the data is pushed to a single reducer per key, so make sure some partitioning is 
+ * done (e.g., group by 'day') if the data is too large.  That is, this isn't distributed quantiles.
+ * </p>
+ * 
+ * <p>The constructor takes the quantiles to compute in the same way as {@link Quantile}.  A single integer
+ * argument specifies the number of evenly-spaced quantiles to compute, e.g.,</p>
+ * 
+ * <ul>
+ *   <li>UnsortedQuantile('3') yields the min, the median, and the max
+ *   <li>UnsortedQuantile('5') yields the min, the 25th, 50th, 75th percentiles, and the max
+ * </ul>
+ * 
+ * <p>Alternatively the constructor can take the explicit list of quantiles to compute, e.g.</p>
+ *
+ * <ul>
+ *   <li>UnsortedQuantile('0.5','0.90','0.95','0.99') yields the median, the 90th, 95th, and the 99th percentiles
+ * </ul>
+ * 
+ * <p>
+ * The memory budget, given as the maximum number of values to hold in memory, can be set by passing 
+ * 'max_values_in_memory' and its value after the quantiles.  The default is 5M values, or about 40MB. 
+ * </p>
+ * 
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ *
+ * define Quantile datafu.pig.stats.UnsortedQuantile('0.0','0.5','1.0','max_values_in_memory','1000000');
+
+ * -- input: 9,10,2,3,5,8,1,4,6,7
+ * input = LOAD 'input' AS (val:int);
+ *
+ * grouped = GROUP input ALL;
+ *
+ * -- produces: (1.0,5.5,10.0)
+ * quantiles = FOREACH grouped GENERATE Quantile(input.val);
+ * }</pre></p>
+ *
+ * @see Quantile
+ * @see StreamingQuantile
+ */
+public class UnsortedQuantile extends AccumulatorEvalFunc<Tuple>
+{
+  private static final int DEFAULT_MAX_VALUES_IN_MEMORY = 5000000;
+  private static final int DIGIT_BITS = 12;
+  private static final int READ_CHUNK_SIZE = 8192;
+  
+  private final double[] quantiles;
+  private final boolean ordinalOutputSchema;
+  private final int maxValuesInMemory;
+  private final DoubleArrayList values = new DoubleArrayList();
+  private DoubleSpillFile spill;
+  
+  public UnsortedQuantile(String... k)
+  {
+    List<String> quantileParams = new ArrayList<String>();
+    int maxValuesInMemory = DEFAULT_MAX_VALUES_IN_MEMORY;
+    for (int i=0; i<k.length; i++)
+    {
+      if (k[i].equals("max_values_in_memory"))
+      {
+        if (i+1 >= k.length)
+        {
+          throw new IllegalArgumentException("Missing value for max_values_in_memory");
+        }
+        maxValuesInMemory = Integer.parseInt(k[++i]);
+      }
+      else
+      {
+        quantileParams.add(k[i]);
+      }
+    }
+    
+    if (maxValuesInMemory < 1)
+    {
+      throw new IllegalArgumentException("max_values_in_memory must be positive");
+    }
+    
+    String[] params = quantileParams.toArray(new String[0]);
+    this.maxValuesInMemory = maxValuesInMemory;
+    this.ordinalOutputSchema = params.length == 1 && Double.parseDouble(params[0]) > 1.0;
+    this.quantiles = QuantileUtil.toArray(QuantileUtil.getQuantilesFromParams(params));
+  }
+  
+  @Override
+  public void accumulate(Tuple b) throws IOException
+  {
+    DataBag bag = (DataBag)b.get(0);
+    if (bag == null)
+    {
+      return;
+    }
+    
+    for (Tuple t : bag)
+    {
+      Object o = t.get(0);
+      if (!(o instanceof Number))
+      {
+        throw new IllegalStateException("bag must have numerical values (and be non-null)");
+      }
+      if (values.size() >= maxValuesInMemory)
+      {
+        spillValues();
+      }
+      values.add(((Number)o).doubleValue());
+    }
+  }
+  
+  @Override
+  public void cleanup()
+  {
+    values.clear();
+    if (spill != null)
+    {
+      spill.delete();
+      spill = null;
+    }
+  }
+  
+  @Override
+  public Tuple getValue()
+  {
+    try
+    {
+      long count = values.size() + (spill != null ? spill.size() : 0L);
+      if (count == 0)
+      {
+        return null;
+      }
+      
+      // the 0-based ranks of the values needed by each quantile, as in Quantile
+      long[] lowerRanks = new long[quantiles.length];
+      long[] upperRanks = new long[quantiles.length];
+      for (int i=0; i<quantiles.length; i++)
+      {
+        double h = count*quantiles[i] + 0.5;
+        lowerRanks[i] = Math.min(Math.max(1, (long)Math.ceil(h - 0.5)), count) - 1;
+        upperRanks[i] = Math.min(Math.max(1, (long)Math.floor(h + 0.5)), count) - 1;
+      }
+      
+      long[] ranks = distinctSorted(lowerRanks, upperRanks);
+      double[] rankValues;
+      if (spill == null)
+      {
+        rankValues = new double[ranks.length];
+        int[] positions = new int[ranks.length];
+        for (int i=0; i<ranks.length; i++)
+        {
+          positions[i] = (int)ranks[i];
+        }
+        select(values.elements(), 0, values.size()-1, positions, 0, positions.length-1);
+        for (int i=0; i<ranks.length; i++)
+        {
+          rankValues[i] = values.getDouble(positions[i]);
+        }
+      }
+      else
+      {
+        spillValues();
+        rankValues = selectFromSpill(ranks);
+      }
+      
+      Tuple t = TupleFactory.getInstance().newTuple(quantiles.length);
+      for (int i=0; i<quantiles.length; i++)
+      {
+        double lower = rankValues[Arrays.binarySearch(ranks, lowerRanks[i])];
+        double upper = rankValues[Arrays.binarySearch(ranks, upperRanks[i])];
+        t.set(i, (lower + upper) / 2);
+      }
+      return t;
+    }
+    catch (IOException e)
+    {
+      // the task fails, so remove the spill file now rather than wait for cleanup
+      cleanup();
+      throw new RuntimeException(e);
+    }
+  }
+  
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    return QuantileUtil.getOutputSchema(quantiles, ordinalOutputSchema);
+  }
+  
+  private void spillValues() throws IOException
+  {
+    if (spill == null)
+    {
+      spill = new DoubleSpillFile();
+    }
+    spill.write(values.elements(), values.size());
+    values.clear();
+  }
+  
+  private static long[] distinctSorted(long[] a, long[] b)
+  {
+    long[] all = new long[a.length + b.length];
+    System.arraycopy(a, 0, all, 0, a.length);
+    System.arraycopy(b, 0, all, a.length, b.length);
+    Arrays.sort(all);
+    int n = 0;
+    for (int i=0; i<all.length; i++)
+    {
+      if (n == 0 || all[n-1] != all[i])
+      {
+        all[n++] = all[i];
+      }
+    }
+    return Arrays.copyOf(all, n);
+  }
+  
+  /**
+   * Maps a double to a long whose unsigned order is the order of {@link Double#compare(double, double)}.
+   */
+  private static long toSortableBits(double d)
+  {
+    long bits = Double.doubleToLongBits(d);
+    return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+  }
+  
+  private static double fromSortableBits(long bits)
+  {
+    return Double.longBitsToDouble(bits ^ (((~bits) >> 63) | Long.MIN_VALUE));
+  }
+  
+  /**
+   * Finds the values at the given ranks among the spilled values.  Each rank is tracked by the prefix of
+   * sortable bits shared by the values which may hold it, along with its rank among those values.  Each 
+   * pass over the spilled values extends the prefixes by {@link #DIGIT_BITS} bits, until either the values
+   * sharing the prefixes fit in memory or the prefixes are complete.
+   */
+  private double[] selectFromSpill(long[] ranks) throws IOException
+  {
+    final int n = ranks.length;
+    long[] prefixes = new long[n];
+    long[] offsets = ranks.clone();
+    long[] counts = new long[n];
+    int depth = 0;
+    double[] chunk = new double[READ_CHUNK_SIZE];
+    
+    while (depth < 64)
+    {
+      int digitBits = Math.min(DIGIT_BITS, 64 - depth);
+      
+      // ranks sharing a prefix share a histogram
+      Long2IntOpenHashMap nodes = new Long2IntOpenHashMap();
+      nodes.defaultReturnValue(-1);
+      for (int i=0; i<n; i++)
+      {
+        if (!nodes.containsKey(prefixes[i]))
+        {
+          nodes.put(prefixes[i], nodes.size());
+        }
+      }
+      long[][] histograms = new long[nodes.size()][1 << digitBits];
+      
+      int digitShift = 64 - depth - digitBits;
+      long digitMask = (1L << digitBits) - 1;
+      DoubleSpillFile.Reader reader = spill.read();
+      int read;
+      while ((read = reader.next(chunk)) > 0)
+      {
+        for (int j=0; j<read; j++)
+        {
+          long bits = toSortableBits(chunk[j]);
+          int node = nodes.get(prefixOf(bits, depth));
+          if (node >= 0)
+          {
+            histograms[node][(int)((bits >>> digitShift) & digitMask)]++;
+          }
+        }
+        if (reporter != null)
+        {
+          reporter.progress();
+        }
+      }
+      
+      for (int i=0; i<n; i++)
+      {
+        long[] histogram = histograms[nodes.get(prefixes[i])];
+        int digit = 0;
+        while (offsets[i] >= histogram[digit])
+        {
+          offsets[i] -= histogram[digit];
+          digit++;
+        }
+        prefixes[i] = (prefixes[i] << digitBits) | digit;
+        counts[i] = histogram[digit];
+      }
+      depth += digitBits;
+      
+      long candidates = 0;
+      for (int i=0; i<n; i++)
+      {
+        if (i == 0 || prefixes[i] != prefixes[i-1])
+        {
+          candidates += counts[i];
+        }
+      }
+      if (candidates <= maxValuesInMemory)
+      {
+        break;
+      }
+    }
+    
+    double[] result = new double[n];
+    if (depth == 64)
+    {
+      // every value sharing a complete prefix is the same value
+      for (int i=0; i<n; i++)
+      {
+        result[i] = fromSortableBits(prefixes[i]);
+      }
+      return result;
+    }
+    
+    // read the values sharing each prefix into consecutive ranges of the buffer, in order of prefix
+    Long2IntOpenHashMap nodes = new Long2IntOpenHashMap();
+    nodes.defaultReturnValue(-1);
+    int[] starts = new int[n];
+    int[] ends = new int[n];
+    int total = 0;
+    for (int i=0; i<n; i++)
+    {
+      if (i == 0 || prefixes[i] != prefixes[i-1])
+      {
+        starts[nodes.size()] = total;
+        ends[nodes.size()] = total;
+        nodes.put(prefixes[i], nodes.size());
+        total += (int)counts[i];
+      }
+    }
+    values.clear();
+    values.size(total);
+    double[] buffer = values.elements();
+    DoubleSpillFile.Reader reader = spill.read();
+    int read;
+    while ((read = reader.next(chunk)) > 0)
+    {
+      for (int j=0; j<read; j++)
+      {
+        int node = nodes.get(prefixOf(toSortableBits(chunk[j]), depth));
+        if (node >= 0)
+        {
+          buffer[ends[node]++] = chunk[j];
+        }
+      }
+      if (reporter != null)
+      {
+        reporter.progress();
+      }
+    }
+    
+    int[] positions = new int[n];
+    int first = 0;
+    for (int i=0; i<n; i++)
+    {
+      int node = nodes.get(prefixes[i]);
+      positions[i] = starts[node] + (int)offsets[i];
+      if (i == n-1 || prefixes[i+1] != prefixes[i])
+      {
+        select(buffer, starts[node], ends[node]-1, positions, first, i);
+        first = i+1;
+      }
+    }
+    for (int i=0; i<n; i++)
+    {
+      result[i] = buffer[positions[i]];
+    }
+    values.clear();
+    return result;
+  }
+  
+  /**
+   * Rearranges the values in a[lo..hi] so that each of the given positions holds the value it would hold if
+   * the range were sorted.  Values are ordered by {@link Double#compare(double, double)}, as they are when
+   * spilled, so NaN is the largest value and -0.0 is less than 0.0.  This is quickselect generalized to several positions: after partitioning, each 
+   * side is only searched if it contains one of the positions.
+   * 
+   * @param a values
+   * @param lo start of the range
+   * @param hi end of the range, inclusive
+   * @param positions sorted positions within the range
+   * @param rlo index of the first position to select
+   * @param rhi index of the last position to select, inclusive
+   */
+  static void select(double[] a, int lo, int hi, int[] positions, int rlo, int rhi)
+  {
+    while (rlo <= rhi && lo < hi)
+    {
+      double pivot = medianOfThree(a[lo], a[(lo + hi) >>> 1], a[hi]);
+      
+      // three-way partition, so that repeated values end up in the middle: 
+      // a[lo..lt-1] < pivot, a[lt..gt] == pivot, a[gt+1..hi] > pivot
+      int lt = lo, gt = hi, i = lo;
+      while (i <= gt)
+      {
+        double v = a[i];
+        int c = Double.compare(v, pivot);
+        if (c < 0)
+        {
+          a[i++] = a[lt];
+          a[lt++] = v;
+        }
+        else if (c > 0)
+        {
+          a[i] = a[gt];
+          a[gt--] = v;
+        }
+        else
+        {
+          i++;
+        }
+      }
+      
+      int leftEnd = rlo;
+      while (leftEnd <= rhi && positions[leftEnd] < lt)
+      {
+        leftEnd++;
+      }
+      int rightStart = leftEnd;
+      while (rightStart <= rhi && positions[rightStart] <= gt)
+      {
+        rightStart++;
+      }
+      
+      // recurse into the smaller side and loop on the larger one to bound the stack depth
+      if (lt - lo < hi - gt)
+      {
+        select(a, lo, lt-1, positions, rlo, leftEnd-1);
+        lo = gt+1;
+        rlo = rightStart;
+      }
+      else
+      {
+        select(a, gt+1, hi, positions, rightStart, rhi);
+        hi = lt-1;
+        rhi = leftEnd-1;
+      }
+    }
+  }
+  
+  private static double medianOfThree(double a, double b, double c)
+  {
+    if (Double.compare(a, b) < 0)
+    {
+      return Double.compare(b, c) < 0 ? b : (Double.compare(a, c) < 0 ? c : a);
+    }
+    else
+    {
+      return Double.compare(a, c) < 0 ? a : (Double.compare(b, c) < 0 ? c : b);
+    }
+  }
+  
+  private static long prefixOf(long bits, int depth)
+  {
+    return depth == 0 ? 0L : bits >>> (64 - depth);
+  }
+}
@@ -75,6 +75,11 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
  * </pre>
  * </p>
  * 
+ * <p>
+ * Each getter looks up the position of the alias when it is called.  To read a field from every tuple of a bag,
+ * resolve the alias once with {@link #getFieldAccessor(String)} and read the field with the {@link FieldAccessor}.
+ * </p>
+ * 
  * @author wvaughan
  *
  * @param <T>
@@ -84,6 +89,7 @@ public abstract class AliasableEvalFunc<T> extends ContextualEvalFunc<T>
   private static final String ALIAS_MAP_PROPERTY = "aliasMap";
     
   private Map<String, Integer> aliasToPosition = null;
+  private Map<String, FieldAccessor> accessors = null;
   
   public AliasableEvalFunc() {
     
@@ -180,17 +186,38 @@ public abstract class AliasableEvalFunc<T> extends ContextualEvalFunc<T>
     return getPosition(getPrefixedAliasName(prefix, alias));
   }
       
+  /**
+   * Resolves an alias to an accessor for its field.  The accessors are cached, so this may be called
+   * from exec, but the accessor should be kept rather than resolved again for each tuple of a bag.
+   * 
+   * @param alias alias of the field
+   * @return accessor for the field
+   * @throws FieldNotFound if the alias is unknown
+   */
+  public FieldAccessor getFieldAccessor(String alias) throws FieldNotFound {
+    if (accessors == null) {
+      accessors = new HashMap<String, FieldAccessor>();
+    }
+    FieldAccessor accessor = accessors.get(alias);
+    if (accessor == null) {
+      Integer i = getPosition(alias); 
+      if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
+      accessor = new FieldAccessor(alias, i);
+      accessors.put(alias, accessor);
+    }
+    return accessor;
+  }
+  
+  public FieldAccessor getFieldAccessor(String prefix, String alias) throws FieldNotFound {
+    return getFieldAccessor(getPrefixedAliasName(prefix, alias));
+  }
+      
   public Integer getInteger(Tuple tuple, String alias) throws ExecException {
     return getInteger(tuple, alias, null);
   }
   
   public Integer getInteger(Tuple tuple, String alias, Integer defaultValue) throws ExecException {
-    Integer i = getPosition(alias); 
-    if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    if (i >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    Number number = (Number)tuple.get(i);
-    if (number == null) return defaultValue;
-    return number.intValue();
+    return getFieldAccessor(alias).getInteger(tuple, defaultValue);
   }
   
   public Long getLong(Tuple tuple, String alias) throws ExecException {
@@ -198,12 +225,7 @@ public abstract class AliasableEvalFunc<T> extends ContextualEvalFunc<T>
   }
   
   public Long getLong(Tuple tuple, String alias, Long defaultValue) throws ExecException {
-    Integer i = getPosition(alias); 
-    if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    if (i >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    Number number = (Number)tuple.get(i);
-    if (number == null) return defaultValue;
-    return number.longValue();
+    return getFieldAccessor(alias).getLong(tuple, defaultValue);
   }
   
   public Float getFloat(Tuple tuple, String alias) throws ExecException {
@@ -211,12 +233,7 @@ public abstract class AliasableEvalFunc<T> extends ContextualEvalFunc<T>
   }
   
   public Float getFloat(Tuple tuple, String alias, Float defaultValue) throws ExecException {
-    Integer i = getPosition(alias); 
-    if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    if (i >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    Number number = (Number)tuple.get(i);
-    if (number == null) return defaultValue;
-    return number.floatValue();
+    return getFieldAccessor(alias).getFloat(tuple, defaultValue);
   }
   
   public Double getDouble(Tuple tuple, String alias) throws ExecException {
@@ -224,12 +241,7 @@ public abstract class AliasableEvalFunc<T> extends ContextualEvalFunc<T>
   }
   
   public Double getDouble(Tuple tuple, String alias, Double defaultValue) throws ExecException {
-    Integer i = getPosition(alias); 
-    if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    if (i >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    Number number = (Number)tuple.get(i);
-    if (number == null) return defaultValue;
-    return number.doubleValue();
+    return getFieldAccessor(alias).getDouble(tuple, defaultValue);
   }
   
   public String getString(Tuple tuple, String alias) throws ExecException {
@@ -237,32 +249,18 @@ public abstract class AliasableEvalFunc<T> extends ContextualEvalFunc<T>
   }
   
   public String getString(Tuple tuple, String alias, String defaultValue) throws ExecException {
-    Integer i = getPosition(alias); 
-    if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    if (i >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    String s = (String)tuple.get(i);
-    if (s == null) return defaultValue;
-    return s;
+    return getFieldAccessor(alias).getString(tuple, defaultValue);
   }
   
   public Boolean getBoolean(Tuple tuple, String alias) throws ExecException {
-    Integer i = getPosition(alias); 
-    if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    if (i >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    return (Boolean)tuple.get(i);
+    return getFieldAccessor(alias).getBoolean(tuple);
   }
   
   public DataBag getBag(Tuple tuple, String alias) throws ExecException {
-    Integer i = getPosition(alias); 
-    if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    if (i >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    return (DataBag)tuple.get(i);
+    return getFieldAccessor(alias).getBag(tuple);
   }
   
   public Object getObject(Tuple tuple, String alias) throws ExecException {
-    Integer i = getPosition(alias); 
-    if (i == null) throw new FieldNotFound("Attempt to reference unknown alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    if (i >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias+"\n Instance Properties: "+getInstanceProperties());
-    return tuple.get(i);
+    return getFieldAccessor(alias).getObject(tuple);
   }
 }
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.util;
+
+import java.io.IOException;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+
+/**
+ * Applies a {@link SimpleEvalFunc} to each tuple of a bag, in batches.
+ *
+ * <p>
+ * This does the same as <code>FOREACH bag GENERATE UDF(fields...)</code> in a nested FOREACH, but the tuples are
+ * collected into batches of up to 1024 rows which are passed to
+ * {@link SimpleEvalFunc#callBatch(ColumnBatch, Object[])}.  UDFs which implement callBatch, such as
+ * {@link datafu.pig.geo.HaversineDistInMiles} and {@link datafu.pig.hash.MD5}, then process each batch in a single
+ * loop over its columns.  Other UDFs are called once for each tuple, as usual.
+ * </p>
+ *
+ * <p>
+ * The constructor takes the class name of the UDF, followed by any arguments for the constructor of the UDF.
+ * The fields of each tuple in the bag are the arguments to the UDF.  The output is a bag with a tuple holding the
+ * result for each tuple of the input bag, in the same order.  As with exec, a null or empty tuple gives a null result.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ * DEFINE BatchHaversine datafu.pig.util.BatchApply('datafu.pig.geo.HaversineDistInMiles');
+ *
+ * -- input:
+ * -- ({(40.7,-74.0,34.05,-118.24),(51.5,-0.13,48.86,2.35)})
+ * input = LOAD 'input' AS (B: bag {T: tuple(lat1:double,lng1:double,lat2:double,lng2:double)});
+ *
+ * -- output:
+ * -- ({(2445.79...),(212.83...)})
+ * output = FOREACH input GENERATE BatchHaversine(B);
+ * }
+ * </pre>
+ * </p>
+ */
+public class BatchApply extends EvalFunc<DataBag>
+{
+  public static final int BATCH_SIZE = 1024;
+
+  private static final BagFactory bagFactory = BagFactory.getInstance();
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  private final SimpleEvalFunc<?> udf;
+  private ColumnBatch batch;
+  private Object[] results;
+
+  public BatchApply(String className, String... args)
+  {
+    FuncSpec funcSpec = args.length == 0 ? new FuncSpec(className) : new FuncSpec(className, args);
+    Object func = PigContext.instantiateFuncFromSpec(funcSpec);
+    if (!(func instanceof SimpleEvalFunc))
+    {
+      throw new IllegalArgumentException(String.format("Expected a %s, but %s is not", SimpleEvalFunc.class.getName(),
+                                                       className));
+    }
+    this.udf = (SimpleEvalFunc<?>)func;
+  }
+
+  @Override
+  public DataBag exec(Tuple input) throws IOException
+  {
+    DataBag inputBag = (DataBag)input.get(0);
+    if (inputBag == null)
+    {
+      return null;
+    }
+
+    if (batch == null)
+    {
+      batch = udf.newBatch(BATCH_SIZE);
+      results = new Object[BATCH_SIZE];
+    }
+
+    DataBag outputBag = bagFactory.newDefaultBag();
+    try
+    {
+      for (Tuple tuple : inputBag)
+      {
+        if (tuple == null || tuple.size() == 0)
+        {
+          // as exec gives null for an empty row, keeping the results in order
+          flush(outputBag);
+          outputBag.add(tupleFactory.newTuple((Object)null));
+          continue;
+        }
+        try
+        {
+          batch.add(tuple);
+        }
+        catch (ExecException e)
+        {
+          throw new IOException(String.format("%s: %s", udf.getMethodSignature(), e.getMessage()), e);
+        }
+        if (batch.isFull())
+        {
+          flush(outputBag);
+        }
+      }
+      flush(outputBag);
+    }
+    finally
+    {
+      batch.clear();
+    }
+    return outputBag;
+  }
+
+  private void flush(DataBag outputBag) throws IOException
+  {
+    int size = batch.size();
+    if (size == 0)
+    {
+      return;
+    }
+
+    udf.callBatch(batch, results);
+    for (int i=0; i<size; i++)
+    {
+      outputBag.add(tupleFactory.newTuple(results[i]));
+      results[i] = null;
+    }
+    batch.clear();
+    progress();
+  }
+
+  @Override
+  public Schema outputSchema(Schema input)
+  {
+    try {
+      if (input.size() != 1)
+      {
+        throw new RuntimeException("Expected input to have one field");
+      }
+
+      Schema.FieldSchema bagFieldSchema = input.getField(0);
+
+      if (bagFieldSchema.type != DataType.BAG)
+      {
+        throw new RuntimeException("Expected a BAG as input");
+      }
+
+      Schema inputBagSchema = bagFieldSchema.schema;
+
+      if (inputBagSchema.getField(0).type != DataType.TUPLE)
+      {
+        throw new RuntimeException(String.format("Expected input bag to contain a TUPLE, but instead found %s",
+                                                 DataType.findTypeName(inputBagSchema.getField(0).type)));
+      }
+
+      // the UDF checks the fields of the tuples against the parameters of call()
+      Schema udfSchema = udf.outputSchema(inputBagSchema.getField(0).schema);
+
+      Schema outputTupleSchema = new Schema();
+      if (udfSchema != null && udfSchema.size() > 0)
+      {
+        outputTupleSchema.add(udfSchema.getField(0));
+      }
+      else
+      {
+        outputTupleSchema.add(new Schema.FieldSchema(udf.getClass().getSimpleName().toLowerCase(),
+                                                     DataType.findType(udf.getReturnType())));
+      }
+
+      return new Schema(new Schema.FieldSchema(
+            getSchemaName(this.getClass().getName().toLowerCase(), input),
+            outputTupleSchema,
+            DataType.BAG));
+    }
+    catch (FrontendException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.util;
+
+import java.util.Arrays;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A batch of rows of arguments to a {@link SimpleEvalFunc}, stored by column.
+ *
+ * <p>
+ * There is one column for each parameter of <code>call()</code>.  Columns of Double, Float, Long and Integer
+ * parameters are stored as arrays of the primitive type, with a separate flag for nulls, so that
+ * {@link SimpleEvalFunc#callBatch(ColumnBatch, Object[])} can loop over them without unboxing.  String columns are
+ * stored as a String[], and columns of any other type as an Object[].
+ * </p>
+ *
+ * <p>
+ * The arrays are allocated once and reused after {@link #clear()}.  Only the first {@link #size()} entries of each
+ * array are valid.
+ * </p>
+ */
+public class ColumnBatch
+{
+  private final Class<?>[] types;
+  private final Object[] columns;
+  private final boolean[][] nulls;
+  private final boolean[] hasNulls;
+  private final int capacity;
+  private int size;
+
+  /**
+   * @param types type of each column, as the parameter types of <code>call()</code>
+   * @param capacity maximum number of rows
+   */
+  public ColumnBatch(Class<?>[] types, int capacity)
+  {
+    if (capacity < 1)
+    {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.types = types.clone();
+    this.capacity = capacity;
+    this.columns = new Object[types.length];
+    this.nulls = new boolean[types.length][capacity];
+    this.hasNulls = new boolean[types.length];
+    for (int i=0; i<types.length; i++)
+    {
+      Class<?> type = types[i];
+      if (type == Double.class)
+      {
+        columns[i] = new double[capacity];
+      }
+      else if (type == Float.class)
+      {
+        columns[i] = new float[capacity];
+      }
+      else if (type == Long.class)
+      {
+        columns[i] = new long[capacity];
+      }
+      else if (type == Integer.class)
+      {
+        columns[i] = new int[capacity];
+      }
+      else if (type == String.class)
+      {
+        columns[i] = new String[capacity];
+      }
+      else
+      {
+        columns[i] = new Object[capacity];
+      }
+    }
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public int capacity()
+  {
+    return capacity;
+  }
+
+  public int getColumnCount()
+  {
+    return types.length;
+  }
+
+  public boolean isFull()
+  {
+    return size == capacity;
+  }
+
+  /**
+   * Adds a row holding one field for each column.
+   *
+   * @param tuple row
+   * @throws ExecException if the row has the wrong number of fields or a field has the wrong type
+   */
+  public void add(Tuple tuple) throws ExecException
+  {
+    if (size == capacity)
+    {
+      throw new IllegalStateException("Batch is full");
+    }
+    if (tuple.size() != types.length)
+    {
+      throw new ExecException(String.format("got %d arguments, expected %d.", tuple.size(), types.length));
+    }
+
+    int row = size;
+    for (int i=0; i<types.length; i++)
+    {
+      Object o = tuple.get(i);
+      if (o != null && !types[i].isInstance(o))
+      {
+        throw new ExecException(String.format("argument type mismatch [#%d]; expected %s, got %s", i+1,
+                                              types[i].getName(), o.getClass().getName()));
+      }
+      nulls[i][row] = o == null;
+      hasNulls[i] |= o == null;
+
+      Object column = columns[i];
+      if (column instanceof double[])
+      {
+        ((double[])column)[row] = o == null ? 0.0 : (Double)o;
+      }
+      else if (column instanceof float[])
+      {
+        ((float[])column)[row] = o == null ? 0.0f : (Float)o;
+      }
+      else if (column instanceof long[])
+      {
+        ((long[])column)[row] = o == null ? 0L : (Long)o;
+      }
+      else if (column instanceof int[])
+      {
+        ((int[])column)[row] = o == null ? 0 : (Integer)o;
+      }
+      else
+      {
+        ((Object[])column)[row] = o;
+      }
+    }
+    size++;
+  }
+
+  /**
+   * Removes all the rows, releasing the references to their values.
+   */
+  public void clear()
+  {
+    for (int i=0; i<types.length; i++)
+    {
+      if (columns[i] instanceof Object[])
+      {
+        Arrays.fill((Object[])columns[i], 0, size, null);
+      }
+      hasNulls[i] = false;
+    }
+    size = 0;
+  }
+
+  public double[] getDoubles(int column)
+  {
+    return (double[])getColumn(column, Double.class);
+  }
+
+  public float[] getFloats(int column)
+  {
+    return (float[])getColumn(column, Float.class);
+  }
+
+  public long[] getLongs(int column)
+  {
+    return (long[])getColumn(column, Long.class);
+  }
+
+  public int[] getInts(int column)
+  {
+    return (int[])getColumn(column, Integer.class);
+  }
+
+  public String[] getStrings(int column)
+  {
+    return (String[])getColumn(column, String.class);
+  }
+
+  /**
+   * Gets a column which is not stored as a primitive array, such as a bag or tuple column.
+   */
+  public Object[] getObjects(int column)
+  {
+    if (!(columns[column] instanceof Object[]))
+    {
+      throw new IllegalArgumentException("Column " + column + " holds primitive values");
+    }
+    return (Object[])columns[column];
+  }
+
+  /**
+   * Tests whether a value is null.  The primitive arrays hold zero in its place.
+   */
+  public boolean isNull(int column, int row)
+  {
+    return nulls[column][row];
+  }
+
+  /**
+   * Tests whether any value of the column is null.
+   */
+  public boolean hasNulls(int column)
+  {
+    return hasNulls[column];
+  }
+
+  /**
+   * Gets a value boxed as it would be passed to <code>call()</code>.
+   */
+  public Object get(int column, int row)
+  {
+    if (nulls[column][row])
+    {
+      return null;
+    }
+    Object c = columns[column];
+    if (c instanceof double[]) return ((double[])c)[row];
+    if (c instanceof float[]) return ((float[])c)[row];
+    if (c instanceof long[]) return ((long[])c)[row];
+    if (c instanceof int[]) return ((int[])c)[row];
+    return ((Object[])c)[row];
+  }
+
+  private Object getColumn(int column, Class<?> type)
+  {
+    if (types[column] != type)
+    {
+      throw new IllegalArgumentException(String.format("Column %d holds %s, not %s", column, types[column].getName(),
+                                                       type.getName()));
+    }
+    return columns[column];
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.util;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Reads a field by its position, where the position was resolved from an alias by
+ * {@link AliasableEvalFunc#getFieldAccessor(String)}.
+ *
+ * <p>
+ * The getters of {@link AliasableEvalFunc} look up the position of the alias on every call.  An accessor does
+ * the lookup once, so it should be used instead when reading a field from each tuple of a bag.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * <pre>
+ * {@code
+ *  FieldAccessor interestRate = getFieldAccessor(getPrefixedAliasName("interest_rates", "interest_rate"));
+ *  for (Tuple interestTuple : interestRates) {
+ *    Double interest = interestRate.getDouble(interestTuple);
+ *    ...
+ *  }
+ * }
+ * </pre>
+ * </p>
+ */
+public final class FieldAccessor
+{
+  private final String alias;
+  private final int position;
+
+  FieldAccessor(String alias, int position)
+  {
+    this.alias = alias;
+    this.position = position;
+  }
+
+  public String getAlias()
+  {
+    return alias;
+  }
+
+  public int getPosition()
+  {
+    return position;
+  }
+
+  public Integer getInteger(Tuple tuple) throws ExecException {
+    return getInteger(tuple, null);
+  }
+
+  public Integer getInteger(Tuple tuple, Integer defaultValue) throws ExecException {
+    Number number = (Number)getObject(tuple);
+    if (number == null) return defaultValue;
+    return number.intValue();
+  }
+
+  public Long getLong(Tuple tuple) throws ExecException {
+    return getLong(tuple, null);
+  }
+
+  public Long getLong(Tuple tuple, Long defaultValue) throws ExecException {
+    Number number = (Number)getObject(tuple);
+    if (number == null) return defaultValue;
+    return number.longValue();
+  }
+
+  public Float getFloat(Tuple tuple) throws ExecException {
+    return getFloat(tuple, null);
+  }
+
+  public Float getFloat(Tuple tuple, Float defaultValue) throws ExecException {
+    Number number = (Number)getObject(tuple);
+    if (number == null) return defaultValue;
+    return number.floatValue();
+  }
+
+  public Double getDouble(Tuple tuple) throws ExecException {
+    return getDouble(tuple, null);
+  }
+
+  public Double getDouble(Tuple tuple, Double defaultValue) throws ExecException {
+    Number number = (Number)getObject(tuple);
+    if (number == null) return defaultValue;
+    return number.doubleValue();
+  }
+
+  public String getString(Tuple tuple) throws ExecException {
+    return getString(tuple, null);
+  }
+
+  public String getString(Tuple tuple, String defaultValue) throws ExecException {
+    String s = (String)getObject(tuple);
+    if (s == null) return defaultValue;
+    return s;
+  }
+
+  public Boolean getBoolean(Tuple tuple) throws ExecException {
+    return (Boolean)getObject(tuple);
+  }
+
+  public DataBag getBag(Tuple tuple) throws ExecException {
+    return (DataBag)getObject(tuple);
+  }
+
+  public Object getObject(Tuple tuple) throws ExecException {
+    if (position >= tuple.size()) throw new FieldNotFound("Attempt to reference outside of tuple for alias: "+alias
+            +" at position: "+position+" in tuple of size: "+tuple.size());
+    return tuple.get(position);
+  }
+
+  @Override
+  public String toString()
+  {
+    return alias + "@" + position;
+  }
+}
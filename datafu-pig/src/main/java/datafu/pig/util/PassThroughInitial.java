@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.util;
+
+import java.io.IOException;
+
+import org.apache.pig.EvalFunc;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * Initial function for algebraic UDFs which build a sketch, which passes the input bag through unchanged.
+ *
+ * <p>
+ * Pig calls the initial function once for each input record, with a bag holding only that record.  Building
+ * and serializing a sketch for a single record would cost far more than the record itself, so the sketches are
+ * first built by the intermediate function in the combiner, which must therefore accept both bags of input
+ * records and serialized sketches.
+ * </p>
+ */
+public class PassThroughInitial extends EvalFunc<Tuple>
+{
+  private static final TupleFactory tupleFactory = TupleFactory.getInstance();
+
+  public PassThroughInitial()
+  {
+  }
+
+  /**
+   * Pig passes the arguments of the UDF to each of the algebraic functions, but they are not needed to pass
+   * the input through.
+   */
+  public PassThroughInitial(String... params)
+  {
+  }
+
+  @Override
+  public Tuple exec(Tuple input) throws IOException
+  {
+    return tupleFactory.newTuple(input.get(0));
+  }
+}
@@ -22,6 +22,7 @@ package datafu.pig.util;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.util.Arrays;
 
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataType;
@@ -96,6 +97,11 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
   }
   </pre>
 
+  <p>
+  Rows may also be processed in batches, as {@link BatchApply} does for the tuples of a bag.  A UDF can override
+  {@link #callBatch(ColumnBatch, Object[])} to compute a whole batch at once from columns of primitive values.
+  </p>
+
 */
 
 public abstract class SimpleEvalFunc<T> extends EvalFunc<T>
@@ -104,6 +110,11 @@ public abstract class SimpleEvalFunc<T> extends EvalFunc<T>
   // TODO Algebraic EvalFuncs 
   
   Method m = null;
+  
+  // resolved once, as exec is called for every row
+  private final Class<?>[] parameterTypes;
+  private final Object[] args;
+  private final String methodSignature;
 
   public SimpleEvalFunc()
   {
@@ -113,6 +124,18 @@ public abstract class SimpleEvalFunc<T> extends EvalFunc<T>
     }
     if (m == null)
       throw new IllegalArgumentException(String.format("%s: couldn't find call() method in UDF.", getClass().getName()));
+    
+    parameterTypes = m.getParameterTypes();
+    args = new Object[parameterTypes.length];
+    methodSignature = _method_signature();
+    
+    // skips the access check on each call, which is otherwise needed when the UDF class is not public
+    try {
+      m.setAccessible(true);
+    }
+    catch (SecurityException e) {
+      // the access check is done on each call instead
+    }
   }
 
   // Pig can't get the return type via reflection (as getReturnType normally tries to do), so give it a hand 
@@ -137,31 +160,34 @@ public abstract class SimpleEvalFunc<T> extends EvalFunc<T>
 
     return sb.toString();
   }
- 
+  
+  /**
+   * Checks the arguments and passes them to <code>call()</code>.
+   * 
+   * <p>
+   * The parameter types of <code>call()</code> are resolved once when the UDF is created, and the array of arguments
+   * is reused for every row.  After the first few calls the JVM replaces the reflective call with generated bytecode,
+   * so what remains is the argument checking and boxing of the result.
+   * </p>
+   */
   @Override
   @SuppressWarnings("unchecked")
   public T exec(Tuple input) throws IOException
   {
-    @SuppressWarnings("rawtypes")
-    Class pvec[] = m.getParameterTypes();
-
     if (input == null || input.size() == 0)
       return null;
     
     // check right number of arguments
-    if (input.size() != pvec.length) 
-      throw new IOException(String.format("%s: got %d arguments, expected %d.", _method_signature(), input.size(), pvec.length));
+    if (input.size() != parameterTypes.length) 
+      throw new IOException(String.format("%s: got %d arguments, expected %d.", methodSignature, input.size(), parameterTypes.length));
 
     // pull and check argument types
-    Object[] args = new Object[input.size()];
-    for (int i=0; i < pvec.length; i++) {
+    for (int i=0; i < parameterTypes.length; i++) {
       Object o = input.get(i);
-      try {
-        o = pvec[i].cast(o);
-      }
-      catch (ClassCastException e) {
-        throw new IOException(String.format("%s: argument type mismatch [#%d]; expected %s, got %s", _method_signature(), i+1,
-              pvec[i].getName(), o.getClass().getName()));
+      if (o != null && !parameterTypes[i].isInstance(o)) {
+        Arrays.fill(args, null);
+        throw new IOException(String.format("%s: argument type mismatch [#%d]; expected %s, got %s", methodSignature, i+1,
+              parameterTypes[i].getName(), o.getClass().getName()));
       }
       args[i] = o;
     }
@@ -170,10 +196,65 @@ public abstract class SimpleEvalFunc<T> extends EvalFunc<T>
       return (T) m.invoke(this, args);
     }
     catch (Exception e) {
-        throw new IOException(String.format("%s: caught exception processing input.", _method_signature()), e);
+        throw new IOException(String.format("%s: caught exception processing input.", methodSignature), e);
+    }
+    finally {
+      // don't hold on to the input until the next row
+      Arrays.fill(args, null);
     }
   }
 
+  /**
+   * Creates a batch to hold rows of arguments to {@link #callBatch(ColumnBatch, Object[])}.
+   * 
+   * @param capacity maximum number of rows
+   * @return batch with a column for each parameter of <code>call()</code>
+   */
+  public ColumnBatch newBatch(int capacity)
+  {
+    return new ColumnBatch(parameterTypes, capacity);
+  }
+  
+  /**
+   * Computes the result for each row of a batch, as <code>call()</code> would.  The result of each row is stored
+   * at the same position of the results array.
+   * 
+   * <p>
+   * This calls <code>call()</code> for each row.  UDFs may override it to loop over the columns directly, which
+   * avoids the dispatch for each row and, for numeric columns, the boxing of the arguments.  {@link BatchApply}
+   * uses it to apply the UDF to each tuple of a bag.
+   * </p>
+   * 
+   * @param batch rows of arguments
+   * @param results array of at least batch.size() elements, which receives the results
+   * @throws IOException
+   */
+  public void callBatch(ColumnBatch batch, Object[] results) throws IOException
+  {
+    try {
+      for (int row=0; row < batch.size(); row++) {
+        for (int i=0; i < args.length; i++) {
+          args[i] = batch.get(i, row);
+        }
+        results[row] = m.invoke(this, args);
+      }
+    }
+    catch (Exception e) {
+      throw new IOException(String.format("%s: caught exception processing input.", methodSignature), e);
+    }
+    finally {
+      Arrays.fill(args, null);
+    }
+  }
+  
+  /**
+   * @return name of the UDF class and the parameter types of <code>call()</code>, for error messages
+   */
+  public String getMethodSignature()
+  {
+    return methodSignature;
+  }
+
   /**
    * Override outputSchema so we can verify the input schema at pig compile time, instead of runtime
    * @param inputSchema input schema
@@ -183,15 +264,13 @@ public abstract class SimpleEvalFunc<T> extends EvalFunc<T>
   public Schema outputSchema(Schema inputSchema)
   {
     if (inputSchema == null) {
-      throw new IllegalArgumentException(String.format("%s: null schema passed to %s", _method_signature(), getClass().getName()));
+      throw new IllegalArgumentException(String.format("%s: null schema passed to %s", methodSignature, getClass().getName()));
     }
 
     // check correct number of arguments
-    @SuppressWarnings("rawtypes")
-    Class parameterTypes[] = m.getParameterTypes();
     if (inputSchema.size() != parameterTypes.length) {
       throw new IllegalArgumentException(String.format("%s: got %d arguments, expected %d.",
-                                                       _method_signature(),
+                                                       methodSignature,
                                                        inputSchema.size(),
                                                        parameterTypes.length));
     }
@@ -203,14 +282,14 @@ public abstract class SimpleEvalFunc<T> extends EvalFunc<T>
         byte parameterType = DataType.findType(parameterTypes[i]);
         if (inputType != parameterType) {
           throw new IllegalArgumentException(String.format("%s: argument type mismatch [#%d]; expected %s, got %s",
-                                                           _method_signature(),
+                                                           methodSignature,
                                                            i+1,
                                                            DataType.findTypeName(parameterType),
                                                            DataType.findTypeName(inputType)));
         }
       }
       catch (FrontendException fe) {
-        throw new IllegalArgumentException(String.format("%s: Problem with input schema: ", _method_signature(), inputSchema), fe);
+        throw new IllegalArgumentException(String.format("%s: Problem with input schema: ", methodSignature, inputSchema), fe);
       }
     }
 
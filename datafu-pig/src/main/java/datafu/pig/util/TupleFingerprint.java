@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package datafu.pig.util;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Computes 64 or 128 bit fingerprints of tuple fields, used for the fingerprints kept by 
+ * {@link datafu.pig.bags.DistinctBy} and the hashed session IDs of {@link datafu.pig.sessions.Sessionize}.
+ *
+ * <p>
+ * Fingerprints are computed from the values of the fields without projecting them into a new tuple.  Each value is
+ * hashed along with its type, so for example the int 1 and the long 1 differ as they do when tuples are compared.
+ * Numbers, chararrays, bytearrays and nested tuples are hashed in full.  Other types, such as bags and maps, only
+ * contribute their 32 bit hash code.  The hash is MurmurHash3 x64, with two independent seeds for the two words 
+ * of a 128 bit fingerprint.
+ * </p>
+ */
+public class TupleFingerprint
+{
+  private static final long SEED_1 = 0x9E3779B97F4A7C15L;
+  private static final long SEED_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private TupleFingerprint()
+  {
+  }
+
+  /**
+   * Computes the first word of the fingerprint of the fields at the given positions.  Positions past the end of the
+   * tuple are treated as null fields.
+   */
+  public static long fingerprint1(Tuple t, int[] positions) throws ExecException
+  {
+    return fingerprint(t, positions, SEED_1);
+  }
+
+  /**
+   * Computes the first word of the fingerprint of all the fields of a tuple.
+   */
+  public static long fingerprint1(Tuple t) throws ExecException
+  {
+    long h = SEED_1;
+    int size = t.size();
+    for (int i=0; i<size; i++)
+    {
+      h = hashValue(t.get(i), h);
+    }
+    return fmix(h ^ size);
+  }
+
+  /**
+   * Computes the second word of the fingerprint, which is independent of the first.
+   */
+  public static long fingerprint2(Tuple t, int[] positions) throws ExecException
+  {
+    return fingerprint(t, positions, SEED_2);
+  }
+
+  private static long fingerprint(Tuple t, int[] positions, long seed) throws ExecException
+  {
+    long h = seed;
+    int size = t.size();
+    for (int position : positions)
+    {
+      h = hashValue(position < size ? t.get(position) : null, h);
+    }
+    return fmix(h ^ positions.length);
+  }
+
+  private static long hashValue(Object o, long h) throws ExecException
+  {
+    if (o == null)
+    {
+      return mix(h, 0);
+    }
+    else if (o instanceof Integer)
+    {
+      return mix(mix(h, 1), (Integer)o);
+    }
+    else if (o instanceof Long)
+    {
+      return mix(mix(h, 2), (Long)o);
+    }
+    else if (o instanceof Float)
+    {
+      return mix(mix(h, 3), Float.floatToIntBits((Float)o));
+    }
+    else if (o instanceof Double)
+    {
+      return mix(mix(h, 4), Double.doubleToLongBits((Double)o));
+    }
+    else if (o instanceof Boolean)
+    {
+      return mix(h, (Boolean)o ? 5 : 6);
+    }
+    else if (o instanceof String)
+    {
+      String s = (String)o;
+      int length = s.length();
+      h = mix(h, 7 + ((long)length << 8));
+      int i = 0;
+      for (; i + 4 <= length; i += 4)
+      {
+        h = mix(h, s.charAt(i) | ((long)s.charAt(i+1) << 16) | ((long)s.charAt(i+2) << 32) | ((long)s.charAt(i+3) << 48));
+      }
+      long w = 0;
+      for (int shift = 0; i < length; i++, shift += 16)
+      {
+        w |= (long)s.charAt(i) << shift;
+      }
+      return mix(h, w);
+    }
+    else if (o instanceof DataByteArray)
+    {
+      byte[] bytes = ((DataByteArray)o).get();
+      h = mix(h, 8 + ((long)bytes.length << 8));
+      long w = 0;
+      for (int i=0; i<bytes.length; i++)
+      {
+        w = (w << 8) | (bytes[i] & 0xFF);
+        if ((i & 7) == 7)
+        {
+          h = mix(h, w);
+          w = 0;
+        }
+      }
+      return mix(h, w);
+    }
+    else if (o instanceof Tuple)
+    {
+      Tuple tuple = (Tuple)o;
+      h = mix(h, 9 + ((long)tuple.size() << 8));
+      for (int i=0; i<tuple.size(); i++)
+      {
+        h = hashValue(tuple.get(i), h);
+      }
+      return h;
+    }
+    else
+    {
+      return mix(mix(h, 10), o.hashCode());
+    }
+  }
+
+  // the block mixing step of MurmurHash3 x64
+  private static long mix(long h, long w)
+  {
+    w *= C1;
+    w = Long.rotateLeft(w, 31);
+    w *= C2;
+    h ^= w;
+    return Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+  }
+
+  // the finalization step of MurmurHash3
+  private static long fmix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -21,8 +21,12 @@ package datafu.test.pig.bags;
 
 import static org.testng.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import junit.framework.Assert;
@@ -38,6 +42,8 @@ import org.testng.annotations.Test;
 import datafu.pig.bags.CountEach;
 import datafu.pig.bags.DistinctBy;
 import datafu.pig.bags.Enumerate;
+import datafu.pig.bags.TopKFrequent;
+import datafu.pig.util.PassThroughInitial;
 import datafu.test.pig.PigTests;
 
 
@@ -950,6 +956,81 @@ public class BagTests extends PigTests
     Assert.assertEquals("(11,51)", iter.next().toString());
   }
   
+  @Test
+  public void distinctByFingerprintAndOverflowTest() throws Exception
+  {
+    List<Tuple> tuples = distinctByInput();
+    List<String> expected = distinctByExpected(tuples);
+    
+    // exact keys and 64 bit fingerprints, with all of the keys fitting in memory
+    Assert.assertEquals(expected, distinctBy(new DistinctBy("0", "1"), tuples));
+    Assert.assertEquals(expected, distinctBy(new DistinctBy("0", "1", "fingerprint_bits", "64"), tuples));
+    
+    // 128 bit fingerprints with a budget of 100 of the 811 keys, so most keys go through the overflow bag
+    Assert.assertEquals(expected, distinctBy(new DistinctBy("0", "1", "fingerprint_bits", "128", "max_keys_in_memory", "100"), tuples));
+    
+    // exact keys with a budget of one, so every key but the first goes through the overflow bag
+    Assert.assertEquals(expected, distinctBy(new DistinctBy("0", "1", "max_keys_in_memory", "1"), tuples));
+  }
+  
+  @Test
+  public void distinctByCleanupTest() throws Exception
+  {
+    List<Tuple> tuples = distinctByInput();
+    List<String> expected = distinctByExpected(tuples);
+    
+    // the same tuples for a second key must not be taken as already seen, nor repeated from the overflow bag
+    DistinctBy distinct = new DistinctBy("0", "1", "fingerprint_bits", "64", "max_keys_in_memory", "100");
+    distinctBy(distinct, tuples);
+    Assert.assertEquals(expected, distinctBy(distinct, tuples));
+  }
+  
+  private static List<Tuple> distinctByInput() throws Exception
+  {
+    Random random = new Random(4);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i=0; i<2000; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(3);
+      t.set(0, "user" + random.nextInt(300));
+      t.set(1, random.nextInt(3));
+      t.set(2, i);
+      tuples.add(t);
+    }
+    return tuples;
+  }
+  
+  private static List<String> distinctByExpected(List<Tuple> tuples) throws Exception
+  {
+    List<String> expected = new ArrayList<String>();
+    Set<String> seenKeys = new HashSet<String>();
+    for (Tuple t : tuples)
+    {
+      if (seenKeys.add(t.get(0) + "," + t.get(1)))
+      {
+        expected.add(t.toString());
+      }
+    }
+    return expected;
+  }
+  
+  private static List<String> distinctBy(DistinctBy distinct, List<Tuple> tuples) throws Exception
+  {
+    for (int i=0; i<tuples.size(); i+=100)
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag(tuples.subList(i, i+100));
+      distinct.accumulate(TupleFactory.getInstance().newTuple(bag));
+    }
+    
+    List<String> output = new ArrayList<String>();
+    for (Tuple t : distinct.getValue())
+    {
+      output.add(t.toString());
+    }
+    distinct.cleanup();
+    return output;
+  }
+  
   /**
   
 
@@ -1086,6 +1167,60 @@ public class BagTests extends PigTests
     }
   }
   
+  @Test
+  public void countEachSpillTest() throws Exception
+  {
+    // tuple i is counted i+1 times, and is seen again after each pass over the remaining tuples
+    List<Integer> values = new ArrayList<Integer>();
+    for (int pass=0; pass<10; pass++)
+    {
+      for (int i=pass; i<10; i++)
+      {
+        values.add(i);
+      }
+    }
+    
+    // the table fills exactly once, at the end of the first pass
+    checkCountEachCounts(countEach(new CountEach("flatten", "max_tuples_in_memory", "10"), values));
+    
+    // the table is spilled every 3 distinct tuples, so each count is merged from several spilled runs
+    checkCountEachCounts(countEach(new CountEach("flatten", "max_tuples_in_memory", "3"), values));
+  }
+  
+  @Test
+  public void countEachCleanupTest() throws Exception
+  {
+    CountEach countEach = new CountEach("flatten", "max_tuples_in_memory", "3");
+    countEach(countEach, Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+    
+    // the counts spilled for the first key must not be merged into the second
+    DataBag output = countEach(countEach, Arrays.asList(20, 20));
+    Assert.assertEquals(1, output.size());
+    Assert.assertEquals("(20,2)", output.iterator().next().toString());
+  }
+  
+  private static DataBag countEach(CountEach countEach, List<Integer> values) throws Exception
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (Integer value : values)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)value));
+    }
+    countEach.accumulate(TupleFactory.getInstance().newTuple((Object)bag));
+    DataBag output = countEach.getValue();
+    countEach.cleanup();
+    return output;
+  }
+  
+  private static void checkCountEachCounts(DataBag output) throws Exception
+  {
+    Assert.assertEquals(10, output.size());
+    for (Tuple t : output)
+    {
+      assertEquals(t.get(1), (Integer)t.get(0) + 1);
+    }
+  }
+  
   /**
   
 
@@ -1125,6 +1260,110 @@ public class BagTests extends PigTests
   /**
   
 
+  define TopKFrequent datafu.pig.bags.TopKFrequent('2');
+  
+  data = LOAD 'input' AS (key:chararray, val:chararray);
+  
+  data2 = FOREACH (GROUP data BY key) GENERATE group, TopKFrequent(data.val) as top;
+  
+  STORE data2 INTO 'output';
+
+   */
+  @Multiline
+  private String topKFrequentTest;
+  
+  @Test 
+  public void topKFrequentTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(topKFrequentTest);
+
+    writeLinesToFile("input", 
+                     "1\tA",
+                     "1\tB",
+                     "1\tA",
+                     "1\tC",
+                     "1\tA",
+                     "1\tB",
+                     "2\tD");
+                  
+    test.runScript();
+            
+    // with fewer distinct values than the capacity the counts are exact
+    assertOutput(test, "data2",
+        "(1,{((A),3,0),((B),2,0)})",
+        "(2,{((D),1,0)})");
+  }
+  
+  @Test 
+  public void topKFrequentBoundsTest() throws Exception
+  {
+    // skewed counts: value i occurs about 20000/(i+1) times, so most of the values are rare
+    int[] expected = new int[2000];
+    List<DataBag> bags = new ArrayList<DataBag>();
+    Random random = new Random(1);
+    long total = 0;
+    for (int b=0; b<4; b++)
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (int i=0; i<5000; i++)
+      {
+        int value = (int)Math.min(expected.length - 1, Math.floor(Math.exp(random.nextDouble() * Math.log(expected.length))) - 1);
+        Tuple t = TupleFactory.getInstance().newTuple(1);
+        t.set(0, value);
+        bag.add(t);
+        expected[value]++;
+        total++;
+      }
+      bags.add(bag);
+    }
+    
+    // build a sketch per bag, then merge them, as the combiner would
+    TopKFrequent udf = new TopKFrequent("5", "50");
+    TopKFrequent.Intermediate intermediate = new TopKFrequent.Intermediate("5", "50");
+    TopKFrequent.Final finalUdf = new TopKFrequent.Final("5", "50");
+    
+    DataBag sketches = BagFactory.getInstance().newDefaultBag();
+    for (DataBag bag : bags)
+    {
+      DataBag initial = BagFactory.getInstance().newDefaultBag();
+      initial.add(new PassThroughInitial().exec(TupleFactory.getInstance().newTuple(bag)));
+      sketches.add(intermediate.exec(TupleFactory.getInstance().newTuple(initial)));
+    }
+    DataBag merged = finalUdf.exec(TupleFactory.getInstance().newTuple(sketches));
+    
+    // the accumulator sees all the tuples in one sketch
+    for (DataBag bag : bags)
+    {
+      udf.accumulate(TupleFactory.getInstance().newTuple(bag));
+    }
+    DataBag accumulated = udf.getValue();
+    udf.cleanup();
+    
+    for (DataBag output : new DataBag[] {merged, accumulated})
+    {
+      Assert.assertEquals(5, output.size());
+      long lastCount = Long.MAX_VALUE;
+      for (Tuple t : output)
+      {
+        int value = (Integer)((Tuple)t.get(0)).get(0);
+        long count = (Long)t.get(1);
+        long error = (Long)t.get(2);
+        Assert.assertTrue(count <= lastCount);
+        Assert.assertTrue(count >= expected[value]);
+        Assert.assertTrue(count - error <= expected[value]);
+        Assert.assertTrue(error <= total / 50);
+        lastCount = count;
+      }
+    }
+    
+    // the most frequent values stand out enough to be found
+    Assert.assertEquals(0, ((Tuple)merged.iterator().next().get(0)).get(0));
+    Assert.assertEquals(0, ((Tuple)accumulated.iterator().next().get(0)).get(0));
+  }
+  
+  /**
+  
+
   define BagLeftOuterJoin datafu.pig.bags.BagLeftOuterJoin();
   
   data = LOAD 'input' AS (outer_key:chararray, bag1:bag{T:tuple(k:chararray,v:chararray)}, bag2:bag{T:tuple(k:chararray,v:chararray)}, bag3:bag{T:tuple(k3:chararray,v3:chararray)});
@@ -1159,6 +1398,54 @@ public class BagTests extends PigTests
   /**
   
 
+  define BagLeftOuterJoin datafu.pig.bags.BagLeftOuterJoin('join_strategy', '$STRATEGY');
+  define BagInnerJoin datafu.pig.bags.BagInnerJoin('join_strategy', '$STRATEGY');
+  define BagFullOuterJoin datafu.pig.bags.BagFullOuterJoin('join_strategy', '$STRATEGY');
+  
+  data = LOAD 'input' AS (outer_key:chararray, bag1:bag{T:tuple(k:chararray,v:chararray)}, bag2:bag{T:tuple(k:chararray,v:chararray)}, bag3:bag{T:tuple(k3:chararray,v3:chararray)});
+  
+  data2 = FOREACH data {
+    sorted1 = ORDER bag1 BY k;
+    sorted2 = ORDER bag2 BY k;
+    sorted3 = ORDER bag3 BY k3;
+    GENERATE 
+      outer_key, 
+      BagLeftOuterJoin(sorted1, 'k', sorted2, 'k', sorted3, 'k3') as left_joined,
+      BagInnerJoin(sorted1, 'k', sorted2, 'k', sorted3, 'k3') as inner_joined,
+      BagFullOuterJoin(sorted1, 'k', sorted2, 'k', sorted3, 'k3') as full_joined;
+  }
+  
+  STORE data2 INTO 'output';
+
+   */
+  @Multiline
+  private String bagJoinStrategiesTest;
+  
+  @Test 
+  public void bagJoinStrategiesTest() throws Exception
+  {
+    for (String strategy : new String[] {"hash", "merge"})
+    {
+      PigTest test = createPigTestFromString(bagJoinStrategiesTest, "STRATEGY=" + strategy);
+  
+      writeLinesToFile("input", 
+                       "1\t{(K3,C1),(K1,A1),(K2,B1)}\t{(K2,B2),(K1,A2),(K2,B22),(K5,E2)}\t{(K4,D3),(K1,A3),(K3,C3)}");
+                    
+      test.runScript();
+      
+      // the hash join outputs the keys missing from the first bag bag by bag, the merge join in key order
+      String missingFromFirst = strategy.equals("hash") ? "(,,K5,E2,,),(,,,,K4,D3)" : "(,,,,K4,D3),(,,K5,E2,,)";
+      
+      assertOutput(test, "data2",
+          "(1,{(K1,A1,K1,A2,K1,A3),(K2,B1,K2,B2,,),(K2,B1,K2,B22,,),(K3,C1,,,K3,C3)},"
+          + "{(K1,A1,K1,A2,K1,A3)},"
+          + "{(K1,A1,K1,A2,K1,A3),(K2,B1,K2,B2,,),(K2,B1,K2,B22,,),(K3,C1,,,K3,C3)," + missingFromFirst + "})");
+    }
+  }
+  
+  /**
+  
+
   define BagUnion datafu.pig.bags.BagConcat();
   
   data = LOAD 'input' AS (input_bag: bag {T: tuple(inner_bag: bag {T2: tuple(k: int, v: chararray)})});
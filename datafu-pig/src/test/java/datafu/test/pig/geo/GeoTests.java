@@ -76,6 +76,47 @@ public class GeoTests extends PigTests
     
   }
   
+  /**
+  
+
+  define BatchHaversine datafu.pig.util.BatchApply('datafu.pig.geo.HaversineDistInMiles');
+  
+  data = LOAD 'input' AS (coords: bag {T: tuple(lat1:double,lng1:double,lat2:double,lng2:double)});
+  
+  data2 = FOREACH data GENERATE FLATTEN(BatchHaversine(coords));
+  
+  STORE data2 INTO 'output';
+   */
+  @Multiline
+  private String haversineBatchTest;
+  
+  @Test
+  public void haversineBatchTest() throws Exception
+  {    
+    PigTest test = createPigTestFromString(haversineBatchTest);
+    
+    double[] la = {34.040143,-118.243103};
+    double[] tokyo = {35.637209,139.65271};
+    double[] ny = {40.716038,-73.99498};
+    double[] paris = {48.857713,2.342491};
+        
+    this.writeLinesToFile("input", 
+                          "{(" + coords(la,tokyo).replace('\t', ',') + "),"
+                          + "(" + coords(ny,tokyo).replace('\t', ',') + "),"
+                          + "(,,,),"
+                          + "(" + coords(ny,paris).replace('\t', ',') + ")}");
+    
+    test.runScript();
+    
+    List<Tuple> distances = this.getLinesForAlias(test, "data2");
+    
+    assertEquals(distances.size(), 4);
+    assertWithin(5478.0, distances.get(0), 20.0); // la <-> tokyo
+    assertWithin(6760.0, distances.get(1), 20.0); // ny <-> tokyo
+    assertNull(distances.get(2).get(0));
+    assertWithin(3635.0, distances.get(3), 20.0); // ny <-> paris
+  }
+  
   private void assertWithin(double expected, Tuple actual, double maxDiff) throws Exception
   {
     Double actualVal = (Double)actual.get(0);
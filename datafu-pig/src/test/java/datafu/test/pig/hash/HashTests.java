@@ -19,10 +19,25 @@
 
 package datafu.test.pig.hash;
 
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import datafu.pig.hash.MD5;
+import datafu.pig.hash.SHA;
+import datafu.pig.urls.UserAgentClassify;
+import datafu.pig.util.BatchApply;
+import datafu.pig.util.SimpleEvalFunc;
 import datafu.test.pig.PigTests;
 
 public class HashTests extends PigTests
@@ -150,4 +165,72 @@ public class HashTests extends PigTests
                  "(nsN/Avrg2Nan9EU6YicvHw==)",
                  "(y5QTmoufMkPmiomOxr2bPQ==)");
   }
+  
+  /**
+  
+
+  define BatchMD5 datafu.pig.util.BatchApply('datafu.pig.hash.MD5', 'base64');
+  
+  data_in = LOAD 'input' as (vals: bag {T: tuple(val:chararray)});
+  
+  data_out = FOREACH data_in GENERATE FLATTEN(BatchMD5(vals)) as val;
+  
+  STORE data_out INTO 'output';
+   */
+  @Multiline private String md5BatchTest;
+  
+  @Test
+  public void md5BatchTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(md5BatchTest);
+    
+    // spans several batches
+    MD5 md5 = new MD5("base64");
+    StringBuilder input = new StringBuilder("{");
+    List<String> expected = new ArrayList<String>();
+    for (int i=0; i<2500; i++)
+    {
+      String val = i == 0 ? "ladsljkasdglk" : "val" + i;
+      input.append(i > 0 ? "," : "").append("(").append(val).append(")");
+      expected.add("(" + md5.call(val) + ")");
+    }
+    input.append("}");
+    
+    writeLinesToFile("input", input.toString());
+            
+    test.runScript();
+    
+    assertEquals(expected.get(0), "(2agldXWLtJeJSdwGWSBcxg==)");
+    assertOutput(test, "data_out", expected.toArray(new String[0]));
+  }
+  
+  @Test
+  public void batchNullRowsTest() throws Exception
+  {
+    // a row with a null field and an empty row, among rows with values
+    DataBag rows = BagFactory.getInstance().newDefaultBag();
+    rows.add(TupleFactory.getInstance().newTuple((Object)"ladsljkasdglk"));
+    rows.add(TupleFactory.getInstance().newTuple((Object)null));
+    rows.add(TupleFactory.getInstance().newTuple());
+    rows.add(TupleFactory.getInstance().newTuple((Object)"Mozilla/5.0 (iPhone)"));
+    Tuple input = TupleFactory.getInstance().newTuple((Object)rows);
+    
+    for (SimpleEvalFunc<String> udf : Arrays.<SimpleEvalFunc<String>>asList(new MD5(), new SHA(), new UserAgentClassify()))
+    {
+      List<Object> expected = new ArrayList<Object>();
+      for (Tuple row : rows)
+      {
+        expected.add(udf.exec(row));
+      }
+      
+      List<Object> output = new ArrayList<Object>();
+      for (Tuple t : new BatchApply(udf.getClass().getName()).exec(input))
+      {
+        output.add(t.get(0));
+      }
+      assertEquals(output, expected);
+      assertNull(output.get(1));
+      assertNull(output.get(2));
+    }
+  }
 }
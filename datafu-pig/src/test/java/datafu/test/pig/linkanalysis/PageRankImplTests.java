@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 import org.testng.annotations.Test;
 
@@ -81,6 +82,271 @@ public class PageRankImplTests
     validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
   }
   
+  @Test
+  public void wikipediaGraphParallelTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting wikipediaGraphParallelTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    graph.setParallelism(4);
+   
+    String[] edges = getWikiExampleEdges();
+    
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(graph, edges);
+    
+    graph.enableDanglingNodeHandling();
+    
+    performIterations(graph, 150, 1e-18f);
+    
+    assert graph.isRunningInParallel() : "Expected iterations to run in parallel";
+    
+    String[] expectedRanks = getWikiExampleExpectedRanks();
+    
+    Map<String,Float> expectedRanksMap = parseExpectedRanks(expectedRanks);
+    
+    validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
+  }
+  
+  @Test
+  public void randomGraphParallelTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting randomGraphParallelTest");
+    
+    String[] edges = getRandomEdges(2000, 10000);
+    
+    datafu.pig.linkanalysis.PageRankImpl sequentialGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(sequentialGraph, edges);
+    sequentialGraph.enableDanglingNodeHandling();
+    performIterations(sequentialGraph, 20, 0.0f);
+    
+    for (int parallelism : new int[] {2, 3, 8})
+    {
+      datafu.pig.linkanalysis.PageRankImpl parallelGraph = new datafu.pig.linkanalysis.PageRankImpl();
+      parallelGraph.setParallelism(parallelism);
+      loadGraphFromEdgeList(parallelGraph, edges);
+      parallelGraph.enableDanglingNodeHandling();
+      performIterations(parallelGraph, 20, 0.0f);
+      
+      // each node's contributions are summed in the same order, so the ranks are identical
+      for (int nodeId : nodeIdsMap.values())
+      {
+        assert sequentialGraph.getNodeRank(nodeId) == parallelGraph.getNodeRank(nodeId) : 
+          String.format("Rank differs for node %d with parallelism %d", nodeId, parallelism);
+      }
+    }
+  }
+  
+  @Test
+  public void wikipediaGraphNodeToleranceTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting wikipediaGraphNodeToleranceTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    graph.setNodeTolerance(1e-6f);
+   
+    String[] edges = getWikiExampleEdges();
+    
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(graph, edges);
+    
+    graph.enableDanglingNodeHandling();
+    
+    performIterations(graph, 150, 1e-18f);
+    
+    // iterations stop once every node has converged
+    assert graph.getIterationCount() < 150 : "Expected all nodes to converge";
+    assert graph.getActiveNodeCount() < graph.nodeCount() : "Expected converged nodes to be skipped";
+    
+    String[] expectedRanks = getWikiExampleExpectedRanks();
+    
+    Map<String,Float> expectedRanksMap = parseExpectedRanks(expectedRanks);
+    
+    validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
+  }
+  
+  @Test
+  public void wikipediaGraphGaussSeidelTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting wikipediaGraphGaussSeidelTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    graph.enableGaussSeidel();
+    graph.setNodeTolerance(1e-6f);
+   
+    String[] edges = getWikiExampleEdges();
+    
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(graph, edges);
+    
+    graph.enableDanglingNodeHandling();
+    
+    performIterations(graph, 150, 1e-18f);
+    
+    String[] expectedRanks = getWikiExampleExpectedRanks();
+    
+    Map<String,Float> expectedRanksMap = parseExpectedRanks(expectedRanks);
+    
+    validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
+  }
+  
+  @Test
+  public void randomGraphGaussSeidelTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting randomGraphGaussSeidelTest");
+    
+    String[] edges = getRandomEdges(2000, 10000);
+    
+    datafu.pig.linkanalysis.PageRankImpl jacobiGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(jacobiGraph, edges);
+    jacobiGraph.enableDanglingNodeHandling();
+    performIterations(jacobiGraph, 150, 1e-5f);
+    
+    datafu.pig.linkanalysis.PageRankImpl gaussSeidelGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    gaussSeidelGraph.enableGaussSeidel();
+    loadGraphFromEdgeList(gaussSeidelGraph, edges);
+    gaussSeidelGraph.enableDanglingNodeHandling();
+    performIterations(gaussSeidelGraph, 150, 1e-5f);
+    
+    System.out.println(String.format("Jacobi took %d iterations, Gauss-Seidel took %d iterations", 
+                                     jacobiGraph.getIterationCount(), gaussSeidelGraph.getIterationCount()));
+    
+    assert gaussSeidelGraph.getIterationCount() < jacobiGraph.getIterationCount() : "Expected Gauss-Seidel to converge in fewer iterations";
+    
+    for (int nodeId : nodeIdsMap.values())
+    {
+      float rank = jacobiGraph.getNodeRank(nodeId);
+      assert Math.abs(rank - gaussSeidelGraph.getNodeRank(nodeId)) < 1e-3 * rank : 
+        String.format("Rank differs for node %d", nodeId);
+    }
+  }
+  
+  @Test
+  public void randomGraphNodeToleranceParallelTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting randomGraphNodeToleranceParallelTest");
+    
+    String[] edges = getRandomEdges(2000, 10000);
+    
+    datafu.pig.linkanalysis.PageRankImpl sequentialGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    sequentialGraph.setNodeTolerance(1e-7f);
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(sequentialGraph, edges);
+    sequentialGraph.enableDanglingNodeHandling();
+    performIterations(sequentialGraph, 150, 0.0f);
+    
+    datafu.pig.linkanalysis.PageRankImpl parallelGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    parallelGraph.setNodeTolerance(1e-7f);
+    parallelGraph.setParallelism(3);
+    loadGraphFromEdgeList(parallelGraph, edges);
+    parallelGraph.enableDanglingNodeHandling();
+    performIterations(parallelGraph, 150, 0.0f);
+    
+    assert sequentialGraph.getIterationCount() == parallelGraph.getIterationCount() : "Expected the same number of iterations";
+    
+    for (int nodeId : nodeIdsMap.values())
+    {
+      assert sequentialGraph.getNodeRank(nodeId) == parallelGraph.getNodeRank(nodeId) : 
+        String.format("Rank differs for node %d", nodeId);
+    }
+  }
+  
+  @Test
+  public void randomGraphSegmentedDiskCacheTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting randomGraphSegmentedDiskCacheTest");
+    
+    String[] edges = getRandomEdges(2000, 10000);
+    
+    datafu.pig.linkanalysis.PageRankImpl memoryGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(memoryGraph, edges);
+    memoryGraph.enableDanglingNodeHandling();
+    performIterations(memoryGraph, 20, 0.0f);
+    
+    // map the cache in many small segments, with records crossing the segment boundaries
+    datafu.pig.linkanalysis.PageRankImpl diskGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    diskGraph.enableEdgeDiskCaching();
+    diskGraph.setEdgeCachingThreshold(5);
+    diskGraph.setEdgeCacheSegmentSize(1000);
+    loadGraphFromEdgeList(diskGraph, edges);
+    diskGraph.enableDanglingNodeHandling();
+    performIterations(diskGraph, 20, 0.0f);
+    
+    assert diskGraph.isUsingEdgeDiskCache() : "Expected disk cache to be used";
+    
+    // each node's contributions are summed in the same order, so the ranks are identical
+    for (int nodeId : nodeIdsMap.values())
+    {
+      assert memoryGraph.getNodeRank(nodeId) == diskGraph.getNodeRank(nodeId) : 
+        String.format("Rank differs for node %d", nodeId);
+    }
+    
+    diskGraph.clear();
+  }
+  
+  @Test
+  public void randomGraphCompressedTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting randomGraphCompressedTest");
+    
+    String[] edges = getRandomEdges(2000, 10000);
+    
+    datafu.pig.linkanalysis.PageRankImpl memoryGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(memoryGraph, edges);
+    memoryGraph.enableDanglingNodeHandling();
+    performIterations(memoryGraph, 20, 0.0f);
+    
+    datafu.pig.linkanalysis.PageRankImpl compressedGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    compressedGraph.enableEdgeCompression();
+    loadGraphFromEdgeList(compressedGraph, edges);
+    compressedGraph.enableDanglingNodeHandling();
+    performIterations(compressedGraph, 20, 0.0f);
+    
+    datafu.pig.linkanalysis.PageRankImpl quantizedGraph = new datafu.pig.linkanalysis.PageRankImpl();
+    quantizedGraph.enableEdgeCompression();
+    quantizedGraph.enableEdgeWeightQuantization();
+    loadGraphFromEdgeList(quantizedGraph, edges);
+    quantizedGraph.enableDanglingNodeHandling();
+    performIterations(quantizedGraph, 20, 0.0f);
+    
+    for (int nodeId : nodeIdsMap.values())
+    {
+      float rank = memoryGraph.getNodeRank(nodeId);
+      
+      // the out-degrees are small enough for the total weights to be exact, so the ranks are identical
+      assert rank == compressedGraph.getNodeRank(nodeId) : String.format("Rank differs for node %d", nodeId);
+      
+      assert Math.abs(rank - quantizedGraph.getNodeRank(nodeId)) < 1e-3 * rank : 
+        String.format("Quantized rank differs for node %d", nodeId);
+    }
+  }
+  
+  @Test
+  public void wikipediaGraphCompressedDiskCacheTest() throws Exception {
+    System.out.println();
+    System.out.println("Starting wikipediaGraphCompressedDiskCacheTest");
+    
+    datafu.pig.linkanalysis.PageRankImpl graph = new datafu.pig.linkanalysis.PageRankImpl();
+    graph.enableEdgeCompression();
+    graph.enableEdgeWeightQuantization();
+    
+    // the compressed edges move to disk once the threshold is passed
+    graph.enableEdgeDiskCaching();
+    graph.setEdgeCachingThreshold(5);
+    
+    String[] edges = getWikiExampleEdges();
+    
+    Map<String,Integer> nodeIdsMap = loadGraphFromEdgeList(graph, edges);
+    
+    assert graph.isUsingEdgeDiskCache() : "Expected disk cache to be used";
+    
+    graph.enableDanglingNodeHandling();
+    
+    performIterations(graph, 150, 1e-18f);
+    
+    String[] expectedRanks = getWikiExampleExpectedRanks();
+    
+    Map<String,Float> expectedRanksMap = parseExpectedRanks(expectedRanks);
+    
+    validateExpectedRanks(graph, nodeIdsMap, expectedRanksMap);
+  }
+  
   @Test(groups="perf")
   public void hubAndSpokeInMemoryTest() throws Exception {
     System.out.println();
@@ -132,6 +398,20 @@ public class PageRankImplTests
     return edges;
   }
   
+  private String[] getRandomEdges(int nodeCount, int edgeCount)
+  {
+    Random random = new Random(1);
+    String[] edges = new String[edgeCount];
+    
+    for (int i=0; i<edgeCount; i++)
+    {
+      // skew the destinations so some nodes have many more incoming edges
+      int dest = (int)(nodeCount * Math.pow(random.nextDouble(), 3));
+      edges[i] = String.format("N%d N%d", random.nextInt(nodeCount), dest);
+    }
+    return edges;
+  }
+  
   public static String[] getWikiExampleEdges()
   {
     // graph taken from:
@@ -520,4 +520,55 @@ public class SamplingTests extends PigTests
       found.add(i);
     }
   }
+  
+  @Test
+  public void reservoirSampleSkipTest() throws IOException
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<1000; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(1);
+      t.set(0, i);
+      bag.add(t);
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(bag);
+    
+    ReservoirSample sampler = new ReservoirSample("10", "skip", "true");
+    Assert.assertEquals(ReservoirSample.Initial.class.getName() + "('10','skip','true')", sampler.getInitial());
+    
+    // each tuple is equally likely to be sampled
+    int[] counts = new int[10];
+    for (int trial=0; trial<1000; trial++)
+    {
+      DataBag result = sampler.exec(input);
+      Assert.assertEquals(10, result.size());
+      
+      Set<Integer> found = new HashSet<Integer>();
+      for (Tuple t : result)
+      {
+        Integer i = (Integer)t.get(0);
+        Assert.assertTrue(i>=0 && i<1000);
+        Assert.assertFalse(String.format("Found duplicate of %d",i), found.contains(i));
+        found.add(i);
+        counts[i/100]++;
+      }
+    }
+    // 1000 samples are expected from each tenth of the bag
+    for (int count : counts)
+    {
+      Assert.assertTrue(String.format("Found %d samples in a tenth of the bag", count), count > 800 && count < 1200);
+    }
+    
+    ReservoirSample.Initial initialSampler = new ReservoirSample.Initial("10", "skip", "true");
+    ReservoirSample.Intermediate intermediateSampler = new ReservoirSample.Intermediate("10", "skip", "true");
+    ReservoirSample.Final finalSampler = new ReservoirSample.Final("10", "skip", "true");
+    
+    Tuple intermediateTuple = initialSampler.exec(input);  
+    DataBag intermediateBag = BagFactory.getInstance().newDefaultBag(Arrays.asList(intermediateTuple));
+    intermediateTuple = intermediateSampler.exec(TupleFactory.getInstance().newTuple(intermediateBag));  
+    intermediateBag = BagFactory.getInstance().newDefaultBag(Arrays.asList(intermediateTuple));
+    DataBag result = finalSampler.exec(TupleFactory.getInstance().newTuple(intermediateBag));
+    
+    Assert.assertEquals(10, result.size());
+  }
 }
@@ -229,6 +229,48 @@ public class WeightedReservoirSamplingTests extends PigTests
     verifyNoRepeatAllFound(result, 10, 0, 100); 
    }
 
+  @Test
+  public void weightedReservoirSampleSkipTest() throws IOException
+  {
+    // one tuple with weight 1000 among 99 with weight 1
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int i=0; i<100; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(2);
+      t.set(0, i);
+      t.set(1, i == 50 ? 1000 : 1);
+      bag.add(t);
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(bag);
+    
+    WeightedReservoirSample sampler = new WeightedReservoirSample("1", "1", "skip", "true");
+    Assert.assertEquals(WeightedReservoirSample.Initial.class.getName() + "('1','1','skip','true')", sampler.getInitial());
+    
+    // the heavy tuple is sampled with probability 1000/1099
+    int heavy = 0;
+    for (int trial=0; trial<1000; trial++)
+    {
+      DataBag result = sampler.exec(input);
+      verifyNoRepeatAllFound(result, 1, 0, 100);
+      if ((Integer)result.iterator().next().get(0) == 50)
+      {
+        heavy++;
+      }
+    }
+    Assert.assertTrue(String.format("Sampled the heavy tuple %d times", heavy), heavy > 860 && heavy < 960);
+    
+    WeightedReservoirSample.Initial initialSampler = new WeightedReservoirSample.Initial("10", "1", "skip", "true");
+    WeightedReservoirSample.Intermediate intermediateSampler = new WeightedReservoirSample.Intermediate("10", "1", "skip", "true");
+    WeightedReservoirSample.Final finalSampler = new WeightedReservoirSample.Final("10", "1", "skip", "true");
+    
+    Tuple intermediateTuple = initialSampler.exec(input);  
+    DataBag intermediateBag = BagFactory.getInstance().newDefaultBag(Arrays.asList(intermediateTuple));
+    intermediateTuple = intermediateSampler.exec(TupleFactory.getInstance().newTuple(intermediateBag));  
+    intermediateBag = BagFactory.getInstance().newDefaultBag(Arrays.asList(intermediateTuple));
+    DataBag result = finalSampler.exec(TupleFactory.getInstance().newTuple(intermediateBag));
+    verifyNoRepeatAllFound(result, 10, 0, 100); 
+  }
+
   private void verifyNoRepeatAllFound(DataBag result,
                                       int expectedResultSize,
                                       int left,
@@ -292,6 +334,17 @@ public class WeightedReservoirSamplingTests extends PigTests
     }
   }
 
+  @Test
+  public void missingConstructorArgTest() throws Exception
+  {
+    try {
+         new WeightedReservoirSample(new String[] {"1"});
+         Assert.fail( "Testcase should fail");
+    } catch (IllegalArgumentException ex) {
+         Assert.assertTrue(ex.getMessage().indexOf("Expected the sample size and the index of the weight field") >= 0);
+    }
+  }
+
   @Test
   public void invalidWeightTest() throws Exception
   {
@@ -21,8 +21,10 @@ package datafu.test.pig.sessions;
 
 import static org.testng.Assert.*;
 
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -41,6 +43,7 @@ import org.joda.time.DateTime;
 import org.testng.annotations.Test;
 
 import datafu.pig.sessions.SessionCount;
+import datafu.pig.sessions.SessionSummary;
 import datafu.pig.sessions.Sessionize;
 import datafu.test.pig.PigTests;
 
@@ -284,6 +287,233 @@ public class SessionTests extends PigTests
     Assert.assertEquals(0,sessionize.getValue().size());
   }
   
+  @Test
+  public void sessionizeSessionIdTest() throws Exception
+  {
+    Tuple input = TupleFactory.getInstance().newTuple(1);
+    DataBag inputBag = BagFactory.getInstance().newDefaultBag();
+    input.set(0,inputBag);
+    
+    // two sessions, with the times as strings in different time zones
+    String[] times = new String[] {"2010-01-01T01:00:00Z", "2010-01-01T02:15:00+01:00", "2010-01-01T01:46:00.5Z", "2010-01-01T01:50:00Z"};
+    for (String time : times)
+    {
+      Tuple item = TupleFactory.getInstance().newTuple(2);
+      item.set(0, time);
+      item.set(1, 1);
+      inputBag.add(item);
+    }
+    
+    for (String mode : new String[] {"uuid", "hash", "counter"})
+    {
+      Sessionize sessionize = new Sessionize("30m", "session_id", mode);
+      List<Tuple> result = toList(sessionize.exec(input));
+      
+      Assert.assertEquals(4, result.size());
+      Assert.assertEquals(result.get(0).get(2), result.get(1).get(2));
+      Assert.assertEquals(result.get(2).get(2), result.get(3).get(2));
+      Assert.assertFalse(result.get(0).get(2).equals(result.get(2).get(2)));
+      
+      List<Tuple> again = toList(sessionize.exec(input));
+      if (mode.equals("hash"))
+      {
+        // the same input gets the same session IDs
+        Assert.assertEquals(again.get(0).get(2), result.get(0).get(2));
+        Assert.assertEquals(again.get(2).get(2), result.get(2).get(2));
+      }
+      else
+      {
+        Assert.assertFalse(again.get(0).get(2).equals(result.get(0).get(2)));
+      }
+    }
+    
+    try
+    {
+      new Sessionize("30m", "session_id", "random");
+      Assert.fail("Expected an invalid session_id to be rejected");
+    }
+    catch (IllegalArgumentException e)
+    {
+    }
+  }
+  
+  @Test
+  public void sessionSummaryAccumulateTest() throws Exception
+  {
+    SessionSummary summary = new SessionSummary("30m", "session_id", "counter");
+    Tuple input = TupleFactory.getInstance().newTuple(1);
+    DataBag inputBag = BagFactory.getInstance().newDefaultBag();
+    input.set(0,inputBag);
+    
+    // two sessions, accumulated two tuples at a time
+    DateTime dt = new DateTime("2010-01-01T01:00:00Z");
+    int[] minutes = new int[] {0, 10, 25, 60, 70};
+    String[] urls = new String[] {"/a", "/b", "/c", "/d", "/e"};
+    for (int i=0; i<minutes.length; i++)
+    {
+      Tuple item = TupleFactory.getInstance().newTuple(2);
+      item.set(0, dt.plusMinutes(minutes[i]).getMillis());
+      item.set(1, urls[i]);
+      inputBag.add(item);
+      if (inputBag.size() == 2 || i == minutes.length - 1)
+      {
+        summary.accumulate(input);
+        inputBag.clear();
+      }
+    }
+    List<Tuple> result = toList(summary.getValue());
+    
+    Assert.assertEquals(2, result.size());
+    Assert.assertEquals(7, result.get(0).size());
+    Assert.assertFalse(result.get(0).get(0).equals(result.get(1).get(0)));
+    
+    Tuple first = result.get(0);
+    Assert.assertEquals(dt.getMillis(), first.get(1));
+    Assert.assertEquals(dt.plusMinutes(25).getMillis(), first.get(2));
+    Assert.assertEquals(25*60*1000L, first.get(3));
+    Assert.assertEquals(3L, first.get(4));
+    Assert.assertEquals("/a", ((Tuple)first.get(5)).get(1));
+    Assert.assertEquals("/c", ((Tuple)first.get(6)).get(1));
+    
+    Tuple second = result.get(1);
+    Assert.assertEquals(dt.plusMinutes(60).getMillis(), second.get(1));
+    Assert.assertEquals(10*60*1000L, second.get(3));
+    Assert.assertEquals(2L, second.get(4));
+    Assert.assertEquals("/d", ((Tuple)second.get(5)).get(1));
+    Assert.assertEquals("/e", ((Tuple)second.get(6)).get(1));
+    
+    // the open session is only summarized once
+    Assert.assertEquals(2, summary.getValue().size());
+    
+    summary.cleanup();
+    Assert.assertEquals(0, summary.getValue().size());
+    
+    // exec summarizes the bag as a single chunk
+    for (int i=0; i<minutes.length; i++)
+    {
+      Tuple item = TupleFactory.getInstance().newTuple(2);
+      item.set(0, dt.plusMinutes(minutes[i]).getMillis());
+      item.set(1, urls[i]);
+      inputBag.add(item);
+    }
+    result = toList(summary.exec(input));
+    Assert.assertEquals(2, result.size());
+    Assert.assertEquals(3L, result.get(0).get(4));
+    Assert.assertEquals(2L, result.get(1).get(4));
+  }
+  
+  @Test
+  public void unsortedSessionizeTest() throws Exception
+  {
+    Tuple input = TupleFactory.getInstance().newTuple(1);
+    DataBag inputBag = BagFactory.getInstance().newDefaultBag();
+    input.set(0,inputBag);
+    
+    // three sessions, starting at 0, 60 and 120 minutes, with some times up to 5 minutes out of order
+    DateTime dt = new DateTime("2010-01-01T01:00:00Z");
+    int[] minutes = new int[] {2, 0, 10, 7, 60, 65, 61, 120};
+    for (int m : minutes)
+    {
+      Tuple item = TupleFactory.getInstance().newTuple(2);
+      item.set(0, dt.plusMinutes(m).getMillis());
+      item.set(1, m);
+      inputBag.add(item);
+    }
+    
+    try
+    {
+      new Sessionize("30m").exec(input);
+      Assert.fail("Expected unsorted input to be rejected");
+    }
+    catch (IOException e)
+    {
+    }
+    
+    Assert.assertEquals(3L, (long)new SessionCount("30m", "max_lateness", "5m").exec(input));
+    checkUnsortedSessions(new Sessionize("30m", "max_lateness", "5m").exec(input), minutes.length);
+    
+    // a time later than max_lateness allows falls back to sorting all the tuples
+    Tuple item = TupleFactory.getInstance().newTuple(2);
+    item.set(0, dt.plusMinutes(1).getMillis());
+    item.set(1, 1);
+    inputBag.add(item);
+    
+    Assert.assertEquals(3L, (long)new SessionCount("30m", "max_lateness", "5m").exec(input));
+    checkUnsortedSessions(new Sessionize("30m", "max_lateness", "5m").exec(input), minutes.length + 1);
+  }
+  
+  @Test
+  public void unsortedSessionizeCleanupTest() throws Exception
+  {
+    Sessionize sessionize = new Sessionize("30m", "max_lateness", "5m");
+    DateTime dt = new DateTime("2010-01-01T01:00:00Z");
+    
+    // the time at 1 minute comes after the times up to 10 minutes have been released, so all the tuples are sorted
+    sessionize.accumulate(minutesInput(dt, 2, 0, 10, 7, 60, 1));
+    Assert.assertEquals(6, sessionize.getValue().size());
+    sessionize.cleanup();
+    
+    // none of the tuples of the first key, nor its fallback to sorting, may carry over to the second
+    sessionize.accumulate(minutesInput(dt, 0, 3, 40));
+    List<Tuple> result = toList(sessionize.getValue());
+    Assert.assertEquals(3, result.size());
+    Assert.assertEquals(result.get(0).get(2), result.get(1).get(2));
+    Assert.assertFalse(result.get(1).get(2).equals(result.get(2).get(2)));
+    sessionize.cleanup();
+  }
+  
+  @Test
+  public void unsortedSessionCountCleanupTest() throws Exception
+  {
+    SessionCount sessionCount = new SessionCount("30m", "max_lateness", "5m");
+    DateTime dt = new DateTime("2010-01-01T01:00:00Z");
+    
+    sessionCount.accumulate(minutesInput(dt, 2, 0, 10, 7, 60, 1, 120));
+    Assert.assertEquals(3L, sessionCount.getValue().longValue());
+    sessionCount.cleanup();
+    
+    sessionCount.accumulate(minutesInput(dt, 0, 3, 40));
+    Assert.assertEquals(2L, sessionCount.getValue().longValue());
+    sessionCount.cleanup();
+  }
+  
+  /**
+   * Builds an input bag of tuples holding the time, the given number of minutes after a start time, and the minutes.
+   */
+  private Tuple minutesInput(DateTime start, int... minutes) throws Exception
+  {
+    DataBag inputBag = BagFactory.getInstance().newDefaultBag();
+    for (int m : minutes)
+    {
+      Tuple item = TupleFactory.getInstance().newTuple(2);
+      item.set(0, start.plusMinutes(m).getMillis());
+      item.set(1, m);
+      inputBag.add(item);
+    }
+    return TupleFactory.getInstance().newTuple((Object)inputBag);
+  }
+  
+  private void checkUnsortedSessions(DataBag output, int size) throws Exception
+  {
+    List<Tuple> result = toList(output);
+    Assert.assertEquals(size, result.size());
+    
+    HashMap<Object,Integer> sessionStarts = new HashMap<Object,Integer>();
+    long lastTime = Long.MIN_VALUE;
+    for (Tuple t : result)
+    {
+      // the output is in time order
+      Assert.assertTrue((Long)t.get(0) >= lastTime);
+      lastTime = (Long)t.get(0);
+      if (!sessionStarts.containsKey(t.get(2)))
+      {
+        sessionStarts.put(t.get(2), (Integer)t.get(1));
+      }
+    }
+    Assert.assertEquals(3, sessionStarts.size());
+    Assert.assertTrue(sessionStarts.values().containsAll(Arrays.asList(0, 60, 120)));
+  }
+  
   private List<Tuple> toList(DataBag bag)
   {
     List<Tuple> result = new ArrayList<Tuple>();
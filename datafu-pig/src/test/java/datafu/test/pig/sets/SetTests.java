@@ -19,9 +19,14 @@
 
 package datafu.test.pig.sets;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.pig.Accumulator;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.Tuple;
@@ -30,7 +35,11 @@ import org.apache.pig.pigunit.PigTest;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import datafu.pig.sets.SetDifference;
 import datafu.pig.sets.SetIntersect;
+import datafu.pig.sets.SetUnion;
+import datafu.pig.sets.UnsortedSetDifference;
+import datafu.pig.sets.UnsortedSetIntersect;
 import datafu.test.pig.PigTests;
 
 public class SetTests extends PigTests
@@ -327,4 +336,283 @@ public class SetTests extends PigTests
                  "({})",
                  "({})");
   }
+  
+  /**
+  
+
+  define UnsortedSetIntersect datafu.pig.sets.UnsortedSetIntersect();
+  
+  data = LOAD 'input' AS (B1:bag{T:tuple(val1:int,val2:int)},B2:bag{T:tuple(val1:int,val2:int)});
+  
+  data2 = FOREACH data GENERATE UnsortedSetIntersect(B1,B2);
+  
+  STORE data2 INTO 'output';
+   */
+  @Multiline
+  private String unsortedSetIntersectTest;
+  
+  @Test
+  public void unsortedSetIntersectTest() throws Exception
+  {    
+    PigTest test = createPigTestFromString(unsortedSetIntersectTest);    
+    
+    // the output follows the order of the smaller bag
+    writeLinesToFile("input", 
+                     "{(6,60),(1,10),(4,40),(3,30),(5,50),(2,20)}\t{(8,80),(4,40),(0,0),(2,20)}",
+                     "{(4,40),(1,10),(3,30),(2,20),(3,30),(1,10),(4,40)}\t{(3,30),(1,10)}",
+                     "{(2,20),(1,10)}\t{(1,10),(2,20)}",
+                     "{(1,10),(2,20)}\t{(100,10),(300,30)}",
+                     "{(1,10),(2,20)}\t{}",
+                     "{}\t{}");
+                  
+    test.runScript();
+            
+    assertOutput(test, "data2",
+                 "({(4,40),(2,20)})",
+                 "({(3,30),(1,10)})",
+                 "({(2,20),(1,10)})",
+                 "({})",
+                 "({})",
+                 "({})");
+  }
+  
+  /**
+  
+
+  define UnsortedSetDifference datafu.pig.sets.UnsortedSetDifference();
+  
+  data = LOAD 'input' AS (B1:bag{T:tuple(val:int)},B2:bag{T:tuple(val:int)},B3:bag{T:tuple(val:int)});
+  
+  data2 = FOREACH data GENERATE UnsortedSetDifference(B1,B2,B3);
+  
+  STORE data2 INTO 'output';
+   */
+  @Multiline
+  private String unsortedSetDifferenceTest;
+  
+  @Test
+  public void unsortedSetDifferenceTest() throws Exception
+  {    
+    PigTest test = createPigTestFromString(unsortedSetDifferenceTest);    
+    
+    writeLinesToFile("input", 
+                     "{(3),(1),(2)}\t\t",
+                     "\t{(1)}\t{(2)}",
+                     "{(3),(3),(1),(2),(2),(2)}\t{}\t{}",
+                     "{(3),(2),(1)}\t{(2)}\t{}",
+                     "{(3),(1),(3),(2),(1),(1),(3),(2)}\t{(2),(2)}\t{(3),(3)}",
+                     "{(3),(2),(1)}\t{(2),(0)}\t{(4),(3),(1)}",
+                     "{(6),(5),(1),(2),(3),(4)}\t{(4),(3)}\t{}");
+                  
+    test.runScript();
+            
+    assertOutput(test, "data2",
+                 "({(3),(1),(2)})",
+                 "({})",
+                 "({(3),(1),(2)})",
+                 "({(3),(1)})",
+                 "({(1)})",
+                 "({})",
+                 "({(6),(5),(1),(2)})");
+  }
+  
+  @Test
+  public void unsortedSetOperationsSpillTest() throws Exception
+  {
+    Random random = new Random(1);
+    
+    DataBag[] bags = new DataBag[3];
+    DataBag[] sortedBags = new DataBag[3];
+    for (int i=0; i<bags.length; i++)
+    {
+      List<Tuple> tuples = new ArrayList<Tuple>();
+      for (int j=0; j<2000 + 1000*i; j++)
+      {
+        // draw with replacement, so there are duplicates
+        tuples.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)random.nextInt(3000), "v")));
+      }
+      bags[i] = BagFactory.getInstance().newDefaultBag(tuples);
+      Collections.sort(tuples);
+      sortedBags[i] = BagFactory.getInstance().newDefaultBag(tuples);
+    }
+    
+    Tuple input = TupleFactory.getInstance().newTuple(Arrays.asList((Object)bags[0], bags[1], bags[2]));
+    Tuple sortedInput = TupleFactory.getInstance().newTuple(Arrays.asList((Object)sortedBags[0], sortedBags[1], sortedBags[2]));
+    List<Tuple> expectedIntersect = sorted(new SetIntersect().exec(sortedInput));
+    List<Tuple> expectedDifference = sorted(new SetDifference().exec(sortedInput));
+    
+    // the 2000 tuples of the smallest bag call for 8 partitions, and the largest partition bags are spilled as the 
+    // 9000 tuples are split
+    Assert.assertEquals(sorted(new UnsortedSetIntersect("max_tuples_in_memory", "500").exec(input)), expectedIntersect);
+    Assert.assertEquals(sorted(new UnsortedSetDifference("max_tuples_in_memory", "500").exec(input)), expectedDifference);
+    
+    // a budget of 50 calls for 80 partitions, so there are many more partition bags to spill
+    Assert.assertEquals(sorted(new UnsortedSetIntersect("max_tuples_in_memory", "50").exec(input)), expectedIntersect);
+    Assert.assertEquals(sorted(new UnsortedSetDifference("max_tuples_in_memory", "50").exec(input)), expectedDifference);
+  }
+  
+  @Test
+  public void unsortedSetOperationsSkewTest() throws Exception
+  {
+    // one tuple repeated far past the budget hashes to a single partition, which is then sorted instead
+    List<Tuple> first = new ArrayList<Tuple>();
+    List<Tuple> second = new ArrayList<Tuple>();
+    for (int j=0; j<1000; j++)
+    {
+      first.add(TupleFactory.getInstance().newTuple((Object)7));
+      first.add(TupleFactory.getInstance().newTuple((Object)(j % 10)));
+      second.add(TupleFactory.getInstance().newTuple((Object)(j % 5)));
+    }
+    second.add(TupleFactory.getInstance().newTuple((Object)7));
+
+    Tuple input = TupleFactory.getInstance().newTuple(Arrays.asList((Object)BagFactory.getInstance().newDefaultBag(first),
+                                                                    BagFactory.getInstance().newDefaultBag(second)));
+
+    List<Tuple> intersection = new ArrayList<Tuple>();
+    for (int value : new int[] {0, 1, 2, 3, 4, 7})
+    {
+      intersection.add(TupleFactory.getInstance().newTuple((Object)value));
+    }
+    List<Tuple> difference = new ArrayList<Tuple>();
+    for (int value : new int[] {5, 6, 8, 9})
+    {
+      difference.add(TupleFactory.getInstance().newTuple((Object)value));
+    }
+
+    Assert.assertEquals(sorted(new UnsortedSetIntersect("max_tuples_in_memory", "100").exec(input)), intersection);
+    Assert.assertEquals(sorted(new UnsortedSetDifference("max_tuples_in_memory", "100").exec(input)), difference);
+  }
+
+  @Test
+  public void setOperationsBloomFilterTest() throws Exception
+  {
+    Random random = new Random(2);
+    
+    // the smallest bag is in the middle, so the intersection filter is not built from the first bag
+    DataBag[] sortedBags = new DataBag[3];
+    int[] sizes = new int[] {3000, 500, 2000};
+    for (int i=0; i<sortedBags.length; i++)
+    {
+      List<Tuple> tuples = new ArrayList<Tuple>();
+      for (int j=0; j<sizes[i]; j++)
+      {
+        tuples.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)random.nextInt(5000), "v")));
+      }
+      Collections.sort(tuples);
+      sortedBags[i] = BagFactory.getInstance().newDefaultBag(tuples);
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(Arrays.asList((Object)sortedBags[0], sortedBags[1], sortedBags[2]));
+    
+    DataBag expectedIntersect = new SetIntersect().exec(input);
+    DataBag expectedDifference = new SetDifference().exec(input);
+    Assert.assertTrue(expectedIntersect.size() > 0);
+    Assert.assertTrue(expectedDifference.size() > 0);
+    
+    // false positives must not change the results
+    for (String fpp : new String[] {"0.001", "0.01", "0.5"})
+    {
+      Assert.assertEquals(sorted(new SetIntersect("bloom_filter_fpp", fpp).exec(input)), sorted(expectedIntersect));
+      Assert.assertEquals(sorted(new SetDifference("bloom_filter_fpp", fpp).exec(input)), sorted(expectedDifference));
+    }
+  }
+  
+  @Test
+  public void setOperationsAccumulatorTest() throws Exception
+  {
+    Random random = new Random(3);
+    
+    DataBag[] sortedBags = new DataBag[3];
+    int[] sizes = new int[] {3000, 500, 2000};
+    for (int i=0; i<sortedBags.length; i++)
+    {
+      List<Tuple> tuples = new ArrayList<Tuple>();
+      for (int j=0; j<sizes[i]; j++)
+      {
+        tuples.add(TupleFactory.getInstance().newTuple(Arrays.asList((Object)random.nextInt(5000), "v")));
+      }
+      Collections.sort(tuples);
+      sortedBags[i] = BagFactory.getInstance().newDefaultBag(tuples);
+    }
+    Tuple input = TupleFactory.getInstance().newTuple(Arrays.asList((Object)sortedBags[0], sortedBags[1], sortedBags[2]));
+    
+    DataBag expectedUnion = new SetUnion().exec(input);
+    Assert.assertEquals(sorted(new SetUnion("sorted", "true").exec(input)), sorted(expectedUnion));
+    
+    Assert.assertEquals(sorted(accumulate(new SetIntersect(), sortedBags, random)), sorted(new SetIntersect().exec(input)));
+    Assert.assertEquals(sorted(accumulate(new SetDifference(), sortedBags, random)), sorted(new SetDifference().exec(input)));
+    Assert.assertEquals(sorted(accumulate(new SetUnion(), sortedBags, random)), sorted(expectedUnion));
+    Assert.assertEquals(sorted(accumulate(new SetUnion("sorted", "true"), sortedBags, random)), sorted(expectedUnion));
+  }
+  
+  @Test
+  public void setOperationsAccumulatorCleanupTest() throws Exception
+  {
+    // the second key shares no tuples with the first, so anything left over from it would show up in the results
+    DataBag[] first = new DataBag[] {bagOf(1, 2, 3, 4), bagOf(2, 3, 4), bagOf(3, 4, 5)};
+    DataBag[] second = new DataBag[] {bagOf(10, 11, 12), bagOf(11, 12), bagOf(12, 13)};
+    
+    SetIntersect intersect = new SetIntersect();
+    accumulate(intersect, first, new Random(1));
+    Assert.assertEquals(sorted(accumulate(intersect, second, new Random(1))), sorted(bagOf(12)));
+    
+    SetDifference difference = new SetDifference();
+    accumulate(difference, first, new Random(1));
+    Assert.assertEquals(sorted(accumulate(difference, second, new Random(1))), sorted(bagOf(10)));
+    
+    SetUnion union = new SetUnion("sorted", "true");
+    accumulate(union, first, new Random(1));
+    Assert.assertEquals(sorted(accumulate(union, second, new Random(1))), sorted(bagOf(10, 11, 12, 13)));
+  }
+  
+  private static DataBag bagOf(int... values)
+  {
+    DataBag bag = BagFactory.getInstance().newDefaultBag();
+    for (int value : values)
+    {
+      bag.add(TupleFactory.getInstance().newTuple((Object)value));
+    }
+    return bag;
+  }
+  
+  /**
+   * Passes the bags to an accumulator in batches of random sizes, so the batches of the bags are not aligned.
+   */
+  private static DataBag accumulate(Accumulator<DataBag> udf, DataBag[] bags, Random random) throws Exception
+  {
+    List<List<Tuple>> remaining = new ArrayList<List<Tuple>>();
+    for (DataBag bag : bags)
+    {
+      remaining.add(sorted(bag));
+    }
+    
+    boolean done = false;
+    while (!done)
+    {
+      done = true;
+      List<Object> batch = new ArrayList<Object>();
+      for (List<Tuple> tuples : remaining)
+      {
+        List<Tuple> next = tuples.subList(0, Math.min(tuples.size(), random.nextInt(100)));
+        batch.add(BagFactory.getInstance().newDefaultBag(new ArrayList<Tuple>(next)));
+        next.clear();
+        done &= tuples.isEmpty();
+      }
+      udf.accumulate(TupleFactory.getInstance().newTuple(batch));
+    }
+    
+    DataBag result = udf.getValue();
+    udf.cleanup();
+    return result;
+  }
+  
+  private static List<Tuple> sorted(DataBag bag)
+  {
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    for (Tuple t : bag)
+    {
+      tuples.add(t);
+    }
+    Collections.sort(tuples);
+    return tuples;
+  }
 }
@@ -70,4 +70,66 @@ public class EstimationTests extends PigTests
     System.out.println("error: " + error*100.0 + "%");
     assertTrue(error < 0.01);
   }
+  
+  /**
+  
+  define HyperLogLogPlusPlus datafu.pig.stats.HyperLogLogPlusPlus();
+  define HyperLogLogPlusPlusSketch datafu.pig.stats.HyperLogLogPlusPlusSketch();
+  define HyperLogLogPlusPlusMerge datafu.pig.stats.HyperLogLogPlusPlusMerge();
+  define HyperLogLogPlusPlusCardinality datafu.pig.stats.HyperLogLogPlusPlusCardinality();
+  
+  data_in = LOAD 'input' as (day:int, val:int);
+  
+  daily = FOREACH (GROUP data_in BY day) GENERATE
+    group as day,
+    HyperLogLogPlusPlus(data_in.val) as cardinality,
+    HyperLogLogPlusPlusSketch(data_in.val) as sketch;
+    
+  daily_cardinality = FOREACH daily GENERATE day, cardinality, HyperLogLogPlusPlusCardinality(sketch);
+  
+  total = FOREACH (GROUP daily ALL) GENERATE
+    HyperLogLogPlusPlusCardinality(HyperLogLogPlusPlusMerge(daily.sketch)) as cardinality;
+  
+  STORE total into 'output';
+   */
+  @Multiline private String hyperLogLogSketchTest;
+  
+  @Test
+  public void hyperLogLogSketchTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(hyperLogLogSketchTest);
+
+    // each day has 100000 distinct values, overlapping by half with the previous day
+    int days = 4;
+    int countPerDay = 100000;
+    String[] input = new String[days*countPerDay];
+    for (int day=0; day<days; day++)
+    {
+      for (int i=0; i<countPerDay; i++)
+      {
+        input[day*countPerDay+i] = day + "\t" + (day*countPerDay/2 + i);
+      }
+    }
+    
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "daily_cardinality", true);
+    assertEquals(output.size(),days);
+    for (Tuple t : output)
+    {
+      // the algebraic estimate and the estimate from the sketch should be the same
+      assertEquals(t.get(1),t.get(2));
+      double error = Math.abs(countPerDay-((Long)t.get(1)))/(double)countPerDay;
+      assertTrue(error < 0.01);
+    }
+    
+    output = getLinesForAlias(test, "total", true);
+    assertEquals(output.size(),1);
+    int expected = (days+1)*countPerDay/2;
+    double error = Math.abs(expected-((Long)output.get(0).get(0)))/(double)expected;
+    System.out.println("error: " + error*100.0 + "%");
+    assertTrue(error < 0.01);
+  }
 }
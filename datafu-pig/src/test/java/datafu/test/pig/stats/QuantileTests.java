@@ -21,21 +21,33 @@ package datafu.test.pig.stats;
 
 import static org.testng.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.Assert;
 
 import org.adrianwalker.multilinestring.Multiline;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 import org.apache.pig.pigunit.PigTest;
 import org.testng.annotations.Test;
 
+import datafu.pig.stats.KLLQuantile;
+import datafu.pig.stats.KLLQuantileFromSketch;
+import datafu.pig.stats.KLLQuantileMerge;
+import datafu.pig.stats.KLLQuantileSketch;
+import datafu.pig.stats.Quantile;
 import datafu.pig.stats.QuantileUtil;
 import datafu.pig.stats.StreamingQuantile;
+import datafu.pig.stats.UnsortedQuantile;
 import datafu.test.pig.PigTests;
 
 public class QuantileTests  extends PigTests
@@ -512,6 +524,327 @@ public class QuantileTests  extends PigTests
     Assert.assertEquals(20.0, result.get(3));
   }
   
+  /**
+  
+  define Quantile datafu.pig.stats.KLLQuantile($QUANTILES);
+  
+  data_in = LOAD 'input' as (val:int);
+  
+  data_out = GROUP data_in ALL;
+  
+  data_out = FOREACH data_out GENERATE Quantile(data_in.val) as quantiles;
+  data_out = FOREACH data_out GENERATE FLATTEN(quantiles);
+  
+  STORE data_out into 'output';
+   */
+  @Multiline private String kllQuantileTest;
+  
+  @Test
+  public void kllQuantileTest() throws Exception {
+    PigTest test = createPigTestFromString(kllQuantileTest,
+                                 "QUANTILES='5'");
+
+    String[] input = {"1","2","3","4","10","5","6","7","8","9"};
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    // the sketch is exact until it fills up
+    assertEquals(output.size(),1);
+    assertEquals(output.get(0).toString(), "(1.0,3.0,5.0,8.0,10.0)");
+  }
+  
+  @Test
+  public void kllQuantileLargeTest() throws Exception {
+    PigTest test = createPigTestFromString(kllQuantileTest,
+                                 "QUANTILES='0.0','0.25','0.5','0.9','0.99','1.0'");
+
+    int count = 100000;
+    List<String> values = new ArrayList<String>(count);
+    for (int i=1; i<=count; i++)
+    {
+      values.add(Integer.toString(i));
+    }
+    Collections.shuffle(values, new Random(1));
+    writeLinesToFile("input", values.toArray(new String[0]));
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", false);
+    
+    assertEquals(output.size(),1);
+    Tuple quantiles = output.get(0);
+    assertEquals(quantiles.get(0), 1.0);
+    assertRankWithin((Double)quantiles.get(1), 0.25, count);
+    assertRankWithin((Double)quantiles.get(2), 0.5, count);
+    assertRankWithin((Double)quantiles.get(3), 0.9, count);
+    assertRankWithin((Double)quantiles.get(4), 0.99, count);
+    assertEquals(quantiles.get(5), (double)count);
+  }
+  
+  /**
+  
+  define KLLQuantileSketch datafu.pig.stats.KLLQuantileSketch();
+  define KLLQuantileMerge datafu.pig.stats.KLLQuantileMerge();
+  define KLLQuantileFromSketch datafu.pig.stats.KLLQuantileFromSketch('0.0','0.5','0.9','1.0');
+  
+  data_in = LOAD 'input' as (day:int, val:int);
+  
+  daily = FOREACH (GROUP data_in BY day) GENERATE group as day, KLLQuantileSketch(data_in.val) as sketch;
+  
+  daily_quantiles = FOREACH daily GENERATE day, FLATTEN(KLLQuantileFromSketch(sketch));
+  
+  total = FOREACH (GROUP daily ALL) GENERATE FLATTEN(KLLQuantileFromSketch(KLLQuantileMerge(daily.sketch)));
+  
+  STORE total into 'output';
+   */
+  @Multiline private String kllQuantileSketchTest;
+  
+  @Test
+  public void kllQuantileSketchTest() throws Exception {
+    PigTest test = createPigTestFromString(kllQuantileSketchTest);
+
+    // each day has the values day*count+1 to (day+1)*count, in random order
+    int days = 4;
+    int count = 50000;
+    List<String> lines = new ArrayList<String>(days*count);
+    for (int day=0; day<days; day++)
+    {
+      for (int i=1; i<=count; i++)
+      {
+        lines.add(day + "\t" + (day*count+i));
+      }
+    }
+    Collections.shuffle(lines, new Random(1));
+    writeLinesToFile("input", lines.toArray(new String[0]));
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "daily_quantiles", true);
+    assertEquals(output.size(),days);
+    for (Tuple t : output)
+    {
+      int day = (Integer)t.get(0);
+      assertEquals(t.get(1), (double)(day*count+1));
+      assertRankWithin((Double)t.get(2) - day*count, 0.5, count);
+      assertRankWithin((Double)t.get(3) - day*count, 0.9, count);
+      assertEquals(t.get(4), (double)((day+1)*count));
+    }
+    
+    output = getLinesForAlias(test, "total", true);
+    assertEquals(output.size(),1);
+    Tuple t = output.get(0);
+    assertEquals(t.get(0), 1.0);
+    assertRankWithin((Double)t.get(1), 0.5, days*count);
+    assertRankWithin((Double)t.get(2), 0.9, days*count);
+    assertEquals(t.get(3), (double)(days*count));
+  }
+  
+  @Test
+  public void kllQuantileAccumulateTest() throws Exception {
+    KLLQuantile quantile = new KLLQuantile("0.5","0.99");
+    
+    for (int round=0; round<2; round++)
+    {
+      int count = 10000;
+      for (int i=1; i<=count; i++)
+      {
+        Tuple t = TupleFactory.getInstance().newTuple(1);
+        t.set(0, round*count + i);
+        DataBag bag = BagFactory.getInstance().newDefaultBag();
+        bag.add(t);
+        quantile.accumulate(TupleFactory.getInstance().newTuple(bag));
+      }
+      Tuple result = quantile.getValue();
+      Assert.assertEquals(2, result.size());
+      assertRankWithin((Double)result.get(0) - round*count, 0.5, count);
+      assertRankWithin((Double)result.get(1) - round*count, 0.99, count);
+      
+      // do twice to check cleanup works
+      quantile.cleanup();
+    }
+    
+    Assert.assertNull(quantile.getValue());
+  }
+  
+  @Test
+  public void kllQuantileMergeKeepsLargestKTest() throws Exception {
+    KLLQuantileSketch large = new KLLQuantileSketch("400");
+    KLLQuantileSketch small = new KLLQuantileSketch("100");
+    for (int i=1; i<=10000; i++)
+    {
+      Tuple t = TupleFactory.getInstance().newTuple(1);
+      t.set(0, i);
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      bag.add(t);
+      large.accumulate(TupleFactory.getInstance().newTuple(bag));
+      small.accumulate(TupleFactory.getInstance().newTuple(bag));
+    }
+    
+    DataBag sketches = BagFactory.getInstance().newDefaultBag();
+    sketches.add(TupleFactory.getInstance().newTuple(small.getValue()));
+    sketches.add(TupleFactory.getInstance().newTuple(large.getValue()));
+    
+    KLLQuantileMerge merge = new KLLQuantileMerge();
+    merge.accumulate(TupleFactory.getInstance().newTuple(sketches));
+    DataByteArray merged = merge.getValue();
+    
+    // the sketch is serialized as a version byte followed by k
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(merged.get()));
+    in.readByte();
+    assertEquals(in.readInt(), 400);
+    
+    Tuple quantiles = new KLLQuantileFromSketch("0.5").call(merged);
+    assertRankWithin((Double)quantiles.get(0), 0.5, 10000);
+  }
+  
+  /**
+   * Checks that the value, taken from the values 1 to count, has a rank within the expected error of the quantile.
+   * The sketches compact at random, and with the default k of 200 the standard error of a rank is around 1.65%, 
+   * so the bound allows for three times that.
+   */
+  private void assertRankWithin(double value, double quantile, int count) {
+    double rankError = Math.abs(value/count - quantile);
+    assertTrue(rankError < 0.05, String.format("rank error %f for quantile %f", rankError, quantile));
+  }
+  
+  /**
+  
+  define Quantile datafu.pig.stats.UnsortedQuantile($QUANTILES);
+  
+  data_in = LOAD 'input' as (val:int);
+  
+  data_out = GROUP data_in ALL;
+  
+  data_out = FOREACH data_out GENERATE Quantile(data_in.val) as quantiles;
+  data_out = FOREACH data_out GENERATE FLATTEN(quantiles);
+  
+  STORE data_out into 'output';
+   */
+  @Multiline private String unsortedQuantileTest;
+  
+  @Test
+  public void unsortedQuantileTest() throws Exception
+  {
+    PigTest test = createPigTestFromString(unsortedQuantileTest,
+                                 "QUANTILES='0.0','0.25','0.5','0.75','1.0'");
+
+    String[] input = {"9","10","2","3","5","8","1","4","6","7"};
+    writeLinesToFile("input", input);
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    assertEquals(output.get(0).toString(), "(1.0,3.0,5.5,8.0,10.0)");
+  }
+  
+  @Test
+  public void unsortedQuantile2Test() throws Exception
+  {
+    PigTest test = createPigTestFromString(unsortedQuantileTest,
+                                 "QUANTILES='0.0013','0.0228','0.1587','0.5','0.8413','0.9772','0.9987'");
+
+    List<String> input = new ArrayList<String>();
+    for (int i=100000; i>=0; i--)
+    {
+      input.add(Integer.toString(i));
+    }
+    Collections.shuffle(input, new Random(1));
+    
+    writeLinesToFile("input", input.toArray(new String[0]));
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    assertEquals(output.get(0).toString(), "(130.0,2280.0,15870.0,50000.0,84130.0,97720.0,99870.0)");
+  }
+  
+  @Test
+  public void unsortedQuantileSpillTest() throws Exception
+  {
+    // a small memory budget forces the values to be spilled and the ranks to be found over several passes
+    PigTest test = createPigTestFromString(unsortedQuantileTest,
+                                 "QUANTILES='0.0013','0.0228','0.1587','0.5','0.8413','0.9772','0.9987','max_values_in_memory','1000'");
+
+    List<String> input = new ArrayList<String>();
+    for (int i=100000; i>=0; i--)
+    {
+      input.add(Integer.toString(i));
+      // repeated values
+      if (i % 1000 == 0)
+      {
+        input.add(Integer.toString(i));
+      }
+    }
+    Collections.shuffle(input, new Random(1));
+    
+    writeLinesToFile("input", input.toArray(new String[0]));
+        
+    test.runScript();
+    
+    List<Tuple> output = getLinesForAlias(test, "data_out", true);
+    
+    assertEquals(output.size(),1);
+    assertEquals(output.get(0).toString(), "(129.0,2279.0,15870.0,50000.0,84130.0,97721.0,99871.0)");
+  }
+  
+  @Test
+  public void unsortedQuantileExecTest() throws Exception
+  {
+    UnsortedQuantile quantile = new UnsortedQuantile("0.0","0.5","1.0","max_values_in_memory","10");
+    
+    for (int n : new int[] {5, 101})
+    {
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (int i=n; i>0; i--)
+      {
+        bag.add(TupleFactory.getInstance().newTuple((double)(i % 2 == 0 ? -i : i)));
+      }
+      Tuple result = quantile.exec(TupleFactory.getInstance().newTuple(bag));
+      Tuple expected = new Quantile("0.0","0.5","1.0").exec(TupleFactory.getInstance().newTuple(sorted(bag)));
+      Assert.assertEquals(expected, result);
+    }
+    
+    Assert.assertNull(quantile.exec(TupleFactory.getInstance().newTuple(BagFactory.getInstance().newDefaultBag())));
+  }
+  
+  @Test
+  public void unsortedQuantileSpecialValuesTest() throws Exception
+  {
+    // NaN and -0.0 are ordered as by Double.compare whether or not the values are spilled
+    double[] values = {Double.NaN, 1.0, -0.0, 0.0, -1.0, Double.NaN, 2.0};
+    for (String maxValuesInMemory : new String[] {"100", "2"})
+    {
+      UnsortedQuantile quantile = new UnsortedQuantile("0.0","0.25","0.4","0.5","0.8","1.0",
+                                                       "max_values_in_memory",maxValuesInMemory);
+      DataBag bag = BagFactory.getInstance().newDefaultBag();
+      for (double value : values)
+      {
+        bag.add(TupleFactory.getInstance().newTuple(value));
+      }
+      Tuple result = quantile.exec(TupleFactory.getInstance().newTuple(bag));
+      Assert.assertEquals(TupleFactory.getInstance().newTuple(Arrays.<Object>asList(-1.0, -0.0, 0.0, 1.0, Double.NaN, Double.NaN)), 
+                          result);
+    }
+  }
+  
+  private static DataBag sorted(DataBag bag)
+  {
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    for (Tuple t : bag)
+    {
+      tuples.add(t);
+    }
+    Collections.sort(tuples);
+    return BagFactory.getInstance().newDefaultBag(tuples);
+  }
+  
   @Test
   public void quantileParamsTest() throws Exception {
     List<Double> quantiles = QuantileUtil.getQuantilesFromParams("5");
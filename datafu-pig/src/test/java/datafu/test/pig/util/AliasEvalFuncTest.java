@@ -41,6 +41,8 @@ import org.testng.annotations.Test;
 
 import datafu.test.pig.PigTests;
 import datafu.pig.util.AliasableEvalFunc;
+import datafu.pig.util.FieldAccessor;
+import datafu.pig.util.FieldNotFound;
 
 public class AliasEvalFuncTest extends PigTests
 {
@@ -92,4 +94,47 @@ public class AliasEvalFuncTest extends PigTests
      DataBag outputBag = udf.exec(inputTuple);
      Assert.assertEquals(inputBag, outputBag);
   }
+
+  @Test
+  public void getFieldAccessorTest() throws Exception
+  {
+     ReportBuilder udf = new ReportBuilder();
+     udf.setUDFContextSignature("accessorTest");
+     List<Schema.FieldSchema> fieldSchemaList = new ArrayList<Schema.FieldSchema>();
+     fieldSchemaList.add(new Schema.FieldSchema("msisdn", DataType.LONG));
+     fieldSchemaList.add(new Schema.FieldSchema("ts", DataType.INTEGER));
+     fieldSchemaList.add(new Schema.FieldSchema("center_lon", DataType.DOUBLE));
+     Schema schemaTuple = new Schema(fieldSchemaList);
+     udf.outputSchema(new Schema(new Schema.FieldSchema(ReportBuilder.ORDERED_ROUTES, schemaTuple, DataType.BAG)));
+
+     FieldAccessor msisdn = udf.getFieldAccessor(ReportBuilder.ORDERED_ROUTES, "msisdn");
+     FieldAccessor ts = udf.getFieldAccessor(udf.getPrefixedAliasName(ReportBuilder.ORDERED_ROUTES, "ts"));
+     FieldAccessor centerLon = udf.getFieldAccessor(ReportBuilder.ORDERED_ROUTES, "center_lon");
+     assertEquals(msisdn.getPosition(), 0);
+     assertEquals(ts.getPosition(), 1);
+     assertEquals(centerLon.getPosition(), 2);
+     assertSame(udf.getFieldAccessor(ReportBuilder.ORDERED_ROUTES, "msisdn"), msisdn);
+
+     Tuple tuple = TupleFactory.getInstance().newTuple(Arrays.asList(71230000000L, 1382351612, null));
+     assertEquals(msisdn.getLong(tuple), Long.valueOf(71230000000L));
+     assertEquals(ts.getInteger(tuple), Integer.valueOf(1382351612));
+     assertEquals(ts.getLong(tuple), Long.valueOf(1382351612L));
+     assertNull(centerLon.getDouble(tuple));
+     assertEquals(centerLon.getDouble(tuple, 1.5), Double.valueOf(1.5));
+     assertEquals(udf.getLong(tuple, udf.getPrefixedAliasName(ReportBuilder.ORDERED_ROUTES, "msisdn")), msisdn.getLong(tuple));
+
+     try {
+       centerLon.getDouble(TupleFactory.getInstance().newTuple(Arrays.asList(71230000000L)));
+       fail("Expected FieldNotFound for a tuple missing the field");
+     }
+     catch (FieldNotFound e) {
+     }
+
+     try {
+       udf.getFieldAccessor(ReportBuilder.ORDERED_ROUTES, "unknown");
+       fail("Expected FieldNotFound for an unknown alias");
+     }
+     catch (FieldNotFound e) {
+     }
+  }
 }